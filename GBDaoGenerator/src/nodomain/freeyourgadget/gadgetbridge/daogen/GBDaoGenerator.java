@@ -45,7 +45,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        Schema schema = new Schema(20, MAIN_PACKAGE + ".entities");
+        Schema schema = new Schema(21, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -413,6 +413,7 @@ public class GBDaoGenerator {
         summary.addIntProperty("baseAltitude").javaDocGetterAndSetter("Temporary, bip-specific");
 
         summary.addStringProperty("gpxTrack").codeBeforeGetter(OVERRIDE);
+        summary.addStringProperty("binaryTrack").codeBeforeGetter(OVERRIDE);
 
         Property deviceId = summary.addLongProperty("deviceId").notNull().codeBeforeGetter(OVERRIDE).getProperty();
         summary.addToOne(device, deviceId);
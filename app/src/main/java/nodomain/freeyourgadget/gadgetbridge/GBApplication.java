@@ -56,9 +56,11 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBOpenHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.ChunkedMigrationRunner;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.BluetoothStateChangeReceiver;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
@@ -159,6 +161,8 @@ public class GBApplication extends Application {
             // setup db after the environment is set up, but don't do it in test mode
             // in test mode, it's done individually, see TestBase
             setupDatabase();
+            // large data migrations of schema updates continue in the background
+            ChunkedMigrationRunner.startIfPending(this);
         }
 
         // don't do anything here before we set up logging, otherwise
@@ -553,6 +557,7 @@ public static String packageNameToPebbleMsgSender(String packageName) {
         }
         boolean result = deleteOldActivityDatabase(context);
         result &= getContext().deleteDatabase(DATABASE_NAME);
+        NotificationFilterIndex.invalidate();
         return result;
     }
 
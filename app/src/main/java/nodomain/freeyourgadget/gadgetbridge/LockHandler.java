@@ -20,6 +20,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.ChunkedMigrationRunner;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
@@ -82,6 +83,8 @@ public class LockHandler implements DBHandler {
         }
         // this will create completely new db instances and in turn update this handler through #init()
         GBApplication.app().setupDatabase();
+        // e.g. an imported database of an older version, whose update scheduled migrations
+        ChunkedMigrationRunner.startIfPending(GBApplication.getContext());
     }
 
     @Override
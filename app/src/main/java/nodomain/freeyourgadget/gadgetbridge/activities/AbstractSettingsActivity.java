@@ -37,6 +37,7 @@ import java.util.Locale;
 import androidx.core.app.NavUtils;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 
 /**
@@ -67,6 +68,16 @@ public abstract class AbstractSettingsActivity extends AppCompatPreferenceActivi
     };
 
 
+    /**
+     * Sends the given configuration to every initialized device, as the settings are shared by
+     * all of them.
+     */
+    protected static void sendConfiguration(String config) {
+        for (GBDevice device : GBApplication.app().getDeviceManager().getInitializedDevices()) {
+            GBApplication.deviceService().forDevice(device).onSendConfiguration(config);
+        }
+    }
+
     /**
      * A preference value change listener that updates the preference's summary
      * to reflect its new value.
@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.SparseBooleanArray;
 import android.view.ActionMode;
@@ -38,6 +39,9 @@ import android.widget.Toast;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -45,20 +49,26 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Objects;
 
+import androidx.annotation.Nullable;
 import androidx.core.content.FileProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.adapter.ActivitySummariesAdapter;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackReader;
+import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class ActivitySummariesActivity extends AbstractListActivity<BaseActivitySummary> {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySummariesActivity.class);
 
     private GBDevice mGBDevice;
     private SwipeRefreshLayout swipeLayout;
@@ -70,6 +80,9 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
             switch (Objects.requireNonNull(action)) {
                 case GBDevice.ACTION_DEVICE_CHANGED:
                     GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                    if (device == null || !device.equals(mGBDevice)) {
+                        break;
+                    }
                     mGBDevice = device;
                     if (device.isBusy()) {
                         swipeLayout.setRefreshing(true);
@@ -127,14 +140,21 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Object item = parent.getItemAtPosition(position);
                 if (item != null) {
-                    ActivitySummary summary = (ActivitySummary) item;
+                    BaseActivitySummary summary = (BaseActivitySummary) item;
 
-                    String gpxTrack = summary.getGpxTrack();
-                    if (gpxTrack != null) {
-                        showTrack(gpxTrack);
-                    } else {
-                        GB.toast("This activity does not contain GPX tracks.", Toast.LENGTH_LONG, GB.INFO);
-                    }
+                    new GpxTrackTask() {
+                        @Override
+                        protected void onPostExecute(List<String> gpxTracks) {
+                            if (isFinishing()) {
+                                return;
+                            }
+                            if (!gpxTracks.isEmpty()) {
+                                showTrack(gpxTracks.get(0));
+                            } else {
+                                GB.toast("This activity does not contain GPX tracks.", Toast.LENGTH_LONG, GB.INFO);
+                            }
+                        }
+                    }.execute(summary);
                 }
             }
         });
@@ -176,7 +196,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
                         processed =  true;
                         break;
                     case R.id.activity_action_export:
-                        List<String> paths = new ArrayList<>();
+                        List<BaseActivitySummary> toExport = new ArrayList<>();
 
 
                         for(int i = 0; i<  checked.size(); i++) {
@@ -184,16 +204,18 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
                                 BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
                                 if (item != null) {
-                                    ActivitySummary summary = item;
-
-                                    String gpxTrack = summary.getGpxTrack();
-                                    if (gpxTrack != null) {
-                                        paths.add(gpxTrack);
-                                    }
+                                    toExport.add(item);
                                 }
                             }
                         }
-                        shareMultiple(paths);
+                        new GpxTrackTask() {
+                            @Override
+                            protected void onPostExecute(List<String> paths) {
+                                if (!isFinishing()) {
+                                    shareMultiple(paths);
+                                }
+                            }
+                        }.execute(toExport.toArray(new BaseActivitySummary[0]));
                         processed = true;
                         break;
                     case R.id.activity_action_select_all:
@@ -262,6 +284,71 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         refresh();
     }
 
+    /**
+     * Returns the path of the GPX track of the activity. If there is a binary track, the GPX
+     * file is generated from it, otherwise the recorded GPX track is returned as it is.
+     */
+    @Nullable
+    private String getGpxTrack(BaseActivitySummary summary) {
+        String gpxTrack = summary.getGpxTrack();
+        String binaryTrack = summary.getBinaryTrack();
+        if (binaryTrack == null) {
+            return gpxTrack;
+        }
+        File binaryFile = new File(binaryTrack);
+        if (!binaryFile.exists()) {
+            return gpxTrack;
+        }
+
+        File gpxFile;
+        if (gpxTrack != null && new File(gpxTrack).exists()) {
+            gpxFile = new File(gpxTrack);
+        } else {
+            String name = binaryFile.getName();
+            if (name.endsWith(BinaryTrackExporter.FILE_EXTENSION)) {
+                name = name.substring(0, name.length() - BinaryTrackExporter.FILE_EXTENSION.length());
+            }
+            gpxFile = new File(binaryFile.getParentFile(), name + ".gpx");
+        }
+        try {
+            GPXExporter exporter = new GPXExporter();
+            exporter.setCreator(GBApplication.app().getNameAndVersion());
+            BinaryTrackReader.export(binaryFile, exporter, gpxFile);
+        } catch (IOException | ActivityTrackExporter.GPXTrackEmptyException ex) {
+            GB.toast(getApplicationContext(), "Unable to create GPX track: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
+            return null;
+        }
+
+        String path = gpxFile.getAbsolutePath();
+        if (!path.equals(gpxTrack)) {
+            summary.setGpxTrack(path);
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                summary.update();
+            } catch (Exception ex) {
+                LOG.warn("Unable to save the path of the generated GPX track " + path, ex);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Looks up the GPX tracks of the given activities in the background, because they may have
+     * to be generated from the binary tracks first.
+     */
+    private class GpxTrackTask extends AsyncTask<BaseActivitySummary, Void, List<String>> {
+        @Override
+        protected List<String> doInBackground(BaseActivitySummary... summaries) {
+            List<String> gpxTracks = new ArrayList<>(summaries.length);
+            for (BaseActivitySummary summary : summaries) {
+                String gpxTrack = getGpxTrack(summary);
+                if (gpxTrack != null) {
+                    gpxTracks.add(gpxTrack);
+                }
+            }
+            return gpxTracks;
+        }
+    }
+
     private void showTrack(String gpxTrack) {
         try {
             AndroidUtils.viewFile(gpxTrack, Intent.ACTION_VIEW, this);
@@ -272,7 +359,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
     private void fetchTrackData() {
         if (mGBDevice.isInitialized() && !mGBDevice.isBusy()) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_GPS_TRACKS);
+            GBApplication.deviceService().forDevice(mGBDevice).onFetchRecordedData(RecordedDataTypes.TYPE_GPS_TRACKS);
         } else {
             swipeLayout.setRefreshing(false);
             if (!mGBDevice.isInitialized()) {
@@ -162,6 +162,6 @@ public class ConfigureAlarms extends AbstractGBActivity {
     }
 
     private void sendAlarmsToDevice() {
-        GBApplication.deviceService().onSetAlarms(mGBAlarmListAdapter.getAlarmList());
+        GBApplication.deviceService().forDevice(getGbDevice()).onSetAlarms(mGBAlarmListAdapter.getAlarmList());
     }
 }
@@ -18,9 +18,11 @@
 package nodomain.freeyourgadget.gadgetbridge.activities;
 
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.MenuItem;
@@ -40,8 +42,11 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IncrementalExporter;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.ImportExportSharedPreferences;
 
 
@@ -52,6 +57,7 @@ public class DbManagementActivity extends AbstractGBActivity {
 
     private Button exportDBButton;
     private Button importDBButton;
+    private Button mergeIncrementalExportButton;
     private Button deleteOldActivityDBButton;
     private Button deleteDBButton;
     private TextView dbPath;
@@ -78,6 +84,13 @@ public class DbManagementActivity extends AbstractGBActivity {
                 importDB();
             }
         });
+        mergeIncrementalExportButton = (Button) findViewById(R.id.mergeIncrementalExportButton);
+        mergeIncrementalExportButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mergeIncrementalExport();
+            }
+        });
 
         int oldDBVisibility = hasOldActivityDatabase() ? View.VISIBLE : View.GONE;
 
@@ -139,11 +152,11 @@ public class DbManagementActivity extends AbstractGBActivity {
     }
 
     private void exportDB() {
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+        try {
             exportShared();
             DBHelper helper = new DBHelper(this);
             File dir = FileUtils.getExternalFilesDir();
-            File destFile = helper.exportDB(dbHandler, dir);
+            File destFile = helper.exportDB(dir);
             GB.toast(this, getString(R.string.dbmanagementactivity_exported_to, destFile.getAbsolutePath()), Toast.LENGTH_LONG, GB.INFO);
         } catch (Exception ex) {
             GB.toast(this, getString(R.string.dbmanagementactivity_error_exporting_db, ex.getMessage()), Toast.LENGTH_LONG, GB.ERROR, ex);
@@ -180,6 +193,45 @@ public class DbManagementActivity extends AbstractGBActivity {
                 .show();
     }
 
+    private void mergeIncrementalExport() {
+        new AlertDialog.Builder(this)
+                .setCancelable(true)
+                .setTitle(R.string.dbmanagementactivity_merge_incremental_title)
+                .setMessage(R.string.dbmanagementactivity_merge_incremental_confirmation)
+                .setPositiveButton(R.string.dbmanagementactivity_merge, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String location = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
+                        if (location == null) {
+                            GB.toast(DbManagementActivity.this, getString(R.string.dbmanagementactivity_error_importing_db, getString(R.string.dbmanagementactivity_no_export_location)), Toast.LENGTH_LONG, GB.ERROR);
+                            return;
+                        }
+                        final Context context = getApplicationContext();
+                        final IncrementalExporter.Destination source = IncrementalExporter.forUri(context, Uri.parse(location));
+                        // reads the whole journal, possibly from a slow location
+                        new Thread("Gadgetbridge Incremental Merge") {
+                            @Override
+                            public void run() {
+                                try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                                    IncrementalExporter exporter = new IncrementalExporter(IncrementalExporter.getDefaultStateFile(context));
+                                    exporter.importInto(dbHandler.getDaoSession(), source);
+                                    NotificationFilterIndex.invalidate();
+                                    GB.toast(context, context.getString(R.string.dbmanagementactivity_import_successful), Toast.LENGTH_LONG, GB.INFO);
+                                } catch (Exception ex) {
+                                    GB.toast(context, context.getString(R.string.dbmanagementactivity_error_importing_db, ex.getMessage()), Toast.LENGTH_LONG, GB.ERROR, ex);
+                                }
+                            }
+                        }.start();
+                    }
+                })
+                .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                    }
+                })
+                .show();
+    }
+
     private void deleteActivityDatabase() {
         new AlertDialog.Builder(this)
                 .setCancelable(true)
@@ -50,6 +50,7 @@ import androidx.core.app.RemoteInput;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
@@ -183,7 +184,7 @@ public class DebugActivity extends AbstractGBActivity {
         rebootButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_REBOOT);
+                selectedDeviceService().onReset(GBDeviceProtocol.RESET_FLAGS_REBOOT);
             }
         });
 
@@ -198,7 +199,7 @@ public class DebugActivity extends AbstractGBActivity {
                         .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
                             @Override
                             public void onClick(DialogInterface dialog, int which) {
-                                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
+                                selectedDeviceService().onReset(GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
                             }
                         })
                         .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
@@ -215,7 +216,7 @@ public class DebugActivity extends AbstractGBActivity {
             @Override
             public void onClick(View v) {
                 GB.toast("Measuring heart rate, please wait...", Toast.LENGTH_LONG, GB.INFO);
-                GBApplication.deviceService().onHeartRateTest();
+                selectedDeviceService().onHeartRateTest();
             }
         });
 
@@ -273,7 +274,7 @@ public class DebugActivity extends AbstractGBActivity {
         fetchDebugLogsButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_DEBUGLOGS);
+                selectedDeviceService().onFetchRecordedData(RecordedDataTypes.TYPE_DEBUGLOGS);
             }
         });
 
@@ -314,8 +315,20 @@ public class DebugActivity extends AbstractGBActivity {
                 .show();
     }
 
+    /**
+     * The phone events are simulated for all devices, the other commands only go to the
+     * selected device.
+     */
+    private DeviceService selectedDeviceService() {
+        GBDevice device = GBApplication.app().getDeviceManager().getSelectedDevice();
+        if (device == null) {
+            return GBApplication.deviceService();
+        }
+        return GBApplication.deviceService().forDevice(device);
+    }
+
     private void testNewFunctionality() {
-        GBApplication.deviceService().onTestNewFunction();
+        selectedDeviceService().onTestNewFunction();
     }
 
     private void shareLog() {
@@ -78,8 +78,10 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
-                device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (device != null) {
+                GBDevice changedDevice = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                // once known, stick to the device, others may send updates as well
+                if (changedDevice != null && (device == null || device.equals(changedDevice))) {
+                    device = changedDevice;
                     refreshBusyState(device);
                     if (!device.isInitialized()) {
                         setInstallEnabled(false);
@@ -162,7 +164,7 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
             public void onClick(View v) {
                 setInstallEnabled(false);
                 installHandler.onStartInstall(device);
-                GBApplication.deviceService().onInstallApp(uri);
+                GBApplication.deviceService().forDevice(device).onInstallApp(uri);
             }
         });
 
@@ -180,7 +182,7 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
             if (device == null || !device.isConnected()) {
                 connect();
             } else {
-                GBApplication.deviceService().requestDeviceInfo();
+                GBApplication.deviceService().forDevice(device).requestDeviceInfo();
             }
         }
     }
@@ -41,6 +41,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntryDao;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class NotificationFilterActivity extends AbstractGBActivity {
@@ -203,6 +204,7 @@ public class NotificationFilterActivity extends AbstractGBActivity {
                     notificationFilterEntryDao.insert(notificationFilterEntry);
                 }
             }
+            NotificationFilterIndex.invalidate();
 
             Toast.makeText(NotificationFilterActivity.this, R.string.toast_notification_filter_saved_successfully, Toast.LENGTH_SHORT).show();
             NotificationFilterActivity.this.finish();
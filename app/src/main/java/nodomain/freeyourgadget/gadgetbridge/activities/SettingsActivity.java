@@ -55,6 +55,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandConst;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandPreferencesActivity;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.CannedMessagesSpec;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
@@ -212,7 +213,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MEASUREMENT_SYSTEM);
+                        sendConfiguration(PREF_MEASUREMENT_SYSTEM);
                     }
                 });
                 preference.setSummary(newVal.toString());
@@ -285,7 +286,9 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
                 cannedMessagesSpec.type = CannedMessagesSpec.TYPE_MISSEDCALLS;
                 cannedMessagesSpec.cannedMessages = messages.toArray(new String[messages.size()]);
-                GBApplication.deviceService().onSetCannedMessages(cannedMessagesSpec);
+                for (GBDevice device : GBApplication.app().getDeviceManager().getInitializedDevices()) {
+                    GBApplication.deviceService().forDevice(device).onSetCannedMessages(cannedMessagesSpec);
+                }
                 return true;
             }
         });
@@ -310,7 +313,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 Intent i = new Intent(Intent.ACTION_CREATE_DOCUMENT);
                 i.setType("application/x-sqlite3");
                 i.addCategory(Intent.CATEGORY_OPENABLE);
-                i.addFlags(Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+                i.addFlags(Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
                 String title = getApplicationContext().getString(R.string.choose_auto_export_location);
                 startActivityForResult(Intent.createChooser(i, title), FILE_REQUEST_CODE);
                 return true;
@@ -373,7 +376,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DISPLAY_ITEMS);
+                        sendConfiguration(PREF_MI2_DISPLAY_ITEMS);
                     }
                 });
                 return true;
@@ -387,7 +390,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DATEFORMAT);
+                        sendConfiguration(PREF_MI2_DATEFORMAT);
                     }
                 });
                 return true;
@@ -401,7 +404,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DISPLAY_ITEMS);
+                        sendConfiguration(PREF_MI2_DISPLAY_ITEMS);
                     }
                 });
                 return true;
@@ -415,7 +418,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI3_BAND_SCREEN_UNLOCK);
+                        sendConfiguration(PREF_MI3_BAND_SCREEN_UNLOCK);
                     }
                 });
                 return true;
@@ -429,7 +432,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DISPLAY_ITEMS);
+                        sendConfiguration(PREF_MI2_DISPLAY_ITEMS);
                     }
                 });
                 return true;
@@ -447,7 +450,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI3_NIGHT_MODE_START);
+                        sendConfiguration(PREF_MI3_NIGHT_MODE_START);
                     }
                 });
                 return true;
@@ -463,7 +466,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI3_NIGHT_MODE_END);
+                        sendConfiguration(PREF_MI3_NIGHT_MODE_END);
                     }
                 });
                 return true;
@@ -483,7 +486,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI3_NIGHT_MODE);
+                        sendConfiguration(PREF_MI3_NIGHT_MODE);
                     }
                 });
                 return true;
@@ -497,7 +500,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DISPLAY_ITEMS);
+                        sendConfiguration(PREF_MI2_DISPLAY_ITEMS);
                     }
                 });
                 return true;
@@ -515,7 +518,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION_START);
+                        sendConfiguration(PREF_DISCONNECT_NOTIFICATION_START);
                     }
                 });
                 return true;
@@ -531,7 +534,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION_END);
+                        sendConfiguration(PREF_DISCONNECT_NOTIFICATION_END);
                     }
                 });
                 return true;
@@ -550,7 +553,7 @@ public class SettingsActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION);
+                        sendConfiguration(PREF_DISCONNECT_NOTIFICATION);
                     }
                 });
                 return true;
@@ -587,7 +590,8 @@ public class SettingsActivity extends AbstractSettingsActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
         if (requestCode == FILE_REQUEST_CODE && intent != null) {
             Uri uri = intent.getData();
-            getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+            // read as well, to merge an incremental export from there
+            getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
             PreferenceManager
                     .getDefaultSharedPreferences(this)
                     .edit()
@@ -75,6 +75,10 @@ public abstract class AbstractAppManagerFragment extends Fragment {
 
     protected abstract boolean filterApp(GBDeviceApp gbDeviceApp);
 
+    public GBDevice getGBDevice() {
+        return mGBDevice;
+    }
+
     public void startDragging(RecyclerView.ViewHolder viewHolder) {
         appManagementTouchHelper.startDrag(viewHolder);
     }
@@ -249,7 +253,7 @@ public abstract class AbstractAppManagerFragment extends Fragment {
         LocalBroadcastManager.getInstance(getContext()).registerReceiver(mReceiver, filter);
 
         if (PebbleUtils.getFwMajor(mGBDevice.getFirmwareVersion()) < 3) {
-            GBApplication.deviceService().onAppInfoReq();
+            GBApplication.deviceService().forDevice(mGBDevice).onAppInfoReq();
             if (isCacheManager()) {
                 refreshList();
             }
@@ -296,7 +300,7 @@ public abstract class AbstractAppManagerFragment extends Fragment {
             ArrayList<UUID> concatUuids = AppManagerActivity.getUuidsFromFile(concatFilename);
             uuids.addAll(concatUuids);
         }
-        GBApplication.deviceService().onAppReorder(uuids.toArray(new UUID[uuids.size()]));
+        GBApplication.deviceService().forDevice(mGBDevice).onAppReorder(uuids.toArray(new UUID[uuids.size()]));
     }
 
     public boolean openPopupMenu(View view, GBDeviceApp deviceApp) {
@@ -390,7 +394,7 @@ public abstract class AbstractAppManagerFragment extends Fragment {
                     Intent refreshIntent = new Intent(AbstractAppManagerFragment.ACTION_REFRESH_APPLIST);
                     LocalBroadcastManager.getInstance(getContext()).sendBroadcast(refreshIntent);
                 }
-                GBApplication.deviceService().onAppDelete(selectedApp.getUUID());
+                GBApplication.deviceService().forDevice(mGBDevice).onAppDelete(selectedApp.getUUID());
                 return true;
             case R.id.appmanager_app_reinstall:
                 File cachePath;
@@ -400,27 +404,27 @@ public abstract class AbstractAppManagerFragment extends Fragment {
                     LOG.warn("could not get external dir while trying to access pbw cache.");
                     return true;
                 }
-                GBApplication.deviceService().onInstallApp(Uri.fromFile(cachePath));
+                GBApplication.deviceService().forDevice(mGBDevice).onInstallApp(Uri.fromFile(cachePath));
                 return true;
             case R.id.appmanager_health_activate:
-                GBApplication.deviceService().onInstallApp(Uri.parse("fake://health"));
+                GBApplication.deviceService().forDevice(mGBDevice).onInstallApp(Uri.parse("fake://health"));
                 return true;
             case R.id.appmanager_hrm_activate:
-                GBApplication.deviceService().onInstallApp(Uri.parse("fake://hrm"));
+                GBApplication.deviceService().forDevice(mGBDevice).onInstallApp(Uri.parse("fake://hrm"));
                 return true;
             case R.id.appmanager_weather_activate:
-                GBApplication.deviceService().onInstallApp(Uri.parse("fake://weather"));
+                GBApplication.deviceService().forDevice(mGBDevice).onInstallApp(Uri.parse("fake://weather"));
                 return true;
             case R.id.appmanager_health_deactivate:
             case R.id.appmanager_hrm_deactivate:
             case R.id.appmanager_weather_deactivate:
-                GBApplication.deviceService().onAppDelete(selectedApp.getUUID());
+                GBApplication.deviceService().forDevice(mGBDevice).onAppDelete(selectedApp.getUUID());
                 return true;
             case R.id.appmanager_weather_install_provider:
                 startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse("https://f-droid.org/app/ru.gelin.android.weather.notification")));
                 return true;
             case R.id.appmanager_app_configure:
-                GBApplication.deviceService().onAppStart(selectedApp.getUUID(), true);
+                GBApplication.deviceService().forDevice(mGBDevice).onAppStart(selectedApp.getUUID(), true);
 
                 Intent startIntent = new Intent(getContext().getApplicationContext(), ExternalPebbleJSActivity.class);
                 startIntent.putExtra(DeviceService.EXTRA_APP_UUID, selectedApp.getUUID());
@@ -99,7 +99,9 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
             switch (Objects.requireNonNull(action)) {
                 case GBDevice.ACTION_DEVICE_CHANGED:
                     GBDevice dev = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                    refreshBusyState(dev);
+                    if (dev != null && dev.equals(mGBDevice)) {
+                        refreshBusyState(dev);
+                    }
                     break;
             }
         }
@@ -275,7 +277,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
 
     private void fetchActivityData() {
         if (getDevice().isInitialized()) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+            GBApplication.deviceService().forDevice(getDevice()).onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
         } else {
             swipeLayout.setRefreshing(false);
             GB.toast(this, getString(R.string.device_not_connected), Toast.LENGTH_SHORT, GB.ERROR);
@@ -347,7 +347,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
         renderCharts();
 
         // have to enable it again and again to keep it measureing
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(true);
+        getDeviceService().onEnableRealtimeHeartRateMeasurement(true);
     }
 
     private int getPulseIntervalMillis() {
@@ -360,14 +360,22 @@ public class LiveActivityFragment extends AbstractChartFragment {
         enableRealtimeTracking(true);
     }
 
+    private DeviceService getDeviceService() {
+        ChartsHost host = getChartsHost();
+        if (host == null) {
+            return GBApplication.deviceService();
+        }
+        return GBApplication.deviceService().forDevice(host.getDevice());
+    }
+
     private void enableRealtimeTracking(boolean enable) {
         if (enable && pulseScheduler != null) {
             // already running
             return;
         }
 
-        GBApplication.deviceService().onEnableRealtimeSteps(enable);
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(enable);
+        getDeviceService().onEnableRealtimeSteps(enable);
+        getDeviceService().onEnableRealtimeHeartRateMeasurement(enable);
         if (enable) {
             if (getActivity() != null) {
                 getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
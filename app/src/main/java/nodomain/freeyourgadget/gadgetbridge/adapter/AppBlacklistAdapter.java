@@ -19,8 +19,7 @@ package nodomain.freeyourgadget.gadgetbridge.adapter;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,15 +33,18 @@ import android.widget.Toast;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import androidx.recyclerview.widget.RecyclerView;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity;
+import nodomain.freeyourgadget.gadgetbridge.util.AppMetadataCache;
+import nodomain.freeyourgadget.gadgetbridge.util.AppMetadataCache.AppMetadata;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 import static nodomain.freeyourgadget.gadgetbridge.GBApplication.packageNameToPebbleMsgSender;
@@ -51,44 +53,54 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
 
     public static final String STRING_EXTRA_PACKAGE_NAME = "packageName";
 
-    private List<ApplicationInfo> applicationInfoList;
+    private List<AppMetadata> applicationInfoList = new ArrayList<>();
     private final int mLayoutId;
     private final Context mContext;
-    private final PackageManager mPm;
-    private final IdentityHashMap<ApplicationInfo, String> mNameMap;
+    private final AppMetadataCache mAppMetadata;
+    private final Map<String, String> mNameMap = new HashMap<>();
 
     private ApplicationFilter applicationFilter;
 
     public AppBlacklistAdapter(int layoutId, Context context) {
         mLayoutId = layoutId;
         mContext = context;
-        mPm = context.getPackageManager();
+        mAppMetadata = AppMetadataCache.getInstance(context);
 
-        applicationInfoList = mPm.getInstalledApplications(PackageManager.GET_META_DATA);
+        // the list stays empty until the apps are loaded, which may take a while on a cold cache
+        mAppMetadata.loadInstalledApps(new AppMetadataCache.InstalledAppsCallback() {
+            @Override
+            public void onInstalledAppsLoaded(List<AppMetadata> apps) {
+                setApps(apps);
+            }
+        });
+    }
+
+    private void setApps(List<AppMetadata> apps) {
+        applicationInfoList = apps;
 
         // sort the package list by label and blacklist status
-        mNameMap = new IdentityHashMap<>(applicationInfoList.size());
-        for (ApplicationInfo ai : applicationInfoList) {
-            CharSequence name = mPm.getApplicationLabel(ai);
-            if (name == null) {
-                name = ai.packageName;
-            }
+        mNameMap.clear();
+        for (AppMetadata ai : applicationInfoList) {
+            String name = ai.label;
             if (GBApplication.appIsNotifBlacklisted(ai.packageName) || GBApplication.appIsPebbleBlacklisted(packageNameToPebbleMsgSender(ai.packageName))) {
                 // sort blacklisted first by prefixing with a '!'
                 name = "!" + name;
             }
-            mNameMap.put(ai, name.toString());
+            mNameMap.put(ai.packageName, name);
         }
 
-        Collections.sort(applicationInfoList, new Comparator<ApplicationInfo>() {
+        Collections.sort(applicationInfoList, new Comparator<AppMetadata>() {
             @Override
-            public int compare(ApplicationInfo ai1, ApplicationInfo ai2) {
-                final String s1 = mNameMap.get(ai1);
-                final String s2 = mNameMap.get(ai2);
+            public int compare(AppMetadata ai1, AppMetadata ai2) {
+                final String s1 = mNameMap.get(ai1.packageName);
+                final String s2 = mNameMap.get(ai2.packageName);
                 return s1.compareTo(s2);
             }
         });
 
+        // the filter keeps a copy of the list it was created with
+        applicationFilter = null;
+        notifyDataSetChanged();
     }
 
     @Override
@@ -99,11 +111,11 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
 
     @Override
     public void onBindViewHolder(final AppBlacklistAdapter.AppBLViewHolder holder, int position) {
-        final ApplicationInfo appInfo = applicationInfoList.get(position);
+        final AppMetadata appInfo = applicationInfoList.get(position);
 
         holder.deviceAppVersionAuthorLabel.setText(appInfo.packageName);
-        holder.deviceAppNameLabel.setText(mNameMap.get(appInfo));
-        holder.deviceImageView.setImageDrawable(appInfo.loadIcon(mPm));
+        holder.deviceAppNameLabel.setText(mNameMap.get(appInfo.packageName));
+        setIcon(holder, appInfo.packageName);
 
         holder.blacklist_checkbox.setChecked(GBApplication.appIsNotifBlacklisted(appInfo.packageName));
         holder.blacklist_pebble_checkbox.setChecked(GBApplication.appIsPebbleBlacklisted(packageNameToPebbleMsgSender(appInfo.packageName)));
@@ -148,14 +160,35 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
         });
     }
 
-    public void blacklistAllNotif() {
-        Set<String> apps_blacklist = new HashSet<>();
-        List<ApplicationInfo> allApps = mPm.getInstalledApplications(PackageManager.GET_META_DATA);
-        for (ApplicationInfo ai : allApps) {
-            apps_blacklist.add(ai.packageName);
+    private void setIcon(final AppBLViewHolder holder, final String packageName) {
+        holder.packageName = packageName;
+        Bitmap icon = mAppMetadata.getCachedIcon(packageName);
+        holder.deviceImageView.setImageBitmap(icon);
+        if (icon == null) {
+            mAppMetadata.loadIcon(packageName, new AppMetadataCache.IconCallback() {
+                @Override
+                public void onIconLoaded(String packageName, Bitmap icon) {
+                    // the view might have been reused for another app in the meantime
+                    if (packageName.equals(holder.packageName)) {
+                        holder.deviceImageView.setImageBitmap(icon);
+                    }
+                }
+            });
         }
-        GBApplication.setAppsNotifBlackList(apps_blacklist);
-        notifyDataSetChanged();
+    }
+
+    public void blacklistAllNotif() {
+        mAppMetadata.loadInstalledApps(new AppMetadataCache.InstalledAppsCallback() {
+            @Override
+            public void onInstalledAppsLoaded(List<AppMetadata> apps) {
+                Set<String> apps_blacklist = new HashSet<>();
+                for (AppMetadata ai : apps) {
+                    apps_blacklist.add(ai.packageName);
+                }
+                GBApplication.setAppsNotifBlackList(apps_blacklist);
+                notifyDataSetChanged();
+            }
+        });
     }
 
     public void whitelistAllNotif() {
@@ -184,6 +217,7 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
         final TextView deviceAppVersionAuthorLabel;
         final TextView deviceAppNameLabel;
         final ImageView btnConfigureApp;
+        String packageName;
 
         AppBLViewHolder(View itemView) {
             super(itemView);
@@ -201,10 +235,10 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
     private class ApplicationFilter extends Filter {
 
         private final AppBlacklistAdapter adapter;
-        private final List<ApplicationInfo> originalList;
-        private final List<ApplicationInfo> filteredList;
+        private final List<AppMetadata> originalList;
+        private final List<AppMetadata> filteredList;
 
-        private ApplicationFilter(AppBlacklistAdapter adapter, List<ApplicationInfo> originalList) {
+        private ApplicationFilter(AppBlacklistAdapter adapter, List<AppMetadata> originalList) {
             super();
             this.originalList = new ArrayList<>(originalList);
             this.filteredList = new ArrayList<>();
@@ -221,9 +255,8 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
             else {
                 final String filterPattern = filter.toString().toLowerCase().trim();
 
-                for (ApplicationInfo ai : originalList) {
-                    CharSequence name = mPm.getApplicationLabel(ai);
-                    if (name.toString().contains(filterPattern) ||
+                for (AppMetadata ai : originalList) {
+                    if (ai.label.contains(filterPattern) ||
                             (ai.packageName.contains(filterPattern))) {
                         filteredList.add(ai);
                     }
@@ -238,7 +271,7 @@ public class AppBlacklistAdapter extends RecyclerView.Adapter<AppBlacklistAdapte
         @Override
         protected void publishResults(CharSequence charSequence, Filter.FilterResults filterResults) {
             adapter.applicationInfoList.clear();
-            adapter.applicationInfoList.addAll((List<ApplicationInfo>) filterResults.values);
+            adapter.applicationInfoList.addAll((List<AppMetadata>) filterResults.values);
             adapter.notifyDataSetChanged();
         }
     }
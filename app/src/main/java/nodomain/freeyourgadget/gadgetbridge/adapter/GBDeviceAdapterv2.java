@@ -111,7 +111,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
             public boolean onLongClick(View v) {
                 if (device.getState() != GBDevice.State.NOT_CONNECTED) {
                     showTransientSnackbar(R.string.controlcenter_snackbar_disconnecting);
-                    GBApplication.deviceService().disconnect();
+                    GBApplication.deviceService().forDevice(device).disconnect();
                 }
                 return true;
             }
@@ -158,7 +158,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                         @Override
                                                         public void onClick(View v) {
                                                             showTransientSnackbar(R.string.busy_task_fetch_activity_data);
-                                                            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+                                                            GBApplication.deviceService().forDevice(device).onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
                                                         }
                                                     }
         );
@@ -172,7 +172,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                          @Override
                                                          public void onClick(View v) {
                                                              showTransientSnackbar(R.string.controlcenter_snackbar_requested_screenshot);
-                                                             GBApplication.deviceService().onScreenshotReq();
+                                                             GBApplication.deviceService().forDevice(device).onScreenshotReq();
                                                          }
                                                      }
         );
@@ -274,17 +274,17 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                          context.startActivity(startIntent);
                                                          return;
                                                      }
-                                                     GBApplication.deviceService().onFindDevice(true);
+                                                     GBApplication.deviceService().forDevice(device).onFindDevice(true);
                                                      //TODO: extract string resource if we like this solution.
                                                      Snackbar.make(parent, R.string.control_center_find_lost_device, Snackbar.LENGTH_INDEFINITE).setAction("Found it!", new View.OnClickListener() {
                                                          @Override
                                                          public void onClick(View v) {
-                                                             GBApplication.deviceService().onFindDevice(false);
+                                                             GBApplication.deviceService().forDevice(device).onFindDevice(false);
                                                          }
                                                      }).setCallback(new Snackbar.Callback() {
                                                          @Override
                                                          public void onDismissed(Snackbar snackbar, int event) {
-                                                             GBApplication.deviceService().onFindDevice(false);
+                                                             GBApplication.deviceService().forDevice(device).onFindDevice(false);
                                                              super.onDismissed(snackbar, event);
                                                          }
                                                      }).show();
@@ -352,7 +352,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                 } else {
                                     device.setExtraInfo("fm_frequency", frequency);
                                     fmFrequencyLabel.setText(String.format(Locale.getDefault(), "%.1f", (float) device.getExtraInfo("fm_frequency")));
-                                    GBApplication.deviceService().onSetFmFrequency(frequency);
+                                    GBApplication.deviceService().forDevice(device).onSetFmFrequency(frequency);
                                 }
                             }
                         });
@@ -403,7 +403,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                         public void onColorSelected(int dialogId, int color) {
                             ledColor.setColor(color);
                             device.setExtraInfo("led_color", color);
-                            GBApplication.deviceService().onSetLedColor(color);
+                            GBApplication.deviceService().forDevice(device).onSetLedColor(color);
                         }
 
                         @Override
@@ -0,0 +1,42 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Interface for migrating the data of a potentially large table, in the background after
+ * the database was opened. Schema changes still belong into DBUpdateScript#upgradeSchema(),
+ * which schedules the data migration with ChunkedMigrationRunner#schedule().
+ * <p/>
+ * The table is processed in ascending order of an integer key column, ideally the first
+ * primary key column, in chunks that are each committed together with the progress. The app
+ * keeps using the database meanwhile, so it has to cope with partially migrated tables, and
+ * rows it wrote in the new format may be migrated again.
+ * <p/>
+ * Implementations must have a public, no-arg constructor.
+ */
+public interface ChunkedMigration {
+    String getTable();
+
+    String getKeyColumn();
+
+    /**
+     * Migrates the rows with fromKeyExclusive < key <= toKeyInclusive. Runs in a transaction.
+     */
+    void migrateChunk(SQLiteDatabase database, long fromKeyExclusive, long toKeyInclusive);
+}
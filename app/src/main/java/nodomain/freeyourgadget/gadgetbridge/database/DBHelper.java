@@ -20,13 +20,19 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -59,12 +65,15 @@ import nodomain.freeyourgadget.gadgetbridge.entities.TagDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.entities.UserAttributes;
 import nodomain.freeyourgadget.gadgetbridge.entities.UserDao;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 import nodomain.freeyourgadget.gadgetbridge.model.ValidByDate;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionInputStream;
+import nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 
@@ -77,6 +86,8 @@ import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
  */
 public class DBHelper {
     private static final Logger LOG = LoggerFactory.getLogger(DBHelper.class);
+    private static final int MAX_CHECKPOINT_ATTEMPTS = 5;
+    private static final long CHECKPOINT_RETRY_DELAY_MILLIS = 100;
 
     private final Context context;
 
@@ -103,34 +114,177 @@ public class DBHelper {
         return path;
     }
 
-    public File exportDB(DBHandler dbHandler, File toDir) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+    /**
+     * Copies the database into the given directory. The caller must not hold the lock from
+     * GBApplication#acquireDB(), see snapshotDB().
+     */
+    public File exportDB(File toDir) throws Exception {
+        File sourceFile = context.getDatabasePath(GBApplication.DATABASE_NAME);
+        File destFile = new File(toDir, sourceFile.getName());
+        if (destFile.exists()) {
+            File backup = new File(toDir, destFile.getName() + "_" + getDate());
+            destFile.renameTo(backup);
+        } else if (!toDir.exists()) {
+            if (!toDir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
+            }
+        }
+
+        snapshotDB(destFile);
+        return destFile;
+    }
+
+    public void exportDB(OutputStream dest) throws Exception {
+        exportDB(dest, false);
+    }
+
+    /**
+     * Writes the database to the given stream, optionally compressed with
+     * FramedCompressionOutputStream. importDB() accepts both.
+     * The caller must not hold the lock from GBApplication#acquireDB(), see snapshotDB().
+     */
+    public void exportDB(OutputStream dest, boolean compress) throws Exception {
+        File snapshot = createSnapshotFile();
+        try {
+            snapshotDB(snapshot);
+            exportSnapshot(snapshot, dest, compress);
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    /**
+     * Writes a snapshot taken with snapshotDB() to the given stream, which is not closed.
+     * Does not need the database lock.
+     */
+    public static void exportSnapshot(File snapshot, OutputStream dest, boolean compress) throws IOException {
+        if (!compress) {
+            FileUtils.copyFileToStream(snapshot, dest);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        FramedCompressionOutputStream out = new FramedCompressionOutputStream(dest);
+        FileUtils.copyFileToStream(snapshot, out);
+        out.finish();
+        LOG.info("Compressed database of " + snapshot.length() + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Returns a file in the cache directory to take a snapshot of the database into.
+     */
+    public File createSnapshotFile() throws IOException {
+        return File.createTempFile("gadgetbridge-export", ".db", context.getCacheDir());
+    }
+
+    /**
+     * Writes a consistent copy of the database to the given file, without closing the database.
+     * The copy is read through a separate read-only connection, so that the lock from
+     * GBApplication#acquireDB() is only taken for a moment and the app can keep writing while
+     * the copy is made. The caller must not hold that lock, or it is held for the whole copy.
+     */
+    public void snapshotDB(File destFile) throws Exception {
+        long start = System.currentTimeMillis();
+        SQLiteDatabase snapshotDb = SQLiteDatabase.openDatabase(
+                context.getDatabasePath(GBApplication.DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READONLY);
         try {
-            File sourceFile = new File(dbPath);
-            File destFile = new File(toDir, sourceFile.getName());
-            if (destFile.exists()) {
-                File backup = new File(toDir, destFile.getName() + "_" + getDate());
-                destFile.renameTo(backup);
-            } else if (!toDir.exists()) {
-                if (!toDir.mkdirs()) {
-                    throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
+            // without a WAL, VACUUM INTO would block writers just like a copy, see copyDB()
+            if (supportsVacuumInto(snapshotDb) && isWriteAheadLogging(snapshotDb)) {
+                // VACUUM INTO refuses to overwrite
+                if (destFile.exists() && !destFile.delete()) {
+                    throw new IOException("Unable to delete " + destFile.getAbsolutePath());
                 }
+                // reads everything in a single read transaction of its own, writers only go to the WAL
+                snapshotDb.execSQL("VACUUM INTO ?", new Object[]{destFile.getAbsolutePath()});
+            } else {
+                copyDB(snapshotDb, destFile);
             }
-
-            FileUtils.copyFile(sourceFile, destFile);
-            return destFile;
         } finally {
-            dbHandler.openDb();
+            snapshotDb.close();
         }
+        LOG.info("Took snapshot of database in " + (System.currentTimeMillis() - start) + "ms");
     }
 
-    public void exportDB(DBHandler dbHandler, OutputStream dest) throws IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+    /**
+     * Copies the database file for SQLite versions without VACUUM INTO, or without a WAL.
+     */
+    private void copyDB(SQLiteDatabase snapshotDb, File destFile) throws Exception {
+        boolean inReadTransaction = false;
         try {
-            File source = new File(dbPath);
-            FileUtils.copyFileToStream(source, dest);
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                SQLiteDatabase db = dbHandler.getDatabase();
+                if (!isWriteAheadLogging(db)) {
+                    // Without a WAL a reader blocks all writers, better let them wait for the lock
+                    // than fail while busy, so this is the one case where it is held for the copy.
+                    db.beginTransactionNonExclusive();
+                    try {
+                        FileUtils.copyFile(new File(db.getPath()), destFile);
+                    } finally {
+                        db.endTransaction();
+                    }
+                    return;
+                }
+                checkpoint(db);
+                // A raw SAVEPOINT starts a deferred transaction (BEGIN would be made exclusive and
+                // fail on a read-only connection), the query then takes the read lock. The WAL is
+                // empty now, so until the transaction ends no checkpoint can change the database
+                // file, while the app keeps appending to the WAL.
+                snapshotDb.execSQL("SAVEPOINT snapshot");
+                inReadTransaction = true;
+                try (Cursor cursor = snapshotDb.rawQuery("SELECT count(*) FROM sqlite_master", null)) {
+                    cursor.moveToFirst();
+                }
+            }
+            FileUtils.copyFile(new File(snapshotDb.getPath()), destFile);
         } finally {
-            dbHandler.openDb();
+            if (inReadTransaction) {
+                snapshotDb.execSQL("RELEASE snapshot");
+            }
+        }
+    }
+
+    private static boolean isWriteAheadLogging(SQLiteDatabase db) {
+        // Android may use a WAL without it being enabled explicitly (compatibility WAL)
+        try (Cursor cursor = db.rawQuery("PRAGMA journal_mode", null)) {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        }
+    }
+
+    /**
+     * Moves everything committed into the database file. We hold the lock, so nobody commits in
+     * between, but a reader may still keep the checkpoint from completing for a moment.
+     */
+    private static void checkpoint(SQLiteDatabase db) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            // the columns are busy, log frames and checkpointed frames
+            try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+                if (cursor.moveToFirst() && cursor.getInt(0) == 0) {
+                    return;
+                }
+            }
+            if (attempt == MAX_CHECKPOINT_ATTEMPTS) {
+                throw new IOException("Unable to checkpoint the database, it is busy");
+            }
+            LOG.info("Database busy while checkpointing, attempt " + attempt);
+            try {
+                Thread.sleep(CHECKPOINT_RETRY_DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while checkpointing the database", ex);
+            }
+        }
+    }
+
+    private static boolean supportsVacuumInto(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT sqlite_version()", null)) {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            String[] version = cursor.getString(0).split("\\.");
+            int major = Integer.parseInt(version[0]);
+            int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 27);
+        } catch (NumberFormatException ex) {
+            return false;
         }
     }
 
@@ -139,12 +293,54 @@ public class DBHelper {
     }
 
     public void importDB(DBHandler dbHandler, File fromFile) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+        try (InputStream in = new FileInputStream(fromFile)) {
+            importDB(dbHandler, in);
+        }
+    }
+
+    /**
+     * Replaces the database with a plain or compressed export read from the given stream.
+     * The export is unpacked and checked before the current database is overwritten.
+     */
+    public void importDB(DBHandler dbHandler, InputStream source) throws IllegalStateException, IOException {
+        File importFile = File.createTempFile("gadgetbridge-import", ".db", context.getCacheDir());
         try {
-            File toFile = new File(dbPath);
-            FileUtils.copyFile(fromFile, toFile);
+            InputStream in = new BufferedInputStream(source);
+            byte[] header = new byte[4];
+            in.mark(header.length);
+            new DataInputStream(in).readFully(header);
+            in.reset();
+            if (FramedCompressionInputStream.isFramed(header)) {
+                in = new FramedCompressionInputStream(in);
+            }
+            try (OutputStream out = new FileOutputStream(importFile)) {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            checkIntegrity(importFile);
+
+            String dbPath = getClosedDBPath(dbHandler);
+            try {
+                FileUtils.copyFile(importFile, new File(dbPath));
+            } finally {
+                dbHandler.openDb();
+                NotificationFilterIndex.invalidate();
+            }
         } finally {
-            dbHandler.openDb();
+            importFile.delete();
+        }
+    }
+
+    private static void checkIntegrity(File dbFile) throws IOException {
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY)) {
+            if (!db.isDatabaseIntegrityOk()) {
+                throw new IOException("Database to import is corrupted");
+            }
+        } catch (SQLiteException ex) {
+            throw new IOException("Not a valid database: " + ex.getMessage(), ex);
         }
     }
 
@@ -0,0 +1,824 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescTagLinkDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescriptionDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.AlarmDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceAttributesDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.TagDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.UserAttributesDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.UserDao;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Exports the database incrementally into a single document, e.g. the auto export location,
+ * which the storage access framework grants as one file only.
+ *
+ * Instead of a manifest with one file per segment, the document is a journal of segments. The
+ * tables whose primary key starts with a timestamp, like the samples, are split into one segment
+ * per week, the other tables are small and form one segment each. A segment is appended when its
+ * SHA-1 differs from the one of the last export, which is kept in a local state file; a week that
+ * no longer has any rows is appended as an empty segment. So inserted, updated and deleted rows
+ * are all exported, while the unchanged weeks are skipped. The journal is written from scratch
+ * when it cannot be appended to, or when it has grown to twice the size of a full export.
+ *
+ * Import merges only the last segment of each table and week back into the database, so earlier
+ * versions of a segment neither overwrite newer rows nor bring back deleted ones.
+ */
+public class IncrementalExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalExporter.class);
+
+    public static final String STATE_FILE_NAME = "incremental-export.state";
+
+    static final int MAGIC = 0x47424a4c; // "GBJL"
+    static final int VERSION = 2;
+    static final int SEGMENT = 2;
+    static final int ROW = 1;
+    static final int END = 0;
+    // the range of a segment with a whole table
+    static final long WHOLE_TABLE = Long.MIN_VALUE;
+
+    // the time range of a segment, in seconds like the timestamps
+    static final int RANGE_SECONDS = 7 * 24 * 60 * 60;
+
+    // keys of the state file that are no segments, table names never start with '#'
+    private static final String STATE_DESTINATION = "#destination";
+    private static final String STATE_JOURNAL_BYTES = "#journalBytes";
+    private static final String STATE_FULL_BYTES = "#fullBytes";
+
+    private static final String COLUMN_ID = DeviceDao.Properties.Id.columnName;
+    private static final String COLUMN_DEVICE_ID = AlarmDao.Properties.DeviceId.columnName;
+    // the first primary key column of the tables that are split into time ranges
+    private static final List<String> RANGE_COLUMNS = Arrays.asList(
+            MiBandActivitySampleDao.Properties.Timestamp.columnName,
+            PebbleHealthActivityOverlayDao.Properties.TimestampFrom.columnName);
+
+    private final File stateFile;
+
+    public static class Result {
+        public int segments;
+        public int segmentsWritten;
+        public long rows;
+        public boolean rewritten;
+
+        @Override
+        public String toString() {
+            return segments + " segments with " + rows + " rows, " + segmentsWritten + " written"
+                    + (rewritten ? " from scratch" : " appended");
+        }
+    }
+
+    /**
+     * Where the journal is written to and read from.
+     */
+    public interface Destination {
+        /**
+         * Identifies the destination, a different one starts a new journal.
+         */
+        String getId();
+
+        /**
+         * Opens the journal for appending, throws if the destination does not support that.
+         */
+        OutputStream openForAppend() throws IOException;
+
+        /**
+         * Opens the journal for writing it from scratch.
+         */
+        OutputStream openForRewrite() throws IOException;
+
+        InputStream openForReading() throws IOException;
+    }
+
+    /**
+     * A destination for a document of the storage access framework, like the auto export
+     * location.
+     */
+    public static Destination forUri(final Context context, final Uri uri) {
+        return new Destination() {
+            @Override
+            public String getId() {
+                return uri.toString();
+            }
+
+            @Override
+            public OutputStream openForAppend() throws IOException {
+                return open("wa");
+            }
+
+            @Override
+            public OutputStream openForRewrite() throws IOException {
+                return open("wt");
+            }
+
+            private OutputStream open(String mode) throws IOException {
+                OutputStream out;
+                try {
+                    out = context.getContentResolver().openOutputStream(uri, mode);
+                } catch (IllegalArgumentException | UnsupportedOperationException | SecurityException ex) {
+                    throw new IOException("Unable to open " + uri + " with mode " + mode, ex);
+                }
+                if (out == null) {
+                    throw new IOException("Unable to open output stream for " + uri);
+                }
+                return out;
+            }
+
+            @Override
+            public InputStream openForReading() throws IOException {
+                InputStream in = context.getContentResolver().openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Unable to open input stream for " + uri);
+                }
+                return in;
+            }
+        };
+    }
+
+    public static Destination forFile(final File file) {
+        return new Destination() {
+            @Override
+            public String getId() {
+                return file.getAbsolutePath();
+            }
+
+            @Override
+            public OutputStream openForAppend() throws IOException {
+                return new FileOutputStream(file, true);
+            }
+
+            @Override
+            public OutputStream openForRewrite() throws IOException {
+                return new FileOutputStream(file);
+            }
+
+            @Override
+            public InputStream openForReading() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * @param stateFile where the hashes of the exported segments are kept between exports
+     */
+    public IncrementalExporter(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Returns the state file of the periodic export.
+     */
+    public static File getDefaultStateFile(Context context) {
+        return new File(context.getFilesDir(), STATE_FILE_NAME);
+    }
+
+    /**
+     * Exports all tables of the database. The database lock is only held while reading a
+     * segment, not while writing it to the destination.
+     */
+    public Result export(Destination destination) throws Exception {
+        long start = System.currentTimeMillis();
+        Map<String, String> previous = readState();
+        Map<String, String> current = new LinkedHashMap<>();
+        Result result = new Result();
+
+        long journalBytes = parseLong(previous.remove(STATE_JOURNAL_BYTES));
+        long fullBytes = parseLong(previous.remove(STATE_FULL_BYTES));
+        result.rewritten = !destination.getId().equals(previous.remove(STATE_DESTINATION))
+                || journalBytes <= 0 || journalBytes > 2 * fullBytes;
+
+        List<String> tables = new ArrayList<>();
+        Map<String, String[]> columns = new HashMap<>();
+        Map<String, String[]> pkColumns = new HashMap<>();
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            for (AbstractDao<?, ?> dao : handler.getDaoSession().getAllDaos()) {
+                tables.add(dao.getTablename());
+                columns.put(dao.getTablename(), dao.getAllColumns());
+                pkColumns.put(dao.getTablename(), dao.getPkColumns());
+            }
+        }
+
+        OutputStream out = null;
+        if (!result.rewritten) {
+            try {
+                out = destination.openForAppend();
+            } catch (IOException ex) {
+                LOG.info("Unable to append to " + destination.getId() + ", writing it from scratch: " + ex.getMessage());
+                result.rewritten = true;
+            }
+        }
+        if (result.rewritten) {
+            previous.clear();
+            journalBytes = 0;
+            out = destination.openForRewrite();
+        }
+
+        // the state is only replaced after all segments are written
+        deleteState();
+        fullBytes = 5; // MAGIC and VERSION
+        try (DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(out))) {
+            if (result.rewritten) {
+                journal.writeInt(MAGIC);
+                journal.writeByte(VERSION);
+            }
+            for (String table : tables) {
+                String[] pk = pkColumns.get(table);
+                if (pk.length > 0 && RANGE_COLUMNS.contains(pk[0])) {
+                    fullBytes += exportRanges(table, columns.get(table), pk, journal, previous, current, result);
+                } else {
+                    String sql = "SELECT " + TextUtils.join(",", columns.get(table)) + " FROM " + table + orderBy(pk);
+                    fullBytes += exportSegment(table, WHOLE_TABLE, columns.get(table), sql, null, journal, previous, current, result);
+                }
+            }
+            journal.flush();
+            journalBytes += journal.size();
+        }
+
+        current.put(STATE_DESTINATION, destination.getId());
+        current.put(STATE_JOURNAL_BYTES, String.valueOf(journalBytes));
+        current.put(STATE_FULL_BYTES, String.valueOf(fullBytes));
+        writeState(current);
+        LOG.info("Incremental export to " + destination.getId() + " in " + (System.currentTimeMillis() - start) + "ms: " + result);
+        return result;
+    }
+
+    /**
+     * Exports the table in segments of RANGE_SECONDS by its first primary key column, and appends
+     * empty segments for the ranges that had rows at the last export, but have none now.
+     *
+     * @return the size of all segments of the table
+     */
+    private long exportRanges(String table, String[] columns, String[] pkColumns, DataOutputStream journal, Map<String, String> previous, Map<String, String> current, Result result) throws Exception {
+        String rangeColumn = pkColumns[0];
+        String sql = "SELECT " + TextUtils.join(",", columns) + " FROM " + table
+                + " WHERE " + rangeColumn + " >= ? AND " + rangeColumn + " < ?" + orderBy(pkColumns);
+        String nextSql = "SELECT min(" + rangeColumn + ") FROM " + table + " WHERE " + rangeColumn + " >= ?";
+        long bytes = 0;
+        Long next = queryLong(nextSql, Long.MIN_VALUE);
+        while (next != null) {
+            long range = (next >= 0 ? next : next - RANGE_SECONDS + 1) / RANGE_SECONDS;
+            long rangeEnd = (range + 1) * RANGE_SECONDS;
+            bytes += exportSegment(table, range, columns, sql, new String[]{String.valueOf(range * RANGE_SECONDS), String.valueOf(rangeEnd)},
+                    journal, previous, current, result);
+            next = queryLong(nextSql, rangeEnd);
+        }
+
+        String rangePrefix = table + "@";
+        for (String key : previous.keySet()) {
+            if (key.startsWith(rangePrefix) && !current.containsKey(key)) {
+                journal.write(new SegmentWriter(table, parseLong(key.substring(rangePrefix.length())), columns).finish());
+                result.segmentsWritten++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Appends the rows of the query as one segment, if its SHA-1 changed since the last export.
+     * Empty segments are neither appended nor kept in the state.
+     *
+     * @return the size of the segment
+     */
+    private long exportSegment(String table, long range, String[] columns, String sql, String[] selectionArgs, DataOutputStream journal, Map<String, String> previous, Map<String, String> current, Result result) throws Exception {
+        SegmentWriter segment = new SegmentWriter(table, range, columns);
+        int rows = 0;
+        try (DBHandler handler = GBApplication.acquireDB();
+             Cursor cursor = handler.getDatabase().rawQuery(sql, selectionArgs)) {
+            while (cursor.moveToNext()) {
+                segment.addRow(cursor);
+                rows++;
+            }
+        }
+        if (rows == 0 && range != WHOLE_TABLE) {
+            return 0;
+        }
+        byte[] content = segment.finish();
+        String key = segmentKey(table, range);
+        String hash = sha1(content);
+        if (!hash.equals(previous.get(key))) {
+            journal.write(content);
+            result.segmentsWritten++;
+        }
+        current.put(key, hash);
+        result.segments++;
+        result.rows += rows;
+        return content.length;
+    }
+
+    private static Long queryLong(String sql, long arg) throws Exception {
+        try (DBHandler handler = GBApplication.acquireDB();
+             Cursor cursor = handler.getDatabase().rawQuery(sql, new String[]{String.valueOf(arg)})) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return null;
+        }
+    }
+
+    private static String orderBy(String[] pkColumns) {
+        return pkColumns.length == 0 ? "" : " ORDER BY " + TextUtils.join(",", pkColumns);
+    }
+
+    private static String segmentKey(String table, long range) {
+        return range == WHOLE_TABLE ? table : table + "@" + range;
+    }
+
+    /**
+     * Merges the last segment of each table and time range of the journal into the database of
+     * the given session, one transaction per segment. Columns that the database does not know
+     * are skipped. The caller must hold the lock from GBApplication#acquireDB().
+     *
+     * Rows are matched by their natural keys, not by their ids, which differ between databases:
+     * devices by their address, samples by device and timestamp, and so on. All users are merged
+     * into the one local user. A journal with a table that the database does not know, or that
+     * lacks a natural key, is refused before anything is imported.
+     *
+     * @return the number of imported rows
+     * @throws IOException if the journal cannot be read or merged
+     */
+    public long importInto(DaoSession session, Destination source) throws IOException {
+        long start = System.currentTimeMillis();
+        final Importer importer = new Importer(session);
+        // the index of the last segment of each table and range
+        final Map<String, Integer> lastSegments = new HashMap<>();
+        try {
+            readJournal(source, new SegmentReader() {
+                @Override
+                public void read(int index, String table, long range, String[] columns, DataInputStream in) throws IOException {
+                    importer.checkSegment(table, columns);
+                    lastSegments.put(segmentKey(table, range), index);
+                    skipRows(in, columns.length);
+                }
+            });
+            // first the rows that others refer to by id, so that those references can be mapped
+            importLastSegments(source, importer, lastSegments, true);
+            importLastSegments(source, importer, lastSegments, false);
+        } finally {
+            session.clear();
+        }
+        LOG.info("Imported " + importer.rows + " rows from " + importer.segments + " segments in " + (System.currentTimeMillis() - start) + "ms, "
+                + importer.skippedRows + " rows skipped");
+        return importer.rows;
+    }
+
+    private void importLastSegments(Destination source, final Importer importer, final Map<String, Integer> lastSegments, final boolean referencedTables) throws IOException {
+        readJournal(source, new SegmentReader() {
+            @Override
+            public void read(int index, String table, long range, String[] columns, DataInputStream in) throws IOException {
+                if (importer.isReferenced(table) == referencedTables && lastSegments.get(segmentKey(table, range)) == index) {
+                    importer.importSegment(table, columns, in);
+                } else {
+                    skipRows(in, columns.length);
+                }
+            }
+        });
+    }
+
+    private interface SegmentReader {
+        /**
+         * Called for each segment of the journal, must read all of its rows.
+         */
+        void read(int index, String table, long range, String[] columns, DataInputStream in) throws IOException;
+    }
+
+    private void readJournal(Destination source, SegmentReader reader) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source.openForReading()))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an incremental export: " + source.getId());
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of incremental export: " + source.getId());
+            }
+            int marker;
+            int index = 0;
+            while ((marker = in.read()) == SEGMENT) {
+                String table = in.readUTF();
+                long range = in.readLong();
+                String[] columns = new String[in.readUnsignedShort()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = in.readUTF();
+                }
+                reader.read(index++, table, range, columns, in);
+            }
+            if (marker != -1) {
+                throw new IOException("Unexpected data in incremental export: " + source.getId());
+            }
+        } catch (EOFException ex) {
+            throw new IOException("Incomplete incremental export: " + source.getId(), ex);
+        }
+    }
+
+    private static void skipRows(DataInputStream in, int columnCount) throws IOException {
+        while (in.readUnsignedByte() == ROW) {
+            readRow(in, columnCount);
+        }
+    }
+
+    private static Object[] readRow(DataInputStream in, int columnCount) throws IOException {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = in.readLong();
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = in.readDouble();
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    byte[] stringBytes = new byte[in.readInt()];
+                    in.readFully(stringBytes);
+                    row[i] = new String(stringBytes, "UTF-8");
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    byte[] blob = new byte[in.readInt()];
+                    in.readFully(blob);
+                    row[i] = blob;
+                    break;
+                default:
+                    throw new IOException("Unknown value type in segment: " + type);
+            }
+        }
+        return row;
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long) {
+            statement.bindLong(index, (Long) value);
+        } else if (value instanceof Double) {
+            statement.bindDouble(index, (Double) value);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else {
+            statement.bindBlob(index, (byte[]) value);
+        }
+    }
+
+    private static String[] columnNames(Property... properties) {
+        String[] names = new String[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = properties[i].columnName;
+        }
+        return names;
+    }
+
+    /**
+     * Merges segments by natural keys and keeps track of the ids of the rows in both databases.
+     */
+    private static class Importer {
+        private static final String COLUMN_USER_ID = AlarmDao.Properties.UserId.columnName;
+
+        private final SQLiteDatabase db;
+        private final Map<String, List<String>> knownColumns = new HashMap<>();
+        private final Map<String, List<String>> pkColumns = new HashMap<>();
+        // the natural keys of the tables with an _id primary key
+        private final Map<String, String[]> naturalKeys = new HashMap<>();
+        // tables whose ids are referred to, with the name of the referring columns
+        private final Map<String, String> referencedTables = new HashMap<>();
+        // by referring column, maps the ids of the journal to the local ids
+        private final Map<String, Map<Long, Long>> idMaps = new HashMap<>();
+        private final long userId;
+
+        long rows;
+        long skippedRows;
+        int segments;
+
+        Importer(DaoSession session) {
+            db = session.getDatabase();
+            for (AbstractDao<?, ?> dao : session.getAllDaos()) {
+                knownColumns.put(dao.getTablename(), Arrays.asList(dao.getAllColumns()));
+                pkColumns.put(dao.getTablename(), Arrays.asList(dao.getPkColumns()));
+            }
+            naturalKeys.put(DeviceDao.TABLENAME, columnNames(DeviceDao.Properties.Identifier));
+            naturalKeys.put(DeviceAttributesDao.TABLENAME, columnNames(DeviceAttributesDao.Properties.DeviceId, DeviceAttributesDao.Properties.ValidFromUTC));
+            naturalKeys.put(UserAttributesDao.TABLENAME, columnNames(UserAttributesDao.Properties.UserId, UserAttributesDao.Properties.ValidFromUTC));
+            naturalKeys.put(AlarmDao.TABLENAME, columnNames(AlarmDao.Properties.DeviceId, AlarmDao.Properties.UserId, AlarmDao.Properties.Position));
+            naturalKeys.put(CalendarSyncStateDao.TABLENAME, columnNames(CalendarSyncStateDao.Properties.DeviceId, CalendarSyncStateDao.Properties.CalendarEntryId));
+            naturalKeys.put(NotificationFilterDao.TABLENAME, columnNames(NotificationFilterDao.Properties.AppIdentifier));
+            naturalKeys.put(NotificationFilterEntryDao.TABLENAME, columnNames(NotificationFilterEntryDao.Properties.NotificationFilterId, NotificationFilterEntryDao.Properties.NotificationFilterContent));
+            naturalKeys.put(BaseActivitySummaryDao.TABLENAME, columnNames(BaseActivitySummaryDao.Properties.DeviceId, BaseActivitySummaryDao.Properties.StartTime));
+            naturalKeys.put(TagDao.TABLENAME, columnNames(TagDao.Properties.UserId, TagDao.Properties.Name));
+            naturalKeys.put(ActivityDescriptionDao.TABLENAME, columnNames(ActivityDescriptionDao.Properties.UserId, ActivityDescriptionDao.Properties.TimestampFrom, ActivityDescriptionDao.Properties.TimestampTo));
+            naturalKeys.put(ActivityDescTagLinkDao.TABLENAME, columnNames(ActivityDescTagLinkDao.Properties.ActivityDescriptionId, ActivityDescTagLinkDao.Properties.TagId));
+
+            referencedTables.put(DeviceDao.TABLENAME, COLUMN_DEVICE_ID);
+            referencedTables.put(NotificationFilterDao.TABLENAME, NotificationFilterEntryDao.Properties.NotificationFilterId.columnName);
+            referencedTables.put(TagDao.TABLENAME, ActivityDescTagLinkDao.Properties.TagId.columnName);
+            referencedTables.put(ActivityDescriptionDao.TABLENAME, ActivityDescTagLinkDao.Properties.ActivityDescriptionId.columnName);
+            for (String column : referencedTables.values()) {
+                idMaps.put(column, new HashMap<Long, Long>());
+            }
+            // there is only one user, whatever its id in the journal
+            userId = DBHelper.getUser(session).getId();
+        }
+
+        boolean isReferenced(String table) {
+            return referencedTables.containsKey(table);
+        }
+
+        private boolean hasId(String table) {
+            return pkColumns.get(table).equals(Collections.singletonList(COLUMN_ID));
+        }
+
+        /**
+         * Throws if the segment cannot be merged into the database.
+         */
+        void checkSegment(String table, String[] columns) throws IOException {
+            if (!knownColumns.containsKey(table)) {
+                throw new IOException("Unable to merge table " + table + ", which the database does not know");
+            }
+            // all users are merged into the local one
+            if (!hasId(table) || UserDao.TABLENAME.equals(table)) {
+                return;
+            }
+            String[] naturalKey = naturalKeys.get(table);
+            if (naturalKey == null) {
+                throw new IOException("Unable to merge table " + table + ", which has no natural key");
+            }
+            List<String> segmentColumns = Arrays.asList(columns);
+            if (!segmentColumns.contains(COLUMN_ID) || !segmentColumns.containsAll(Arrays.asList(naturalKey))) {
+                throw new IOException("Segment of table " + table + " lacks its key columns");
+            }
+        }
+
+        /**
+         * Imports a segment that passed checkSegment().
+         */
+        void importSegment(String table, String[] columns, DataInputStream in) throws IOException {
+            if (UserDao.TABLENAME.equals(table)) {
+                skipRows(in, columns.length);
+                return;
+            }
+            List<String> targetColumns = knownColumns.get(table);
+            String[] naturalKey = naturalKeys.get(table);
+            boolean hasId = hasId(table);
+
+            // maps the columns of the segment to the bind index of the insert statement, 0 to skip them
+            int[] bindIndex = new int[columns.length];
+            List<String> insertColumns = new ArrayList<>();
+            int idIndex = -1;
+            for (int i = 0; i < columns.length; i++) {
+                if (targetColumns.contains(columns[i])) {
+                    insertColumns.add(columns[i]);
+                    bindIndex[i] = insertColumns.size();
+                }
+                if (COLUMN_ID.equals(columns[i])) {
+                    idIndex = i;
+                }
+            }
+            int[] keyIndex = null;
+            if (hasId) {
+                keyIndex = new int[naturalKey.length];
+                for (int k = 0; k < naturalKey.length; k++) {
+                    keyIndex[k] = Arrays.asList(columns).indexOf(naturalKey[k]);
+                }
+            }
+            Map<Long, Long> ownIdMap = idMaps.get(referencedTables.get(table));
+
+            String sql = "INSERT OR REPLACE INTO " + table + " (" + TextUtils.join(",", insertColumns) + ") VALUES ("
+                    + TextUtils.join(",", Collections.nCopies(insertColumns.size(), "?")) + ")";
+            SQLiteStatement statement = db.compileStatement(sql);
+            SQLiteStatement lookup = null;
+            if (hasId) {
+                lookup = db.compileStatement("SELECT " + COLUMN_ID + " FROM " + table + " WHERE "
+                        + TextUtils.join(" IS ? AND ", naturalKey) + " IS ?");
+            }
+            db.beginTransaction();
+            try {
+                nextRow:
+                while (in.readUnsignedByte() == ROW) {
+                    Object[] row = readRow(in, columns.length);
+                    for (int i = 0; i < columns.length; i++) {
+                        if (row[i] instanceof Long) {
+                            if (COLUMN_USER_ID.equals(columns[i])) {
+                                row[i] = userId;
+                            } else if (idMaps.containsKey(columns[i])) {
+                                row[i] = idMaps.get(columns[i]).get(row[i]);
+                                if (row[i] == null) {
+                                    // refers to a row that was not imported
+                                    skippedRows++;
+                                    continue nextRow;
+                                }
+                            }
+                        }
+                    }
+                    Long exportedId = null;
+                    if (hasId) {
+                        exportedId = (Long) row[idIndex];
+                        lookup.clearBindings();
+                        for (int k = 0; k < keyIndex.length; k++) {
+                            bindValue(lookup, k + 1, row[keyIndex[k]]);
+                        }
+                        try {
+                            row[idIndex] = lookup.simpleQueryForLong();
+                        } catch (SQLiteDoneException ex) {
+                            // not yet known, gets a new id
+                            row[idIndex] = null;
+                        }
+                    }
+                    statement.clearBindings();
+                    for (int i = 0; i < columns.length; i++) {
+                        if (bindIndex[i] > 0) {
+                            bindValue(statement, bindIndex[i], row[i]);
+                        }
+                    }
+                    long localId = statement.executeInsert();
+                    if (ownIdMap != null && exportedId != null) {
+                        ownIdMap.put(exportedId, localId);
+                    }
+                    rows++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+                if (lookup != null) {
+                    lookup.close();
+                }
+            }
+            segments++;
+        }
+    }
+
+    /**
+     * Returns the hashes of the segments of the last export, plus the '#' entries about the
+     * journal.
+     */
+    Map<String, String> readState() throws IOException {
+        Map<String, String> state = new LinkedHashMap<>();
+        if (!stateFile.exists()) {
+            return state;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(stateFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('\t');
+                if (separator > 0) {
+                    state.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        }
+        return state;
+    }
+
+    private void writeState(Map<String, String> state) throws IOException {
+        File tmpFile = new File(stateFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8")) {
+            for (Map.Entry<String, String> entry : state.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        }
+        if (!tmpFile.renameTo(stateFile)) {
+            throw new IOException("Unable to replace " + stateFile);
+        }
+    }
+
+    /**
+     * Without a state, the next export writes the journal from scratch. This is what we want
+     * when an export fails halfway, and the journal may end with an incomplete segment.
+     */
+    private void deleteState() throws IOException {
+        if (stateFile.exists() && !stateFile.delete()) {
+            throw new IOException("Unable to delete " + stateFile);
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static String sha1(byte[] content) throws IOException {
+        try {
+            return GB.hexdump(MessageDigest.getInstance("SHA-1").digest(content), 0, -1);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-1 not available", ex);
+        }
+    }
+
+    private static class SegmentWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        SegmentWriter(String table, long range, String[] columns) throws IOException {
+            out.writeByte(SEGMENT);
+            out.writeUTF(table);
+            out.writeLong(range);
+            out.writeShort(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+        }
+
+        /**
+         * Adds the current row of the cursor.
+         */
+        void addRow(Cursor cursor) throws IOException {
+            out.writeByte(ROW);
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                int type = cursor.getType(i);
+                out.writeByte(type);
+                switch (type) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        out.writeLong(cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        out.writeDouble(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        // not writeUTF(), which is limited to 64k
+                        byte[] string = cursor.getString(i).getBytes("UTF-8");
+                        out.writeInt(string.length);
+                        out.write(string);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        out.writeInt(blob.length);
+                        out.write(blob);
+                        break;
+                }
+            }
+        }
+
+        byte[] finish() throws IOException {
+            out.writeByte(END);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
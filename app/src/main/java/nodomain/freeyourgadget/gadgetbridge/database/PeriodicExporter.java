@@ -27,6 +27,9 @@ import android.os.SystemClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -71,22 +74,72 @@ public class PeriodicExporter extends BroadcastReceiver {
     }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, Intent intent) {
+        final boolean incremental = GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_INCREMENTAL, false);
+        final String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
+        if (dst == null) {
+            LOG.info("Unable to export DB, export location not set");
+            return;
+        }
+        final PendingResult result = goAsync();
+        new Thread("Gadgetbridge DB Export") {
+            @Override
+            public void run() {
+                try {
+                    // the journal takes the place of the full export, see pref_summary_auto_export_incremental
+                    if (incremental) {
+                        exportIncremental(context, Uri.parse(dst));
+                    } else {
+                        export(context, Uri.parse(dst));
+                    }
+                } finally {
+                    result.finish();
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Needs no snapshot, the incremental exporter only holds the database lock while reading
+     * the rows that are new since the last export.
+     */
+    private void exportIncremental(Context context, Uri dstUri) {
+        LOG.info("Exporting DB incrementally");
+        try {
+            new IncrementalExporter(IncrementalExporter.getDefaultStateFile(context))
+                    .export(IncrementalExporter.forUri(context, dstUri));
+        } catch (Exception ex) {
+            GB.updateExportFailedNotification(context.getString(R.string.notif_export_failed_title), context);
+            LOG.info("Exception while exporting DB: ", ex);
+        }
+    }
+
+    /**
+     * Takes a local snapshot, which only holds the database lock for a moment, and writes it
+     * to the (possibly slow) export location afterwards.
+     */
+    private void export(Context context, Uri dstUri) {
         LOG.info("Exporting DB");
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            DBHelper helper = new DBHelper(context);
-            String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
-            if (dst == null) {
-                LOG.info("Unable to export DB, export location not set");
-                return;
+        DBHelper helper = new DBHelper(context);
+        File snapshot = null;
+        try {
+            snapshot = helper.createSnapshotFile();
+            helper.snapshotDB(snapshot);
+            boolean compress = GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_COMPRESSED, false);
+            OutputStream out = context.getContentResolver().openOutputStream(dstUri);
+            if (out == null) {
+                throw new IOException("Unable to open output stream for " + dstUri);
             }
-            Uri dstUri = Uri.parse(dst);
-            try (OutputStream out = context.getContentResolver().openOutputStream(dstUri)) {
-                helper.exportDB(dbHandler, out);
+            try (OutputStream bufOut = new BufferedOutputStream(out)) {
+                DBHelper.exportSnapshot(snapshot, bufOut, compress);
             }
         } catch (Exception ex) {
             GB.updateExportFailedNotification(context.getString(R.string.notif_export_failed_title), context);
             LOG.info("Exception while exporting DB: ", ex);
+        } finally {
+            if (snapshot != null) {
+                snapshot.delete();
+            }
         }
     }
 }
@@ -0,0 +1,273 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.ChunkedMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Runs the ChunkedMigrations scheduled by schema updates, one bounded chunk at a time.
+ *
+ * The progress of every migration is kept in its own table and committed in the same
+ * transaction as each chunk, so after a crash or restart the migration continues after the
+ * last committed chunk. In the app, startIfPending() runs the chunks on a background thread
+ * and only holds the database lock for one chunk at a time, showing the progress in a
+ * notification. It is called whenever the database was opened, at startup and when it was
+ * reopened after an import.
+ */
+public class ChunkedMigrationRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedMigrationRunner.class);
+
+    static final String TABLE = "CHUNKED_MIGRATION";
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    // guarded by the class, only the running thread itself clears it
+    private static Thread runningThread;
+    private static boolean startRequested;
+
+    private final int chunkSize;
+    private ProgressListener listener;
+
+    public interface ProgressListener {
+        void onProgress(String migration, long rowsDone, long rowsTotal);
+    }
+
+    public ChunkedMigrationRunner(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Schedules the given migration to run after the database was opened. To be called from
+     * DBUpdateScript#upgradeSchema() of the given schema version.
+     * <p/>
+     * None of the existing updates needs this, they only change the schema (e.g. add a column)
+     * and are fast regardless of the amount of data.
+     */
+    public static void schedule(SQLiteDatabase db, int version, Class<? extends ChunkedMigration> migration) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (CLASS_NAME TEXT PRIMARY KEY NOT NULL, VERSION INTEGER NOT NULL, "
+                + "LAST_KEY INTEGER, END_KEY INTEGER, ROWS_DONE INTEGER NOT NULL, ROWS_TOTAL INTEGER NOT NULL)");
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE + " (CLASS_NAME, VERSION, ROWS_DONE, ROWS_TOTAL) VALUES (?, ?, 0, -1)",
+                new Object[]{migration.getName(), version});
+        LOG.info("Scheduled " + migration.getSimpleName() + " for version " + version);
+    }
+
+    /**
+     * Drops the migrations of versions newer than the given one, e.g. on downgrade.
+     */
+    public static void unscheduleNewerThan(SQLiteDatabase db, int version) {
+        if (hasTable(db)) {
+            db.execSQL("DELETE FROM " + TABLE + " WHERE VERSION > ?", new Object[]{version});
+        }
+    }
+
+    public static boolean hasPending(SQLiteDatabase db) {
+        if (!hasTable(db)) {
+            return false;
+        }
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE, null)) {
+            return cursor.moveToFirst() && cursor.getLong(0) > 0;
+        }
+    }
+
+    private static boolean hasTable(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{TABLE})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * Runs the next chunk of the oldest pending migration.
+     *
+     * @return false if no migration is pending
+     */
+    public boolean runChunk(SQLiteDatabase db) {
+        if (!hasTable(db)) {
+            return false;
+        }
+        String className;
+        Long lastKey;
+        Long endKey;
+        long rowsDone;
+        long rowsTotal;
+        try (Cursor cursor = db.rawQuery("SELECT CLASS_NAME, LAST_KEY, END_KEY, ROWS_DONE, ROWS_TOTAL FROM " + TABLE
+                + " ORDER BY VERSION, CLASS_NAME LIMIT 1", null)) {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            className = cursor.getString(0);
+            lastKey = cursor.isNull(1) ? null : cursor.getLong(1);
+            endKey = cursor.isNull(2) ? null : cursor.getLong(2);
+            rowsDone = cursor.getLong(3);
+            rowsTotal = cursor.getLong(4);
+        }
+        ChunkedMigration migration = createMigration(className);
+        String table = migration.getTable();
+        String key = migration.getKeyColumn();
+
+        if (rowsTotal < 0) {
+            // rows added later by the new version need no migration
+            try (Cursor cursor = db.rawQuery("SELECT COUNT(*), MAX(" + key + ") FROM " + table, null)) {
+                cursor.moveToFirst();
+                rowsTotal = cursor.getLong(0);
+                endKey = cursor.isNull(1) ? null : cursor.getLong(1);
+            }
+            db.execSQL("UPDATE " + TABLE + " SET END_KEY = ?, ROWS_TOTAL = ? WHERE CLASS_NAME = ?", new Object[]{endKey, rowsTotal, className});
+            LOG.info("Starting " + className + " on " + rowsTotal + " rows");
+        }
+
+        long fromKey = lastKey != null ? lastKey : Long.MIN_VALUE;
+        Long toKey = null;
+        if (endKey != null && fromKey < endKey) {
+            String range = " FROM " + table + " WHERE " + key + " > ? AND " + key + " <= ?";
+            String[] rangeArgs = new String[]{String.valueOf(fromKey), String.valueOf(endKey)};
+            try (Cursor cursor = db.rawQuery("SELECT " + key + range + " ORDER BY " + key + " LIMIT 1 OFFSET " + (chunkSize - 1), rangeArgs)) {
+                toKey = cursor.moveToFirst() ? cursor.getLong(0) : endKey;
+            }
+        }
+        if (toKey == null) {
+            db.execSQL("DELETE FROM " + TABLE + " WHERE CLASS_NAME = ?", new Object[]{className});
+            LOG.info("Finished " + className);
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+        long rows;
+        db.beginTransaction();
+        try {
+            try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table + " WHERE " + key + " > ? AND " + key + " <= ?",
+                    new String[]{String.valueOf(fromKey), String.valueOf(toKey)})) {
+                cursor.moveToFirst();
+                rows = cursor.getLong(0);
+            }
+            migration.migrateChunk(db, fromKey, toKey);
+            rowsDone += rows;
+            db.execSQL("UPDATE " + TABLE + " SET LAST_KEY = ?, ROWS_DONE = ? WHERE CLASS_NAME = ?", new Object[]{toKey, rowsDone, className});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        LOG.debug("Migrated " + rows + " rows of " + table + " in " + (System.currentTimeMillis() - start) + "ms");
+        if (listener != null) {
+            listener.onProgress(className, rowsDone, rowsTotal);
+        }
+        return true;
+    }
+
+    /**
+     * Runs all pending migrations to the end, blocking.
+     */
+    public void runAll(SQLiteDatabase db) {
+        while (runChunk(db)) {
+            // next chunk
+        }
+    }
+
+    private ChunkedMigration createMigration(String className) {
+        try {
+            Class<?> migrationClass = getClass().getClassLoader().loadClass(className);
+            return (ChunkedMigration) migrationClass.newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("Error instantiating ChunkedMigration " + className, e);
+        }
+    }
+
+    /**
+     * Runs the pending migrations on a background thread. If that is running already, it checks
+     * for pending migrations again before it ends, e.g. in a database that was reopened meanwhile.
+     */
+    public static void startIfPending(final Context context) {
+        Thread thread;
+        synchronized (ChunkedMigrationRunner.class) {
+            if (runningThread != null) {
+                startRequested = true;
+                return;
+            }
+            thread = createThread(context);
+            runningThread = thread;
+        }
+        thread.start();
+    }
+
+    private static Thread createThread(final Context context) {
+        return new Thread("Gadgetbridge DB Migration") {
+            private boolean notified;
+
+            @Override
+            public void run() {
+                try {
+                    ChunkedMigrationRunner runner = new ChunkedMigrationRunner(DEFAULT_CHUNK_SIZE);
+                    runner.setProgressListener(new ProgressListener() {
+                        @Override
+                        public void onProgress(String migration, long rowsDone, long rowsTotal) {
+                            int percentage = rowsTotal > 0 ? (int) Math.min(99, rowsDone * 100 / rowsTotal) : 0;
+                            GB.updateTransferNotification(context.getString(R.string.updating_database),
+                                    context.getString(R.string.updating_database_progress, percentage), true, percentage, context);
+                            notified = true;
+                        }
+                    });
+                    do {
+                        boolean pending = true;
+                        while (pending) {
+                            // release the lock after every chunk, so that others can use the database meanwhile
+                            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                                pending = runner.runChunk(dbHandler.getDatabase());
+                            }
+                        }
+                    } while (isStartRequested());
+                } catch (Exception ex) {
+                    LOG.error("Error migrating the database, will continue on next start", ex);
+                } finally {
+                    if (notified) {
+                        GB.updateTransferNotification(null, "", false, 100, context);
+                    }
+                    synchronized (ChunkedMigrationRunner.class) {
+                        if (runningThread == this) {
+                            runningThread = null;
+                            startRequested = false;
+                        }
+                    }
+                }
+            }
+
+            private boolean isStartRequested() {
+                synchronized (ChunkedMigrationRunner.class) {
+                    boolean requested = startRequested;
+                    startRequested = false;
+                    if (!requested) {
+                        // no request can get lost between this check and the end of the thread
+                        runningThread = null;
+                    }
+                    return requested;
+                }
+            }
+        };
+    }
+}
@@ -60,6 +60,7 @@ public class SchemaMigration {
                     updater.downgradeSchema(db);
                 }
             }
+            ChunkedMigrationRunner.unscheduleNewerThan(db, newVersion);
             LOG.info("activity database is now at version " + newVersion);
         } catch (RuntimeException ex) {
             GB.toast("Error downgrading database.", Toast.LENGTH_SHORT, GB.ERROR, ex);
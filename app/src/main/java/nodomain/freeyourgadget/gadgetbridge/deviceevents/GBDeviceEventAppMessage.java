@@ -27,6 +27,12 @@ public class GBDeviceEventAppMessage extends GBDeviceEvent {
     public UUID appUUID;
     public int id;
     public String message;
+    /**
+     * The decoded dictionary, if available: keys[i] maps to values[i], which is an Integer,
+     * Long or String (byte arrays are base64 encoded, just like in message).
+     */
+    public int[] keys;
+    public Object[] values;
 
     @Override
     public String toString() {
@@ -67,7 +67,7 @@ public abstract class AbstractDeviceCoordinator implements DeviceCoordinator {
     public void deleteDevice(final GBDevice gbDevice) throws GBException {
         LOG.info("will try to delete device: " + gbDevice.getName());
         if (gbDevice.isConnected() || gbDevice.isConnecting()) {
-            GBApplication.deviceService().disconnect();
+            GBApplication.deviceService().forDevice(gbDevice).disconnect();
         }
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             DaoSession session = dbHandler.getDaoSession();
@@ -184,6 +184,19 @@ public class DeviceManager {
         return Collections.unmodifiableList(deviceList);
     }
 
+    /**
+     * Returns the devices that are connected and ready for commands.
+     */
+    public List<GBDevice> getInitializedDevices() {
+        List<GBDevice> devices = new ArrayList<>();
+        for (GBDevice device : deviceList) {
+            if (device.isInitialized()) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
     @Nullable
     public GBDevice getSelectedDevice() {
         return selectedDevice;
@@ -30,6 +30,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.AbstractSettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
@@ -78,7 +79,9 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
         enableHeartrateSleepSupport.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newVal) {
-                GBApplication.deviceService().onEnableHeartRateSleepSupport(Boolean.TRUE.equals(newVal));
+                for (GBDevice device : GBApplication.app().getDeviceManager().getInitializedDevices()) {
+                    GBApplication.deviceService().forDevice(device).onEnableHeartRateSleepSupport(Boolean.TRUE.equals(newVal));
+                }
                 return true;
             }
         });
@@ -87,7 +90,9 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
         heartrateMeasurementInterval.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newVal) {
-                GBApplication.deviceService().onSetHeartRateMeasurementInterval(Integer.parseInt((String) newVal));
+                for (GBDevice device : GBApplication.app().getDeviceManager().getInitializedDevices()) {
+                    GBApplication.deviceService().forDevice(device).onSetHeartRateMeasurementInterval(Integer.parseInt((String) newVal));
+                }
                 return true;
             }
         });
@@ -99,7 +104,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_GOAL_NOTIFICATION);
+                        sendConfiguration(PREF_MI2_GOAL_NOTIFICATION);
                     }
                 });
                 return true;
@@ -113,7 +118,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_ACTIVATE_DISPLAY_ON_LIFT);
+                        sendConfiguration(PREF_ACTIVATE_DISPLAY_ON_LIFT);
                     }
                 });
                 return true;
@@ -131,7 +136,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_ROTATE_WRIST_TO_SWITCH_INFO);
+                        sendConfiguration(PREF_MI2_ROTATE_WRIST_TO_SWITCH_INFO);
                     }
                 });
                 return true;
@@ -145,7 +150,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS);
                     }
                 });
                 return true;
@@ -159,7 +164,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_THRESHOLD);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_THRESHOLD);
                     }
                 });
                 return true;
@@ -173,7 +178,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_START);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_START);
                     }
                 });
                 return true;
@@ -187,7 +192,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_END);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_END);
                     }
                 });
                 return true;
@@ -201,7 +206,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND);
                     }
                 });
                 return true;
@@ -215,7 +220,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND_START);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND_START);
                     }
                 });
                 return true;
@@ -229,7 +234,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND_END);
+                        sendConfiguration(PREF_MI2_INACTIVITY_WARNINGS_DND_END);
                     }
                 });
                 return true;
@@ -247,7 +252,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DO_NOT_DISTURB_START);
+                        sendConfiguration(PREF_MI2_DO_NOT_DISTURB_START);
                     }
                 });
                 return true;
@@ -262,7 +267,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DO_NOT_DISTURB_END);
+                        sendConfiguration(PREF_MI2_DO_NOT_DISTURB_END);
                     }
                 });
                 return true;
@@ -281,7 +286,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_MI2_DO_NOT_DISTURB);
+                        sendConfiguration(PREF_MI2_DO_NOT_DISTURB);
                     }
                 });
                 return true;
@@ -296,7 +301,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_DISPLAY_ON_LIFT_START);
+                        sendConfiguration(PREF_DISPLAY_ON_LIFT_START);
                     }
                 });
                 return true;
@@ -312,7 +317,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_DISPLAY_ON_LIFT_END);
+                        sendConfiguration(PREF_DISPLAY_ON_LIFT_END);
                     }
                 });
                 return true;
@@ -332,7 +337,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(PREF_ACTIVATE_DISPLAY_ON_LIFT);
+                        sendConfiguration(PREF_ACTIVATE_DISPLAY_ON_LIFT);
                     }
                 });
                 return true;
@@ -346,7 +351,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(ActivityUser.PREF_USER_STEPS_GOAL);
+                        sendConfiguration(ActivityUser.PREF_USER_STEPS_GOAL);
                     }
                 });
                 return true;
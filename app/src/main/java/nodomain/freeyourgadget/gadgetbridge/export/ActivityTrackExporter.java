@@ -16,10 +16,12 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.export;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
 import androidx.annotation.NonNull;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 
 public interface ActivityTrackExporter {
@@ -28,6 +30,22 @@ public interface ActivityTrackExporter {
 
     void performExport(ActivityTrack track, File targetFile) throws IOException, GPXTrackEmptyException;
 
+    /**
+     * Starts exporting a track whose points are not known yet. Only the name, user and device
+     * of the given track are written, the points must be passed to the returned writer in
+     * time order.
+     */
+    TrackWriter startExport(ActivityTrack track, File targetFile) throws IOException;
+
+    interface TrackWriter extends Closeable {
+        void addTrackPoint(ActivityPoint point) throws IOException;
+
+        /**
+         * Completes and closes the file. Use close() instead to give up.
+         */
+        void finish() throws IOException, GPXTrackEmptyException;
+    }
+
     class GPXTrackEmptyException extends Exception {
     }
 }
@@ -0,0 +1,207 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Date;
+
+import androidx.annotation.NonNull;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Writes tracks in a compact binary format, which is much smaller than GPX and can be read
+ * without parsing XML. Use BinaryTrackReader to read it, e.g. to generate GPX on demand.
+ *
+ * The file starts with MAGIC, VERSION and the name, user name, device name and base time of the
+ * track. Then follows one record per point, starting with a flags byte, and finally END.
+ * All numbers are stored as zigzag encoded varints of the difference to the previous value:
+ * the time in milliseconds, the coordinates and the altitude in millionths (the precision of
+ * GPS_DECIMAL_DEGREES_SCALE that GPX is written with) and the heart rate.
+ */
+public class BinaryTrackExporter implements ActivityTrackExporter {
+    public static final String FILE_EXTENSION = ".gbtrack";
+
+    static final int MAGIC = 0x47425452; // "GBTR"
+    static final int VERSION = 1;
+
+    static final int FLAG_LOCATION = 1;
+    static final int FLAG_HEART_RATE = 1 << 1;
+    static final int FLAG_DESCRIPTION = 1 << 2;
+    static final int FLAG_SPEED = 1 << 3;
+    static final int END = 0xff;
+
+    static final double SCALE = 1000000.0;
+
+    @NonNull
+    @Override
+    public String getDefaultFileName(@NonNull ActivityTrack track) {
+        return FileUtils.makeValidFileName(track.getName() + FILE_EXTENSION);
+    }
+
+    @Override
+    public void performExport(ActivityTrack track, File targetFile) throws IOException, GPXTrackEmptyException {
+        try (TrackWriter writer = startExport(track, targetFile)) {
+            for (ActivityPoint point : track.getTrackPoints()) {
+                writer.addTrackPoint(point);
+            }
+            writer.finish();
+        }
+    }
+
+    @Override
+    public TrackWriter startExport(ActivityTrack track, File targetFile) throws IOException {
+        return new BinaryTrackWriter(track, targetFile);
+    }
+
+    private static class BinaryTrackWriter implements TrackWriter {
+        private final DataOutputStream out;
+        private int pointCount;
+        private long lastTime;
+        private long lastLongitude;
+        private long lastLatitude;
+        private long lastAltitude;
+        private int lastHeartRate;
+        private long lastSpeed4;
+        private long lastSpeed5;
+        private long lastSpeed6;
+
+        BinaryTrackWriter(ActivityTrack track, File targetFile) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(targetFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                writeString(track.getName());
+                writeString(track.getUser() != null ? track.getUser().getName() : null);
+                writeString(track.getDevice() != null ? track.getDevice().getName() : null);
+                Date baseTime = track.getBaseTime();
+                out.writeBoolean(baseTime != null);
+                if (baseTime != null) {
+                    writeVarLong(baseTime.getTime());
+                }
+            } catch (IOException | RuntimeException ex) {
+                out.close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void addTrackPoint(ActivityPoint point) throws IOException {
+            GPSCoordinate location = point.getLocation();
+            String description = point.getDescription();
+            boolean hasSpeed = point.getSpeed4() != 0 || point.getSpeed5() != 0 || point.getSpeed6() != 0;
+            int flags = 0;
+            if (location != null) {
+                flags |= FLAG_LOCATION;
+            }
+            if (point.getHeartRate() != 0) {
+                flags |= FLAG_HEART_RATE;
+            }
+            if (description != null) {
+                flags |= FLAG_DESCRIPTION;
+            }
+            if (hasSpeed) {
+                flags |= FLAG_SPEED;
+            }
+            out.writeByte(flags);
+
+            long time = point.getTime().getTime();
+            writeVarLong(time - lastTime);
+            lastTime = time;
+
+            if (location != null) {
+                long longitude = toScaled(location.getLongitude());
+                long latitude = toScaled(location.getLatitude());
+                long altitude = toScaled(location.getAltitude());
+                writeVarLong(longitude - lastLongitude);
+                writeVarLong(latitude - lastLatitude);
+                writeVarLong(altitude - lastAltitude);
+                lastLongitude = longitude;
+                lastLatitude = latitude;
+                lastAltitude = altitude;
+            }
+            if (point.getHeartRate() != 0) {
+                writeVarLong(point.getHeartRate() - lastHeartRate);
+                lastHeartRate = point.getHeartRate();
+            }
+            if (description != null) {
+                out.writeUTF(description);
+            }
+            if (hasSpeed) {
+                writeVarLong(point.getSpeed4() - lastSpeed4);
+                writeVarLong(point.getSpeed5() - lastSpeed5);
+                writeVarLong(point.getSpeed6() - lastSpeed6);
+                lastSpeed4 = point.getSpeed4();
+                lastSpeed5 = point.getSpeed5();
+                lastSpeed6 = point.getSpeed6();
+            }
+            pointCount++;
+        }
+
+        @Override
+        public void finish() throws IOException, GPXTrackEmptyException {
+            if (pointCount == 0) {
+                throw new GPXTrackEmptyException();
+            }
+            out.writeByte(END);
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7fL) != 0) {
+                out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+                zigzag >>>= 7;
+            }
+            out.writeByte((int) zigzag);
+        }
+    }
+
+    /**
+     * Rounds like GPXExporter does when formatting coordinates, so that GPX generated from the
+     * binary track is the same as GPX written directly.
+     */
+    static long toScaled(double value) {
+        double scaled = value * SCALE;
+        long rounded = Math.round(scaled);
+        if (Math.abs(scaled - rounded) < 0.4999) {
+            return rounded;
+        }
+        // too close to a tie to trust the floating point multiplication
+        return new BigDecimal(value).setScale(GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+}
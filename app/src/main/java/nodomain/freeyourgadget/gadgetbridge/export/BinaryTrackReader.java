@@ -0,0 +1,197 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import androidx.annotation.Nullable;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.END;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.FLAG_DESCRIPTION;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.FLAG_HEART_RATE;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.FLAG_LOCATION;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.FLAG_SPEED;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.MAGIC;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.SCALE;
+import static nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter.VERSION;
+
+/**
+ * Reads tracks written by BinaryTrackExporter, one point after the other.
+ */
+public class BinaryTrackReader implements Closeable {
+    private final DataInputStream in;
+    private final ActivityTrack track;
+    private boolean atEnd;
+    private long lastTime;
+    private long lastLongitude;
+    private long lastLatitude;
+    private long lastAltitude;
+    private int lastHeartRate;
+    private long lastSpeed4;
+    private long lastSpeed5;
+    private long lastSpeed6;
+
+    public BinaryTrackReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a binary track: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary track version " + version + ": " + file);
+            }
+            track = new ActivityTrack();
+            track.setName(readString());
+            User user = new User();
+            user.setName(readString());
+            track.setUser(user);
+            Device device = new Device();
+            device.setName(readString());
+            track.setDevice(device);
+            if (in.readBoolean()) {
+                track.setBaseTime(new Date(readVarLong()));
+            }
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the track without any points, but with its name, user, device and base time.
+     */
+    public ActivityTrack getTrack() {
+        return track;
+    }
+
+    /**
+     * Returns the next point, or null after the last one.
+     */
+    @Nullable
+    public ActivityPoint next() throws IOException {
+        if (atEnd) {
+            return null;
+        }
+        int flags = in.readUnsignedByte();
+        if (flags == END) {
+            atEnd = true;
+            return null;
+        }
+
+        lastTime += readVarLong();
+        ActivityPoint point = new ActivityPoint(new Date(lastTime));
+        if ((flags & FLAG_LOCATION) != 0) {
+            lastLongitude += readVarLong();
+            lastLatitude += readVarLong();
+            lastAltitude += readVarLong();
+            point.setLocation(new GPSCoordinate(lastLongitude / SCALE, lastLatitude / SCALE, lastAltitude / SCALE));
+        }
+        if ((flags & FLAG_HEART_RATE) != 0) {
+            lastHeartRate += (int) readVarLong();
+            point.setHeartRate(lastHeartRate);
+        }
+        if ((flags & FLAG_DESCRIPTION) != 0) {
+            point.setDescription(in.readUTF());
+        }
+        if ((flags & FLAG_SPEED) != 0) {
+            lastSpeed4 += readVarLong();
+            lastSpeed5 += readVarLong();
+            lastSpeed6 += readVarLong();
+            point.setSpeed4(lastSpeed4);
+            point.setSpeed5(lastSpeed5);
+            point.setSpeed6(lastSpeed6);
+        }
+        return point;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the whole track including all points.
+     */
+    public static ActivityTrack readTrack(File file) throws IOException {
+        try (BinaryTrackReader reader = new BinaryTrackReader(file)) {
+            ActivityTrack track = reader.getTrack();
+            ActivityPoint point;
+            while ((point = reader.next()) != null) {
+                track.addTrackPoint(point);
+            }
+            return track;
+        }
+    }
+
+    /**
+     * Exports the binary track with the given exporter, e.g. to GPX, without keeping all points
+     * in memory. The target file is only created or replaced when the export succeeds.
+     */
+    public static void export(File file, ActivityTrackExporter exporter, File targetFile) throws IOException, ActivityTrackExporter.GPXTrackEmptyException {
+        File tempFile = new File(targetFile.getParentFile(), targetFile.getName() + ".tmp");
+        boolean success = false;
+        try {
+            try (BinaryTrackReader reader = new BinaryTrackReader(file);
+                 ActivityTrackExporter.TrackWriter writer = exporter.startExport(reader.getTrack(), tempFile)) {
+                ActivityPoint point;
+                while ((point = reader.next()) != null) {
+                    writer.addTrackPoint(point);
+                }
+                writer.finish();
+            }
+            if (!tempFile.renameTo(targetFile)) {
+                throw new IOException("Unable to replace " + targetFile + " with " + tempFile);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private long readVarLong() throws IOException {
+        long zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new IOException("Malformed varint in binary track");
+            }
+            b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
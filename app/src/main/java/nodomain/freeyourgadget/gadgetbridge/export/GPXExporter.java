@@ -21,14 +21,19 @@ import android.util.Xml;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -59,26 +64,79 @@ public class GPXExporter implements ActivityTrackExporter {
 
     @Override
     public void performExport(ActivityTrack track, File targetFile) throws IOException, GPXTrackEmptyException {
-        String encoding = StandardCharsets.UTF_8.name();
-        XmlSerializer ser = Xml.newSerializer();
-        try (FileOutputStream outputStream = new FileOutputStream(targetFile)) {
-            ser.setOutput(outputStream, encoding);
-            ser.startDocument(encoding, Boolean.TRUE);
-            ser.setPrefix("xsi", NS_XSI_URI);
-            ser.setPrefix(NS_TRACKPOINT_EXTENSION, NS_TRACKPOINT_EXTENSION_URI);
-            ser.setPrefix(NS_DEFAULT_PREFIX, NS_DEFAULT);
-
-            ser.startTag(NS_DEFAULT, "gpx");
-            ser.attribute(NS_DEFAULT, "version", "1.1");
-            ser.attribute(NS_DEFAULT, "creator", getCreator());
-            ser.attribute(NS_XSI_URI, "schemaLocation", NS_DEFAULT_URI + " " + "http://www.topografix.com/GPX/1/1/gpx.xsd");
-
-            exportMetadata(ser, track);
-            exportTrack(ser, track);
+        List<ActivityPoint> trackPoints = track.getTrackPoints();
+        try (GPXTrackWriter writer = new GPXTrackWriter(track, targetFile, new HeartRateCursor(trackPoints))) {
+            for (ActivityPoint point : trackPoints) {
+                writer.addTrackPoint(point);
+            }
+            writer.finish();
+        }
+    }
+
+    @Override
+    public TrackWriter startExport(ActivityTrack track, File targetFile) throws IOException {
+        return new GPXTrackWriter(track, targetFile, new HeartRateCursor());
+    }
+
+    private class GPXTrackWriter implements TrackWriter {
+        private final OutputStream outputStream;
+        private final XmlSerializer ser;
+        private final String source;
+        private final HeartRateCursor heartRateCursor;
+        private boolean atLeastOnePointExported;
+
+        GPXTrackWriter(ActivityTrack track, File targetFile, HeartRateCursor heartRateCursor) throws IOException {
+            this.heartRateCursor = heartRateCursor;
+            source = getSource(track);
+            String encoding = StandardCharsets.UTF_8.name();
+            ser = Xml.newSerializer();
+            outputStream = new BufferedOutputStream(new FileOutputStream(targetFile));
+            try {
+                ser.setOutput(outputStream, encoding);
+                ser.startDocument(encoding, Boolean.TRUE);
+                ser.setPrefix("xsi", NS_XSI_URI);
+                ser.setPrefix(NS_TRACKPOINT_EXTENSION, NS_TRACKPOINT_EXTENSION_URI);
+                ser.setPrefix(NS_DEFAULT_PREFIX, NS_DEFAULT);
+
+                ser.startTag(NS_DEFAULT, "gpx");
+                ser.attribute(NS_DEFAULT, "version", "1.1");
+                ser.attribute(NS_DEFAULT, "creator", getCreator());
+                ser.attribute(NS_XSI_URI, "schemaLocation", NS_DEFAULT_URI + " " + "http://www.topografix.com/GPX/1/1/gpx.xsd");
+
+                exportMetadata(ser, track);
+
+                ser.startTag(NS_DEFAULT, "trk");
+                ser.startTag(NS_DEFAULT, "trkseg");
+            } catch (IOException | RuntimeException ex) {
+                outputStream.close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void addTrackPoint(ActivityPoint point) throws IOException {
+            heartRateCursor.add(point);
+            atLeastOnePointExported |= exportTrackPoint(ser, point, source, heartRateCursor);
+        }
+
+        @Override
+        public void finish() throws IOException, GPXTrackEmptyException {
+            if (!atLeastOnePointExported) {
+                throw new GPXTrackEmptyException();
+            }
+
+            ser.endTag(NS_DEFAULT, "trkseg");
+            ser.endTag(NS_DEFAULT, "trk");
 
             ser.endTag(NS_DEFAULT, "gpx");
             ser.endDocument();
             ser.flush();
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.close();
         }
     }
 
@@ -99,30 +157,11 @@ public class GPXExporter implements ActivityTrackExporter {
         return DateTimeUtils.formatIso8601(date);
     }
 
-    private void exportTrack(XmlSerializer ser, ActivityTrack track) throws IOException, GPXTrackEmptyException {
-        ser.startTag(NS_DEFAULT, "trk");
-        ser.startTag(NS_DEFAULT, "trkseg");
-
-        List<ActivityPoint> trackPoints = track.getTrackPoints();
-        String source = getSource(track);
-        boolean atLeastOnePointExported = false;
-        for (ActivityPoint point : trackPoints) {
-            atLeastOnePointExported |= exportTrackPoint(ser, point, source, trackPoints);
-        }
-
-        if(!atLeastOnePointExported) {
-            throw new GPXTrackEmptyException();
-        }
-
-        ser.endTag(NS_DEFAULT, "trkseg");
-        ser.endTag(NS_DEFAULT, "trk");
-    }
-
     private String getSource(ActivityTrack track) {
         return track.getDevice().getName();
     }
 
-    private boolean exportTrackPoint(XmlSerializer ser, ActivityPoint point, String source, List<ActivityPoint> trackPoints) throws IOException {
+    private boolean exportTrackPoint(XmlSerializer ser, ActivityPoint point, String source, HeartRateCursor heartRateCursor) throws IOException {
         GPSCoordinate location = point.getLocation();
         if (location == null) {
             return false; // skip invalid points, that just contain hr data, for example
@@ -138,14 +177,14 @@ public class GPXExporter implements ActivityTrackExporter {
         }
         //ser.startTag(NS_DEFAULT, "src").text(source).endTag(NS_DEFAULT, "src");
 
-        exportTrackpointExtensions(ser, point, trackPoints);
+        exportTrackpointExtensions(ser, point, heartRateCursor);
 
         ser.endTag(NS_DEFAULT, "trkpt");
 
         return true;
     }
 
-    private void exportTrackpointExtensions(XmlSerializer ser, ActivityPoint point, List<ActivityPoint> trackPoints) throws IOException {
+    private void exportTrackpointExtensions(XmlSerializer ser, ActivityPoint point, HeartRateCursor heartRateCursor) throws IOException {
         if (!includeHeartRate) {
             return;
         }
@@ -156,7 +195,7 @@ public class GPXExporter implements ActivityTrackExporter {
                 return;
             }
 
-            ActivityPoint closestPointItem = findClosestSensibleActivityPoint(point.getTime(), trackPoints);
+            ActivityPoint closestPointItem = heartRateCursor.findClosestSensibleActivityPoint(point.getTime());
             if(closestPointItem == null) {
                 return;
             }
@@ -175,26 +214,78 @@ public class GPXExporter implements ActivityTrackExporter {
         ser.endTag(NS_DEFAULT, "extensions");
     }
 
-    private @Nullable ActivityPoint findClosestSensibleActivityPoint(Date time, List<ActivityPoint> trackPoints) {
-        ActivityPoint closestPointItem = null;
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
-
-        long lowestDifference = 60 * 2 * 1000; // minimum distance is 2min
-        for (ActivityPoint pointItem : trackPoints) {
-            int hrItem = pointItem.getHeartRate();
-            if (heartRateUtilsInstance.isValidHeartRateValue(hrItem)) {
-                Date timeItem = pointItem.getTime();
-                if (timeItem.after(time) || timeItem.equals(time)) {
-                    break; // we assume that the given trackPoints are sorted in time ascending order (oldest first)
-                }
-                long difference = time.getTime() - timeItem.getTime();
-                if (difference < lowestDifference) {
-                    lowestDifference = difference;
-                    closestPointItem = pointItem;
+    /**
+     * Finds the latest point with a valid heart rate before a given time, at most 2min earlier.
+     * The track points are exported in time order, so instead of searching the whole track for
+     * every point, we only move forward through it. When streaming, it moves through the points
+     * passed to add() so far instead.
+     */
+    private static class HeartRateCursor {
+        private static final long MAX_DIFFERENCE = 60 * 2 * 1000; // minimum distance is 2min
+
+        private final List<ActivityPoint> trackPoints;
+        private final Queue<ActivityPoint> received;
+        private final HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+        private Iterator<ActivityPoint> remaining;
+        private ActivityPoint pending;
+        private ActivityPoint latest;
+        private long lastTime = Long.MAX_VALUE;
+
+        HeartRateCursor(List<ActivityPoint> trackPoints) {
+            this.trackPoints = trackPoints;
+            this.received = null;
+        }
+
+        HeartRateCursor() {
+            this.trackPoints = null;
+            this.received = new ArrayDeque<>();
+        }
+
+        void add(ActivityPoint point) {
+            if (received != null && heartRateUtilsInstance.isValidHeartRateValue(point.getHeartRate())) {
+                received.add(point);
+            }
+        }
+
+        @Nullable
+        ActivityPoint findClosestSensibleActivityPoint(Date time) {
+            long millis = time.getTime();
+            if (millis < lastTime && trackPoints != null) {
+                // first call, or the points are not in time order after all: start over
+                remaining = trackPoints.iterator();
+                pending = null;
+                latest = null;
+            }
+            lastTime = millis;
+
+            while (pending != null || hasNext()) {
+                ActivityPoint pointItem = pending != null ? pending : next();
+                pending = null;
+                if (heartRateUtilsInstance.isValidHeartRateValue(pointItem.getHeartRate())) {
+                    long timeItem = pointItem.getTime().getTime();
+                    if (timeItem >= millis) {
+                        pending = pointItem; // may be needed for a later point
+                        break;
+                    }
+                    if (latest == null || timeItem > latest.getTime().getTime()) {
+                        latest = pointItem;
+                    }
                 }
             }
+
+            if (latest != null && millis - latest.getTime().getTime() < MAX_DIFFERENCE) {
+                return latest;
+            }
+            return null;
+        }
+
+        private boolean hasNext() {
+            return received != null ? !received.isEmpty() : remaining.hasNext();
+        }
+
+        private ActivityPoint next() {
+            return received != null ? received.poll() : remaining.next();
         }
-        return closestPointItem;
     }
 
     private String formatLocation(double value) {
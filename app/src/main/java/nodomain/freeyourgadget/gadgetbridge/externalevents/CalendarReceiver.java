@@ -21,21 +21,23 @@ package nodomain.freeyourgadget.gadgetbridge.externalevents;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.widget.Toast;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Enumeration;
 import java.util.GregorianCalendar;
-import java.util.Hashtable;
 import java.util.List;
 
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.EventHandler;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncState;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -46,43 +48,32 @@ import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class CalendarReceiver extends BroadcastReceiver {
     private static final Logger LOG = LoggerFactory.getLogger(CalendarReceiver.class);
-    private Hashtable<Long, EventSyncState> eventState = new Hashtable<>();
+    // stay well below SQLite's limit of 999 variables per statement
+    private static final int MAX_IDS_PER_DELETE = 500;
 
     private GBDevice mGBDevice;
-
-    private class EventSyncState {
-        private int state;
-        private CalendarEvents.CalendarEvent event;
-
-        EventSyncState(CalendarEvents.CalendarEvent event, int state) {
-            this.state = state;
-            this.event = event;
-        }
-
-        public int getState() {
-            return state;
-        }
-
-        public void setState(int state) {
-            this.state = state;
-        }
-
-        public CalendarEvents.CalendarEvent getEvent() {
-            return event;
+    // keeps the instances of the last successful sync, so that unchanged calendars are not synced again
+    private final CalendarEvents calendarEvents = new CalendarEvents();
+
+    /**
+     * The calendar entry ids and hashes that were synced to the device, sorted by id.
+     */
+    private static class SyncedEvents {
+        private final long[] ids;
+        private final int[] hashes;
+        private final boolean[] stillExists;
+
+        SyncedEvents(int count) {
+            ids = new long[count];
+            hashes = new int[count];
+            stillExists = new boolean[count];
         }
 
-        public void setEvent(CalendarEvents.CalendarEvent event) {
-            this.event = event;
+        int indexOf(long id) {
+            return Arrays.binarySearch(ids, id);
         }
     }
 
-    private static class EventState {
-        private static final int NOT_SYNCED = 0;
-        private static final int SYNCED = 1;
-        private static final int NEEDS_UPDATE = 2;
-        private static final int NEEDS_DELETE = 3;
-    }
-
     public CalendarReceiver(GBDevice gbDevice) {
         LOG.info("Created calendar receiver.");
         mGBDevice = gbDevice;
@@ -92,124 +83,135 @@ public class CalendarReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         LOG.info("got calendar changed broadcast");
-        List<CalendarEvents.CalendarEvent> eventList = (new CalendarEvents()).getCalendarEventList(GBApplication.getContext());
-        syncCalendar(eventList);
+        List<CalendarEvents.CalendarEvent> eventList = calendarEvents.getCalendarEventList(GBApplication.getContext());
+        if (!calendarEvents.hasChanged()) {
+            LOG.info("Calendar unchanged, nothing to sync.");
+            return;
+        }
+        if (syncCalendar(eventList)) {
+            // otherwise the next broadcast compares against the last synced state and retries
+            calendarEvents.markSynced();
+        }
     }
 
-    public void syncCalendar(List<CalendarEvents.CalendarEvent> eventList) {
+    /**
+     * Returns false if the events could not be synced.
+     */
+    public boolean syncCalendar(List<CalendarEvents.CalendarEvent> eventList) {
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             DaoSession session = dbHandler.getDaoSession();
             syncCalendar(eventList, session);
+            return true;
         } catch (Exception e1) {
-            GB.toast("Database Error while syncing Calendar", Toast.LENGTH_SHORT, GB.ERROR);
+            GB.toast("Database Error while syncing Calendar", Toast.LENGTH_SHORT, GB.ERROR, e1);
+            return false;
         }
     }
 
     public void syncCalendar(List<CalendarEvents.CalendarEvent> eventList, DaoSession session) {
         LOG.info("Syncing with calendar.");
-        Hashtable<Long, CalendarEvents.CalendarEvent> eventTable = new Hashtable<>();
-        Long deviceId = DBHelper.getDevice(mGBDevice, session).getId();
-        QueryBuilder<CalendarSyncState> qb = session.getCalendarSyncStateDao().queryBuilder();
-
+        final long deviceId = DBHelper.getDevice(mGBDevice, session).getId();
+        SyncedEvents synced = loadSyncedEvents(deviceId, session);
 
+        final List<CalendarSyncState> changedStates = new ArrayList<>();
+        List<CalendarEvents.CalendarEvent> toAdd = new ArrayList<>();
+        final List<Long> toDelete = new ArrayList<>();
         for (CalendarEvents.CalendarEvent e : eventList) {
             long id = e.getId();
-            eventTable.put(id, e);
-            if (!eventState.containsKey(e.getId())) {
-                qb = session.getCalendarSyncStateDao().queryBuilder();
-
-                CalendarSyncState calendarSyncState = qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(id)))
-                        .build().unique();
-                if (calendarSyncState == null) {
-                    eventState.put(id, new EventSyncState(e, EventState.NOT_SYNCED));
-                    LOG.info("event id=" + id + " is yet unknown to device id=" + deviceId);
-                } else if (calendarSyncState.getHash() == e.hashCode()) {
-                    eventState.put(id, new EventSyncState(e, EventState.SYNCED));
-                    LOG.info("event id=" + id + " is up to date on device id=" + deviceId);
-                }
-                else {
-                    eventState.put(id, new EventSyncState(e, EventState.NEEDS_UPDATE));
-                    LOG.info("event id=" + id + " is not up to date on device id=" + deviceId);
+            int hash = e.hashCode();
+            int index = synced.indexOf(id);
+            if (index < 0) {
+                LOG.info("event id=" + id + " is yet unknown to device id=" + deviceId);
+            } else {
+                synced.stillExists[index] = true;
+                if (synced.hashes[index] == hash) {
+                    continue;
                 }
+                LOG.info("event id=" + id + " is not up to date on device id=" + deviceId);
+                toDelete.add(id);
             }
+            toAdd.add(e);
+            changedStates.add(new CalendarSyncState(null, deviceId, id, hash));
         }
 
-        // add all missing calendar ids on the device to sync status (so that they are deleted later)
-        List<CalendarSyncState> CalendarSyncStateList = qb.where(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId)).build().list();
-        for (CalendarSyncState CalendarSyncState : CalendarSyncStateList) {
-            if (!eventState.containsKey(CalendarSyncState.getCalendarEntryId())) {
-                eventState.put(CalendarSyncState.getCalendarEntryId(), new EventSyncState(null, EventState.NEEDS_DELETE));
-                LOG.info("insert null event for orphanded calendar id=" + CalendarSyncState.getCalendarEntryId() + " for device=" + mGBDevice.getName());
+        int updated = toDelete.size();
+
+        final List<Long> removed = new ArrayList<>();
+        for (int i = 0; i < synced.ids.length; i++) {
+            if (!synced.stillExists[i]) {
+                LOG.info("deleting orphaned calendar id=" + synced.ids[i] + " for device=" + mGBDevice.getName());
+                removed.add(synced.ids[i]);
             }
         }
+        toDelete.addAll(removed);
 
-        Enumeration<Long> ids = eventState.keys();
-        while (ids.hasMoreElements()) {
-            qb = session.getCalendarSyncStateDao().queryBuilder();
-            Long i = ids.nextElement();
-            EventSyncState es = eventState.get(i);
-            if (eventTable.containsKey(i)) {
-                if (es.getState() == EventState.SYNCED) {
-                    if (!es.getEvent().equals(eventTable.get(i))) {
-                        eventState.put(i, new EventSyncState(eventTable.get(i), EventState.NEEDS_UPDATE));
-                    }
-                }
-            } else {
-                if (es.getState() == EventState.NOT_SYNCED) {
-                    // delete for current device only
-                    qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(i)))
+        if (changedStates.isEmpty() && removed.isEmpty()) {
+            LOG.info("Calendar is up to date on device id=" + deviceId);
+            return;
+        }
+
+        final CalendarSyncStateDao dao = session.getCalendarSyncStateDao();
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                dao.insertOrReplaceInTx(changedStates);
+                for (int start = 0; start < removed.size(); start += MAX_IDS_PER_DELETE) {
+                    List<Long> ids = removed.subList(start, Math.min(start + MAX_IDS_PER_DELETE, removed.size()));
+                    QueryBuilder<CalendarSyncState> qb = dao.queryBuilder();
+                    qb.where(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.in(ids))
                             .buildDelete().executeDeleteWithoutDetachingEntities();
-                    eventState.remove(i);
-                } else {
-                    es.setState(EventState.NEEDS_DELETE);
-                    eventState.put(i, es);
                 }
             }
-            updateEvents(deviceId, session);
+        });
+
+        // deletes go first, updated events are deleted and added again
+        EventHandler deviceService = GBApplication.deviceService().forDevice(mGBDevice);
+        for (Long id : toDelete) {
+            deviceService.onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, id);
         }
+        for (CalendarEvents.CalendarEvent calendarEvent : toAdd) {
+            deviceService.onAddCalendarEvent(createCalendarEventSpec(calendarEvent));
+        }
+        LOG.info("Synced calendar with device id=" + deviceId + ": " + (toAdd.size() - updated) + " added, "
+                + updated + " updated, " + removed.size() + " deleted");
     }
 
-    private void updateEvents(Long deviceId, DaoSession session) {
-        Enumeration<Long> ids = eventState.keys();
-        while (ids.hasMoreElements()) {
-            Long i = ids.nextElement();
-            EventSyncState es = eventState.get(i);
-            int syncState = es.getState();
-            if (syncState == EventState.NOT_SYNCED || syncState == EventState.NEEDS_UPDATE) {
-                CalendarEvents.CalendarEvent calendarEvent = es.getEvent();
-                CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
-                calendarEventSpec.id = i;
-                calendarEventSpec.title = calendarEvent.getTitle();
-                calendarEventSpec.allDay = calendarEvent.isAllDay();
-                calendarEventSpec.timestamp = calendarEvent.getBeginSeconds();
-                calendarEventSpec.durationInSeconds = calendarEvent.getDurationSeconds(); //FIXME: leads to problems right now
-                if (calendarEvent.isAllDay()) {
-                    //force the all day events to begin at midnight and last a whole day
-                    Calendar c = GregorianCalendar.getInstance();
-                    c.setTimeInMillis(calendarEvent.getBegin());
-                    c.set(Calendar.HOUR, 0);
-                    calendarEventSpec.timestamp = (int) (c.getTimeInMillis() / 1000);
-                    calendarEventSpec.durationInSeconds = 24 * 60 * 60;
-                }
-                calendarEventSpec.description = calendarEvent.getDescription();
-                calendarEventSpec.location = calendarEvent.getLocation();
-                calendarEventSpec.type = CalendarEventSpec.TYPE_UNKNOWN;
-                if (syncState == EventState.NEEDS_UPDATE) {
-                    GBApplication.deviceService().onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, i);
-                }
-                GBApplication.deviceService().onAddCalendarEvent(calendarEventSpec);
-                es.setState(EventState.SYNCED);
-                eventState.put(i, es);
-                // update db
-                session.insertOrReplace(new CalendarSyncState(null, deviceId, i, es.event.hashCode()));
-            } else if (syncState == EventState.NEEDS_DELETE) {
-                GBApplication.deviceService().onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, i);
-                eventState.remove(i);
-                // delete from db for current device only
-                QueryBuilder<CalendarSyncState> qb = session.getCalendarSyncStateDao().queryBuilder();
-                qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(i)))
-                        .buildDelete().executeDeleteWithoutDetachingEntities();
+    /**
+     * Loads the sync state of all events of the device at once, without creating entities.
+     */
+    private SyncedEvents loadSyncedEvents(long deviceId, DaoSession session) {
+        String sql = "SELECT " + CalendarSyncStateDao.Properties.CalendarEntryId.columnName + ", " + CalendarSyncStateDao.Properties.Hash.columnName
+                + " FROM " + CalendarSyncStateDao.TABLENAME
+                + " WHERE " + CalendarSyncStateDao.Properties.DeviceId.columnName + " = ?"
+                + " ORDER BY " + CalendarSyncStateDao.Properties.CalendarEntryId.columnName;
+        try (Cursor cursor = session.getDatabase().rawQuery(sql, new String[]{String.valueOf(deviceId)})) {
+            SyncedEvents synced = new SyncedEvents(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                synced.ids[i] = cursor.getLong(0);
+                synced.hashes[i] = cursor.getInt(1);
             }
+            return synced;
+        }
+    }
+
+    private CalendarEventSpec createCalendarEventSpec(CalendarEvents.CalendarEvent calendarEvent) {
+        CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
+        calendarEventSpec.id = calendarEvent.getId();
+        calendarEventSpec.title = calendarEvent.getTitle();
+        calendarEventSpec.allDay = calendarEvent.isAllDay();
+        calendarEventSpec.timestamp = calendarEvent.getBeginSeconds();
+        calendarEventSpec.durationInSeconds = calendarEvent.getDurationSeconds(); //FIXME: leads to problems right now
+        if (calendarEvent.isAllDay()) {
+            //force the all day events to begin at midnight and last a whole day
+            Calendar c = GregorianCalendar.getInstance();
+            c.setTimeInMillis(calendarEvent.getBegin());
+            c.set(Calendar.HOUR, 0);
+            calendarEventSpec.timestamp = (int) (c.getTimeInMillis() / 1000);
+            calendarEventSpec.durationInSeconds = 24 * 60 * 60;
         }
+        calendarEventSpec.description = calendarEvent.getDescription();
+        calendarEventSpec.location = calendarEvent.getLocation();
+        calendarEventSpec.type = CalendarEventSpec.TYPE_UNKNOWN;
+        return calendarEventSpec;
     }
 }
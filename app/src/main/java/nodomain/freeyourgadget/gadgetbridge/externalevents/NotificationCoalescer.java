@@ -0,0 +1,181 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+
+/**
+ * Merges bursts of notifications from the same conversation, so that a busy group chat does
+ * not end up as one write to the device per message.
+ *
+ * The first notification of a conversation is passed on right away and opens a window. Any
+ * further notifications arriving within that window are held back, keeping only the latest
+ * one, which is passed on at the end of the window with a "n new messages" line in front of
+ * its body. As long as messages keep coming in, the window is renewed, so a conversation
+ * results in at most one write per window.
+ *
+ * A conversation is identified by app and title. At most MAX_CONVERSATIONS are tracked; when
+ * more show up, the oldest one is flushed early.
+ */
+public class NotificationCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationCoalescer.class);
+
+    public static final long DEFAULT_WINDOW_MILLIS = 3000;
+    static final int MAX_CONVERSATIONS = 32;
+
+    public interface Target {
+        void onNotification(NotificationSpec notificationSpec);
+    }
+
+    private final Context context;
+    private final Target target;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Conversation> conversations = new LinkedHashMap<>();
+    private int savedWrites;
+
+    private class Conversation implements Runnable {
+        final String key;
+        final long windowMillis;
+        NotificationSpec pending;
+        int pendingCount;
+
+        Conversation(String key, long windowMillis) {
+            this.key = key;
+            this.windowMillis = windowMillis;
+        }
+
+        @Override
+        public void run() {
+            onWindowEnd(this);
+        }
+    }
+
+    public NotificationCoalescer(Context context, Target target) {
+        this.context = context.getApplicationContext();
+        this.target = target;
+    }
+
+    /**
+     * Passes the notification on now, or merges it into the next one passed on for its
+     * conversation.
+     */
+    public void post(NotificationSpec notificationSpec, long windowMillis) {
+        List<NotificationSpec> toSend = new ArrayList<>(2);
+        synchronized (this) {
+            String key = getConversationKey(notificationSpec);
+            Conversation conversation = conversations.get(key);
+            if (conversation != null) {
+                conversation.pending = notificationSpec;
+                conversation.pendingCount++;
+                return;
+            }
+
+            if (conversations.size() >= MAX_CONVERSATIONS) {
+                Iterator<Conversation> it = conversations.values().iterator();
+                Conversation eldest = it.next();
+                it.remove();
+                handler.removeCallbacks(eldest);
+                addPending(eldest, toSend);
+            }
+            conversation = new Conversation(key, windowMillis);
+            conversations.put(key, conversation);
+            handler.postDelayed(conversation, windowMillis);
+            toSend.add(notificationSpec);
+        }
+        send(toSend);
+    }
+
+    /**
+     * Returns how many notifications were merged into others instead of being sent on their own.
+     */
+    public synchronized int getSavedWrites() {
+        return savedWrites;
+    }
+
+    /**
+     * Passes on everything that is still held back.
+     */
+    public void flush() {
+        List<NotificationSpec> toSend = new ArrayList<>();
+        synchronized (this) {
+            for (Conversation conversation : conversations.values()) {
+                handler.removeCallbacks(conversation);
+                addPending(conversation, toSend);
+            }
+            conversations.clear();
+        }
+        send(toSend);
+    }
+
+    private void onWindowEnd(Conversation conversation) {
+        List<NotificationSpec> toSend = new ArrayList<>(1);
+        synchronized (this) {
+            if (conversations.get(conversation.key) != conversation) {
+                return;
+            }
+            if (conversation.pending == null) {
+                conversations.remove(conversation.key);
+                return;
+            }
+            addPending(conversation, toSend);
+            handler.postDelayed(conversation, conversation.windowMillis);
+        }
+        send(toSend);
+    }
+
+    private void addPending(Conversation conversation, List<NotificationSpec> toSend) {
+        NotificationSpec notificationSpec = conversation.pending;
+        if (notificationSpec == null) {
+            return;
+        }
+        int count = conversation.pendingCount;
+        if (count > 1) {
+            String summary = context.getResources().getQuantityString(R.plurals.notifications_coalesced, count, count);
+            notificationSpec.body = notificationSpec.body != null ? summary + "\n" + notificationSpec.body : summary;
+            savedWrites += count - 1;
+            LOG.info("Merged " + count + " notifications from " + notificationSpec.sourceAppId + ", " + savedWrites + " writes saved so far");
+        }
+        conversation.pending = null;
+        conversation.pendingCount = 0;
+        toSend.add(notificationSpec);
+    }
+
+    private void send(List<NotificationSpec> toSend) {
+        for (NotificationSpec notificationSpec : toSend) {
+            target.onNotification(notificationSpec);
+        }
+    }
+
+    private static String getConversationKey(NotificationSpec notificationSpec) {
+        String conversation = notificationSpec.title != null ? notificationSpec.title : notificationSpec.sender;
+        return notificationSpec.sourceAppId + "\u0000" + conversation;
+    }
+}
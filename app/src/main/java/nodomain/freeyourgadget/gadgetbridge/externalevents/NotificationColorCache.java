@@ -0,0 +1,194 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.palette.graphics.Palette;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleColor;
+import nodomain.freeyourgadget.gadgetbridge.util.AppMetadataCache;
+import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+/**
+ * Caches the Pebble color derived from an app's icon, per package. Package names are used as
+ * they are, the package manager does not find them in lower case.
+ *
+ * Colors are kept in memory and persisted to a separate SharedPreferences file together with the
+ * package's last update time, so that they survive restarts and get recomputed after the app
+ * was updated. The icon is decoded and run through Palette on a background thread; until that
+ * is done, callers get the given default color.
+ */
+public class NotificationColorCache {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationColorCache.class);
+
+    private static final String PREFS_NAME = "notification_colors";
+
+    private final Context context;
+    private final AppMetadataCache appMetadata;
+    private final SharedPreferences store;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /**
+     * Counts the calls of invalidate(), so that colors computed before one can be dropped.
+     * Guarded by this.
+     */
+    private int generation;
+
+    private static class Entry {
+        final long lastUpdateTime;
+        final byte color;
+        /**
+         * Entries loaded from disk are checked against the installed package once per process.
+         */
+        volatile boolean verified;
+
+        Entry(long lastUpdateTime, byte color, boolean verified) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.color = color;
+            this.verified = verified;
+        }
+    }
+
+    public NotificationColorCache(Context context) {
+        this.context = context.getApplicationContext();
+        appMetadata = AppMetadataCache.getInstance(context);
+        store = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    private void load() {
+        for (Map.Entry<String, ?> stored : store.getAll().entrySet()) {
+            if (!(stored.getValue() instanceof String)) {
+                continue;
+            }
+            String[] parts = ((String) stored.getValue()).split(":");
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                entries.put(stored.getKey(), new Entry(Long.parseLong(parts[0]), Byte.parseByte(parts[1]), false));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid cached color for " + stored.getKey());
+            }
+        }
+        LOG.debug("Loaded " + entries.size() + " cached notification colors");
+    }
+
+    /**
+     * Returns the cached color for the given package. On a cache miss, the color is computed in
+     * the background and defaultColor is returned in the meantime.
+     */
+    public byte getColor(String packageName, byte defaultColor) {
+        Entry entry = entries.get(packageName);
+        if (entry != null && !entry.verified) {
+            if (entry.lastUpdateTime == getLastUpdateTime(packageName)) {
+                entry.verified = true;
+            } else {
+                invalidate(packageName);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            return entry.color;
+        }
+        scheduleUpdate(packageName);
+        return defaultColor;
+    }
+
+    public synchronized void invalidate(String packageName) {
+        generation++;
+        if (entries.remove(packageName) != null) {
+            LOG.debug("Invalidated cached notification color for " + packageName);
+            store.edit().remove(packageName).apply();
+        }
+    }
+
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    private void scheduleUpdate(final String packageName) {
+        if (!pending.add(packageName)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updateColor(packageName);
+                } finally {
+                    pending.remove(packageName);
+                }
+            }
+        });
+    }
+
+    private void updateColor(String packageName) {
+        int startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        long lastUpdateTime = getLastUpdateTime(packageName);
+        if (lastUpdateTime == -1) {
+            return;
+        }
+
+        byte color;
+        try {
+            Drawable icon = context.getPackageManager().getApplicationIcon(packageName);
+            Bitmap bitmapIcon = BitmapUtil.convertDrawableToBitmap(icon);
+            int iconPrimaryColor = new Palette.Builder(bitmapIcon)
+                    .generate()
+                    .getVibrantColor(Color.parseColor("#aa0000"));
+            color = PebbleUtils.getPebbleColor(iconPrimaryColor);
+        } catch (Exception ex) {
+            // If we can't get the icon, we go with the default
+            LOG.warn("Could not get icon for AppID " + packageName, ex);
+            color = PebbleColor.IslamicGreen;
+        }
+
+        synchronized (this) {
+            if (generation != startGeneration) {
+                // the package may have been updated while we were looking at its old icon
+                LOG.debug("Dropping notification color for " + packageName + ", cache was invalidated meanwhile");
+                return;
+            }
+            entries.put(packageName, new Entry(lastUpdateTime, color, true));
+            store.edit().putString(packageName, lastUpdateTime + ":" + color).apply();
+        }
+    }
+
+    private long getLastUpdateTime(String packageName) {
+        return appMetadata.getLastUpdateTime(packageName);
+    }
+}
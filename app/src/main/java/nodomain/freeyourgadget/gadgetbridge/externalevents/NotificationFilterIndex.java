@@ -0,0 +1,119 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
+import nodomain.freeyourgadget.gadgetbridge.util.MultiPatternMatcher;
+
+/**
+ * In-memory copy of all notification filters, with each filter's words compiled into a
+ * MultiPatternMatcher.
+ *
+ * The filters are read from the database on first use and kept until invalidate() is called,
+ * which has to happen whenever filters are changed in the database.
+ */
+public class NotificationFilterIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationFilterIndex.class);
+
+    private static volatile Map<String, Entry> filters;
+    private static volatile int generation;
+
+    public static class Entry {
+        private final NotificationFilter filter;
+        private final MultiPatternMatcher matcher;
+
+        Entry(NotificationFilter filter, List<String> words) {
+            this.filter = filter;
+            this.matcher = new MultiPatternMatcher(words);
+        }
+
+        public NotificationFilter getFilter() {
+            return filter;
+        }
+
+        public MultiPatternMatcher getMatcher() {
+            return matcher;
+        }
+    }
+
+    /**
+     * Returns the filter for the given app, or null if there is none.
+     *
+     * @throws Exception if the filters could not be loaded from the database
+     */
+    public static Entry get(String packageName) throws Exception {
+        Map<String, Entry> current = filters;
+        if (current == null) {
+            current = load();
+        }
+        return current.get(packageName.toLowerCase());
+    }
+
+    public static void invalidate() {
+        generation++;
+        filters = null;
+    }
+
+    private static synchronized Map<String, Entry> load() throws Exception {
+        if (filters != null) {
+            return filters;
+        }
+        long start = System.currentTimeMillis();
+        int loadedGeneration = generation;
+
+        List<NotificationFilter> filterList;
+        List<NotificationFilterEntry> entryList;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            filterList = db.getDaoSession().getNotificationFilterDao().loadAll();
+            entryList = db.getDaoSession().getNotificationFilterEntryDao().loadAll();
+        }
+
+        Map<Long, List<String>> wordsByFilter = new HashMap<>();
+        for (NotificationFilterEntry entry : entryList) {
+            List<String> words = wordsByFilter.get(entry.getNotificationFilterId());
+            if (words == null) {
+                words = new ArrayList<>();
+                wordsByFilter.put(entry.getNotificationFilterId(), words);
+            }
+            words.add(entry.getNotificationFilterContent());
+        }
+
+        Map<String, Entry> loaded = new HashMap<>();
+        for (NotificationFilter filter : filterList) {
+            List<String> words = wordsByFilter.get(filter.getId());
+            loaded.put(filter.getAppIdentifier().toLowerCase(), new Entry(filter, words != null ? words : new ArrayList<String>()));
+        }
+
+        LOG.debug("Loaded " + loaded.size() + " notification filters in " + (System.currentTimeMillis() - start) + "ms");
+        if (loadedGeneration == generation) {
+            // otherwise the filters changed while loading, read them again next time
+            filters = loaded;
+        }
+        return loaded;
+    }
+}
@@ -28,10 +28,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.media.MediaMetadata;
 import android.media.session.PlaybackState;
 import android.os.Bundle;
@@ -44,41 +40,33 @@ import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.RemoteInput;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import androidx.palette.graphics.Palette;
-import de.greenrobot.dao.query.Query;
-import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleColor;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterDao;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntryDao;
 import nodomain.freeyourgadget.gadgetbridge.model.AppNotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
-import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
+import nodomain.freeyourgadget.gadgetbridge.util.AppMetadataCache;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
-import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.MultiPatternMatcher;
+import nodomain.freeyourgadget.gadgetbridge.util.OrderedExecutor;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingHistogram;
 
 import static androidx.media.app.NotificationCompat.MediaStyle.getMediaSession;
 import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST;
@@ -109,6 +97,28 @@ public class NotificationListener extends NotificationListenerService {
 
     private long activeCallPostTime;
 
+    private NotificationColorCache mColorCache;
+    private NotificationCoalescer mCoalescer;
+
+    // everything but the quick checks runs on a worker thread, one notification after the other
+    private static final String PROCESSING_LANE = "notifications";
+    private final OrderedExecutor mExecutor = new OrderedExecutor("NotificationListener", 1, 64);
+    private final TimingHistogram mQueuedTiming = new TimingHistogram("notification queued");
+    private final TimingHistogram mProcessedTiming = new TimingHistogram("notification processed");
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() == null) {
+                return;
+            }
+            String packageName = intent.getData().getSchemeSpecificPart();
+            if (packageName != null) {
+                mColorCache.invalidate(packageName);
+            }
+        }
+    };
+
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
 
         @Override
@@ -219,27 +229,40 @@ public class NotificationListener extends NotificationListenerService {
         filterLocal.addAction(ACTION_MUTE);
         filterLocal.addAction(ACTION_REPLY);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, filterLocal);
+
+        AppMetadataCache.getInstance(this).warmUp();
+        mColorCache = new NotificationColorCache(this);
+        mCoalescer = new NotificationCoalescer(this, new NotificationCoalescer.Target() {
+            @Override
+            public void onNotification(NotificationSpec notificationSpec) {
+                GBApplication.deviceService().onNotification(notificationSpec);
+            }
+        });
+        IntentFilter filterPackages = new IntentFilter();
+        filterPackages.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filterPackages.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filterPackages.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filterPackages.addDataScheme("package");
+        registerReceiver(mPackageReceiver, filterPackages);
     }
 
     @Override
     public void onDestroy() {
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        unregisterReceiver(mPackageReceiver);
+        mColorCache.dispose();
+        mExecutor.shutdown();
+        mCoalescer.flush();
         super.onDestroy();
     }
 
     public String getAppName(String pkg) {
         // determinate Source App Name ("Label")
-        PackageManager pm = getPackageManager();
-        try {
-            return (String)pm.getApplicationLabel(pm.getApplicationInfo(pkg, 0));
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return AppMetadataCache.getInstance(this).getLabel(pkg);
     }
 
     @Override
-    public void onNotificationPosted(StatusBarNotification sbn) {
+    public void onNotificationPosted(final StatusBarNotification sbn) {
         if ("call".equals(sbn.getNotification().category)) {
             handleCallNotification(sbn);
             return;
@@ -249,10 +272,6 @@ public class NotificationListener extends NotificationListenerService {
             return;
         }
 
-
-
-        Prefs prefs = GBApplication.getPrefs();
-
         switch (GBApplication.getGrantedInterruptionFilter()) {
             case NotificationManager.INTERRUPTION_FILTER_ALL:
                 break;
@@ -264,6 +283,20 @@ public class NotificationListener extends NotificationListenerService {
                 return;
         }
 
+        final long postedTime = System.nanoTime();
+        mExecutor.execute(PROCESSING_LANE, new Runnable() {
+            @Override
+            public void run() {
+                mQueuedTiming.recordSince(postedTime);
+                long startTime = System.nanoTime();
+                processNotification(sbn);
+                mProcessedTiming.recordSince(startTime);
+            }
+        });
+    }
+
+    private void processNotification(StatusBarNotification sbn) {
+        Prefs prefs = GBApplication.getPrefs();
         String source = sbn.getPackageName().toLowerCase();
         Notification notification = sbn.getNotification();
         if (notificationOldRepeatPrevention.containsKey(source)) {
@@ -273,10 +306,12 @@ public class NotificationListener extends NotificationListenerService {
             }
         }
 
-        // Ignore too frequent notifications, according to user preference
+        // Ignore too frequent notifications, according to user preference,
+        // unless they are to be merged instead
         long min_timeout = (long)prefs.getInt("notifications_timeout", 0) * 1000L;
         long cur_time = System.currentTimeMillis();
-        if (notificationBurstPrevention.containsKey(source)) {
+        boolean coalesce = prefs.getBoolean("notifications_coalesce", false);
+        if (!coalesce && notificationBurstPrevention.containsKey(source)) {
             long last_time = notificationBurstPrevention.get(source);
             if (cur_time - last_time < min_timeout) {
                 LOG.info("Ignoring frequent notification, last one was " + (cur_time - last_time) + "ms ago");
@@ -313,7 +348,7 @@ public class NotificationListener extends NotificationListenerService {
         }
 
         // Get color
-        notificationSpec.pebbleColor = getPebbleColorForNotification(notificationSpec);
+        notificationSpec.pebbleColor = getPebbleColorForNotification(notificationSpec, sbn.getPackageName());
 
         LOG.info("Processing notification " + notificationSpec.getId() + " age: " + (System.currentTimeMillis() - notification.when) + " from source " + source + " with flags: " + notification.flags);
 
@@ -386,50 +421,28 @@ public class NotificationListener extends NotificationListenerService {
             LOG.info("This app might show old/duplicate notifications. notification.when is 0 for " + source);
         }
 
-        GBApplication.deviceService().onNotification(notificationSpec);
+        if (coalesce) {
+            mCoalescer.post(notificationSpec, min_timeout > 0 ? min_timeout : NotificationCoalescer.DEFAULT_WINDOW_MILLIS);
+        } else {
+            GBApplication.deviceService().onNotification(notificationSpec);
+        }
     }
 
     private boolean checkNotificationContentForWhiteAndBlackList(String packageName, String body) {
-        long start = System.currentTimeMillis();
-
-        List<String> wordsList = new ArrayList<>();
-        NotificationFilter notificationFilter;
-
-        try (DBHandler db = GBApplication.acquireDB()) {
-
-            NotificationFilterDao notificationFilterDao = db.getDaoSession().getNotificationFilterDao();
-            NotificationFilterEntryDao notificationFilterEntryDao = db.getDaoSession().getNotificationFilterEntryDao();
-
-            Query<NotificationFilter> query = notificationFilterDao.queryBuilder().where(NotificationFilterDao.Properties.AppIdentifier.eq(packageName.toLowerCase())).build();
-            notificationFilter = query.unique();
-
-            if (notificationFilter == null) {
-                LOG.debug("No Notification Filter found");
-                return true;
-            }
-
-            LOG.debug("Loaded notification filter for '{}'", packageName);
-            Query<NotificationFilterEntry> queryEntries = notificationFilterEntryDao.queryBuilder().where(NotificationFilterEntryDao.Properties.NotificationFilterId.eq(notificationFilter.getId())).build();
-
-            List<NotificationFilterEntry> filterEntries = queryEntries.list();
-
-            if (BuildConfig.DEBUG) {
-                LOG.info("Database lookup took '{}' ms", System.currentTimeMillis() - start);
-            }
-
-            if (!filterEntries.isEmpty()) {
-                for (NotificationFilterEntry temp : filterEntries) {
-                    wordsList.add(temp.getNotificationFilterContent());
-                    LOG.debug("Loaded filter word: " + temp.getNotificationFilterContent());
-                }
-            }
-
+        NotificationFilterIndex.Entry filterEntry;
+        try {
+            filterEntry = NotificationFilterIndex.get(packageName);
         } catch (Exception e) {
             LOG.error("Could not acquire DB.", e);
             return true;
         }
 
-        return shouldContinueAfterFilter(body, wordsList, notificationFilter);
+        if (filterEntry == null) {
+            LOG.debug("No Notification Filter found");
+            return true;
+        }
+
+        return shouldContinueAfterFilter(body, filterEntry.getMatcher(), filterEntry.getFilter());
     }
 
     private void handleCallNotification(StatusBarNotification sbn) {
@@ -471,24 +484,26 @@ public class NotificationListener extends NotificationListenerService {
     }
 
     boolean shouldContinueAfterFilter(@NonNull String body, @NonNull List<String> wordsList, @NonNull NotificationFilter notificationFilter) {
+        return shouldContinueAfterFilter(body, new MultiPatternMatcher(wordsList), notificationFilter);
+    }
+
+    private boolean shouldContinueAfterFilter(@NonNull String body, @NonNull MultiPatternMatcher words, @NonNull NotificationFilter notificationFilter) {
 
-        LOG.debug("Mode: '{}' Submode: '{}' WordsList: '{}'", notificationFilter.getNotificationFilterMode(), notificationFilter.getNotificationFilterSubMode(), wordsList);
+        LOG.debug("Mode: '{}' Submode: '{}' WordsList: '{}'", notificationFilter.getNotificationFilterMode(), notificationFilter.getNotificationFilterSubMode(), words.getPatterns());
 
         boolean allMode = notificationFilter.getNotificationFilterSubMode() == NOTIFICATION_FILTER_SUBMODE_ALL;
 
         switch (notificationFilter.getNotificationFilterMode()) {
             case NOTIFICATION_FILTER_MODE_BLACKLIST:
                 if (allMode) {
-                    for (String word : wordsList) {
-                        if (!body.contains(word)) {
-                            LOG.info("Not every word was found, blacklist has no effect, processing continues.");
-                            return true;
-                        }
+                    if (!words.containsAll(body)) {
+                        LOG.info("Not every word was found, blacklist has no effect, processing continues.");
+                        return true;
                     }
                     LOG.info("Every word was found, blacklist has effect, processing stops.");
                     return false;
                 } else {
-                    boolean containsAny = StringUtils.containsAny(body, wordsList.toArray(new CharSequence[0]));
+                    boolean containsAny = words.containsAny(body);
                     if (!containsAny) {
                         LOG.info("No matching word was found, blacklist has no effect, processing continues.");
                     } else {
@@ -499,16 +514,14 @@ public class NotificationListener extends NotificationListenerService {
 
             case NOTIFICATION_FILTER_MODE_WHITELIST:
                 if (allMode) {
-                    for (String word : wordsList) {
-                        if (!body.contains(word)) {
-                            LOG.info("Not every word was found, whitelist has no effect, processing stops.");
-                            return false;
-                        }
+                    if (!words.containsAll(body)) {
+                        LOG.info("Not every word was found, whitelist has no effect, processing stops.");
+                        return false;
                     }
                     LOG.info("Every word was found, whitelist has effect, processing continues.");
                     return true;
                 } else {
-                    boolean containsAny = StringUtils.containsAny(body, wordsList.toArray(new CharSequence[0]));
+                    boolean containsAny = words.containsAny(body);
                     if (containsAny) {
                         LOG.info("At least one matching word was found, whitelist has effect, processing continues.");
                     } else {
@@ -749,10 +762,10 @@ public class NotificationListener extends NotificationListenerService {
      * See Issue #815 on GitHub to see how notification colors are set.
      *
      * @param notificationSpec The NotificationSpec to read from.
+     * @param packageName The package that posted the notification, not lower cased like the sourceAppId.
      * @return Returns a PebbleColor that best represents this notification.
      */
-    private byte getPebbleColorForNotification(NotificationSpec notificationSpec) {
-        String appId = notificationSpec.sourceAppId;
+    private byte getPebbleColorForNotification(NotificationSpec notificationSpec, String packageName) {
         NotificationType existingType = notificationSpec.type;
 
         // If the notification type is known, return the associated color.
@@ -760,22 +773,8 @@ public class NotificationListener extends NotificationListenerService {
             return existingType.color;
         }
 
-        // Otherwise, we go and attempt to find the color from the app icon.
-        Drawable icon;
-        try {
-            icon = getApplicationContext().getPackageManager().getApplicationIcon(appId);
-            Objects.requireNonNull(icon);
-        } catch (Exception ex) {
-            // If we can't get the icon, we go with the default defined above.
-            LOG.warn("Could not get icon for AppID " + appId, ex);
-            return PebbleColor.IslamicGreen;
-        }
-
-        Bitmap bitmapIcon = BitmapUtil.convertDrawableToBitmap(icon);
-        int iconPrimaryColor = new Palette.Builder(bitmapIcon)
-                .generate()
-                .getVibrantColor(Color.parseColor("#aa0000"));
-
-        return PebbleUtils.getPebbleColor(iconPrimaryColor);
+        // Otherwise, use the color derived from the app icon, it is computed in the background
+        // when seen for the first time.
+        return mColorCache.getColor(packageName, existingType.color);
     }
 }
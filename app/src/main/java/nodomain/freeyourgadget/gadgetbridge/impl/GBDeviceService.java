@@ -19,14 +19,18 @@
 package nodomain.freeyourgadget.gadgetbridge.impl;
 
 import android.app.Service;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.IBinder;
 import android.provider.ContactsContract;
 
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.Nullable;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -50,6 +54,7 @@ import static nodomain.freeyourgadget.gadgetbridge.util.JavaExtensions.coalesce;
 public class GBDeviceService implements DeviceService {
     protected final Context mContext;
     private final Class<? extends Service> mServiceClass;
+    private final GBDevice mTargetDevice;
     private final String[] transliterationExtras = new String[]{
             EXTRA_NOTIFICATION_PHONENUMBER,
             EXTRA_NOTIFICATION_SENDER,
@@ -66,13 +71,44 @@ public class GBDeviceService implements DeviceService {
             EXTRA_CALENDAREVENT_DESCRIPTION
     };
 
+    // the sequence number of the last intent sent to the service from this process, so that the
+    // direct calls can be ordered after it; see DeviceCommunicationService.LocalBinder
+    private static final AtomicLong sIntentSequence = new AtomicLong();
+
+    // set while we are bound to DeviceCommunicationService in our own process
+    private volatile DeviceCommunicationService.LocalBinder mDirectService;
+    // guarded by this
+    private boolean mBound;
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            if (binder instanceof DeviceCommunicationService.LocalBinder) {
+                mDirectService = (DeviceCommunicationService.LocalBinder) binder;
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mDirectService = null;
+        }
+    };
+
     public GBDeviceService(Context context) {
+        this(context, null);
+    }
+
+    protected GBDeviceService(Context context, @Nullable GBDevice targetDevice) {
         mContext = context;
         mServiceClass = DeviceCommunicationService.class;
+        mTargetDevice = targetDevice;
     }
 
     protected Intent createIntent() {
-        return new Intent(mContext, mServiceClass);
+        Intent intent = new Intent(mContext, mServiceClass);
+        if (mTargetDevice != null) {
+            intent.putExtra(GBDevice.EXTRA_DEVICE, mTargetDevice);
+        }
+        return intent;
     }
 
     protected void invokeService(Intent intent) {
@@ -92,17 +128,61 @@ public class GBDeviceService implements DeviceService {
             }
         }
 
-        mContext.startService(intent);
+        synchronized (sIntentSequence) {
+            long sequence = sIntentSequence.get() + 1;
+            intent.putExtra(EXTRA_INTENT_SEQUENCE, sequence);
+            mContext.startService(intent);
+            // only count intents that were sent, direct calls would wait for the others forever
+            sIntentSequence.set(sequence);
+        }
     }
 
     protected void stopService(Intent intent) {
         mContext.stopService(intent);
     }
 
+    /**
+     * Binds to the running service, so that notifications, calls and music changes can be
+     * passed to it directly instead of being put into an Intent. Does not start the service.
+     */
+    private synchronized void bindDirectService() {
+        // the direct calls go to all devices
+        if (!mBound && mTargetDevice == null) {
+            try {
+                mBound = mContext.bindService(createIntent(), mConnection, 0);
+            } catch (SecurityException e) {
+                mBound = false;
+            }
+        }
+    }
+
+    private synchronized void unbindDirectService() {
+        mDirectService = null;
+        if (mBound) {
+            mBound = false;
+            mContext.unbindService(mConnection);
+        }
+    }
+
+    /**
+     * Applies the same transliteration and RTL handling that invokeService() applies to the
+     * intent extras.
+     */
+    private String prepareText(String text, boolean transliterate, boolean rtl) {
+        if (transliterate) {
+            text = LanguageUtils.transliterate(text);
+        }
+        if (rtl) {
+            text = RtlUtils.fixRtl(text);
+        }
+        return text;
+    }
+
     @Override
     public void start() {
         Intent intent = createIntent().setAction(ACTION_START);
         invokeService(intent);
+        bindDirectService();
     }
 
     @Override
@@ -121,6 +201,7 @@ public class GBDeviceService implements DeviceService {
                 .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_CONNECT_FIRST_TIME, firstTime);
         invokeService(intent);
+        bindDirectService();
     }
 
     @Override
@@ -131,10 +212,16 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void quit() {
+        unbindDirectService();
         Intent intent = createIntent();
         stopService(intent);
     }
 
+    @Override
+    public DeviceService forDevice(GBDevice device) {
+        return new GBDeviceService(mContext, device);
+    }
+
     @Override
     public void requestDeviceInfo() {
         Intent intent = createIntent().setAction(ACTION_REQUEST_DEVICEINFO);
@@ -143,6 +230,26 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onNotification(NotificationSpec notificationSpec) {
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            boolean transliterate = LanguageUtils.transliterate();
+            boolean rtl = RtlUtils.rtlSupport();
+            // a copy, just like the service would get from the intent
+            NotificationSpec spec = new NotificationSpec(notificationSpec.getId());
+            spec.flags = notificationSpec.flags;
+            spec.phoneNumber = prepareText(notificationSpec.phoneNumber, transliterate, rtl);
+            spec.sender = prepareText(coalesce(notificationSpec.sender, getContactDisplayNameByNumber(notificationSpec.phoneNumber)), transliterate, rtl);
+            spec.subject = prepareText(notificationSpec.subject, transliterate, rtl);
+            spec.title = prepareText(notificationSpec.title, transliterate, rtl);
+            spec.body = prepareText(notificationSpec.body, transliterate, rtl);
+            spec.type = notificationSpec.type;
+            spec.attachedActions = notificationSpec.attachedActions != null ? new ArrayList<>(notificationSpec.attachedActions) : null;
+            spec.sourceName = prepareText(notificationSpec.sourceName, transliterate, rtl);
+            spec.pebbleColor = notificationSpec.pebbleColor;
+            spec.sourceAppId = notificationSpec.sourceAppId;
+            directService.onNotification(spec, sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_NOTIFICATION)
                 .putExtra(EXTRA_NOTIFICATION_FLAGS, notificationSpec.flags)
                 .putExtra(EXTRA_NOTIFICATION_PHONENUMBER, notificationSpec.phoneNumber)
@@ -161,6 +268,11 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onDeleteNotification(int id) {
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            directService.onDeleteNotification(id, sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_DELETE_NOTIFICATION)
                 .putExtra(EXTRA_NOTIFICATION_ID, id);
         invokeService(intent);
@@ -169,6 +281,11 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSetTime() {
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            directService.onSetTime(sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_SETTIME);
         invokeService(intent);
     }
@@ -198,6 +315,17 @@ public class GBDeviceService implements DeviceService {
             callSpec.name = coalesce(callSpec.name, getContactDisplayNameByNumber(callSpec.number));
         }
 
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            boolean transliterate = LanguageUtils.transliterate();
+            boolean rtl = RtlUtils.rtlSupport();
+            CallSpec spec = new CallSpec();
+            spec.command = callSpec.command;
+            spec.number = prepareText(callSpec.number, transliterate, rtl);
+            spec.name = prepareText(callSpec.name, transliterate, rtl);
+            directService.onSetCallState(spec, sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_CALLSTATE)
                 .putExtra(EXTRA_CALL_PHONENUMBER, callSpec.number)
                 .putExtra(EXTRA_CALL_DISPLAYNAME, callSpec.name)
@@ -215,6 +343,11 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSetMusicState(MusicStateSpec stateSpec) {
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            directService.onSetMusicState(new MusicStateSpec(stateSpec), sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_SETMUSICSTATE)
                 .putExtra(EXTRA_MUSIC_REPEAT, stateSpec.repeat)
                 .putExtra(EXTRA_MUSIC_RATE, stateSpec.playRate)
@@ -226,6 +359,17 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSetMusicInfo(MusicSpec musicSpec) {
+        DeviceCommunicationService.LocalBinder directService = mDirectService;
+        if (directService != null) {
+            boolean transliterate = LanguageUtils.transliterate();
+            boolean rtl = RtlUtils.rtlSupport();
+            MusicSpec spec = new MusicSpec(musicSpec);
+            spec.artist = prepareText(musicSpec.artist, transliterate, rtl);
+            spec.album = prepareText(musicSpec.album, transliterate, rtl);
+            spec.track = prepareText(musicSpec.track, transliterate, rtl);
+            directService.onSetMusicInfo(spec, sIntentSequence.get());
+            return;
+        }
         Intent intent = createIntent().setAction(ACTION_SETMUSICINFO)
                 .putExtra(EXTRA_MUSIC_ARTIST, musicSpec.artist)
                 .putExtra(EXTRA_MUSIC_ALBUM, musicSpec.album)
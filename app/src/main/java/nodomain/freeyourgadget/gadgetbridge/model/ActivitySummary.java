@@ -32,6 +32,11 @@ public interface ActivitySummary extends Serializable {
     int getActivityKind();
     String getGpxTrack();
 
+    /**
+     * The path of the track in the format of BinaryTrackExporter, if any.
+     */
+    String getBinaryTrack();
+
     long getDeviceId();
 
     long getUserId();
@@ -21,7 +21,9 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.provider.CalendarContract.Events;
 import android.provider.CalendarContract.Instances;
+import android.text.TextUtils;
 import android.text.format.Time;
 
 import org.slf4j.Logger;
@@ -30,8 +32,12 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 
@@ -46,29 +52,100 @@ public class CalendarEvents {
     // needed for miband:
     // time
 
+    // the text of an event is the same for all its instances, see EVENT_TEXT_PROJECTION
     private static final String[] EVENT_INSTANCE_PROJECTION = new String[]{
             Instances._ID,
 
             Instances.BEGIN,
             Instances.END,
             Instances.DURATION,
-            Instances.TITLE,
-            Instances.DESCRIPTION,
-            Instances.EVENT_LOCATION,
+            Instances.EVENT_ID,
             Instances.CALENDAR_DISPLAY_NAME,
             Instances.ALL_DAY
     };
 
-    private static final int lookahead_days = 7;
+    private static final String[] EVENT_TEXT_PROJECTION = new String[]{
+            Events._ID,
+
+            Events.TITLE,
+            Events.DESCRIPTION,
+            Events.EVENT_LOCATION
+    };
 
-    private List<CalendarEvent> calendarEventList = new ArrayList<CalendarEvent>();
+    // stay well below SQLite's limit of 999 variables per statement
+    private static final int MAX_EVENTS_PER_QUERY = 500;
 
+    private static final int lookahead_days = 7;
+
+    // the instances that were last synced, so that unchanged ones can be reused
+    private Map<Long, CalendarEvent> syncedEvents;
+    // the instances of the last fetch, they replace syncedEvents in markSynced()
+    private Map<Long, CalendarEvent> fetchedEvents = new HashMap<>();
+    private int changedEventCount;
+    private boolean changed = true;
+
+    /**
+     * Returns the instances of the next days. Instances that did not change since the last
+     * markSynced() are returned as the same CalendarEvent objects as before.
+     */
     public List<CalendarEvent> getCalendarEventList(Context mContext) {
-        fetchSystemEvents(mContext);
-        return calendarEventList;
+        List<CalendarEvent> calendarEventList = new ArrayList<>();
+        fetchSystemEvents(mContext, calendarEventList);
+        return update(calendarEventList);
+    }
+
+    /**
+     * Compares the given instances with the ones of the last markSynced(), see hasChanged() and
+     * getChangedEventCount(). Returns the instances, with the unchanged ones replaced by the
+     * synced objects.
+     */
+    public List<CalendarEvent> update(List<CalendarEvent> calendarEventList) {
+        boolean firstFetch = syncedEvents == null;
+        Map<Long, CalendarEvent> previousEvents = firstFetch ? new HashMap<Long, CalendarEvent>() : syncedEvents;
+        fetchedEvents = new HashMap<>();
+        changedEventCount = 0;
+
+        List<CalendarEvent> result = new ArrayList<>(calendarEventList.size());
+        for (CalendarEvent calEvent : calendarEventList) {
+            CalendarEvent previous = previousEvents.get(calEvent.getId());
+            if (calEvent.equals(previous)) {
+                calEvent = previous;
+            } else {
+                changedEventCount++;
+            }
+            fetchedEvents.put(calEvent.getId(), calEvent);
+            result.add(calEvent);
+        }
+        // unchanged and no instance gone
+        changed = firstFetch || changedEventCount > 0 || result.size() != previousEvents.size();
+        return result;
+    }
+
+    /**
+     * Remembers the instances of the last getCalendarEventList() or update() as synced to the
+     * device. Until then, they are compared with the instances synced before.
+     */
+    public void markSynced() {
+        syncedEvents = fetchedEvents;
+    }
+
+    /**
+     * Returns how many of the instances returned by the last getCalendarEventList() are new or
+     * have changed since the last markSynced().
+     */
+    public int getChangedEventCount() {
+        return changedEventCount;
     }
 
-    private boolean fetchSystemEvents(Context mContext) {
+    /**
+     * Returns false if the last getCalendarEventList() returned exactly the same instances as
+     * were marked as synced, true otherwise and before the first markSynced().
+     */
+    public boolean hasChanged() {
+        return changed;
+    }
+
+    private boolean fetchSystemEvents(Context mContext, List<CalendarEvent> calendarEventList) {
 
         Calendar cal = GregorianCalendar.getInstance();
         long dtStart = cal.getTimeInMillis();
@@ -80,11 +157,19 @@ public class CalendarEvents {
         ContentUris.appendId(eventsUriBuilder, dtEnd);
         Uri eventsUri = eventsUriBuilder.build();
 
+        List<long[]> instances = new ArrayList<>();
+        List<String> calNames = new ArrayList<>();
+        Set<Long> eventIds = new HashSet<>();
         try (Cursor evtCursor = mContext.getContentResolver().query(eventsUri, EVENT_INSTANCE_PROJECTION, null, null, Instances.BEGIN + " ASC")) {
             if (evtCursor == null || evtCursor.getCount() == 0) {
                 return false;
             }
             while (evtCursor.moveToNext()) {
+                String calName = evtCursor.getString(5);
+                if (GBApplication.calendarIsBlacklisted(calName)) {
+                    LOG.debug("calendar " + calName + " skipped because it's blacklisted");
+                    continue;
+                }
                 long start = evtCursor.getLong(1);
                 long end = evtCursor.getLong(2);
                 if (end == 0) {
@@ -93,24 +178,56 @@ public class CalendarEvents {
                     time.parse(evtCursor.getString(3));
                     end = start + time.toMillis(false);
                 }
-                CalendarEvent calEvent = new CalendarEvent(
-                        start,
-                        end,
-                        evtCursor.getLong(0),
-                        evtCursor.getString(4),
-                        evtCursor.getString(5),
-                        evtCursor.getString(6),
-                        evtCursor.getString(7),
-                        !evtCursor.getString(8).equals("0")
-                );
-                if (!GBApplication.calendarIsBlacklisted(calEvent.getCalName())) {
-                    calendarEventList.add(calEvent);
-                } else {
-                    LOG.debug("calendar " + calEvent.getCalName() + " skipped because it's blacklisted");
+                long eventId = evtCursor.getLong(4);
+                boolean allDay = !evtCursor.getString(6).equals("0");
+                instances.add(new long[]{evtCursor.getLong(0), start, end, eventId, allDay ? 1 : 0});
+                calNames.add(calName);
+                eventIds.add(eventId);
+            }
+        }
+
+        Map<Long, String[]> eventTexts = fetchEventTexts(mContext, eventIds);
+        for (int i = 0; i < instances.size(); i++) {
+            long[] instance = instances.get(i);
+            String[] text = eventTexts.get(instance[3]);
+            if (text == null) {
+                continue; // deleted in the meantime
+            }
+            CalendarEvent calEvent = new CalendarEvent(
+                    instance[1],
+                    instance[2],
+                    instance[0],
+                    text[0],
+                    text[1],
+                    text[2],
+                    calNames.get(i),
+                    instance[4] != 0
+            );
+            calendarEventList.add(calEvent);
+        }
+        LOG.debug("fetched " + calendarEventList.size() + " calendar instances of " + eventTexts.size() + " events");
+        return true;
+    }
+
+    /**
+     * Reads title, description and location once per event instead of once per instance.
+     */
+    private Map<Long, String[]> fetchEventTexts(Context mContext, Set<Long> eventIds) {
+        Map<Long, String[]> eventTexts = new HashMap<>();
+        List<Long> ids = new ArrayList<>(eventIds);
+        for (int start = 0; start < ids.size(); start += MAX_EVENTS_PER_QUERY) {
+            List<Long> chunk = ids.subList(start, Math.min(start + MAX_EVENTS_PER_QUERY, ids.size()));
+            String selection = Events._ID + " IN (" + TextUtils.join(",", chunk) + ")";
+            try (Cursor cursor = mContext.getContentResolver().query(Events.CONTENT_URI, EVENT_TEXT_PROJECTION, selection, null, null)) {
+                if (cursor == null) {
+                    continue;
+                }
+                while (cursor.moveToNext()) {
+                    eventTexts.put(cursor.getLong(0), new String[]{cursor.getString(1), cursor.getString(2), cursor.getString(3)});
                 }
             }
-            return true;
         }
+        return eventTexts;
     }
 
     public static class CalendarEvent {
@@ -122,6 +239,7 @@ public class CalendarEvents {
         private String location;
         private String calName;
         private boolean allDay;
+        private int hash;
 
         public CalendarEvent(long begin, long end, long id, String title, String description, String location, String calName, boolean allDay) {
             this.begin = begin;
@@ -202,6 +320,14 @@ public class CalendarEvents {
 
         @Override
         public int hashCode() {
+            // all fields are final in practice, and the sync compares hashes of all events
+            if (hash == 0) {
+                hash = computeHashCode();
+            }
+            return hash;
+        }
+
+        private int computeHashCode() {
             int result = (int) id;
             result = 31 * result + Objects.hash(title);
             result = 31 * result + Long.valueOf(begin).hashCode();
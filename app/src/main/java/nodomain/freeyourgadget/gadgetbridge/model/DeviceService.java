@@ -103,6 +103,10 @@ public interface DeviceService extends EventHandler {
     String EXTRA_CONFIG = "config";
     String EXTRA_ALARMS = "alarms";
     String EXTRA_CONNECT_FIRST_TIME = "connect_first_time";
+    /**
+     * Set by GBDeviceService, see DeviceCommunicationService.LocalBinder.
+     */
+    String EXTRA_INTENT_SEQUENCE = "intent_sequence";
     String EXTRA_BOOLEAN_ENABLE = "enable_realtime_steps";
     String EXTRA_INTERVAL_SECONDS = "interval_seconds";
     String EXTRA_WEATHER = "weather";
@@ -143,6 +147,13 @@ public interface DeviceService extends EventHandler {
 
     void quit();
 
+    /**
+     * Returns a DeviceService that passes its commands to the given device only. Without it,
+     * phone events go to all devices, while device specific commands only reach a device if it
+     * is the only one connected.
+     */
+    DeviceService forDevice(GBDevice device);
+
     /**
      * Requests information from the {@link DeviceCommunicationService} about the connection state,
      * firmware info, etc.
@@ -31,6 +31,7 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.widget.Toast;
@@ -38,8 +39,17 @@ import android.widget.Toast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import androidx.annotation.Nullable;
@@ -76,7 +86,9 @@ import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.EmojiConverter;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+import nodomain.freeyourgadget.gadgetbridge.util.OrderedExecutor;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingHistogram;
 
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_ADD_CALENDAREVENT;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_APP_CONFIGURE;
@@ -135,6 +147,7 @@ import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_CON
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_CONNECT_FIRST_TIME;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_FIND_START;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_FM_FREQUENCY;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_INTENT_SEQUENCE;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_INTERVAL_SECONDS;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_LED_COLOR;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_MUSIC_ALBUM;
@@ -171,12 +184,44 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     @SuppressLint("StaticFieldLeak") // only used for test cases
     private static DeviceSupportFactory DEVICE_SUPPORT_FACTORY = null;
 
+    // commands of interest for every device unless the intent names a device, all others need
+    // a target device when several are connected
+    private static final Set<String> ALL_DEVICES_ACTIONS = new HashSet<>(Arrays.asList(
+            ACTION_REQUEST_DEVICEINFO,
+            ACTION_DISCONNECT,
+            ACTION_NOTIFICATION,
+            ACTION_DELETE_NOTIFICATION,
+            ACTION_CALLSTATE,
+            ACTION_SETTIME,
+            ACTION_SETMUSICINFO,
+            ACTION_SETMUSICSTATE,
+            ACTION_SEND_WEATHER,
+            ACTION_ADD_CALENDAREVENT,
+            ACTION_DELETE_CALENDAREVENT
+    ));
+
     private boolean mStarted = false;
 
     private DeviceSupportFactory mFactory;
-    private GBDevice mGBDevice = null;
-    private DeviceSupport mDeviceSupport;
-    private DeviceCoordinator mCoordinator = null;
+
+    /**
+     * A connected or connecting device. Each has its own DeviceSupport, and with it its own
+     * queue and I/O thread.
+     */
+    private static class DeviceStruct {
+        GBDevice device;
+        DeviceSupport deviceSupport;
+        DeviceCoordinator coordinator;
+        CalendarReceiver calendarReceiver;
+
+        boolean isReady() {
+            return device.isInitialized() || deviceSupport.useAutoConnect();
+        }
+    }
+
+    // by address, the most recently connected device last. Only used on the main thread,
+    // like everything else here, so there is no need for locking.
+    private final Map<String, DeviceStruct> mDevices = new LinkedHashMap<>();
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -189,11 +234,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private GBAutoFetchReceiver mGBAutoFetchReceiver = null;
 
     private AlarmReceiver mAlarmReceiver = null;
-    private CalendarReceiver mCalendarReceiver = null;
     private CMWeatherReceiver mCMWeatherReceiver = null;
     private OmniJawsObserver mOmniJawsObserver = null;
     private Random mRandom = new Random();
 
+    // notification texts are prepared off the main thread, in order per device
+    private final OrderedExecutor mNotificationExecutor = new OrderedExecutor("DeviceCommunicationService", 2, 64);
+    private final Handler mHandler = new Handler();
+    private final IBinder mBinder = new LocalBinder();
+    private final Queue<DeferredCommand> mDeferredDirectCommands = new ArrayDeque<>();
+    // intent sequence numbers are per process, so this must survive a restart of the service
+    private static long sHandledIntentSequence;
+    private final TimingHistogram mNotificationPrepareTiming = new TimingHistogram("notification prepared");
+    private final TimingHistogram mNotificationDeliverTiming = new TimingHistogram("notification delivered");
+
     private final String[] mMusicActions = {
             "com.android.music.metachanged",
             "com.android.music.playstatechanged",
@@ -226,11 +280,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
                 GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (mGBDevice != null && mGBDevice.equals(device)) {
-                    mGBDevice = device;
-                    mCoordinator = DeviceHelper.getInstance().getCoordinator(device);
-                    boolean enableReceivers = mDeviceSupport != null && (mDeviceSupport.useAutoConnect() || mGBDevice.isInitialized());
-                    setReceiversEnableState(enableReceivers, mGBDevice.isInitialized(), mCoordinator);
+                DeviceStruct struct = device != null ? mDevices.get(device.getAddress()) : null;
+                if (struct != null) {
+                    struct.device = device;
+                    struct.coordinator = DeviceHelper.getInstance().getCoordinator(device);
+                    updateReceivers();
                 } else {
                     LOG.error("Got ACTION_DEVICE_CHANGED from unexpected device: " + device);
                 }
@@ -258,8 +312,15 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     }
 
     @Override
-    public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        int result = handleStartCommand(intent);
+        if (intent != null) {
+            intentHandled(intent.getLongExtra(EXTRA_INTENT_SEQUENCE, 0));
+        }
+        return result;
+    }
 
+    private int handleStartCommand(Intent intent) {
         if (intent == null) {
             LOG.info("no intent");
             return START_NOT_STICKY;
@@ -275,25 +336,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
         LOG.debug("Service startcommand: " + action);
 
-        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT)) {
-            if (!mStarted) {
-                // using the service before issuing ACTION_START
-                LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
-                return START_NOT_STICKY;
-            }
-
-            if (mDeviceSupport == null || (!isInitialized() && !mDeviceSupport.useAutoConnect())) {
-                // trying to send notification without valid Bluetooth connection
-                if (mGBDevice != null) {
-                    // at least send back the current device state
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                return START_STICKY;
-            }
+        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT) && !mStarted) {
+            // using the service before issuing ACTION_START
+            LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
+            return START_NOT_STICKY;
         }
 
-        // when we get past this, we should have valid mDeviceSupport and mGBDevice instances
-
         Prefs prefs = getPrefs();
         switch (action) {
             case ACTION_START:
@@ -320,12 +368,13 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     autoReconnect = getGBPrefs().getAutoReconnect();
                 }
 
-                if (gbDevice != null && !isConnecting() && !isConnected()) {
-                    setDeviceSupport(null);
+                DeviceStruct existing = gbDevice != null ? mDevices.get(gbDevice.getAddress()) : null;
+                if (gbDevice != null && (existing == null || (!existing.device.isConnecting() && !existing.device.isConnected()))) {
+                    removeDevice(gbDevice.getAddress());
                     try {
                         DeviceSupport deviceSupport = mFactory.createDeviceSupport(gbDevice);
                         if (deviceSupport != null) {
-                            setDeviceSupport(deviceSupport);
+                            addDevice(deviceSupport);
                             if (firstTime) {
                                 deviceSupport.connectFirstTime();
                             } else {
@@ -337,83 +386,200 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                         }
                     } catch (Exception e) {
                         GB.toast(this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
-                        setDeviceSupport(null);
+                        removeDevice(gbDevice.getAddress());
                     }
-                } else if (mGBDevice != null) {
+                } else if (existing != null) {
                     // send an update at least
-                    mGBDevice.sendDeviceUpdateIntent(this);
+                    existing.device.sendDeviceUpdateIntent(this);
                 }
                 break;
             default:
-                if (mDeviceSupport == null || mGBDevice == null) {
-                    LOG.warn("device support:" + mDeviceSupport + ", device: " + mGBDevice + ", aborting");
-                } else {
-                    handleAction(intent, action, prefs);
+                GBDevice targetDevice = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                for (DeviceStruct target : getReadyTargets(targetDevice != null ? targetDevice.getAddress() : null, action)) {
+                    handleAction(target, intent, action, prefs);
                 }
                 break;
         }
         return START_STICKY;
     }
 
+    /**
+     * Returns the devices the command should be passed to: the given one, all devices, or the
+     * only device, depending on the action. Device specific commands without a target are
+     * rejected when several devices are connected, as they could reach the wrong one. Devices
+     * without a usable connection are left out and only send back their current state.
+     */
+    private List<DeviceStruct> getReadyTargets(@Nullable String address, String action) {
+        List<DeviceStruct> candidates;
+        if (!mStarted) {
+            LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
+            return Collections.emptyList();
+        } else if (address != null) {
+            DeviceStruct struct = mDevices.get(address);
+            candidates = struct != null ? Collections.singletonList(struct) : Collections.<DeviceStruct>emptyList();
+        } else if (ALL_DEVICES_ACTIONS.contains(action)) {
+            candidates = new ArrayList<>(mDevices.values());
+        } else if (mDevices.size() > 1) {
+            LOG.warn("Rejecting " + action + " without a target device, " + mDevices.size() + " devices are connected");
+            return Collections.emptyList();
+        } else {
+            candidates = new ArrayList<>(mDevices.values());
+        }
+
+        List<DeviceStruct> targets = new ArrayList<>(candidates.size());
+        for (DeviceStruct struct : candidates) {
+            if (struct.isReady()) {
+                targets.add(struct);
+            } else {
+                // trying to send notification without valid Bluetooth connection,
+                // at least send back the current device state
+                struct.device.sendDeviceUpdateIntent(this);
+            }
+        }
+        if (targets.isEmpty()) {
+            LOG.debug("No device ready for " + action);
+        }
+        return targets;
+    }
+
     /**
      * @param text: original text
      * @return 'text' or a new String without non supported chars like emoticons, etc.
      */
-    private String sanitizeNotifText(String text) {
+    private String sanitizeNotifText(String text, DeviceCoordinator coordinator) {
         if (text == null || text.length() == 0)
             return text;
 
-        if (!mCoordinator.supportsUnicodeEmojis())
+        if (!coordinator.supportsUnicodeEmojis())
             return EmojiConverter.convertUnicodeEmojiToAscii(text, getApplicationContext());
 
         return text;
     }
 
-    private void handleAction(Intent intent, String action, Prefs prefs) {
+    /**
+     * Sanitizes the notification's texts on a worker thread and then passes it to the device
+     * support on the main thread again, unless the device was changed in the meantime.
+     * Each device has its own lane, so a slow device does not hold up the others. A newer
+     * version of the notification replaces the one still waiting in the lane.
+     */
+    private void sendNotification(DeviceStruct target, final NotificationSpec notificationSpec) {
+        final String address = target.device.getAddress();
+        final DeviceSupport deviceSupport = target.deviceSupport;
+        final DeviceCoordinator coordinator = target.coordinator;
+        final long queuedTime = System.nanoTime();
+        mNotificationExecutor.executeDroppable(address, notificationSpec.getId(), new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                notificationSpec.sender = sanitizeNotifText(notificationSpec.sender, coordinator);
+                notificationSpec.subject = sanitizeNotifText(notificationSpec.subject, coordinator);
+                notificationSpec.title = sanitizeNotifText(notificationSpec.title, coordinator);
+                notificationSpec.body = sanitizeNotifText(notificationSpec.body, coordinator);
+                mNotificationPrepareTiming.recordSince(startTime);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deviceSupport != getDeviceSupport(address)) {
+                            LOG.info("Device changed, dropping notification " + notificationSpec.getId());
+                            return;
+                        }
+                        deviceSupport.onNotification(notificationSpec);
+                        mNotificationDeliverTiming.recordSince(queuedTime);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Goes through the same queue as sendNotification(), so that a notification cannot be
+     * deleted before it was sent. Deletions are never dropped.
+     */
+    private void deleteNotification(DeviceStruct target, final int id) {
+        final String address = target.device.getAddress();
+        final DeviceSupport deviceSupport = target.deviceSupport;
+        mNotificationExecutor.execute(address, new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deviceSupport == getDeviceSupport(address)) {
+                            deviceSupport.onDeleteNotification(id);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Nullable
+    private DeviceSupport getDeviceSupport(String address) {
+        DeviceStruct struct = mDevices.get(address);
+        return struct != null ? struct.deviceSupport : null;
+    }
+
+    private void handleNotification(DeviceStruct target, NotificationSpec notificationSpec, Prefs prefs) {
+        if (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null) {
+            GBApplication.getIDSenderLookup().add(notificationSpec.getId(), notificationSpec.phoneNumber);
+        }
+
+        //TODO: check if at least one of the attached actions is a reply action instead?
+        if ((notificationSpec.attachedActions != null && notificationSpec.attachedActions.size() > 0)
+                || (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null)) {
+            // NOTE: maybe not where it belongs
+            // I would rather like to save that as an array in SharedPreferences
+            // this would work but I dont know how to do the same in the Settings Activity's xml
+            ArrayList<String> replies = new ArrayList<>();
+            for (int i = 1; i <= 16; i++) {
+                String reply = prefs.getString("canned_reply_" + i, null);
+                if (reply != null && !reply.equals("")) {
+                    replies.add(reply);
+                }
+            }
+            notificationSpec.cannedReplies = replies.toArray(new String[replies.size()]);
+        }
+
+        sendNotification(target, notificationSpec);
+    }
+
+    private void handleCallState(DeviceStruct target, CallSpec callSpec) {
+        callSpec.name = sanitizeNotifText(callSpec.name, target.coordinator);
+        target.deviceSupport.onSetCallState(callSpec);
+    }
+
+    private void handleMusicInfo(DeviceStruct target, MusicSpec musicSpec) {
+        musicSpec.artist = sanitizeNotifText(musicSpec.artist, target.coordinator);
+        musicSpec.album = sanitizeNotifText(musicSpec.album, target.coordinator);
+        musicSpec.track = sanitizeNotifText(musicSpec.track, target.coordinator);
+        target.deviceSupport.onSetMusicInfo(musicSpec);
+    }
+
+    private void handleAction(DeviceStruct target, Intent intent, String action, Prefs prefs) {
         switch (action) {
             case ACTION_REQUEST_DEVICEINFO:
-                mGBDevice.sendDeviceUpdateIntent(this);
+                target.device.sendDeviceUpdateIntent(this);
                 break;
             case ACTION_NOTIFICATION: {
                 int desiredId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
                 NotificationSpec notificationSpec = new NotificationSpec(desiredId);
                 notificationSpec.phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
-                notificationSpec.sender = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SENDER));
-                notificationSpec.subject = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT));
-                notificationSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_TITLE));
-                notificationSpec.body = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_BODY));
+                notificationSpec.sender = intent.getStringExtra(EXTRA_NOTIFICATION_SENDER);
+                notificationSpec.subject = intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT);
+                notificationSpec.title = intent.getStringExtra(EXTRA_NOTIFICATION_TITLE);
+                notificationSpec.body = intent.getStringExtra(EXTRA_NOTIFICATION_BODY);
                 notificationSpec.sourceName = intent.getStringExtra(EXTRA_NOTIFICATION_SOURCENAME);
                 notificationSpec.type = (NotificationType) intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE);
                 notificationSpec.attachedActions = (ArrayList<NotificationSpec.Action>) intent.getSerializableExtra(EXTRA_NOTIFICATION_ACTIONS);
                 notificationSpec.pebbleColor = (byte) intent.getSerializableExtra(EXTRA_NOTIFICATION_PEBBLE_COLOR);
                 notificationSpec.flags = intent.getIntExtra(EXTRA_NOTIFICATION_FLAGS, 0);
                 notificationSpec.sourceAppId = intent.getStringExtra(EXTRA_NOTIFICATION_SOURCEAPPID);
-
-                if (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null) {
-                    GBApplication.getIDSenderLookup().add(notificationSpec.getId(), notificationSpec.phoneNumber);
-                }
-
-                //TODO: check if at least one of the attached actions is a reply action instead?
-                if ((notificationSpec.attachedActions != null && notificationSpec.attachedActions.size() > 0)
-                        || (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null)) {
-                    // NOTE: maybe not where it belongs
-                    // I would rather like to save that as an array in SharedPreferences
-                    // this would work but I dont know how to do the same in the Settings Activity's xml
-                    ArrayList<String> replies = new ArrayList<>();
-                    for (int i = 1; i <= 16; i++) {
-                        String reply = prefs.getString("canned_reply_" + i, null);
-                        if (reply != null && !reply.equals("")) {
-                            replies.add(reply);
-                        }
-                    }
-                    notificationSpec.cannedReplies = replies.toArray(new String[replies.size()]);
-                }
-
-                mDeviceSupport.onNotification(notificationSpec);
+                handleNotification(target, notificationSpec, prefs);
                 break;
             }
             case ACTION_DELETE_NOTIFICATION: {
-                mDeviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+                deleteNotification(target, intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                 break;
             }
             case ACTION_ADD_CALENDAREVENT: {
@@ -422,60 +588,55 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 calendarEventSpec.type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
                 calendarEventSpec.timestamp = intent.getIntExtra(EXTRA_CALENDAREVENT_TIMESTAMP, -1);
                 calendarEventSpec.durationInSeconds = intent.getIntExtra(EXTRA_CALENDAREVENT_DURATION, -1);
-                calendarEventSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE));
-                calendarEventSpec.description = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION));
-                calendarEventSpec.location = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION));
-                mDeviceSupport.onAddCalendarEvent(calendarEventSpec);
+                calendarEventSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE), target.coordinator);
+                calendarEventSpec.description = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION), target.coordinator);
+                calendarEventSpec.location = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION), target.coordinator);
+                target.deviceSupport.onAddCalendarEvent(calendarEventSpec);
                 break;
             }
             case ACTION_DELETE_CALENDAREVENT: {
                 long id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
                 byte type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
-                mDeviceSupport.onDeleteCalendarEvent(type, id);
+                target.deviceSupport.onDeleteCalendarEvent(type, id);
                 break;
             }
             case ACTION_RESET: {
                 int flags = intent.getIntExtra(EXTRA_RESET_FLAGS, 0);
-                mDeviceSupport.onReset(flags);
+                target.deviceSupport.onReset(flags);
                 break;
             }
             case ACTION_HEARTRATE_TEST: {
-                mDeviceSupport.onHeartRateTest();
+                target.deviceSupport.onHeartRateTest();
                 break;
             }
             case ACTION_FETCH_RECORDED_DATA: {
                 int dataTypes = intent.getIntExtra(EXTRA_RECORDED_DATA_TYPES, 0);
-                mDeviceSupport.onFetchRecordedData(dataTypes);
+                target.deviceSupport.onFetchRecordedData(dataTypes);
                 break;
             }
             case ACTION_DISCONNECT: {
-                mDeviceSupport.dispose();
-                if (mGBDevice != null) {
-                    mGBDevice.setState(GBDevice.State.NOT_CONNECTED);
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                setReceiversEnableState(false, false, null);
-                mGBDevice = null;
-                mDeviceSupport = null;
-                mCoordinator = null;
+                removeDevice(target.device.getAddress());
+                target.device.setState(GBDevice.State.NOT_CONNECTED);
+                target.device.sendDeviceUpdateIntent(this);
+                updateReceivers();
                 break;
             }
             case ACTION_FIND_DEVICE: {
                 boolean start = intent.getBooleanExtra(EXTRA_FIND_START, false);
-                mDeviceSupport.onFindDevice(start);
+                target.deviceSupport.onFindDevice(start);
                 break;
             }
             case ACTION_SET_CONSTANT_VIBRATION: {
                 int intensity = intent.getIntExtra(EXTRA_VIBRATION_INTENSITY, 0);
-                mDeviceSupport.onSetConstantVibration(intensity);
+                target.deviceSupport.onSetConstantVibration(intensity);
                 break;
             }
             case ACTION_CALLSTATE:
                 CallSpec callSpec = new CallSpec();
                 callSpec.command = intent.getIntExtra(EXTRA_CALL_COMMAND, CallSpec.CALL_UNDEFINED);
                 callSpec.number = intent.getStringExtra(EXTRA_CALL_PHONENUMBER);
-                callSpec.name = sanitizeNotifText(intent.getStringExtra(EXTRA_CALL_DISPLAYNAME));
-                mDeviceSupport.onSetCallState(callSpec);
+                callSpec.name = intent.getStringExtra(EXTRA_CALL_DISPLAYNAME);
+                handleCallState(target, callSpec);
                 break;
             case ACTION_SETCANNEDMESSAGES:
                 int type = intent.getIntExtra(EXTRA_CANNEDMESSAGES_TYPE, -1);
@@ -484,20 +645,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
                 cannedMessagesSpec.type = type;
                 cannedMessagesSpec.cannedMessages = cannedMessages;
-                mDeviceSupport.onSetCannedMessages(cannedMessagesSpec);
+                target.deviceSupport.onSetCannedMessages(cannedMessagesSpec);
                 break;
             case ACTION_SETTIME:
-                mDeviceSupport.onSetTime();
+                target.deviceSupport.onSetTime();
                 break;
             case ACTION_SETMUSICINFO:
                 MusicSpec musicSpec = new MusicSpec();
-                musicSpec.artist = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ARTIST));
-                musicSpec.album = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ALBUM));
-                musicSpec.track = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_TRACK));
+                musicSpec.artist = intent.getStringExtra(EXTRA_MUSIC_ARTIST);
+                musicSpec.album = intent.getStringExtra(EXTRA_MUSIC_ALBUM);
+                musicSpec.track = intent.getStringExtra(EXTRA_MUSIC_TRACK);
                 musicSpec.duration = intent.getIntExtra(EXTRA_MUSIC_DURATION, 0);
                 musicSpec.trackCount = intent.getIntExtra(EXTRA_MUSIC_TRACKCOUNT, 0);
                 musicSpec.trackNr = intent.getIntExtra(EXTRA_MUSIC_TRACKNR, 0);
-                mDeviceSupport.onSetMusicInfo(musicSpec);
+                handleMusicInfo(target, musicSpec);
                 break;
             case ACTION_SETMUSICSTATE:
                 MusicStateSpec stateSpec = new MusicStateSpec();
@@ -506,23 +667,23 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 stateSpec.position = intent.getIntExtra(EXTRA_MUSIC_POSITION, 0);
                 stateSpec.playRate = intent.getIntExtra(EXTRA_MUSIC_RATE, 0);
                 stateSpec.state = intent.getByteExtra(EXTRA_MUSIC_STATE, (byte) 0);
-                mDeviceSupport.onSetMusicState(stateSpec);
+                target.deviceSupport.onSetMusicState(stateSpec);
                 break;
             case ACTION_REQUEST_APPINFO:
-                mDeviceSupport.onAppInfoReq();
+                target.deviceSupport.onAppInfoReq();
                 break;
             case ACTION_REQUEST_SCREENSHOT:
-                mDeviceSupport.onScreenshotReq();
+                target.deviceSupport.onScreenshotReq();
                 break;
             case ACTION_STARTAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
                 boolean start = intent.getBooleanExtra(EXTRA_APP_START, true);
-                mDeviceSupport.onAppStart(uuid, start);
+                target.deviceSupport.onAppStart(uuid, start);
                 break;
             }
             case ACTION_DELETEAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppDelete(uuid);
+                target.deviceSupport.onAppDelete(uuid);
                 break;
             }
             case ACTION_APP_CONFIGURE: {
@@ -532,92 +693,96 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 if (intent.hasExtra(EXTRA_APP_CONFIG_ID)) {
                     id = intent.getIntExtra(EXTRA_APP_CONFIG_ID, 0);
                 }
-                mDeviceSupport.onAppConfiguration(uuid, config, id);
+                target.deviceSupport.onAppConfiguration(uuid, config, id);
                 break;
             }
             case ACTION_APP_REORDER: {
                 UUID[] uuids = (UUID[]) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppReorder(uuids);
+                target.deviceSupport.onAppReorder(uuids);
                 break;
             }
             case ACTION_INSTALL:
                 Uri uri = intent.getParcelableExtra(EXTRA_URI);
                 if (uri != null) {
                     LOG.info("will try to install app/fw");
-                    mDeviceSupport.onInstallApp(uri);
+                    target.deviceSupport.onInstallApp(uri);
                 }
                 break;
             case ACTION_SET_ALARMS:
                 ArrayList<? extends Alarm> alarms = (ArrayList<? extends Alarm>) intent.getSerializableExtra(EXTRA_ALARMS);
-                mDeviceSupport.onSetAlarms(alarms);
+                target.deviceSupport.onSetAlarms(alarms);
                 break;
             case ACTION_ENABLE_REALTIME_STEPS: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeSteps(enable);
+                target.deviceSupport.onEnableRealtimeSteps(enable);
                 break;
             }
             case ACTION_ENABLE_HEARTRATE_SLEEP_SUPPORT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableHeartRateSleepSupport(enable);
+                target.deviceSupport.onEnableHeartRateSleepSupport(enable);
                 break;
             }
             case ACTION_SET_HEARTRATE_MEASUREMENT_INTERVAL: {
                 int seconds = intent.getIntExtra(EXTRA_INTERVAL_SECONDS, 0);
-                mDeviceSupport.onSetHeartRateMeasurementInterval(seconds);
+                target.deviceSupport.onSetHeartRateMeasurementInterval(seconds);
                 break;
             }
             case ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
+                target.deviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
                 break;
             }
             case ACTION_SEND_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onSendConfiguration(config);
+                target.deviceSupport.onSendConfiguration(config);
                 break;
             }
             case ACTION_TEST_NEW_FUNCTION: {
-                mDeviceSupport.onTestNewFunction();
+                target.deviceSupport.onTestNewFunction();
                 break;
             }
             case ACTION_SEND_WEATHER: {
                 WeatherSpec weatherSpec = intent.getParcelableExtra(EXTRA_WEATHER);
                 if (weatherSpec != null) {
-                    mDeviceSupport.onSendWeather(weatherSpec);
+                    target.deviceSupport.onSendWeather(weatherSpec);
                 }
                 break;
             }
             case ACTION_SET_LED_COLOR:
                 int color = intent.getIntExtra(EXTRA_LED_COLOR, 0);
                 if (color != 0) {
-                    mDeviceSupport.onSetLedColor(color);
+                    target.deviceSupport.onSetLedColor(color);
                 }
                 break;
             case ACTION_SET_FM_FREQUENCY:
                 float frequency = intent.getFloatExtra(EXTRA_FM_FREQUENCY, -1);
                 if (frequency != -1) {
-                    mDeviceSupport.onSetFmFrequency(frequency);
+                    target.deviceSupport.onSetFmFrequency(frequency);
                 }
                 break;
         }
     }
 
     /**
-     * Disposes the current DeviceSupport instance (if any) and sets a new device support instance
-     * (if not null).
-     *
-     * @param deviceSupport
+     * Adds the device of the given device support, as the most recently connected one.
+     */
+    private void addDevice(DeviceSupport deviceSupport) {
+        DeviceStruct struct = new DeviceStruct();
+        struct.deviceSupport = deviceSupport;
+        struct.device = deviceSupport.getDevice();
+        struct.coordinator = DeviceHelper.getInstance().getCoordinator(struct.device);
+        mDevices.put(struct.device.getAddress(), struct);
+    }
+
+    /**
+     * Removes the device with the given address (if any) and disposes its DeviceSupport instance.
      */
-    private void setDeviceSupport(@Nullable DeviceSupport deviceSupport) {
-        if (deviceSupport != mDeviceSupport && mDeviceSupport != null) {
-            mDeviceSupport.dispose();
-            mDeviceSupport = null;
-            mGBDevice = null;
-            mCoordinator = null;
+    private void removeDevice(String address) {
+        DeviceStruct struct = mDevices.remove(address);
+        if (struct != null) {
+            struct.deviceSupport.dispose();
+            setCalendarReceiverEnabled(struct, false);
         }
-        mDeviceSupport = deviceSupport;
-        mGBDevice = mDeviceSupport != null ? mDeviceSupport.getDevice() : null;
-        mCoordinator = mGBDevice != null ? DeviceHelper.getInstance().getCoordinator(mGBDevice) : null;
     }
 
     private void start() {
@@ -631,42 +796,60 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return mStarted;
     }
 
-    private boolean isConnected() {
-        return mGBDevice != null && mGBDevice.isConnected();
-    }
-
-    private boolean isConnecting() {
-        return mGBDevice != null && mGBDevice.isConnecting();
-    }
-
-    private boolean isInitialized() {
-        return mGBDevice != null && mGBDevice.isInitialized();
+    /**
+     * Enables the broadcast receivers needed by at least one of the devices, and disables the
+     * others.
+     */
+    private void updateReceivers() {
+        boolean enable = false;
+        boolean calendarEvents = false;
+        boolean musicInfo = false;
+        boolean weather = false;
+        boolean activityDataFetching = false;
+        for (DeviceStruct struct : mDevices.values()) {
+            boolean ready = struct.isReady();
+            boolean calendar = ready && struct.device.isInitialized() && struct.coordinator != null && struct.coordinator.supportsCalendarEvents();
+            setCalendarReceiverEnabled(struct, calendar);
+            if (ready) {
+                enable = true;
+                calendarEvents |= calendar;
+                if (struct.coordinator != null) {
+                    musicInfo |= struct.coordinator.supportsMusicInfo();
+                    weather |= struct.coordinator.supportsWeather();
+                    activityDataFetching |= struct.coordinator.supportsActivityDataFetching();
+                }
+            }
+        }
+        setReceiversEnableState(enable, calendarEvents, musicInfo, weather, activityDataFetching);
     }
 
-
-    private void setReceiversEnableState(boolean enable, boolean initialized, DeviceCoordinator coordinator) {
-        LOG.info("Setting broadcast receivers to: " + enable);
-
-        if (enable && initialized && coordinator != null && coordinator.supportsCalendarEvents()) {
-            if (mCalendarReceiver == null && getPrefs().getBoolean("enable_calendar_sync", true)) {
+    private void setCalendarReceiverEnabled(DeviceStruct struct, boolean enable) {
+        if (enable) {
+            if (struct.calendarReceiver == null && getPrefs().getBoolean("enable_calendar_sync", true)) {
                 if (!(GBApplication.isRunningMarshmallowOrLater() && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR) == PackageManager.PERMISSION_DENIED)) {
                     IntentFilter calendarIntentFilter = new IntentFilter();
                     calendarIntentFilter.addAction("android.intent.action.PROVIDER_CHANGED");
                     calendarIntentFilter.addDataScheme("content");
                     calendarIntentFilter.addDataAuthority("com.android.calendar", null);
-                    mCalendarReceiver = new CalendarReceiver(mGBDevice);
-                    registerReceiver(mCalendarReceiver, calendarIntentFilter);
+                    struct.calendarReceiver = new CalendarReceiver(struct.device);
+                    registerReceiver(struct.calendarReceiver, calendarIntentFilter);
                 }
             }
+        } else if (struct.calendarReceiver != null) {
+            unregisterReceiver(struct.calendarReceiver);
+            struct.calendarReceiver = null;
+        }
+    }
+
+    private void setReceiversEnableState(boolean enable, boolean calendarEvents, boolean musicInfo, boolean weather, boolean activityDataFetching) {
+        LOG.info("Setting broadcast receivers to: " + enable);
+
+        if (enable && calendarEvents) {
             if (mAlarmReceiver == null) {
                 mAlarmReceiver = new AlarmReceiver();
                 registerReceiver(mAlarmReceiver, new IntentFilter("DAILY_ALARM"));
             }
         } else {
-            if (mCalendarReceiver != null) {
-                unregisterReceiver(mCalendarReceiver);
-                mCalendarReceiver = null;
-            }
             if (mAlarmReceiver != null) {
                 unregisterReceiver(mAlarmReceiver);
                 mAlarmReceiver = null;
@@ -689,7 +872,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 mPebbleReceiver = new PebbleReceiver();
                 registerReceiver(mPebbleReceiver, new IntentFilter("com.getpebble.action.SEND_NOTIFICATION"));
             }
-            if (mMusicPlaybackReceiver == null && coordinator != null && coordinator.supportsMusicInfo()) {
+            if (mMusicPlaybackReceiver == null && musicInfo) {
                 mMusicPlaybackReceiver = new MusicPlaybackReceiver();
                 IntentFilter filter = new IntentFilter();
                 for (String action : mMusicActions) {
@@ -721,11 +904,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 filter.addAction(AlarmClockReceiver.GOOGLE_CLOCK_ALARM_DONE_ACTION);
                 registerReceiver(mAlarmClockReceiver, filter);
             }
-            if (mCMWeatherReceiver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mCMWeatherReceiver == null && weather) {
                 mCMWeatherReceiver = new CMWeatherReceiver();
                 registerReceiver(mCMWeatherReceiver, new IntentFilter("GB_UPDATE_WEATHER"));
             }
-            if (mOmniJawsObserver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mOmniJawsObserver == null && weather) {
                 try {
                     mOmniJawsObserver = new OmniJawsObserver(new Handler());
                     getContentResolver().registerContentObserver(mOmniJawsObserver.WEATHER_URI, true, mOmniJawsObserver);
@@ -734,7 +917,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 }
             }
             if (GBApplication.getPrefs().getBoolean("auto_fetch_enabled", false) &&
-                    coordinator != null && coordinator.supportsActivityDataFetching() && mGBAutoFetchReceiver == null) {
+                    activityDataFetching && mGBAutoFetchReceiver == null) {
                 mGBAutoFetchReceiver = new GBAutoFetchReceiver();
                 registerReceiver(mGBAutoFetchReceiver, new IntentFilter("android.intent.action.USER_PRESENT"));
             }
@@ -796,9 +979,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onDestroy();
 
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
-        setReceiversEnableState(false, false, null); // disable BroadcastReceivers
+        for (String address : new ArrayList<>(mDevices.keySet())) {
+            removeDevice(address);
+        }
+        setReceiversEnableState(false, false, false, false, false); // disable BroadcastReceivers
 
-        setDeviceSupport(null);
+        mNotificationExecutor.shutdown();
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (nm != null) {
             nm.cancel(GB.NOTIFICATION_ID); // need to do this because the updated notification won't be cancelled when service stops
@@ -807,15 +993,149 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
+    }
+
+    /**
+     * Runs a command passed through the LocalBinder on the main thread, but not before the
+     * intent with the given sequence number and all earlier direct commands were handled.
+     */
+    private void runAfterIntent(final long intentSequence, final Runnable command) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mDeferredDirectCommands.isEmpty() && intentSequence <= sHandledIntentSequence) {
+                    command.run();
+                } else {
+                    mDeferredDirectCommands.add(new DeferredCommand(intentSequence, command));
+                }
+            }
+        });
+    }
+
+    private void intentHandled(long intentSequence) {
+        if (intentSequence <= sHandledIntentSequence) {
+            return;
+        }
+        sHandledIntentSequence = intentSequence;
+        while (!mDeferredDirectCommands.isEmpty() && mDeferredDirectCommands.peek().intentSequence <= sHandledIntentSequence) {
+            mDeferredDirectCommands.poll().command.run();
+        }
+    }
+
+    /**
+     * For testing!
+     */
+    static long getHandledIntentSequence() {
+        return sHandledIntentSequence;
+    }
+
+    private static class DeferredCommand {
+        final long intentSequence;
+        final Runnable command;
+
+        DeferredCommand(long intentSequence, Runnable command) {
+            this.intentSequence = intentSequence;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Lets GBDeviceService pass the most frequent commands within our own process, without
+     * putting them into an Intent first. External callers still use the intents.
+     * <p/>
+     * The two ways are not ordered by Android, an intent may still be on its way while a later
+     * direct command arrives. So every direct command carries the sequence number of the last
+     * intent GBDeviceService sent before it (see DeviceService#EXTRA_INTENT_SEQUENCE), and is
+     * held back until that intent was handled. Intents sent after a direct command are handled
+     * after it anyway, since the direct command is posted to the main thread right away.
+     */
+    public class LocalBinder extends Binder {
+        public void onNotification(final NotificationSpec notificationSpec, long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    Prefs prefs = getPrefs();
+                    List<DeviceStruct> targets = getReadyTargets(null, ACTION_NOTIFICATION);
+                    // every device sanitizes its own copy in the background, so all copies
+                    // must be made before the first one is handed out
+                    List<NotificationSpec> specs = new ArrayList<>(targets.size());
+                    for (int i = 0; i < targets.size(); i++) {
+                        specs.add(i == 0 ? notificationSpec : new NotificationSpec(notificationSpec));
+                    }
+                    for (int i = 0; i < targets.size(); i++) {
+                        handleNotification(targets.get(i), specs.get(i), prefs);
+                    }
+                }
+            });
+        }
+
+        public void onDeleteNotification(final int id, long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    for (DeviceStruct target : getReadyTargets(null, ACTION_DELETE_NOTIFICATION)) {
+                        deleteNotification(target, id);
+                    }
+                }
+            });
+        }
+
+        public void onSetCallState(final CallSpec callSpec, long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    for (DeviceStruct target : getReadyTargets(null, ACTION_CALLSTATE)) {
+                        CallSpec spec = new CallSpec();
+                        spec.command = callSpec.command;
+                        spec.number = callSpec.number;
+                        spec.name = callSpec.name;
+                        handleCallState(target, spec);
+                    }
+                }
+            });
+        }
+
+        public void onSetMusicInfo(final MusicSpec musicSpec, long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    for (DeviceStruct target : getReadyTargets(null, ACTION_SETMUSICINFO)) {
+                        handleMusicInfo(target, new MusicSpec(musicSpec));
+                    }
+                }
+            });
+        }
+
+        public void onSetMusicState(final MusicStateSpec stateSpec, long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    for (DeviceStruct target : getReadyTargets(null, ACTION_SETMUSICSTATE)) {
+                        target.deviceSupport.onSetMusicState(stateSpec);
+                    }
+                }
+            });
+        }
+
+        public void onSetTime(long afterIntentSequence) {
+            runAfterIntent(afterIntentSequence, new Runnable() {
+                @Override
+                public void run() {
+                    for (DeviceStruct target : getReadyTargets(null, ACTION_SETTIME)) {
+                        target.deviceSupport.onSetTime();
+                    }
+                }
+            });
+        }
     }
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (GBPrefs.AUTO_RECONNECT.equals(key)) {
             boolean autoReconnect = getGBPrefs().getAutoReconnect();
-            if (mDeviceSupport != null) {
-                mDeviceSupport.setAutoReconnect(autoReconnect);
+            for (DeviceStruct struct : mDevices.values()) {
+                struct.deviceSupport.setAutoReconnect(autoReconnect);
             }
         }
         if (GBPrefs.CHART_MAX_HEART_RATE.equals(key) || GBPrefs.CHART_MIN_HEART_RATE.equals(key)) {
@@ -835,7 +1155,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return GBApplication.getGBPrefs();
     }
 
-    public GBDevice getGBDevice() {
-        return mGBDevice;
+    /**
+     * Returns the connected or connecting device with the given address, or null.
+     */
+    @Nullable
+    public GBDevice getGBDevice(String address) {
+        DeviceStruct struct = mDevices.get(address);
+        return struct != null ? struct.device : null;
     }
 }
@@ -20,12 +20,11 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.amazfitbip;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
@@ -46,14 +45,16 @@ public class ActivityDetailsParser {
     private static final byte TYPE_GPS_SPEED6 = 6;
 
     public static final BigDecimal HUAMI_TO_DECIMAL_DEGREES_DIVISOR = new BigDecimal(3000000.0);
+    // huami values are 1/3000000 degrees, i.e. 1/3 of a unit at GPS_DECIMAL_DEGREES_SCALE
+    private static final int HUAMI_UNITS_PER_SCALED_UNIT = 3;
+    private static final double SCALED_UNITS_PER_DEGREE = 1000000.0;
+
     private final BaseActivitySummary summary;
-    private final ActivityTrack activityTrack;
     //    private final int version;
     private final Date baseDate;
     private long baseLongitude;
     private long baseLatitude;
     private int baseAltitude;
-    private ActivityPoint lastActivityPoint;
 
     public boolean getSkipCounterByte() {
         return skipCounterByte;
@@ -65,6 +66,107 @@ public class ActivityDetailsParser {
 
     private boolean skipCounterByte;
 
+    private static final int RECORD_LENGTH = 8;
+
+    private TrackPointListener listener;
+    private ActivityDetails details;
+    // a record that was split across calls to feed()
+    private final byte[] partialRecord = new byte[RECORD_LENGTH + 1];
+    private int partialLength;
+    private long position;
+    private long totalTimeOffset;
+    private int lastTimeOffset;
+    private int fixupPointer;
+    private int firstEntryToFixUp = -1;
+    private boolean timestampsFixedUp;
+
+    public interface TrackPointListener {
+        void onTrackPoint(ActivityPoint point) throws IOException;
+    }
+
+    /**
+     * The decoded track points, kept in primitive arrays. Times are seconds relative to the
+     * start of the activity, coordinates are in millionths of a degree (see
+     * GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE) and altitudes in meters.
+     */
+    public static class ActivityDetails {
+        private int size;
+        private long[] timeOffsets;
+        private boolean[] hasLocation;
+        private long[] longitudes;
+        private long[] latitudes;
+        private int[] altitudes;
+        private int[] heartRates;
+
+        ActivityDetails(int capacity) {
+            timeOffsets = new long[capacity];
+            hasLocation = new boolean[capacity];
+            longitudes = new long[capacity];
+            latitudes = new long[capacity];
+            altitudes = new int[capacity];
+            heartRates = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTimeOffset(int index) {
+            return timeOffsets[index];
+        }
+
+        public boolean hasLocation(int index) {
+            return hasLocation[index];
+        }
+
+        public long getScaledLongitude(int index) {
+            return longitudes[index];
+        }
+
+        public long getScaledLatitude(int index) {
+            return latitudes[index];
+        }
+
+        public int getAltitude(int index) {
+            return altitudes[index];
+        }
+
+        public int getHeartRate(int index) {
+            return heartRates[index];
+        }
+
+        private int add(long timeOffset) {
+            if (size == timeOffsets.length) {
+                int capacity = size * 2 + 16;
+                timeOffsets = Arrays.copyOf(timeOffsets, capacity);
+                hasLocation = Arrays.copyOf(hasLocation, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                altitudes = Arrays.copyOf(altitudes, capacity);
+                heartRates = Arrays.copyOf(heartRates, capacity);
+            }
+            timeOffsets[size] = timeOffset;
+            // the slot may be reused after removeFirst()
+            hasLocation[size] = false;
+            heartRates[size] = 0;
+            return size++;
+        }
+
+        private void removeFirst(int count) {
+            size -= count;
+            System.arraycopy(timeOffsets, count, timeOffsets, 0, size);
+            System.arraycopy(hasLocation, count, hasLocation, 0, size);
+            System.arraycopy(longitudes, count, longitudes, 0, size);
+            System.arraycopy(latitudes, count, latitudes, 0, size);
+            System.arraycopy(altitudes, count, altitudes, 0, size);
+            System.arraycopy(heartRates, count, heartRates, 0, size);
+        }
+
+        private boolean isLast(long timeOffset) {
+            return size > 0 && timeOffsets[size - 1] == timeOffset;
+        }
+    }
+
     public ActivityDetailsParser(BaseActivitySummary summary) {
         this.summary = summary;
 //        this.version = version;
@@ -74,109 +176,236 @@ public class ActivityDetailsParser {
         this.baseLatitude = summary.getBaseLatitude();
         this.baseAltitude = summary.getBaseAltitude();
         this.baseDate = summary.getStartTime();
+    }
 
-        this.activityTrack = new ActivityTrack();
-        activityTrack.setUser(summary.getUser());
-        activityTrack.setDevice(summary.getDevice());
-        activityTrack.setName(summary.getName() + "-" + summary.getId());
+    /**
+     * Makes feed() pass every point to the given listener as soon as it will not change
+     * anymore, instead of keeping all points.
+     */
+    public void setTrackPointListener(TrackPointListener listener) {
+        this.listener = listener;
     }
 
     public ActivityTrack parse(byte[] bytes) throws GBException {
-        int i = 0;
-        try {
-            long totalTimeOffset = 0;
-            int lastTimeOffset = 0;
-            while (i < bytes.length) {
-                if (skipCounterByte && (i % 17) == 0) {
-                    i++;
-                }
+        return toActivityTrack(decode(bytes));
+    }
 
-                byte type = bytes[i++];
-                int timeOffset = BLETypeConversions.toUnsigned(bytes[i++]);
-                // handle timeOffset overflows (1 byte, always increasing, relative to base)
-                if (lastTimeOffset <= timeOffset) {
-                    timeOffset = timeOffset - lastTimeOffset;
-                    lastTimeOffset += timeOffset;
-                } else {
-                    lastTimeOffset = timeOffset;
-                }
-                totalTimeOffset += timeOffset;
-
-                switch (type) {
-                    case TYPE_GPS:
-                        i += consumeGPSAndUpdateBaseLocation(bytes, i, totalTimeOffset);
-                        break;
-                    case TYPE_HR:
-                        i += consumeHeartRate(bytes, i, totalTimeOffset);
-                        break;
-                    case TYPE_UNKNOWN2:
-                        i += consumeUnknown2(bytes, i);
-                        break;
-                    case TYPE_PAUSE:
-                        i += consumePause(bytes, i);
-                        break;
-                    case TYPE_SPEED4:
-                        i += consumeSpeed4(bytes, i);
-                        break;
-                    case TYPE_SPEED5:
-                        i += consumeSpeed5(bytes, i);
-                        break;
-                    case TYPE_GPS_SPEED6:
-                        i += consumeSpeed6(bytes, i);
-                        break;
-                    default:
-                        LOG.warn("unknown packet type" + type);
-                        i+=6;
-                }
+    /**
+     * Decodes the track without creating an object per point. Use toActivityTrack() if the
+     * points are needed as ActivityPoints, e.g. for exporting them.
+     */
+    public ActivityDetails decode(byte[] bytes) throws GBException {
+        // every record has at least 8 bytes
+        details = new ActivityDetails(bytes.length / RECORD_LENGTH + 1);
+        feed(bytes, 0, bytes.length);
+        finish();
+        return details;
+    }
+
+    /**
+     * Decodes the given part of the activity details. Records may be split across calls.
+     */
+    public void feed(byte[] bytes, int offset, int length) throws GBException {
+        if (details == null) {
+            details = new ActivityDetails(16);
+        }
+        int end = offset + length;
+        if (partialLength > 0) {
+            int missing = Math.min(getRecordLength() - partialLength, length);
+            System.arraycopy(bytes, offset, partialRecord, partialLength, missing);
+            partialLength += missing;
+            offset += missing;
+            if (partialLength < getRecordLength()) {
+                return;
             }
-        } catch (IndexOutOfBoundsException ex) {
-            throw new GBException("Error parsing activity details: " + ex.getMessage(), ex);
+            consumeRecord(partialRecord, 0);
+            partialLength = 0;
+        }
+        while (end - offset >= getRecordLength()) {
+            offset += consumeRecord(bytes, offset);
         }
+        partialLength = end - offset;
+        System.arraycopy(bytes, offset, partialRecord, 0, partialLength);
 
-        fixupMissingTimestamps(activityTrack);
+        if (listener != null) {
+            int finished = details.size() - 1; // the last point may still be merged with the next record
+            if (!timestampsFixedUp) {
+                finished = Math.min(finished, firstEntryToFixUp >= 0 ? firstEntryToFixUp : fixupPointer);
+            }
+            emit(finished);
+        }
+    }
 
+    /**
+     * Must be called after the last feed(), passes the remaining points to the listener.
+     */
+    public void finish() throws GBException {
+        if (partialLength > 0) {
+            int header = isCounterByteAt(position) ? 3 : 2;
+            // the contents of the other record types are ignored anyway
+            if (partialLength < header || partialRecord[header - 2] == TYPE_GPS || partialRecord[header - 2] == TYPE_HR) {
+                throw new GBException("Error parsing activity details: incomplete record of " + partialLength + " bytes");
+            }
+            partialLength = 0;
+        }
+        if (details == null) {
+            details = new ActivityDetails(0);
+        }
+        if (listener != null) {
+            emit(details.size());
+        }
+    }
+
+    /**
+     * Creates a track without any points, but with the name, user and device of the activity.
+     */
+    public ActivityTrack createActivityTrack() {
+        ActivityTrack activityTrack = new ActivityTrack();
+        activityTrack.setUser(summary.getUser());
+        activityTrack.setDevice(summary.getDevice());
+        activityTrack.setName(summary.getName() + "-" + summary.getId());
         return activityTrack;
     }
 
-    private void fixupMissingTimestamps(ActivityTrack activityTrack) {
+    public ActivityTrack toActivityTrack(ActivityDetails details) {
+        ActivityTrack activityTrack = createActivityTrack();
+        activityTrack.setTrackPoints(new ArrayList<ActivityPoint>(details.size()));
+
+        for (int i = 0; i < details.size(); i++) {
+            activityTrack.addTrackPoint(toActivityPoint(details, i));
+        }
+        return activityTrack;
+    }
+
+    private ActivityPoint toActivityPoint(ActivityDetails details, int index) {
+        ActivityPoint ap = new ActivityPoint(makeAbsolute(details.getTimeOffset(index)));
+        if (details.hasLocation(index)) {
+            ap.setLocation(new GPSCoordinate(
+                    scaledValueToDecimalDegrees(details.getScaledLongitude(index)),
+                    scaledValueToDecimalDegrees(details.getScaledLatitude(index)),
+                    details.getAltitude(index)));
+        }
+        ap.setHeartRate(details.getHeartRate(index));
+        return ap;
+    }
+
+    private void emit(int count) throws GBException {
+        if (count <= 0) {
+            return;
+        }
         try {
-            int pointer = 0;
-            List<ActivityPoint> activityPointList = activityTrack.getTrackPoints();
-            Date gpsStartTime = null;
-            List<ActivityPoint> entriesToFixUp = new ArrayList<>();
-            while (pointer < activityPointList.size() - 1) {
-                ActivityPoint activityPoint = activityPointList.get(pointer);
-                if (activityPoint.getLocation() == null) {
-                    pointer++;
-                    continue;
-                }
-                if (activityPoint.getTime().equals(activityPointList.get(pointer + 1).getTime())) {
-                    entriesToFixUp.add(activityPoint);
-                } else {
-                    // found the first activity point with a proper timestamp
-                    entriesToFixUp.add(activityPoint);
-                    gpsStartTime = activityPointList.get(pointer + 1).getTime();
-                    break;
-                }
-                pointer++;
+            for (int i = 0; i < count; i++) {
+                listener.onTrackPoint(toActivityPoint(details, i));
+            }
+        } catch (IOException ex) {
+            throw new GBException("Error exporting activity details: " + ex.getMessage(), ex);
+        }
+        details.removeFirst(count);
+        fixupPointer -= count;
+        if (firstEntryToFixUp >= 0) {
+            firstEntryToFixUp -= count;
+        }
+    }
+
+    private boolean isCounterByteAt(long position) {
+        return skipCounterByte && (position % 17) == 0;
+    }
+
+    private int getRecordLength() {
+        return isCounterByteAt(position) ? RECORD_LENGTH + 1 : RECORD_LENGTH;
+    }
+
+    private int consumeRecord(byte[] bytes, int offset) {
+        int i = offset;
+        if (isCounterByteAt(position)) {
+            i++;
+        }
+
+        byte type = bytes[i++];
+        int timeOffset = BLETypeConversions.toUnsigned(bytes[i++]);
+        // handle timeOffset overflows (1 byte, always increasing, relative to base)
+        if (lastTimeOffset <= timeOffset) {
+            timeOffset = timeOffset - lastTimeOffset;
+            lastTimeOffset += timeOffset;
+        } else {
+            lastTimeOffset = timeOffset;
+        }
+        totalTimeOffset += timeOffset;
+
+        switch (type) {
+            case TYPE_GPS:
+                i += consumeGPSAndUpdateBaseLocation(details, bytes, i, totalTimeOffset);
+                break;
+            case TYPE_HR:
+                i += consumeHeartRate(details, bytes, i, totalTimeOffset);
+                break;
+            case TYPE_UNKNOWN2:
+                i += consumeUnknown2(bytes, i);
+                break;
+            case TYPE_PAUSE:
+                i += consumePause(bytes, i);
+                break;
+            case TYPE_SPEED4:
+                i += consumeSpeed4(bytes, i);
+                break;
+            case TYPE_SPEED5:
+                i += consumeSpeed5(bytes, i);
+                break;
+            case TYPE_GPS_SPEED6:
+                i += consumeSpeed6(bytes, i);
+                break;
+            default:
+                LOG.warn("unknown packet type" + type);
+                i+=6;
+        }
+        position += i - offset;
+
+        fixupMissingTimestamps();
+
+        return i - offset;
+    }
+
+    /**
+     * The first GPS points share the same time, spread them evenly between the start of the
+     * activity and the first GPS point with a proper timestamp. Called after every record, only
+     * looks at points that cannot change anymore.
+     */
+    private void fixupMissingTimestamps() {
+        while (!timestampsFixedUp && fixupPointer < details.size() - 1) {
+            if (!details.hasLocation(fixupPointer)) {
+                fixupPointer++;
+                continue;
+            }
+            if (firstEntryToFixUp < 0) {
+                firstEntryToFixUp = fixupPointer;
+            }
+            if (details.getTimeOffset(fixupPointer) == details.getTimeOffset(fixupPointer + 1)) {
+                fixupPointer++;
+                continue;
             }
-            if (gpsStartTime != null) {
-                // now adjust those entries without a timestamp
-                long differenceInSec = TimeUnit.SECONDS.convert(Math.abs(gpsStartTime.getTime() - baseDate.getTime()), TimeUnit.MILLISECONDS);
 
-                double multiplier = (double) differenceInSec / (double) (entriesToFixUp.size());
+            // found the first activity point with a proper timestamp
+            long gpsStartTime = details.getTimeOffset(fixupPointer + 1);
+            int entriesToFixUp = 0;
+            for (int k = firstEntryToFixUp; k <= fixupPointer; k++) {
+                if (details.hasLocation(k)) {
+                    entriesToFixUp++;
+                }
+            }
+            // now adjust those entries without a timestamp
+            double multiplier = (double) Math.abs(gpsStartTime) / (double) entriesToFixUp;
 
-                for (int j = 0; j < entriesToFixUp.size(); j++) {
-                    long timeOffsetSeconds = Math.round(j * multiplier);
-                    entriesToFixUp.get(j).setTime(makeAbsolute(timeOffsetSeconds));
+            int j = 0;
+            for (int k = firstEntryToFixUp; k <= fixupPointer; k++) {
+                if (details.hasLocation(k)) {
+                    details.timeOffsets[k] = Math.round(j++ * multiplier);
                 }
             }
-        } catch (Exception ex) {
-            LOG.warn("Error cleaning activity details", ex);
+            timestampsFixedUp = true;
         }
     }
 
-    private int consumeGPSAndUpdateBaseLocation(byte[] bytes, int offset, long timeOffset) {
+    private int consumeGPSAndUpdateBaseLocation(ActivityDetails details, byte[] bytes, int offset, long timeOffset) {
         int i = 0;
         int longitudeDelta = BLETypeConversions.toInt16(bytes[offset + i++], bytes[offset + i++]);
         int latitudeDelta = BLETypeConversions.toInt16(bytes[offset + i++], bytes[offset + i++]);
@@ -186,24 +415,50 @@ public class ActivityDetailsParser {
         baseLatitude += latitudeDelta;
         baseAltitude += altitudeDelta;
 
-        GPSCoordinate coordinate = new GPSCoordinate(
-                convertHuamiValueToDecimalDegrees(baseLongitude),
-                convertHuamiValueToDecimalDegrees(baseLatitude),
-                baseAltitude);
+        long longitude = convertHuamiValueToScaledValue(baseLongitude);
+        long latitude = convertHuamiValueToScaledValue(baseLatitude);
 
-        ActivityPoint ap = getActivityPointFor(timeOffset, coordinate);
-        ap.setLocation(coordinate);
-        add(ap);
+        int index;
+        if (details.isLast(timeOffset) && !(details.hasLocation(details.size() - 1)
+                && (details.getScaledLongitude(details.size() - 1) != longitude
+                || details.getScaledLatitude(details.size() - 1) != latitude
+                || details.getAltitude(details.size() - 1) != baseAltitude))) {
+            // same time and no other location yet, so it belongs to the previous point
+            LOG.info("skipping point!");
+            index = details.size() - 1;
+        } else {
+            index = details.add(timeOffset);
+        }
+        details.hasLocation[index] = true;
+        details.longitudes[index] = longitude;
+        details.latitudes[index] = latitude;
+        details.altitudes[index] = baseAltitude;
 
         return i;
     }
 
-    private double convertHuamiValueToDecimalDegrees(long huamiValue) {
-        BigDecimal result = new BigDecimal(huamiValue).divide(HUAMI_TO_DECIMAL_DEGREES_DIVISOR, GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP);
-        return result.doubleValue();
+    /**
+     * Same as dividing by HUAMI_TO_DECIMAL_DEGREES_DIVISOR with GPS_DECIMAL_DEGREES_SCALE and
+     * RoundingMode.HALF_UP, without going through BigDecimal.
+     */
+    public static double convertHuamiValueToDecimalDegrees(long huamiValue) {
+        return scaledValueToDecimalDegrees(convertHuamiValueToScaledValue(huamiValue));
     }
 
-    private int consumeHeartRate(byte[] bytes, int offset, long timeOffsetSeconds) {
+    private static long convertHuamiValueToScaledValue(long huamiValue) {
+        // round to nearest, there are no ties when dividing by 3
+        long value = huamiValue + 1;
+        if (value >= 0) {
+            return value / HUAMI_UNITS_PER_SCALED_UNIT;
+        }
+        return -((-value + HUAMI_UNITS_PER_SCALED_UNIT - 1) / HUAMI_UNITS_PER_SCALED_UNIT);
+    }
+
+    private static double scaledValueToDecimalDegrees(long scaledValue) {
+        return scaledValue / SCALED_UNITS_PER_DEGREE;
+    }
+
+    private int consumeHeartRate(ActivityDetails details, byte[] bytes, int offset, long timeOffsetSeconds) {
         int v1 = BLETypeConversions.toUint16(bytes[offset]);
         int v2 = BLETypeConversions.toUint16(bytes[offset + 1]);
         int v3 = BLETypeConversions.toUint16(bytes[offset + 2]);
@@ -215,61 +470,30 @@ public class ActivityDetailsParser {
             // new version
 //            LOG.info("detected heart rate in 'new' version, where version is: " + summary.getVersion());
             LOG.info("detected heart rate in 'new' version format");
-            ActivityPoint ap = getActivityPointFor(timeOffsetSeconds);
-            ap.setHeartRate(v1);
-            add(ap);
+            addHeartRate(details, timeOffsetSeconds, v1);
         } else {
-            ActivityPoint ap = getActivityPointFor(v1);
-            ap.setHeartRate(v2);
-            add(ap);
-
-            ap = getActivityPointFor(v3);
-            ap.setHeartRate(v4);
-            add(ap);
-
-            ap = getActivityPointFor(v5);
-            ap.setHeartRate(v6);
-            add(ap);
+            addHeartRate(details, v1, v2);
+            addHeartRate(details, v3, v4);
+            addHeartRate(details, v5, v6);
         }
         return 6;
     }
 
-    private ActivityPoint getActivityPointFor(long timeOffsetSeconds) {
-        Date time = makeAbsolute(timeOffsetSeconds);
-        if (lastActivityPoint != null) {
-            if (lastActivityPoint.getTime().equals(time)) {
-                return lastActivityPoint;
-            }
-        }
-        return new ActivityPoint(time);
-    }
-
-    private ActivityPoint getActivityPointFor(long timeOffsetSeconds, GPSCoordinate gpsCoordinate) {
-        Date time = makeAbsolute(timeOffsetSeconds);
-        if (lastActivityPoint != null) {
-            if (lastActivityPoint.getTime().equals(time)) {
-                if (lastActivityPoint.getLocation() != null && !lastActivityPoint.getLocation().equals(gpsCoordinate)) {
-                    return new ActivityPoint(time);
-                }
-                return lastActivityPoint;
-            }
+    private void addHeartRate(ActivityDetails details, long timeOffsetSeconds, int heartRate) {
+        int index;
+        if (details.isLast(timeOffsetSeconds)) {
+            LOG.info("skipping point!");
+            index = details.size() - 1;
+        } else {
+            index = details.add(timeOffsetSeconds);
         }
-        return new ActivityPoint(time);
+        details.heartRates[index] = heartRate;
     }
 
     private Date makeAbsolute(long timeOffsetSeconds) {
         return new Date(baseDate.getTime() + timeOffsetSeconds * 1000);
     }
 
-    private void add(ActivityPoint ap) {
-        if (ap != lastActivityPoint) {
-            lastActivityPoint = ap;
-            activityTrack.addTrackPoint(ap);
-        } else {
-            LOG.info("skipping point!");
-        }
-    }
-
     private int consumeUnknown2(byte[] bytes, int offset) {
         return 6; // just guessing...
     }
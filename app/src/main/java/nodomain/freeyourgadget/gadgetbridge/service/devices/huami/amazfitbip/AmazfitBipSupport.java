@@ -20,8 +20,6 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.amazfitbip;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.net.Uri;
 
 import org.slf4j.Logger;
@@ -62,6 +60,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.amazfitbip.ope
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations.FetchActivityOperation;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations.FetchSportsSummaryOperation;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.NotificationStrategy;
+import nodomain.freeyourgadget.gadgetbridge.util.AppMetadataCache;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Version;
@@ -122,15 +121,10 @@ public class AmazfitBipSupport extends HuamiSupport {
                 if (alertCategory == AlertCategory.CustomHuami) {
                     String appName;
                     prefixlength = 3;
-                    final PackageManager pm = getContext().getPackageManager();
-                    ApplicationInfo ai = null;
-                    try {
-                        ai = pm.getApplicationInfo(notificationSpec.sourceAppId, 0);
-                    } catch (PackageManager.NameNotFoundException ignored) {
-                    }
+                    String label = AppMetadataCache.getInstance(getContext()).getLabel(notificationSpec.sourceAppId);
 
-                    if (ai != null) {
-                        appName = "\0" + pm.getApplicationLabel(ai) + "\0";
+                    if (label != null) {
+                        appName = "\0" + label + "\0";
                     } else {
                         appName = "\0" + "UNKNOWN" + "\0";
                     }
@@ -22,20 +22,23 @@ import android.widget.Toast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.GregorianCalendar;
 
 import androidx.annotation.NonNull;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.amazfitbip.AmazfitBipService;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter;
 import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
@@ -54,7 +57,14 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
     private final BaseActivitySummary summary;
     private final String lastSyncTimeKey;
 
-    private ByteArrayOutputStream buffer;
+    private ActivityDetailsParser parser;
+    private ActivityTrackExporter.TrackWriter trackWriter;
+    private File targetFile;
+    private File tempTargetFile;
+    private ActivityTrackExporter.TrackWriter binaryTrackWriter;
+    private File binaryTargetFile;
+    private File tempBinaryTargetFile;
+    private GBException parseError;
 
     public FetchSportsDetailsOperation(@NonNull BaseActivitySummary summary, @NonNull HuamiSupport support, @NonNull String lastSyncTimeKey) {
         super(support);
@@ -66,7 +76,17 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
     @Override
     protected void startFetching(TransactionBuilder builder) {
         LOG.info("start " + getName());
-        buffer = new ByteArrayOutputStream(1024);
+        // the data is parsed and exported as it arrives, so that we don't need to keep it all
+        parser = new ActivityDetailsParser(summary);
+        parser.setSkipCounterByte(false); // is already stripped
+        parser.setTrackPointListener(new ActivityDetailsParser.TrackPointListener() {
+            @Override
+            public void onTrackPoint(ActivityPoint point) throws IOException {
+                openTrackWriters();
+                trackWriter.addTrackPoint(point);
+                binaryTrackWriter.addTrackPoint(point);
+            }
+        });
         GregorianCalendar sinceWhen = getLastSuccessfulSyncTime();
         startFetching(builder, AmazfitBipService.COMMAND_ACTIVITY_DATA_TYPE_SPORTS_DETAILS, sinceWhen);
     }
@@ -85,35 +105,26 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
 //        }
 
 
+        boolean exported = false;
         if (success) {
-            ActivityDetailsParser parser = new ActivityDetailsParser(summary);
-            parser.setSkipCounterByte(false); // is already stripped
             try {
-                ActivityTrack track = parser.parse(buffer.toByteArray());
-                ActivityTrackExporter exporter = createExporter();
-                String trackType = "track";
-                switch (summary.getActivityKind()) {
-                    case ActivityKind.TYPE_CYCLING:
-                        trackType = getContext().getString(R.string.activity_type_biking);
-                        break;
-                    case ActivityKind.TYPE_RUNNING:
-                        trackType = getContext().getString(R.string.activity_type_running);
-                        break;
-                    case ActivityKind.TYPE_WALKING:
-                        trackType = getContext().getString(R.string.activity_type_walking);
-                        break;
-                    case ActivityKind.TYPE_SWIMMING:
-                        trackType = getContext().getString(R.string.activity_type_swimming);
-                        break;
+                if (parseError != null) {
+                    throw parseError;
                 }
-                String fileName = FileUtils.makeValidFileName("gadgetbridge-"+trackType.toLowerCase()+"-" + DateTimeUtils.formatIso8601(summary.getStartTime()) + ".gpx");
-                File targetFile = new File(FileUtils.getExternalFilesDir(), fileName);
+                parser.finish();
 
                 try {
-                    exporter.performExport(track, targetFile);
+                    openTrackWriters();
+                    trackWriter.finish();
+                    binaryTrackWriter.finish();
+                    // the target files may still be referenced by an earlier summary
+                    replace(tempTargetFile, targetFile);
+                    replace(tempBinaryTargetFile, binaryTargetFile);
+                    exported = true;
 
                     try (DBHandler dbHandler = GBApplication.acquireDB()) {
                         summary.setGpxTrack(targetFile.getAbsolutePath());
+                        summary.setBinaryTrack(binaryTargetFile.getAbsolutePath());
                         dbHandler.getDaoSession().getBaseActivitySummaryDao().update(summary);
                     }
                 } catch (ActivityTrackExporter.GPXTrackEmptyException ex) {
@@ -127,10 +138,63 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
                 GB.toast(getContext(), "Error getting activity details: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
             }
         }
+        if (!exported) {
+            discard(trackWriter, tempTargetFile);
+            discard(binaryTrackWriter, tempBinaryTargetFile);
+        }
 
         super.handleActivityFetchFinish(success);
     }
 
+    private void discard(ActivityTrackExporter.TrackWriter writer, File file) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            LOG.warn("Error closing " + file, ex);
+        }
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Could not delete incomplete " + file);
+        }
+    }
+
+    private void replace(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file + " with " + tempFile);
+        }
+    }
+
+    private void openTrackWriters() throws IOException {
+        if (trackWriter == null) {
+            String trackType = "track";
+            switch (summary.getActivityKind()) {
+                case ActivityKind.TYPE_CYCLING:
+                    trackType = getContext().getString(R.string.activity_type_biking);
+                    break;
+                case ActivityKind.TYPE_RUNNING:
+                    trackType = getContext().getString(R.string.activity_type_running);
+                    break;
+                case ActivityKind.TYPE_WALKING:
+                    trackType = getContext().getString(R.string.activity_type_walking);
+                    break;
+                case ActivityKind.TYPE_SWIMMING:
+                    trackType = getContext().getString(R.string.activity_type_swimming);
+                    break;
+            }
+            String fileName = FileUtils.makeValidFileName("gadgetbridge-"+trackType.toLowerCase()+"-" + DateTimeUtils.formatIso8601(summary.getStartTime()));
+            File dir = FileUtils.getExternalFilesDir();
+            ActivityTrack track = parser.createActivityTrack();
+            targetFile = new File(dir, fileName + ".gpx");
+            tempTargetFile = new File(dir, targetFile.getName() + ".tmp");
+            trackWriter = createExporter().startExport(track, tempTargetFile);
+            binaryTargetFile = new File(dir, fileName + BinaryTrackExporter.FILE_EXTENSION);
+            tempBinaryTargetFile = new File(dir, binaryTargetFile.getName() + ".tmp");
+            binaryTrackWriter = new BinaryTrackExporter().startExport(track, tempBinaryTargetFile);
+        }
+    }
+
     protected ActivityTrackExporter createExporter() {
         GPXExporter exporter = new GPXExporter();
         exporter.setCreator(GBApplication.app().getNameAndVersion());
@@ -174,13 +238,21 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
     }
 
     /**
-     * Buffers the given activity summary data. If the total size is reached,
-     * it is converted to an object and saved in the database.
+     * Parses the given activity details and writes the complete track points to the
+     * GPX file.
      * @param value
      */
     @Override
     protected void bufferActivityData(byte[] value) {
-        buffer.write(value, 1, value.length - 1); // skip the counter
+        if (parseError != null) {
+            return; // reported when the fetch is finished
+        }
+        try {
+            parser.feed(value, 1, value.length - 1); // skip the counter
+        } catch (GBException ex) {
+            LOG.error("Error parsing sports details", ex);
+            parseError = ex;
+        }
     }
 
     @Override
@@ -0,0 +1,225 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps track of what is stored in the BlobDB databases of a watch, so that inserting an
+ * unchanged item again can be skipped.
+ *
+ * Every item is remembered by database and key together with a checksum of its contents.
+ * Inserts and deletes are applied to the in-memory view as soon as they are sent, so they can
+ * be streamed without waiting for the watch; the persisted view is only updated once the watch
+ * acknowledged them. Operations that fail, are not answered within ACK_TIMEOUT_MILLIS or are
+ * evicted from the pending list are rolled back, so their items get sent again. A new
+ * connection starts from the persisted view, so items that were confirmed before are not sent
+ * again and unconfirmed ones are.
+ *
+ * Everything is forgotten when the watch identifies itself differently than before (other
+ * firmware build or serial, or a change of its "unfaithful" flag, which the firmware sets
+ * after a reset or when it was paired with another phone), and when the device is deleted.
+ */
+public class PebbleBlobDBMirror {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleBlobDBMirror.class);
+
+    private static final String STORE_PREFIX = "pebble_blobdb_";
+    private static final String KEY_WATCH_IDENTITY = "watch_identity";
+    private static final int MAX_PENDING = 256;
+    private static final long ACK_TIMEOUT_MILLIS = 30000;
+
+    private final SharedPreferences store;
+    private final Map<String, Long> entries = new HashMap<>();
+    private final Map<Short, Pending> pending = new LinkedHashMap<Short, Pending>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Short, Pending> eldest) {
+            if (size() > MAX_PENDING) {
+                LOG.warn("Too many unanswered BlobDB operations, giving up on " + eldest.getValue().entryKey);
+                rollback(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private short nextToken = 1;
+
+    private static class Pending {
+        final String entryKey;
+        final Long checksum;
+        final long sentMillis;
+
+        Pending(String entryKey, Long checksum, long sentMillis) {
+            this.entryKey = entryKey;
+            this.checksum = checksum;
+            this.sentMillis = sentMillis;
+        }
+    }
+
+    PebbleBlobDBMirror(String address) {
+        this(GBApplication.getContext().getSharedPreferences(STORE_PREFIX + address, Context.MODE_PRIVATE));
+    }
+
+    PebbleBlobDBMirror(SharedPreferences store) {
+        this.store = store;
+        for (Map.Entry<String, ?> stored : store.getAll().entrySet()) {
+            if (stored.getValue() instanceof Long) {
+                entries.put(stored.getKey(), (Long) stored.getValue());
+            }
+        }
+        LOG.debug("Loaded " + entries.size() + " BlobDB items");
+    }
+
+    /**
+     * Forgets everything known about the watch with the given address, e.g. when it is deleted.
+     */
+    public static void forget(String address) {
+        GBApplication.getContext().getSharedPreferences(STORE_PREFIX + address, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    synchronized short nextToken() {
+        return nextToken++;
+    }
+
+    /**
+     * Compares the identity the watch reported on connect with the one of the previous
+     * connection and forgets everything if they differ, since the watch's databases may have
+     * been wiped meanwhile.
+     */
+    synchronized void checkWatchIdentity(String identity) {
+        String previous = store.getString(KEY_WATCH_IDENTITY, null);
+        if (identity.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            LOG.info("Watch changed from " + previous + " to " + identity + ", forgetting its BlobDB items");
+        }
+        store.edit().clear().putString(KEY_WATCH_IDENTITY, identity).apply();
+        entries.clear();
+        pending.clear();
+    }
+
+    /**
+     * Returns true if the given item is already on the watch or about to be inserted.
+     */
+    synchronized boolean contains(byte db, String key, byte[] blob) {
+        expireUnanswered();
+        Long checksum = entries.get(entryKey(db, key));
+        return checksum != null && checksum == checksum(blob);
+    }
+
+    /**
+     * Records an insert (blob != null) or a delete (blob == null) sent with the given token.
+     */
+    synchronized void sent(short token, byte db, String key, byte[] blob) {
+        expireUnanswered();
+        String entryKey = entryKey(db, key);
+        Long checksum = blob != null ? checksum(blob) : null;
+        if (checksum != null) {
+            entries.put(entryKey, checksum);
+        } else {
+            entries.remove(entryKey);
+        }
+        pending.put(token, new Pending(entryKey, checksum, System.currentTimeMillis()));
+    }
+
+    /**
+     * Applies the watch's answer for the given token.
+     *
+     * @param success true if the watch confirmed the operation
+     */
+    synchronized void acknowledged(short token, boolean success) {
+        Pending op = pending.remove(token);
+        if (op == null) {
+            return;
+        }
+        if (!success) {
+            rollback(op);
+        } else if (op.checksum != null) {
+            store.edit().putLong(op.entryKey, op.checksum).apply();
+        } else {
+            store.edit().remove(op.entryKey).apply();
+        }
+    }
+
+    /**
+     * Gives up on operations the watch did not answer in time, e.g. because they were dropped
+     * on the way. Pending operations are ordered by the time they were sent.
+     */
+    private void expireUnanswered() {
+        long deadline = System.currentTimeMillis() - ACK_TIMEOUT_MILLIS;
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending op = it.next();
+            if (op.sentMillis > deadline) {
+                break;
+            }
+            LOG.warn("No answer for BlobDB operation on " + op.entryKey + ", will send it again");
+            it.remove();
+            rollback(op);
+        }
+    }
+
+    /**
+     * Marks the item of a failed or unanswered operation as unknown, so that it gets sent again.
+     */
+    private void rollback(Pending op) {
+        store.edit().remove(op.entryKey).apply();
+        if (op.checksum != null && op.checksum.equals(entries.get(op.entryKey))) {
+            entries.remove(op.entryKey);
+        }
+    }
+
+    /**
+     * Forgets everything known about the given database, e.g. after it was cleared.
+     */
+    synchronized void clear(byte db) {
+        String prefix = db + ":";
+        SharedPreferences.Editor editor = store.edit();
+        for (String entryKey : store.getAll().keySet()) {
+            if (entryKey.startsWith(prefix)) {
+                editor.remove(entryKey);
+            }
+        }
+        editor.apply();
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String entryKey(byte db, String key) {
+        return db + ":" + key;
+    }
+
+    private static long checksum(byte[] blob) {
+        CRC32 crc = new CRC32();
+        crc.update(blob);
+        return (crc.getValue() << 32) | blob.length;
+    }
+}
@@ -0,0 +1,69 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import java.nio.ByteBuffer;
+
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+
+/**
+ * Maps Pebble endpoint ids to the decoders handling them.
+ *
+ * Endpoints are unsigned 16 bit values, so lookups go through a two-level table of 256 pages
+ * with 256 slots each. Pages are only allocated for ranges that actually have a decoder, which
+ * keeps the table small while every lookup stays two array accesses.
+ */
+class PebbleEndpointDecoderTable {
+
+    interface Decoder {
+        /**
+         * Decodes a single frame. The buffer is shared with the caller and positioned right
+         * after the frame header; decoders may change its byte order.
+         *
+         * @param buf      the frame, positioned at the start of the payload
+         * @param endpoint the endpoint the frame was sent to
+         * @param length   the payload length as announced in the frame header
+         * @return the resulting events, or null if the frame was not handled
+         */
+        GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length);
+    }
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Decoder[][] pages = new Decoder[PAGE_SIZE][];
+
+    void register(short endpoint, Decoder decoder) {
+        int index = endpoint & 0xffff;
+        Decoder[] page = pages[index >>> PAGE_BITS];
+        if (page == null) {
+            page = new Decoder[PAGE_SIZE];
+            pages[index >>> PAGE_BITS] = page;
+        }
+        page[index & PAGE_MASK] = decoder;
+    }
+
+    Decoder get(short endpoint) {
+        int index = endpoint & 0xffff;
+        Decoder[] page = pages[index >>> PAGE_BITS];
+        if (page == null) {
+            return null;
+        }
+        return page[index & PAGE_MASK];
+    }
+}
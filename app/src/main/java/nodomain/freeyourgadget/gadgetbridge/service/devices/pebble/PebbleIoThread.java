@@ -24,8 +24,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.ParcelUuid;
-import android.webkit.ValueCallback;
-import android.webkit.WebView;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -125,20 +123,15 @@ class PebbleIoThread extends GBDeviceIoThread {
             jsEvent = "appmessage";
         }
 
-        final String appMessage = PebbleUtils.parseIncomingAppMessage(message.message, message.appUUID, message.id);
+        final String appMessage;
+        if (message.keys != null) {
+            appMessage = PebbleUtils.buildIncomingAppMessage(message.keys, message.values, message.appUUID, message.id);
+        } else {
+            appMessage = PebbleUtils.parseIncomingAppMessage(message.message, message.appUUID, message.id);
+        }
         LOG.debug("to WEBVIEW: event: " + jsEvent + " message: " + appMessage);
-        WebViewSingleton.getInstance().invokeWebview(new WebViewSingleton.WebViewRunnable() {
-            @Override
-            public void invoke(WebView webView) {
-                webView.evaluateJavascript("if (typeof Pebble == 'object') Pebble.evaluate('" + jsEvent + "',[" + appMessage + "]);", new ValueCallback<String>() {
-                    @Override
-                    public void onReceiveValue(String s) {
-                        //TODO: the message should be acked here instead of in PebbleIoThread
-                        LOG.debug("Callback from appmessage: " + s);
-                    }
-                });
-            }
-        });
+        //TODO: the message should be acked once evaluated instead of in PebbleIoThread
+        WebViewSingleton.getInstance().evaluateAppMessage(jsEvent, appMessage);
     }
 
     PebbleIoThread(PebbleSupport pebbleSupport, GBDevice gbDevice, GBDeviceProtocol gbDeviceProtocol, BluetoothAdapter btAdapter, Context context) {
@@ -360,7 +353,8 @@ class PebbleIoThread extends GBDeviceIoThread {
                     mInStream.skip(2);
                 }
 
-                GBDeviceEvent deviceEvents[] = mPebbleProtocol.decodeResponse(buffer);
+                buf.rewind();
+                GBDeviceEvent deviceEvents[] = mPebbleProtocol.decodeResponse(buf);
                 if (deviceEvents == null) {
                     LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
                 } else {
@@ -276,6 +276,8 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private static final Random mRandom = new Random();
 
+    private final PebbleBlobDBMirror mBlobDBMirror;
+
     int mFwMajor = 3;
     boolean mEnablePebbleKit = false;
     boolean mAlwaysACKPebbleKit = false;
@@ -406,10 +408,14 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private final Map<UUID, AppMessageHandler> mAppMessageHandlers = new HashMap<>();
 
+    private final PebbleEndpointDecoderTable mDecoders = new PebbleEndpointDecoderTable();
+
     private UUID currentRunningApp = UUID_ZERO;
 
     public PebbleProtocol(GBDevice device) {
         super(device);
+        registerDecoders();
+        mBlobDBMirror = new PebbleBlobDBMirror(device.getAddress());
         mAppMessageHandlers.put(UUID_MORPHEUZ, new AppMessageHandlerMorpheuz(UUID_MORPHEUZ, PebbleProtocol.this));
         mAppMessageHandlers.put(UUID_MISFIT, new AppMessageHandlerMisfit(UUID_MISFIT, PebbleProtocol.this));
         if (!GBApplication.getGBPrefs().isBackgroundJsEnabled()) {
@@ -615,6 +621,16 @@ public class PebbleProtocol extends GBDeviceProtocol {
         }
         length += key_length;
 
+        short token = mBlobDBMirror.nextToken();
+        if (isMirroredBlobDB(db) && (command == BLOBDB_INSERT || command == BLOBDB_DELETE)) {
+            String mirrorKey = key.toString();
+            if (command == BLOBDB_INSERT && mBlobDBMirror.contains(db, mirrorKey, blob)) {
+                LOG.info("BlobDB item " + mirrorKey + " in database " + db + " is unchanged, not sending");
+                return null;
+            }
+            mBlobDBMirror.sent(token, db, mirrorKey, command == BLOBDB_INSERT ? blob : null);
+        }
+
         if (blob != null) {
             length += blob.length + 2;
         }
@@ -627,7 +643,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
         buf.order(ByteOrder.LITTLE_ENDIAN);
         buf.put(command);
-        buf.putShort((short) mRandom.nextInt()); // token
+        buf.putShort(token);
         buf.put(db);
 
         buf.put((byte) key_length);
@@ -718,12 +734,21 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
         buf.order(ByteOrder.LITTLE_ENDIAN);
         buf.put(BLOBDB_CLEAR);
-        buf.putShort((short) mRandom.nextInt()); // token
+        buf.putShort(mBlobDBMirror.nextToken());
         buf.put(database);
 
+        mBlobDBMirror.clear(database);
         return buf.array();
     }
 
+    /**
+     * Databases whose contents are tracked in mBlobDBMirror. Notifications are not, since every
+     * notification is inserted with a fresh key anyway.
+     */
+    private static boolean isMirroredBlobDB(byte db) {
+        return db == BLOBDB_PIN || db == BLOBDB_WEATHER || db == BLOBDB_APPGLANCE;
+    }
+
     private byte[] encodeTimelinePin(UUID uuid, int timestamp, short duration, int icon_id, List<Pair<Integer, Object>> attributes) {
         final short TIMELINE_PIN_LENGTH = 46;
 
@@ -1101,7 +1126,9 @@ public class PebbleProtocol extends GBDeviceProtocol {
         int length = 0;
         if (mFwMajor >= 4) {
             forecastProtocol = encodeWeatherForecast(weatherSpec);
-            length += forecastProtocol.length;
+            if (forecastProtocol != null) {
+                length += forecastProtocol.length;
+            }
         }
         AppMessageHandler handler = mAppMessageHandlers.get(currentRunningApp);
         if (handler != null) {
@@ -1110,6 +1137,9 @@ public class PebbleProtocol extends GBDeviceProtocol {
                 length += watchfaceProtocol.length;
             }
         }
+        if (length == 0) {
+            return null;
+        }
         ByteBuffer buf = ByteBuffer.allocate(length);
 
         if (forecastProtocol != null) {
@@ -1754,43 +1784,53 @@ public class PebbleProtocol extends GBDeviceProtocol {
         return dict;
     }
 
-    private GBDeviceEvent[] decodeDictToJSONAppMessage(UUID uuid, ByteBuffer buf) throws JSONException {
+    /**
+     * Decodes an app message dictionary into a PebbleKit style JSON array, e.g.
+     * [{"key":1,"length":4,"type":"uint","value":23}].
+     *
+     * The JSON text is written directly instead of going through a JSONObject per tuple, and
+     * the typed keys and values are handed along with the event, so that consumers that do
+     * not need JSON (like the webview bridge) can skip parsing it again.
+     */
+    private GBDeviceEvent[] decodeDictToJSONAppMessage(UUID uuid, ByteBuffer buf) {
         buf.order(ByteOrder.LITTLE_ENDIAN);
-        byte dictSize = buf.get();
+        int dictSize = buf.get() & 0xff;
         if (dictSize == 0) {
             LOG.info("dict size is 0, ignoring");
             return null;
         }
-        JSONArray jsonArray = new JSONArray();
-        while (dictSize-- > 0) {
-            JSONObject jsonObject = new JSONObject();
-            Integer key = buf.getInt();
+        int[] keys = new int[dictSize];
+        Object[] values = new Object[dictSize];
+        StringBuilder json = new StringBuilder(dictSize * 48);
+        json.append('[');
+        for (int i = 0; i < dictSize; i++) {
+            int key = buf.getInt();
             byte type = buf.get();
             short length = buf.getShort();
-            jsonObject.put("key", key);
             if (type == TYPE_CSTRING) {
                 length--;
             }
-            jsonObject.put("length", length);
+            String typeName;
+            Object value;
             switch (type) {
                 case TYPE_UINT:
-                    jsonObject.put("type", "uint");
+                    typeName = "uint";
                     if (length == 1) {
-                        jsonObject.put("value", buf.get() & 0xff);
+                        value = buf.get() & 0xff;
                     } else if (length == 2) {
-                        jsonObject.put("value", buf.getShort() & 0xffff);
+                        value = buf.getShort() & 0xffff;
                     } else {
-                        jsonObject.put("value", buf.getInt() & 0xffffffffL);
+                        value = buf.getInt() & 0xffffffffL;
                     }
                     break;
                 case TYPE_INT:
-                    jsonObject.put("type", "int");
+                    typeName = "int";
                     if (length == 1) {
-                        jsonObject.put("value", buf.get());
+                        value = (int) buf.get();
                     } else if (length == 2) {
-                        jsonObject.put("value", buf.getShort());
+                        value = (int) buf.getShort();
                     } else {
-                        jsonObject.put("value", buf.getInt());
+                        value = buf.getInt();
                     }
                     break;
                 case TYPE_BYTEARRAY:
@@ -1798,11 +1838,11 @@ public class PebbleProtocol extends GBDeviceProtocol {
                     byte[] bytes = new byte[length];
                     buf.get(bytes);
                     if (type == TYPE_BYTEARRAY) {
-                        jsonObject.put("type", "bytes");
-                        jsonObject.put("value", new String(Base64.encode(bytes, Base64.NO_WRAP)));
+                        typeName = "bytes";
+                        value = new String(Base64.encode(bytes, Base64.NO_WRAP));
                     } else {
-                        jsonObject.put("type", "string");
-                        jsonObject.put("value", new String(bytes));
+                        typeName = "string";
+                        value = new String(bytes);
                         buf.get(); // skip null-termination;
                     }
                     break;
@@ -1810,8 +1850,24 @@ public class PebbleProtocol extends GBDeviceProtocol {
                     LOG.info("unknown type in appmessage, ignoring");
                     return null;
             }
-            jsonArray.put(jsonObject);
+            keys[i] = key;
+            values[i] = value;
+
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"key\":").append(key)
+                    .append(",\"length\":").append(length)
+                    .append(",\"type\":\"").append(typeName)
+                    .append("\",\"value\":");
+            if (value instanceof String) {
+                json.append(JSONObject.quote((String) value));
+            } else {
+                json.append(value);
+            }
+            json.append('}');
         }
+        json.append(']');
 
         GBDeviceEventSendBytes sendBytesAck = null;
         if (mAlwaysACKPebbleKit) {
@@ -1822,7 +1878,9 @@ public class PebbleProtocol extends GBDeviceProtocol {
         GBDeviceEventAppMessage appMessage = new GBDeviceEventAppMessage();
         appMessage.appUUID = uuid;
         appMessage.id = last_id & 0xff;
-        appMessage.message = jsonArray.toString();
+        appMessage.message = json.toString();
+        appMessage.keys = keys;
+        appMessage.values = values;
         return new GBDeviceEvent[]{appMessage, sendBytesAck};
     }
 
@@ -2186,6 +2244,8 @@ public class PebbleProtocol extends GBDeviceProtocol {
         } else {
             LOG.warn(ENDPOINT_NAME + ": unknown status " + status + " (token " + (token & 0xffff) + ")");
         }
+        // a delete of something that is not there also leaves the watch in the expected state
+        mBlobDBMirror.acknowledged(token, status == BLOBDB_SUCCESS || status == BLOBDB_KEYDOESNOTEXIST);
         return null;
     }
 
@@ -2339,295 +2399,389 @@ public class PebbleProtocol extends GBDeviceProtocol {
         return null;
     }
 
-    @Override
-    public GBDeviceEvent[] decodeResponse(byte[] responseData) {
-        ByteBuffer buf = ByteBuffer.wrap(responseData);
-        buf.order(ByteOrder.BIG_ENDIAN);
-        short length = buf.getShort();
-        short endpoint = buf.getShort();
-        GBDeviceEvent devEvts[] = null;
-        byte pebbleCmd;
-        switch (endpoint) {
-            case ENDPOINT_MUSICCONTROL:
-                pebbleCmd = buf.get();
-                GBDeviceEventMusicControl musicCmd = new GBDeviceEventMusicControl();
-                switch (pebbleCmd) {
-                    case MUSICCONTROL_NEXT:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.NEXT;
-                        break;
-                    case MUSICCONTROL_PREVIOUS:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.PREVIOUS;
-                        break;
-                    case MUSICCONTROL_PLAY:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.PLAY;
-                        break;
-                    case MUSICCONTROL_PAUSE:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.PAUSE;
-                        break;
-                    case MUSICCONTROL_PLAYPAUSE:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.PLAYPAUSE;
-                        break;
-                    case MUSICCONTROL_VOLUMEUP:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.VOLUMEUP;
-                        break;
-                    case MUSICCONTROL_VOLUMEDOWN:
-                        musicCmd.event = GBDeviceEventMusicControl.Event.VOLUMEDOWN;
-                        break;
-                    default:
-                        break;
-                }
-                devEvts = new GBDeviceEvent[]{musicCmd};
+    private void registerDecoders() {
+        mDecoders.register(ENDPOINT_MUSICCONTROL, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeMusicControl(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_PHONECONTROL, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodePhoneControl(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_FIRMWAREVERSION, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeFirmwareVersion(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_APPMANAGER, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodeAppManager(buf);
+            }
+        });
+        mDecoders.register(ENDPOINT_PUTBYTES, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodePutBytes(buf)};
+            }
+        });
+        PebbleEndpointDecoderTable.Decoder appMessageDecoder = new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodeAppMessage(buf, endpoint);
+            }
+        };
+        mDecoders.register(ENDPOINT_APPLICATIONMESSAGE, appMessageDecoder);
+        mDecoders.register(ENDPOINT_LAUNCHER, appMessageDecoder);
+        mDecoders.register(ENDPOINT_PHONEVERSION, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodePhoneVersion(buf);
+            }
+        });
+        mDecoders.register(ENDPOINT_DATALOG, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodeDatalog(buf, length);
+            }
+        });
+        mDecoders.register(ENDPOINT_SCREENSHOT, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeScreenshot(buf, length)};
+            }
+        });
+        PebbleEndpointDecoderTable.Decoder actionDecoder = new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodeAction(buf);
+            }
+        };
+        mDecoders.register(ENDPOINT_EXTENSIBLENOTIFS, actionDecoder);
+        mDecoders.register(ENDPOINT_NOTIFICATIONACTION, actionDecoder);
+        mDecoders.register(ENDPOINT_PING, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodePing(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_APPFETCH, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeAppFetch(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_SYSTEMMESSAGE, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeSystemMessage(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_APPRUNSTATE, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return decodeAppRunState(buf);
+            }
+        });
+        mDecoders.register(ENDPOINT_BLOBDB, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeBlobDb(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_APPREORDER, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeAppReorder(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_APPLOGS, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                decodeAppLogs(buf);
+                return null;
+            }
+        });
+        mDecoders.register(ENDPOINT_VOICECONTROL, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeVoiceControl(buf)};
+            }
+        });
+        mDecoders.register(ENDPOINT_AUDIOSTREAM, new PebbleEndpointDecoderTable.Decoder() {
+            @Override
+            public GBDeviceEvent[] decode(ByteBuffer buf, short endpoint, short length) {
+                return new GBDeviceEvent[]{decodeAudioStream(buf)};
+            }
+        });
+    }
+
+    private GBDeviceEventMusicControl decodeMusicControl(ByteBuffer buf) {
+        byte pebbleCmd = buf.get();
+        GBDeviceEventMusicControl musicCmd = new GBDeviceEventMusicControl();
+        switch (pebbleCmd) {
+            case MUSICCONTROL_NEXT:
+                musicCmd.event = GBDeviceEventMusicControl.Event.NEXT;
                 break;
-            case ENDPOINT_PHONECONTROL:
-                pebbleCmd = buf.get();
-                GBDeviceEventCallControl callCmd = new GBDeviceEventCallControl();
-                switch (pebbleCmd) {
-                    case PHONECONTROL_HANGUP:
-                        callCmd.event = GBDeviceEventCallControl.Event.END;
-                        break;
-                    default:
-                        LOG.info("Unknown PHONECONTROL event" + pebbleCmd);
-                        break;
-                }
-                devEvts = new GBDeviceEvent[]{callCmd};
+            case MUSICCONTROL_PREVIOUS:
+                musicCmd.event = GBDeviceEventMusicControl.Event.PREVIOUS;
+                break;
+            case MUSICCONTROL_PLAY:
+                musicCmd.event = GBDeviceEventMusicControl.Event.PLAY;
+                break;
+            case MUSICCONTROL_PAUSE:
+                musicCmd.event = GBDeviceEventMusicControl.Event.PAUSE;
+                break;
+            case MUSICCONTROL_PLAYPAUSE:
+                musicCmd.event = GBDeviceEventMusicControl.Event.PLAYPAUSE;
+                break;
+            case MUSICCONTROL_VOLUMEUP:
+                musicCmd.event = GBDeviceEventMusicControl.Event.VOLUMEUP;
+                break;
+            case MUSICCONTROL_VOLUMEDOWN:
+                musicCmd.event = GBDeviceEventMusicControl.Event.VOLUMEDOWN;
+                break;
+            default:
+                break;
+        }
+        return musicCmd;
+    }
+
+    private GBDeviceEventCallControl decodePhoneControl(ByteBuffer buf) {
+        byte pebbleCmd = buf.get();
+        GBDeviceEventCallControl callCmd = new GBDeviceEventCallControl();
+        switch (pebbleCmd) {
+            case PHONECONTROL_HANGUP:
+                callCmd.event = GBDeviceEventCallControl.Event.END;
+                break;
+            default:
+                LOG.info("Unknown PHONECONTROL event" + pebbleCmd);
                 break;
-            case ENDPOINT_FIRMWAREVERSION:
-                pebbleCmd = buf.get();
-                GBDeviceEventVersionInfo versionCmd = new GBDeviceEventVersionInfo();
+        }
+        return callCmd;
+    }
 
-                buf.getInt(); // skip
-                versionCmd.fwVersion = getFixedString(buf, 32);
+    private GBDeviceEventVersionInfo decodeFirmwareVersion(ByteBuffer buf) {
+        int start = buf.position();
+        buf.get(); // command
+        GBDeviceEventVersionInfo versionCmd = new GBDeviceEventVersionInfo();
 
-                mFwMajor = versionCmd.fwVersion.charAt(1) - 48;
-                LOG.info("Pebble firmware major detected as " + mFwMajor);
+        int fwTimestamp = buf.getInt();
+        versionCmd.fwVersion = getFixedString(buf, 32);
+
+        mFwMajor = versionCmd.fwVersion.charAt(1) - 48;
+        LOG.info("Pebble firmware major detected as " + mFwMajor);
+
+        buf.position(buf.position() + 9); // skip
+        int hwRev = buf.get() + 8;
+        if (hwRev >= 0 && hwRev < hwRevisions.length) {
+            versionCmd.hwVersion = hwRevisions[hwRev];
+        }
 
-                byte[] tmp = new byte[9];
-                buf.get(tmp, 0, 9);
-                int hwRev = buf.get() + 8;
-                if (hwRev >= 0 && hwRev < hwRevisions.length) {
-                    versionCmd.hwVersion = hwRevisions[hwRev];
+        String serial = null;
+        if (buf.limit() >= start + 120) {
+            buf.position(start + 108);
+            serial = getFixedString(buf, 12);
+        }
+        boolean unfaithful = buf.limit() > start + 150 && buf.get(start + 150) != 0;
+        mBlobDBMirror.checkWatchIdentity(versionCmd.fwVersion + "/" + fwTimestamp + "/" + serial + "/" + unfaithful);
+        return versionCmd;
+    }
+
+    private GBDeviceEvent[] decodeAppManager(ByteBuffer buf) {
+        byte pebbleCmd = buf.get();
+        switch (pebbleCmd) {
+            case APPMANAGER_GETAPPBANKSTATUS:
+                GBDeviceEventAppInfo appInfoCmd = new GBDeviceEventAppInfo();
+                int slotCount = buf.getInt();
+                int slotsUsed = buf.getInt();
+                appInfoCmd.apps = new GBDeviceApp[slotsUsed];
+                boolean[] slotInUse = new boolean[slotCount];
+
+                for (int i = 0; i < slotsUsed; i++) {
+                    int id = buf.getInt();
+                    int index = buf.getInt();
+                    slotInUse[index] = true;
+                    String appName = getFixedString(buf, 32);
+                    String appCreator = getFixedString(buf, 32);
+
+                    int flags = buf.getInt();
+
+                    GBDeviceApp.Type appType;
+                    if ((flags & 16) == 16) {  // FIXME: verify this assumption
+                        appType = GBDeviceApp.Type.APP_ACTIVITYTRACKER;
+                    } else if ((flags & 1) == 1) {  // FIXME: verify this assumption
+                        appType = GBDeviceApp.Type.WATCHFACE;
+                    } else {
+                        appType = GBDeviceApp.Type.APP_GENERIC;
+                    }
+                    short appVersion = buf.getShort();
+                    appInfoCmd.apps[i] = new GBDeviceApp(tmpUUIDS.get(i), appName, appCreator, String.valueOf(appVersion), appType);
                 }
-                devEvts = new GBDeviceEvent[]{versionCmd};
-                break;
-            case ENDPOINT_APPMANAGER:
-                pebbleCmd = buf.get();
-                switch (pebbleCmd) {
-                    case APPMANAGER_GETAPPBANKSTATUS:
-                        GBDeviceEventAppInfo appInfoCmd = new GBDeviceEventAppInfo();
-                        int slotCount = buf.getInt();
-                        int slotsUsed = buf.getInt();
-                        appInfoCmd.apps = new GBDeviceApp[slotsUsed];
-                        boolean[] slotInUse = new boolean[slotCount];
-
-                        for (int i = 0; i < slotsUsed; i++) {
-                            int id = buf.getInt();
-                            int index = buf.getInt();
-                            slotInUse[index] = true;
-                            String appName = getFixedString(buf, 32);
-                            String appCreator = getFixedString(buf, 32);
-
-                            int flags = buf.getInt();
-
-                            GBDeviceApp.Type appType;
-                            if ((flags & 16) == 16) {  // FIXME: verify this assumption
-                                appType = GBDeviceApp.Type.APP_ACTIVITYTRACKER;
-                            } else if ((flags & 1) == 1) {  // FIXME: verify this assumption
-                                appType = GBDeviceApp.Type.WATCHFACE;
-                            } else {
-                                appType = GBDeviceApp.Type.APP_GENERIC;
-                            }
-                            short appVersion = buf.getShort();
-                            appInfoCmd.apps[i] = new GBDeviceApp(tmpUUIDS.get(i), appName, appCreator, String.valueOf(appVersion), appType);
-                        }
-                        for (int i = 0; i < slotCount; i++) {
-                            if (!slotInUse[i]) {
-                                appInfoCmd.freeSlot = (byte) i;
-                                LOG.info("found free slot " + i);
-                                break;
-                            }
-                        }
-                        devEvts = new GBDeviceEvent[]{appInfoCmd};
-                        break;
-                    case APPMANAGER_GETUUIDS:
-                        GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
-                        sendBytes.encodedBytes = encodeSimpleMessage(ENDPOINT_APPMANAGER, APPMANAGER_GETAPPBANKSTATUS);
-                        devEvts = new GBDeviceEvent[]{sendBytes};
-                        tmpUUIDS.clear();
-                        slotsUsed = buf.getInt();
-                        for (int i = 0; i < slotsUsed; i++) {
-                            UUID uuid = getUUID(buf);
-                            LOG.info("found uuid: " + uuid);
-                            tmpUUIDS.add(uuid);
-                        }
-                        break;
-                    case APPMANAGER_REMOVEAPP:
-                        GBDeviceEventAppManagement deleteRes = new GBDeviceEventAppManagement();
-                        deleteRes.type = GBDeviceEventAppManagement.EventType.DELETE;
-
-                        int result = buf.getInt();
-                        switch (result) {
-                            case APPMANAGER_RES_SUCCESS:
-                                deleteRes.event = GBDeviceEventAppManagement.Event.SUCCESS;
-                                break;
-                            default:
-                                deleteRes.event = GBDeviceEventAppManagement.Event.FAILURE;
-                                break;
-                        }
-                        devEvts = new GBDeviceEvent[]{deleteRes};
-                        break;
-                    default:
-                        LOG.info("Unknown APPMANAGER event" + pebbleCmd);
+                for (int i = 0; i < slotCount; i++) {
+                    if (!slotInUse[i]) {
+                        appInfoCmd.freeSlot = (byte) i;
+                        LOG.info("found free slot " + i);
                         break;
+                    }
                 }
-                break;
-            case ENDPOINT_PUTBYTES:
-                pebbleCmd = buf.get();
-                GBDeviceEventAppManagement installRes = new GBDeviceEventAppManagement();
-                installRes.type = GBDeviceEventAppManagement.EventType.INSTALL;
-                switch (pebbleCmd) {
-                    case PUTBYTES_INIT:
-                        installRes.token = buf.getInt();
-                        installRes.event = GBDeviceEventAppManagement.Event.SUCCESS;
+                return new GBDeviceEvent[]{appInfoCmd};
+            case APPMANAGER_GETUUIDS:
+                GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
+                sendBytes.encodedBytes = encodeSimpleMessage(ENDPOINT_APPMANAGER, APPMANAGER_GETAPPBANKSTATUS);
+                tmpUUIDS.clear();
+                slotsUsed = buf.getInt();
+                for (int i = 0; i < slotsUsed; i++) {
+                    UUID uuid = getUUID(buf);
+                    LOG.info("found uuid: " + uuid);
+                    tmpUUIDS.add(uuid);
+                }
+                return new GBDeviceEvent[]{sendBytes};
+            case APPMANAGER_REMOVEAPP:
+                GBDeviceEventAppManagement deleteRes = new GBDeviceEventAppManagement();
+                deleteRes.type = GBDeviceEventAppManagement.EventType.DELETE;
+
+                int result = buf.getInt();
+                switch (result) {
+                    case APPMANAGER_RES_SUCCESS:
+                        deleteRes.event = GBDeviceEventAppManagement.Event.SUCCESS;
                         break;
                     default:
-                        installRes.token = buf.getInt();
-                        installRes.event = GBDeviceEventAppManagement.Event.FAILURE;
+                        deleteRes.event = GBDeviceEventAppManagement.Event.FAILURE;
                         break;
                 }
-                devEvts = new GBDeviceEvent[]{installRes};
+                return new GBDeviceEvent[]{deleteRes};
+            default:
+                LOG.info("Unknown APPMANAGER event" + pebbleCmd);
+                return null;
+        }
+    }
+
+    private GBDeviceEventAppManagement decodePutBytes(ByteBuffer buf) {
+        byte pebbleCmd = buf.get();
+        GBDeviceEventAppManagement installRes = new GBDeviceEventAppManagement();
+        installRes.type = GBDeviceEventAppManagement.EventType.INSTALL;
+        installRes.token = buf.getInt();
+        switch (pebbleCmd) {
+            case PUTBYTES_INIT:
+                installRes.event = GBDeviceEventAppManagement.Event.SUCCESS;
                 break;
-            case ENDPOINT_APPLICATIONMESSAGE:
-            case ENDPOINT_LAUNCHER:
-                pebbleCmd = buf.get();
-                last_id = buf.get();
-                UUID uuid = getUUID(buf);
+            default:
+                installRes.event = GBDeviceEventAppManagement.Event.FAILURE;
+                break;
+        }
+        return installRes;
+    }
 
-                switch (pebbleCmd) {
-                    case APPLICATIONMESSAGE_PUSH:
-                        LOG.info((endpoint == ENDPOINT_LAUNCHER ? "got LAUNCHER PUSH from UUID : " : "got APPLICATIONMESSAGE PUSH from UUID : ")  + uuid);
-                        AppMessageHandler handler = mAppMessageHandlers.get(uuid);
-                        if (handler != null) {
-                            currentRunningApp = uuid;
-                            if (handler.isEnabled()) {
-                                if (endpoint == ENDPOINT_APPLICATIONMESSAGE) {
-                                    ArrayList<Pair<Integer, Object>> dict = decodeDict(buf);
-                                    devEvts = handler.handleMessage(dict);
-                                }
-                                else {
-                                    devEvts = handler.onAppStart();
-                                }
-                            } else {
-                                devEvts = new GBDeviceEvent[]{null};
-                            }
-                        } else {
-                            try {
-                                devEvts = decodeDictToJSONAppMessage(uuid, buf);
-                            } catch (JSONException e) {
-                                LOG.error(e.getMessage());
-                            }
-                            if (!uuid.equals(currentRunningApp)) {
-                                GBDeviceEventAppManagement gbDeviceEventAppManagement = new GBDeviceEventAppManagement();
-                                gbDeviceEventAppManagement.uuid = uuid;
-                                gbDeviceEventAppManagement.type = GBDeviceEventAppManagement.EventType.START;
-                                gbDeviceEventAppManagement.event = GBDeviceEventAppManagement.Event.SUCCESS;
-
-                                // prepend the
-                                GBDeviceEvent concatEvents[] = new GBDeviceEvent[(devEvts != null ? devEvts.length : 0) + 1];
-                                concatEvents[0] = gbDeviceEventAppManagement;
-                                if (devEvts != null) {
-                                    System.arraycopy(devEvts, 0, concatEvents, 1, devEvts.length);
-                                }
-                                devEvts = concatEvents;
-                            }
-                        }
-                        currentRunningApp = uuid;
-                        break;
-                    case APPLICATIONMESSAGE_ACK:
-                    case APPLICATIONMESSAGE_NACK:
-                        if (pebbleCmd == APPLICATIONMESSAGE_ACK) {
-                            LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ") ACK");
+    private GBDeviceEvent[] decodeAppMessage(ByteBuffer buf, short endpoint) {
+        byte pebbleCmd = buf.get();
+        last_id = buf.get();
+        UUID uuid = getUUID(buf);
+
+        GBDeviceEvent devEvts[] = null;
+        switch (pebbleCmd) {
+            case APPLICATIONMESSAGE_PUSH:
+                LOG.info((endpoint == ENDPOINT_LAUNCHER ? "got LAUNCHER PUSH from UUID : " : "got APPLICATIONMESSAGE PUSH from UUID : ") + uuid);
+                AppMessageHandler handler = mAppMessageHandlers.get(uuid);
+                if (handler != null) {
+                    currentRunningApp = uuid;
+                    if (handler.isEnabled()) {
+                        if (endpoint == ENDPOINT_APPLICATIONMESSAGE) {
+                            ArrayList<Pair<Integer, Object>> dict = decodeDict(buf);
+                            devEvts = handler.handleMessage(dict);
                         } else {
-                            LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ") NACK");
-                        }
-                        GBDeviceEventAppMessage evtAppMessage = null;
-                        if (endpoint == ENDPOINT_APPLICATIONMESSAGE && idLookup[last_id & 0xff] != null) {
-                            evtAppMessage = new GBDeviceEventAppMessage();
-                            if (pebbleCmd == APPLICATIONMESSAGE_ACK) {
-                                evtAppMessage.type = GBDeviceEventAppMessage.TYPE_ACK;
-                            } else {
-                                evtAppMessage.type = GBDeviceEventAppMessage.TYPE_NACK;
-                            }
-                            evtAppMessage.id = idLookup[last_id & 0xff];
-                            evtAppMessage.appUUID = currentRunningApp;
+                            devEvts = handler.onAppStart();
                         }
-                        devEvts = new GBDeviceEvent[]{evtAppMessage};
-                        break;
-                    case APPLICATIONMESSAGE_REQUEST:
-                        LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ")  REQUEST");
+                    } else {
                         devEvts = new GBDeviceEvent[]{null};
-                        break;
-                    default:
-                        break;
+                    }
+                } else {
+                    devEvts = decodeDictToJSONAppMessage(uuid, buf);
+                    if (!uuid.equals(currentRunningApp)) {
+                        GBDeviceEventAppManagement gbDeviceEventAppManagement = new GBDeviceEventAppManagement();
+                        gbDeviceEventAppManagement.uuid = uuid;
+                        gbDeviceEventAppManagement.type = GBDeviceEventAppManagement.EventType.START;
+                        gbDeviceEventAppManagement.event = GBDeviceEventAppManagement.Event.SUCCESS;
+
+                        // prepend the
+                        GBDeviceEvent concatEvents[] = new GBDeviceEvent[(devEvts != null ? devEvts.length : 0) + 1];
+                        concatEvents[0] = gbDeviceEventAppManagement;
+                        if (devEvts != null) {
+                            System.arraycopy(devEvts, 0, concatEvents, 1, devEvts.length);
+                        }
+                        devEvts = concatEvents;
+                    }
                 }
+                currentRunningApp = uuid;
                 break;
-            case ENDPOINT_PHONEVERSION:
-                pebbleCmd = buf.get();
-                switch (pebbleCmd) {
-                    case PHONEVERSION_REQUEST:
-                        LOG.info("Pebble asked for Phone/App Version - repLYING!");
-                        GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
-                        sendBytes.encodedBytes = encodePhoneVersion(PHONEVERSION_REMOTE_OS_ANDROID);
-                        devEvts = new GBDeviceEvent[]{sendBytes};
-                        break;
-                    default:
-                        break;
+            case APPLICATIONMESSAGE_ACK:
+            case APPLICATIONMESSAGE_NACK:
+                if (pebbleCmd == APPLICATIONMESSAGE_ACK) {
+                    LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ") ACK");
+                } else {
+                    LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ") NACK");
                 }
+                GBDeviceEventAppMessage evtAppMessage = null;
+                if (endpoint == ENDPOINT_APPLICATIONMESSAGE && idLookup[last_id & 0xff] != null) {
+                    evtAppMessage = new GBDeviceEventAppMessage();
+                    if (pebbleCmd == APPLICATIONMESSAGE_ACK) {
+                        evtAppMessage.type = GBDeviceEventAppMessage.TYPE_ACK;
+                    } else {
+                        evtAppMessage.type = GBDeviceEventAppMessage.TYPE_NACK;
+                    }
+                    evtAppMessage.id = idLookup[last_id & 0xff];
+                    evtAppMessage.appUUID = currentRunningApp;
+                }
+                devEvts = new GBDeviceEvent[]{evtAppMessage};
                 break;
-            case ENDPOINT_DATALOG:
-                devEvts = decodeDatalog(buf, length);
-                break;
-            case ENDPOINT_SCREENSHOT:
-                devEvts = new GBDeviceEvent[]{decodeScreenshot(buf, length)};
-                break;
-            case ENDPOINT_EXTENSIBLENOTIFS:
-            case ENDPOINT_NOTIFICATIONACTION:
-                devEvts = decodeAction(buf);
-                break;
-            case ENDPOINT_PING:
-                devEvts = new GBDeviceEvent[]{decodePing(buf)};
-                break;
-            case ENDPOINT_APPFETCH:
-                devEvts = new GBDeviceEvent[]{decodeAppFetch(buf)};
-                break;
-            case ENDPOINT_SYSTEMMESSAGE:
-                devEvts = new GBDeviceEvent[]{decodeSystemMessage(buf)};
-                break;
-            case ENDPOINT_APPRUNSTATE:
-                devEvts = decodeAppRunState(buf);
-                break;
-            case ENDPOINT_BLOBDB:
-                devEvts = new GBDeviceEvent[]{decodeBlobDb(buf)};
-                break;
-            case ENDPOINT_APPREORDER:
-                devEvts = new GBDeviceEvent[]{decodeAppReorder(buf)};
-                break;
-            case ENDPOINT_APPLOGS:
-                decodeAppLogs(buf);
-                break;
-            case ENDPOINT_VOICECONTROL:
-                devEvts = new GBDeviceEvent[]{decodeVoiceControl(buf)};
-                break;
-            case ENDPOINT_AUDIOSTREAM:
-                devEvts = new GBDeviceEvent[]{decodeAudioStream(buf)};
-//                LOG.debug("AUDIOSTREAM DATA: " + GB.hexdump(responseData, 4, length));
+            case APPLICATIONMESSAGE_REQUEST:
+                LOG.info("got APPLICATIONMESSAGE/LAUNCHER (EP " + endpoint + ")  REQUEST");
+                devEvts = new GBDeviceEvent[]{null};
                 break;
             default:
                 break;
         }
-
         return devEvts;
     }
 
+    private GBDeviceEvent[] decodePhoneVersion(ByteBuffer buf) {
+        byte pebbleCmd = buf.get();
+        switch (pebbleCmd) {
+            case PHONEVERSION_REQUEST:
+                LOG.info("Pebble asked for Phone/App Version - repLYING!");
+                GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
+                sendBytes.encodedBytes = encodePhoneVersion(PHONEVERSION_REMOTE_OS_ANDROID);
+                return new GBDeviceEvent[]{sendBytes};
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public GBDeviceEvent[] decodeResponse(byte[] responseData) {
+        return decodeResponse(ByteBuffer.wrap(responseData));
+    }
+
+    /**
+     * Decodes the frame starting at the current position of the given buffer.
+     * The buffer is used as is, decoders read directly from it without copying the payload.
+     */
+    GBDeviceEvent[] decodeResponse(ByteBuffer buf) {
+        buf.order(ByteOrder.BIG_ENDIAN);
+        short length = buf.getShort();
+        short endpoint = buf.getShort();
+        PebbleEndpointDecoderTable.Decoder decoder = mDecoders.get(endpoint);
+        if (decoder == null) {
+            return null;
+        }
+        return decoder.decode(buf, endpoint, length);
+    }
+
     void setForceProtocol(boolean force) {
         LOG.info("setting force protocol to " + force);
         mForceProtocol = force;
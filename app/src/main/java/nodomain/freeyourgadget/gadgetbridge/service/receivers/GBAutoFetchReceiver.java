@@ -25,7 +25,10 @@ import org.apache.commons.lang3.time.DateUtils;
 import java.util.Date;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 
 
 public class GBAutoFetchReceiver extends BroadcastReceiver {
@@ -35,7 +38,12 @@ public class GBAutoFetchReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         Date nextSync = DateUtils.addMinutes(lastSync, GBApplication.getPrefs().getInt("auto_fetch_interval_limit", 0));
         if (nextSync.before(new Date())) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+            for (GBDevice device : GBApplication.app().getDeviceManager().getInitializedDevices()) {
+                DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+                if (coordinator.supportsActivityDataFetching()) {
+                    GBApplication.deviceService().forDevice(device).onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+                }
+            }
             lastSync = new Date();
         }
     }
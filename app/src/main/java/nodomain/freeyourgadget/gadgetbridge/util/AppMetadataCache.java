@@ -0,0 +1,298 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caches what we need to know about installed apps: label, last update time and a small
+ * version of the icon.
+ *
+ * Labels and update times of all apps are loaded in the background by warmUp(), or on demand
+ * for single apps. Entries are refreshed when a package is added, changed or removed, and all
+ * labels are dropped when the locale changes. Icon thumbnails are loaded on demand and kept in
+ * a memory bounded LRU cache.
+ */
+public class AppMetadataCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AppMetadataCache.class);
+
+    private static final int ICON_SIZE_DP = 48;
+
+    private static AppMetadataCache instance;
+
+    public static class AppMetadata {
+        public final String packageName;
+        public final String label;
+        public final long lastUpdateTime;
+
+        AppMetadata(String packageName, String label, long lastUpdateTime) {
+            this.packageName = packageName;
+            this.label = label;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+    }
+
+    public interface IconCallback {
+        void onIconLoaded(String packageName, Bitmap icon);
+    }
+
+    public interface InstalledAppsCallback {
+        void onInstalledAppsLoaded(List<AppMetadata> apps);
+    }
+
+    // remembers packages that are not installed, until the next package broadcast
+    private static final AppMetadata NOT_INSTALLED = new AppMetadata("", null, -1);
+
+    private final Context context;
+    private final PackageManager pm;
+    private final Map<String, AppMetadata> entries = new ConcurrentHashMap<>();
+    private final Object loadAllLock = new Object();
+    private volatile boolean allLoaded;
+    private final LruCache<String, Bitmap> icons;
+    private final int iconSize;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                entries.clear();
+                allLoaded = false;
+                return;
+            }
+            if (intent.getData() != null) {
+                refresh(intent.getData().getSchemeSpecificPart());
+            }
+        }
+    };
+
+    public static synchronized AppMetadataCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppMetadataCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AppMetadataCache(Context context) {
+        this.context = context;
+        pm = context.getPackageManager();
+        iconSize = Math.round(ICON_SIZE_DP * context.getResources().getDisplayMetrics().density);
+        icons = new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 1024 / 32)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+
+        IntentFilter filterPackages = new IntentFilter();
+        filterPackages.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filterPackages.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filterPackages.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filterPackages.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filterPackages.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filterPackages);
+        context.registerReceiver(mPackageReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    /**
+     * Loads all installed apps in the background, so that later lookups are cheap.
+     */
+    public void warmUp() {
+        if (allLoaded) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadAll();
+            }
+        });
+    }
+
+    /**
+     * Returns the app's label, or null if it is not installed. May query the PackageManager
+     * on a cache miss.
+     */
+    public String getLabel(String packageName) {
+        return get(packageName).label;
+    }
+
+    /**
+     * Returns the time the app was last installed or updated, or -1 if it is not installed.
+     */
+    public long getLastUpdateTime(String packageName) {
+        return get(packageName).lastUpdateTime;
+    }
+
+    /**
+     * Returns all installed apps, loading them first unless warmUp() already did.
+     */
+    public List<AppMetadata> getInstalledApps() {
+        loadAll();
+        List<AppMetadata> apps = new ArrayList<>(entries.size());
+        for (AppMetadata app : entries.values()) {
+            if (app != NOT_INSTALLED) {
+                apps.add(app);
+            }
+        }
+        return apps;
+    }
+
+    /**
+     * Loads all installed apps in the background and passes them to the callback on the main
+     * thread.
+     */
+    public void loadInstalledApps(final InstalledAppsCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<AppMetadata> apps = getInstalledApps();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onInstalledAppsLoaded(apps);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the icon thumbnail if it is cached already, null otherwise.
+     */
+    public Bitmap getCachedIcon(String packageName) {
+        return icons.get(packageName);
+    }
+
+    /**
+     * Returns the icon thumbnail, loading it if necessary. Must not be called on the main thread.
+     */
+    public Bitmap getIcon(String packageName) {
+        Bitmap icon = icons.get(packageName);
+        if (icon != null) {
+            return icon;
+        }
+        try {
+            Drawable drawable = pm.getApplicationIcon(packageName);
+            icon = BitmapUtil.convertDrawableToBitmap(drawable);
+            if (icon.getWidth() > iconSize || icon.getHeight() > iconSize) {
+                icon = Bitmap.createScaledBitmap(icon, iconSize, iconSize, true);
+            }
+            icons.put(packageName, icon);
+            return icon;
+        } catch (Exception e) {
+            LOG.warn("Could not load icon for " + packageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Loads the icon thumbnail in the background and passes it to the callback on the main
+     * thread. The icon is null if it could not be loaded.
+     */
+    public void loadIcon(final String packageName, final IconCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap icon = getIcon(packageName);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onIconLoaded(packageName, icon);
+                    }
+                });
+            }
+        });
+    }
+
+    private AppMetadata get(String packageName) {
+        AppMetadata app = entries.get(packageName);
+        if (app == null) {
+            app = load(packageName);
+        }
+        return app;
+    }
+
+    private AppMetadata load(String packageName) {
+        AppMetadata app;
+        try {
+            app = toAppMetadata(pm.getPackageInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            app = NOT_INSTALLED;
+        }
+        entries.put(packageName, app);
+        return app;
+    }
+
+    private AppMetadata toAppMetadata(PackageInfo packageInfo) {
+        CharSequence label = packageInfo.applicationInfo != null ? pm.getApplicationLabel(packageInfo.applicationInfo) : null;
+        return new AppMetadata(packageInfo.packageName, label != null ? label.toString() : packageInfo.packageName, packageInfo.lastUpdateTime);
+    }
+
+    private void loadAll() {
+        synchronized (loadAllLock) {
+            if (allLoaded) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            List<PackageInfo> packages = pm.getInstalledPackages(0);
+            for (PackageInfo packageInfo : packages) {
+                entries.put(packageInfo.packageName, toAppMetadata(packageInfo));
+            }
+            allLoaded = true;
+            LOG.debug("Loaded metadata of " + packages.size() + " apps in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private void refresh(final String packageName) {
+        if (packageName == null) {
+            return;
+        }
+        LOG.debug("Refreshing app metadata for " + packageName);
+        entries.remove(packageName);
+        // notifications use lower case package names
+        entries.remove(packageName.toLowerCase());
+        icons.remove(packageName);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(packageName);
+            }
+        });
+    }
+}
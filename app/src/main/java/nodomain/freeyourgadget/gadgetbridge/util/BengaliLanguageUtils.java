@@ -187,13 +187,29 @@ public class BengaliLanguageUtils extends LanguageUtils {
         return null;
     }
 
+    static boolean isBengali(char c) {
+        // the danda is shared with Devanagari
+        return (c >= '\u0980' && c <= '\u09FF') || c == '\u0964';
+    }
+
+    private static boolean containsBengali(String txt) {
+        for (int i = 0; i < txt.length(); i++) {
+            if (isBengali(txt.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static String transliterate(String txt) {
-        if (txt.isEmpty()) {
+        // without any Bengali characters, only whitespace would match, which is kept as is
+        if (txt.isEmpty() || !containsBengali(txt)) {
             return txt;
         }
 
         Matcher m = bengaliRegex.matcher(txt);
-        StringBuffer sb = new StringBuffer();
+        StringBuffer sb = new StringBuffer(txt.length() * 2);
+        StringBuilder appendable = new StringBuilder();
         String lastChar = "";
         boolean lastHadComposition = false;
         boolean lastHadKaar = false;
@@ -203,27 +219,27 @@ public class BengaliLanguageUtils extends LanguageUtils {
             boolean thisNeedsO = false;
             boolean changePronounciation = false;
             boolean thisHadKaar = false;
-            String appendableString = "";
+            appendable.setLength(0);
             String reff = m.group(1);
             if (reff != null) {
-                appendableString = appendableString + "rr";
+                appendable.append("rr");
             }
             // This is a filter-down approach. First considering larger groups,
             // If found any match breaks their. Else go to the next step.
             // Helpful to solve some corner-cases.
             String mainPart = getVal(m.group(2));
             if (mainPart != null) {
-                appendableString = appendableString + mainPart;
+                appendable.append(mainPart);
             } else {
                 String firstPart = getVal(m.group(3));
                 if (firstPart != null) {
-                    appendableString = appendableString + firstPart;
+                    appendable.append(firstPart);
                 }
                 int g = 4;
                 while (g < 6) {
                     String part = getVal(m.group(g));
                     if (part != null) {
-                        appendableString = appendableString + part;
+                        appendable.append(part);
                         break;
                     }
                     g = g + 1;
@@ -237,7 +253,7 @@ public class BengaliLanguageUtils extends LanguageUtils {
             while (g < 10) {
                 String key = getVal(m.group(g));
                 if (key != null) {
-                    appendableString = appendableString + key;
+                    appendable.append(key);
                     break;
                 }
                 g = g + 1;
@@ -255,7 +271,7 @@ public class BengaliLanguageUtils extends LanguageUtils {
             if (kaar != null) {
                 String kaarStr = letters.get(kaar);
                 if (kaarStr != null) {
-                    appendableString = appendableString + kaarStr;
+                    appendable.append(kaarStr);
                     if (kaarStr.equals("i") || kaarStr.equals("ii") || kaarStr.equals("u") || kaarStr.equals("uu")) {
                         changePronounciation = true;
                     }
@@ -265,7 +281,7 @@ public class BengaliLanguageUtils extends LanguageUtils {
             if (singleton != null) {
                 String singleStr = letters.get(singleton);
                 if (singleStr != null) {
-                    appendableString = appendableString + singleStr;
+                    appendable.append(singleStr);
                 }
             }
             if (changePronounciation && lastChar.equals("a")) {
@@ -274,13 +290,13 @@ public class BengaliLanguageUtils extends LanguageUtils {
             String others = m.group(0);
             if (others != null) {
 
-                if (appendableString.length() <= 0) {
-                    appendableString = appendableString + others;
+                if (appendable.length() <= 0) {
+                    appendable.append(others);
                 }
             }
             String whitespace = m.group(12);
             if (nextNeedsO && kaar == null && whitespace == null && !vowels.containsKey(m.group(0))) {
-                appendableString = appendableString + "o";
+                appendable.append("o");
                 lastHadO++;
                 thisNeedsO = false;
             }
@@ -292,10 +308,10 @@ public class BengaliLanguageUtils extends LanguageUtils {
             }
             nextNeedsO = false;
             if (thisNeedsO && kaar == null && whitespace == null && !vowels.containsKey(m.group(0))) {
-                appendableString = appendableString + "o";
+                appendable.append("o");
                 lastHadO++;
             }
-            if (appendableString.length() > 0 && !vowelsAndHasants.containsKey(m.group(0)) && kaar == null) {
+            if (appendable.length() > 0 && !vowelsAndHasants.containsKey(m.group(0)) && kaar == null) {
                 nextNeedsO = true;
             }
             if (reff != null || m.group(4) != null || m.group(6) != null) {
@@ -308,6 +324,7 @@ public class BengaliLanguageUtils extends LanguageUtils {
             } else {
                 lastHadKaar = false;
             }
+            String appendableString = appendable.toString();
             m.appendReplacement(sb, appendableString);
             lastChar = appendableString;
         }
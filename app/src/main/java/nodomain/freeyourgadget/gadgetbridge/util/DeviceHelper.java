@@ -22,6 +22,7 @@ package nodomain.freeyourgadget.gadgetbridge.util;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.os.ParcelUuid;
 import android.widget.Toast;
 
 import org.slf4j.Logger;
@@ -29,10 +30,15 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
@@ -81,26 +87,32 @@ public class DeviceHelper {
         return instance;
     }
 
-    // lazily created
-    private List<DeviceCoordinator> coordinators;
+    private static final int MAX_CACHED_CANDIDATES = 1024;
 
-    public DeviceType getSupportedType(GBDeviceCandidate candidate) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            DeviceType deviceType = coordinator.getSupportedType(candidate);
-            if (deviceType.isSupported()) {
-                return deviceType;
-            }
+    // lazily created, never changed afterwards
+    private volatile List<DeviceCoordinator> coordinators;
+    private volatile Map<DeviceType, List<DeviceCoordinator>> coordinatorsByType;
+
+    // scan results of the same device look the same most of the time, so we remember
+    // which coordinator supports them, by address, name and service UUIDs
+    private final Map<String, CandidateMatch> candidateMatches = new ConcurrentHashMap<>();
+
+    private static class CandidateMatch {
+        final DeviceCoordinator coordinator; // null if not supported
+        final DeviceType deviceType;
+
+        CandidateMatch(DeviceCoordinator coordinator, DeviceType deviceType) {
+            this.coordinator = coordinator;
+            this.deviceType = deviceType;
         }
-        return DeviceType.UNKNOWN;
+    }
+
+    public DeviceType getSupportedType(GBDeviceCandidate candidate) {
+        return getCandidateMatch(candidate).deviceType;
     }
 
     public boolean getSupportedType(GBDevice device) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            if (coordinator.supports(device)) {
-                return true;
-            }
-        }
-        return false;
+        return findCoordinator(device) != null;
     }
 
     public GBDevice findAvailableDevice(String deviceAddress, Context context) {
@@ -158,41 +170,104 @@ public class DeviceHelper {
     }
 
     public GBDevice toSupportedDevice(GBDeviceCandidate candidate) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            if (coordinator.supports(candidate)) {
-                return coordinator.createDevice(candidate);
-            }
-        }
-        return null;
+        DeviceCoordinator coordinator = getCandidateMatch(candidate).coordinator;
+        return coordinator != null ? coordinator.createDevice(candidate) : null;
     }
 
     public DeviceCoordinator getCoordinator(GBDeviceCandidate device) {
-        synchronized (this) {
-            for (DeviceCoordinator coord : getAllCoordinators()) {
-                if (coord.supports(device)) {
-                    return coord;
+        DeviceCoordinator coordinator = getCandidateMatch(device).coordinator;
+        return coordinator != null ? coordinator : new UnknownDeviceCoordinator();
+    }
+
+    public DeviceCoordinator getCoordinator(GBDevice device) {
+        DeviceCoordinator coordinator = findCoordinator(device);
+        return coordinator != null ? coordinator : new UnknownDeviceCoordinator();
+    }
+
+    public List<DeviceCoordinator> getAllCoordinators() {
+        List<DeviceCoordinator> result = coordinators;
+        if (result == null) {
+            synchronized (this) {
+                if (coordinators == null) {
+                    List<DeviceCoordinator> all = Collections.unmodifiableList(createCoordinators());
+                    Map<DeviceType, List<DeviceCoordinator>> byType = new EnumMap<>(DeviceType.class);
+                    for (DeviceCoordinator coordinator : all) {
+                        List<DeviceCoordinator> sameType = byType.get(coordinator.getDeviceType());
+                        if (sameType == null) {
+                            sameType = new ArrayList<>(2);
+                            byType.put(coordinator.getDeviceType(), sameType);
+                        }
+                        sameType.add(coordinator);
+                    }
+                    coordinatorsByType = byType;
+                    coordinators = all;
                 }
+                result = coordinators;
             }
         }
-        return new UnknownDeviceCoordinator();
+        return result;
     }
 
-    public DeviceCoordinator getCoordinator(GBDevice device) {
-        synchronized (this) {
-            for (DeviceCoordinator coord : getAllCoordinators()) {
-                if (coord.supports(device)) {
-                    return coord;
+    /**
+     * Only asks the coordinators of the device's type, in the same order as getAllCoordinators().
+     */
+    private DeviceCoordinator findCoordinator(GBDevice device) {
+        getAllCoordinators();
+        List<DeviceCoordinator> sameType = coordinatorsByType.get(device.getType());
+        if (sameType != null) {
+            for (DeviceCoordinator coordinator : sameType) {
+                if (coordinator.supports(device)) {
+                    return coordinator;
                 }
             }
         }
-        return new UnknownDeviceCoordinator();
+        return null;
     }
 
-    public synchronized List<DeviceCoordinator> getAllCoordinators() {
-        if (coordinators == null) {
-            coordinators = createCoordinators();
+    private CandidateMatch getCandidateMatch(GBDeviceCandidate candidate) {
+        String key = getCandidateKey(candidate);
+        CandidateMatch match = candidateMatches.get(key);
+        if (match != null) {
+            return match;
+        }
+
+        match = new CandidateMatch(null, DeviceType.UNKNOWN);
+        for (DeviceCoordinator coordinator : getAllCoordinators()) {
+            DeviceType deviceType = coordinator.getSupportedType(candidate);
+            if (deviceType.isSupported()) {
+                match = new CandidateMatch(coordinator, deviceType);
+                break;
+            }
+        }
+        if (candidateMatches.size() >= MAX_CACHED_CANDIDATES) {
+            candidateMatches.clear();
+        }
+        candidateMatches.put(key, match);
+        return match;
+    }
+
+    /**
+     * Everything the coordinators look at to decide whether they support a candidate. Some
+     * match on the device name, others on candidate.getName(), which prefers the user's alias.
+     */
+    private String getCandidateKey(GBDeviceCandidate candidate) {
+        BluetoothDevice device = candidate.getDevice();
+        StringBuilder key = new StringBuilder(64);
+        key.append(device.getAddress()).append('|').append(device.getName()).append('|').append(candidate.getName());
+        ParcelUuid[] uuids = candidate.getServiceUuids();
+        if (uuids.length > 1) {
+            uuids = uuids.clone();
+            Arrays.sort(uuids, new Comparator<ParcelUuid>() {
+                @Override
+                public int compare(ParcelUuid lhs, ParcelUuid rhs) {
+                    return String.valueOf(lhs).compareTo(String.valueOf(rhs));
+                }
+            });
+        }
+        for (ParcelUuid uuid : uuids) {
+            key.append('|').append(uuid);
         }
-        return coordinators;
+        return key.toString();
     }
 
     private List<DeviceCoordinator> createCoordinators() {
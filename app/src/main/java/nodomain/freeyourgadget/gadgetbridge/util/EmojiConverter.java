@@ -23,8 +23,15 @@ import android.content.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import io.wax911.emojify.Emoji;
 import io.wax911.emojify.EmojiManager;
-import io.wax911.emojify.EmojiUtils;
 
 public class EmojiConverter {
     private static final Logger LOG = LoggerFactory.getLogger(EmojiConverter.class);
@@ -66,38 +73,148 @@ public class EmojiConverter {
             {"\u2764", "<3"},         // heart
     };
 
+    /**
+     * The emoji of simpleEmojiMapping, and once the emoji data of android-emojify was needed,
+     * also all of its emoji with their first alias as replacement, e.g. ":pizza:". The simple
+     * mapping wins over the emoji data for the same code point.
+     */
+    private static volatile EmojiTable emojiTable = new EmojiTable(Arrays.asList(simpleEmojiMapping));
+
+    /**
+     * All emoji known to android-emojify contain (C), (R) or a character from U+203C
+     * (DOUBLE EXCLAMATION MARK) on; only text with such characters needs the emoji data.
+     */
+    private static final int MIN_ADVANCED_EMOJI = 0x203C;
+
     private static boolean isEmojiDataInitialised = false;
 
-    private static String convertSimpleEmojiToAscii(String text) {
-        for (String[] emojiMap : simpleEmojiMapping) {
-            text = text.replace(emojiMap[0], emojiMap[1]);
+    /**
+     * Emoji sequences sorted by their first code point, so that all of them can be replaced in
+     * a single pass over the text.
+     */
+    private static class EmojiTable {
+        private final int[] firstCodePoints;
+        private final String[] sequences;
+        private final String[] replacements;
+        // the first code points, for a quick check of every character of the text
+        private final BitSet starts = new BitSet();
+
+        /**
+         * @param mapping pairs of emoji and their replacement; for the same first code point,
+         *                earlier ones are tried first
+         */
+        EmojiTable(List<String[]> mapping) {
+            String[][] sorted = mapping.toArray(new String[mapping.size()][]);
+            // stable, keeps the given order for equal keys
+            Arrays.sort(sorted, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a, String[] b) {
+                    return Integer.compare(a[0].codePointAt(0), b[0].codePointAt(0));
+                }
+            });
+            firstCodePoints = new int[sorted.length];
+            sequences = new String[sorted.length];
+            replacements = new String[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                firstCodePoints[i] = sorted[i][0].codePointAt(0);
+                sequences[i] = sorted[i][0];
+                replacements[i] = sorted[i][1];
+                starts.set(firstCodePoints[i]);
+            }
+        }
+
+        String convert(String text) {
+            int length = text.length();
+            StringBuilder builder = null;
+            int copied = 0;
+            for (int i = 0; i < length; ) {
+                int codePoint = text.codePointAt(i);
+                int next = i + Character.charCount(codePoint);
+                if (starts.get(codePoint)) {
+                    int index = find(text, i, codePoint);
+                    if (index >= 0) {
+                        if (builder == null) {
+                            builder = new StringBuilder(length + 16);
+                        }
+                        builder.append(text, copied, i).append(replacements[index]);
+                        next = i + sequences[index].length();
+                        copied = next;
+                    }
+                }
+                i = next;
+            }
+            if (builder == null) {
+                return text;
+            }
+            return builder.append(text, copied, length).toString();
+        }
+
+        /**
+         * Returns the index of the sequence at the given offset of the text, or -1.
+         */
+        private int find(String text, int offset, int codePoint) {
+            int low = 0;
+            int high = firstCodePoints.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (firstCodePoints[middle] < codePoint) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int i = low; i < firstCodePoints.length && firstCodePoints[i] == codePoint; i++) {
+                if (text.startsWith(sequences[i], offset)) {
+                    return i;
+                }
+            }
+            return -1;
         }
-        return text;
+    }
+
+    private static boolean mayContainAdvancedEmoji(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= MIN_ADVANCED_EMOJI || c == '\u00A9' || c == '\u00AE') {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static synchronized void initEmojiData(Context context) {
         // Do a lazy initialisation not to slowdown the startup and when it is needed
         if (!isEmojiDataInitialised) {
             EmojiManager.initEmojiData(context);
+            List<String[]> advancedMapping = new ArrayList<>();
+            for (Emoji emoji : EmojiManager.data()) {
+                List<String> aliases = emoji.getAliases();
+                if (!aliases.isEmpty() && !emoji.getEmoji().isEmpty()) {
+                    advancedMapping.add(new String[]{emoji.getEmoji(), ":" + aliases.get(0) + ":"});
+                }
+            }
+            // longest first, e.g. a keycap before its digit
+            Collections.sort(advancedMapping, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a, String[] b) {
+                    return Integer.compare(b[0].length(), a[0].length());
+                }
+            });
+            List<String[]> mapping = new ArrayList<>(Arrays.asList(simpleEmojiMapping));
+            mapping.addAll(advancedMapping);
+            emojiTable = new EmojiTable(mapping);
             isEmojiDataInitialised = true;
         }
     }
 
-    private static String convertAdvancedEmojiToAscii(String text, Context context) {
-        initEmojiData(context);
-        try {
-            return EmojiUtils.shortCodify(text);
-        } catch (Exception e){
-            LOG.warn("An exception occured when converting advanced emoji to ASCII", text);
-            return text;
-        }
-    }
-
     public static String convertUnicodeEmojiToAscii(String text, Context context) {
-        text = convertSimpleEmojiToAscii(text);
-
-        text = convertAdvancedEmojiToAscii(text, context);
-
-        return text;
+        if (!isEmojiDataInitialised && mayContainAdvancedEmoji(text)) {
+            try {
+                initEmojiData(context);
+            } catch (Exception e) {
+                LOG.warn("An exception occured when loading the emoji data, only converting simple emoji", e);
+            }
+        }
+        return emojiTable.convert(text);
     }
 }
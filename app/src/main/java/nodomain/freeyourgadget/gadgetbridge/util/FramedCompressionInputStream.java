@@ -0,0 +1,181 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream.FRAME_SIZE;
+import static nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream.MAGIC;
+import static nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream.STORED;
+import static nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream.VERSION;
+
+/**
+ * Reads streams written by FramedCompressionOutputStream. Throws an IOException when a frame's
+ * checksum does not match or the stream ends before its last frame.
+ */
+public class FramedCompressionInputStream extends FilterInputStream {
+    private final DataInputStream dataIn;
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private final byte[] compressed = new byte[FRAME_SIZE];
+    private int frameLength;
+    private int framePosition;
+    private boolean atEnd;
+
+    public FramedCompressionInputStream(InputStream in) throws IOException {
+        super(in);
+        dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a framed compression stream");
+        }
+        int version = dataIn.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported framed compression version " + version);
+        }
+    }
+
+    /**
+     * Returns true if the given bytes are the start of a stream written by
+     * FramedCompressionOutputStream.
+     */
+    public static boolean isFramed(byte[] header) {
+        return header.length >= 4
+                && ((header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff)) == MAGIC;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return frame[framePosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int count = Math.min(len, frameLength - framePosition);
+        System.arraycopy(frame, framePosition, b, off, count);
+        framePosition += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int count = (int) Math.min(n - skipped, frameLength - framePosition);
+            framePosition += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return frameLength - framePosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        super.close();
+    }
+
+    private boolean ensureData() throws IOException {
+        while (framePosition == frameLength) {
+            if (atEnd) {
+                return false;
+            }
+            readFrame();
+        }
+        return true;
+    }
+
+    private void readFrame() throws IOException {
+        try {
+            int length = dataIn.readInt();
+            if (length == 0) {
+                atEnd = true;
+                frameLength = 0;
+                framePosition = 0;
+                return;
+            }
+            if (length < 0 || length > FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            int compressedLength = dataIn.readInt();
+            int expectedCrc = dataIn.readInt();
+            if (compressedLength == STORED) {
+                dataIn.readFully(frame, 0, length);
+            } else {
+                if (compressedLength < 0 || compressedLength > FRAME_SIZE) {
+                    throw new IOException("Invalid compressed frame length " + compressedLength);
+                }
+                dataIn.readFully(compressed, 0, compressedLength);
+                inflate(compressedLength, length);
+            }
+            crc.reset();
+            crc.update(frame, 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Checksum mismatch, the stream is corrupted");
+            }
+            frameLength = length;
+            framePosition = 0;
+        } catch (EOFException ex) {
+            throw new IOException("Stream is truncated", ex);
+        }
+    }
+
+    private void inflate(int compressedLength, int length) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(frame, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length || !inflater.finished()) {
+                throw new IOException("Frame does not inflate to its length, the stream is corrupted");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Frame cannot be inflated, the stream is corrupted", ex);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data as a sequence of independently deflated frames, each with the CRC32 of its
+ * uncompressed contents, so that FramedCompressionInputStream can detect corrupted or
+ * truncated streams.
+ *
+ * Format: MAGIC, VERSION, then per frame the uncompressed length, the compressed length, the
+ * CRC32 and the compressed bytes (all ints big endian). A frame with uncompressed length 0
+ * ends the stream. Frames that do not get smaller are stored uncompressed, with a compressed
+ * length of -1.
+ */
+public class FramedCompressionOutputStream extends FilterOutputStream {
+    public static final int MAGIC = 0x47424446; // "GBDF"
+    public static final int VERSION = 1;
+    static final int STORED = -1;
+    static final int FRAME_SIZE = 1024 * 1024;
+
+    private final DataOutputStream dataOut;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private final byte[] compressed = new byte[FRAME_SIZE];
+    private int frameLength;
+    private boolean finished;
+
+    public FramedCompressionOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the Deflater compression level, e.g. Deflater.NO_COMPRESSION to only
+     *              add the checksums
+     */
+    public FramedCompressionOutputStream(OutputStream out, int level) throws IOException {
+        super(out);
+        dataOut = new DataOutputStream(out);
+        deflater = new Deflater(level);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (frameLength == FRAME_SIZE) {
+            writeFrame();
+        }
+        frame[frameLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (frameLength == FRAME_SIZE) {
+                writeFrame();
+            }
+            int count = Math.min(len, FRAME_SIZE - frameLength);
+            System.arraycopy(b, off, frame, frameLength, count);
+            frameLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        crc.reset();
+        crc.update(frame, 0, frameLength);
+        deflater.reset();
+        deflater.setInput(frame, 0, frameLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < compressed.length) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        dataOut.writeInt(frameLength);
+        if (deflater.finished() && compressedLength < frameLength) {
+            dataOut.writeInt(compressedLength);
+            dataOut.writeInt((int) crc.getValue());
+            dataOut.write(compressed, 0, compressedLength);
+        } else {
+            dataOut.writeInt(STORED);
+            dataOut.writeInt((int) crc.getValue());
+            dataOut.write(frame, 0, frameLength);
+        }
+        frameLength = 0;
+    }
+
+    /**
+     * Writes the remaining data and the end of the stream, without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (frameLength > 0) {
+            writeFrame();
+        }
+        dataOut.writeInt(0);
+        dataOut.flush();
+        deflater.end();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // incomplete frames are only written by finish(), to keep them large
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -29,6 +29,8 @@ public class GBPrefs {
     public static final String AUTO_EXPORT_ENABLED = "auto_export_enabled";
     public static final String AUTO_EXPORT_LOCATION = "auto_export_location";
     public static final String AUTO_EXPORT_INTERVAL = "auto_export_interval";
+    public static final String AUTO_EXPORT_INCREMENTAL = "auto_export_incremental";
+    public static final String AUTO_EXPORT_COMPRESSED = "auto_export_compressed";
     private static final boolean AUTO_START_DEFAULT = true;
     private static final String BG_JS_ENABLED = "pebble_enable_background_javascript";
     private static final boolean BG_JS_ENABLED_DEFAULT = false;
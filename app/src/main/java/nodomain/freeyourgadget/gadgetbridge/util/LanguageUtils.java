@@ -95,6 +95,30 @@ public class LanguageUtils {
         }
     };
 
+    /**
+     * The replacements of transliterateMap, looked up by char. Covers upper case variants as well
+     * (capitalized, like transliterate(char) does). The table has 256 pages of 256 chars each;
+     * only pages of scripts that actually have replacements are allocated.
+     */
+    private static final String[][] transliterateTable = new String[256][];
+
+    static {
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            char c = (char) i;
+            char lowerChar = Character.toLowerCase(c);
+            String replace = transliterateMap.get(lowerChar);
+            if (replace == null) {
+                continue;
+            }
+            String[] page = transliterateTable[c >>> 8];
+            if (page == null) {
+                page = new String[256];
+                transliterateTable[c >>> 8] = page;
+            }
+            page[c & 0xff] = lowerChar != c ? WordUtils.capitalize(replace) : replace;
+        }
+    }
+
     /**
      * Checks the status of transliteration option
      * @return true if transliterate option is On, and false, if Off or not exist
@@ -114,40 +138,63 @@ public class LanguageUtils {
             return txt;
         }
 
-        StringBuilder message = new StringBuilder();
+        StringBuilder message = null;
+        boolean hasBengali = false;
+        boolean isAscii = true;
+        int length = txt.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = txt.charAt(i);
+            if (c < 0x80) {
+                if (message != null) {
+                    message.append(c);
+                }
+                continue;
+            }
 
-        char[] chars = txt.toCharArray();
+            String replace = lookup(c);
+            if (replace == null) {
+                hasBengali |= BengaliLanguageUtils.isBengali(c);
+                isAscii = false;
+                if (message != null) {
+                    message.append(c);
+                }
+                continue;
+            }
 
-        for (char c : chars)
-        {
-            message.append(transliterate(c));
+            if (message == null) {
+                message = new StringBuilder(length + 16);
+                message.append(txt, 0, i);
+            }
+            message.append(replace);
+            isAscii &= isAscii(replace);
         }
 
-        String messageString = BengaliLanguageUtils.transliterate(message.toString());
+        String messageString = message != null ? message.toString() : txt;
+        if (hasBengali) {
+            messageString = BengaliLanguageUtils.transliterate(messageString);
+            isAscii = false;
+        }
+        if (isAscii) {
+            // nothing left to decompose
+            return messageString;
+        }
 
         return flattenToAscii(messageString);
     }
 
-    /**
-     * Replaces unsupported symbol to english by {@code transliterateMap}
-     * @param c input char
-     * @return replacement text
-     */
-    private static String transliterate(char c){
-        char lowerChar = Character.toLowerCase(c);
-
-        if (transliterateMap.containsKey(lowerChar)) {
-            String replace = transliterateMap.get(lowerChar);
+    private static String lookup(char c) {
+        String[] page = transliterateTable[c >>> 8];
+        return page != null ? page[c & 0xff] : null;
+    }
 
-            if (lowerChar != c)
-            {
-                return WordUtils.capitalize(replace);
+    private static boolean isAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) >= 0x80) {
+                return false;
             }
-
-            return replace;
         }
-
-        return String.valueOf(c);
+        return true;
     }
 
     /**
@@ -157,6 +204,34 @@ public class LanguageUtils {
      */
     private static String flattenToAscii(String string) {
         string = Normalizer.normalize(string, Normalizer.Form.NFD);
-        return string.replaceAll("\\p{M}", "");
+
+        // drop all marks, same as replaceAll("\\p{M}", "")
+        StringBuilder builder = null;
+        int length = string.length();
+        for (int i = 0; i < length; ) {
+            int codePoint = string.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+            if (isMark(codePoint)) {
+                if (builder == null) {
+                    builder = new StringBuilder(length);
+                    builder.append(string, 0, i);
+                }
+            } else if (builder != null) {
+                builder.appendCodePoint(codePoint);
+            }
+            i += charCount;
+        }
+        return builder != null ? builder.toString() : string;
+    }
+
+    private static boolean isMark(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return true;
+            default:
+                return false;
+        }
     }
 }
@@ -0,0 +1,198 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds which of a fixed set of words occur in a text, in a single pass over the text
+ * (Aho-Corasick). Matching is case sensitive, just like String.contains().
+ *
+ * Instances are immutable once compiled and may be shared between threads.
+ */
+public class MultiPatternMatcher {
+    private static final int ROOT = 0;
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final List<String> patterns;
+    private final boolean hasEmptyPattern;
+
+    // per state: sorted transition characters, their target states, fail link and the
+    // patterns ending here (including those reachable via fail links)
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] fail;
+    private final int[][] output;
+
+    public MultiPatternMatcher(List<String> words) {
+        // duplicates do not change the outcome of any query, drop them
+        Map<String, Integer> unique = new LinkedHashMap<>();
+        for (String word : words) {
+            if (!unique.containsKey(word)) {
+                unique.put(word, unique.size());
+            }
+        }
+        patterns = new ArrayList<>(unique.keySet());
+        hasEmptyPattern = unique.containsKey("");
+
+        List<StringBuilder> chars = new ArrayList<>();
+        List<List<Integer>> targets = new ArrayList<>();
+        List<List<Integer>> outputs = new ArrayList<>();
+        chars.add(new StringBuilder());
+        targets.add(new ArrayList<Integer>());
+        outputs.add(new ArrayList<Integer>());
+
+        for (int id = 0; id < patterns.size(); id++) {
+            String pattern = patterns.get(id);
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int index = chars.get(state).indexOf(String.valueOf(c));
+                if (index >= 0) {
+                    state = targets.get(state).get(index);
+                } else {
+                    int next = chars.size();
+                    chars.add(new StringBuilder());
+                    targets.add(new ArrayList<Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    chars.get(state).append(c);
+                    targets.get(state).add(next);
+                    state = next;
+                }
+            }
+            if (pattern.length() > 0) {
+                outputs.get(state).add(id);
+            }
+        }
+
+        int stateCount = chars.size();
+        transitionChars = new char[stateCount][];
+        transitionTargets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            // sort transitions by character for binary search
+            String stateChars = chars.get(state).toString();
+            List<Integer> stateTargets = targets.get(state);
+            char[] sortedChars = stateChars.toCharArray();
+            Arrays.sort(sortedChars);
+            int[] sortedTargets = new int[sortedChars.length];
+            for (int i = 0; i < sortedChars.length; i++) {
+                sortedTargets[i] = stateTargets.get(stateChars.indexOf(sortedChars[i]));
+            }
+            transitionChars[state] = sortedChars;
+            transitionTargets[state] = sortedTargets;
+        }
+
+        // breadth first, so fail links always point to already finished states
+        fail = new int[stateCount];
+        output = new int[stateCount][];
+        output[ROOT] = NO_OUTPUT;
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionTargets[ROOT]) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            List<Integer> stateOutput = outputs.get(state);
+            int[] inherited = output[fail[state]];
+            int[] merged = new int[stateOutput.size() + inherited.length];
+            for (int i = 0; i < stateOutput.size(); i++) {
+                merged[i] = stateOutput.get(i);
+            }
+            System.arraycopy(inherited, 0, merged, stateOutput.size(), inherited.length);
+            output[state] = merged.length == 0 ? NO_OUTPUT : merged;
+
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int child = transitionTargets[state][i];
+                int f = fail[state];
+                while (f != ROOT && transition(f, c) < 0) {
+                    f = fail[f];
+                }
+                int target = transition(f, c);
+                fail[child] = target >= 0 && target != child ? target : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    private int transition(int state, char c) {
+        int index = Arrays.binarySearch(transitionChars[state], c);
+        return index >= 0 ? transitionTargets[state][index] : -1;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Returns true if at least one of the words occurs in the text.
+     */
+    public boolean containsAny(String text) {
+        if (patterns.isEmpty()) {
+            return false;
+        }
+        return hasEmptyPattern || countMatches(text, 1) > 0;
+    }
+
+    /**
+     * Returns true if every one of the words occurs in the text.
+     */
+    public boolean containsAll(String text) {
+        return countMatches(text, patterns.size()) == patterns.size();
+    }
+
+    /**
+     * Counts how many different words occur in the text, stopping as soon as enough were found.
+     */
+    private int countMatches(String text, int enough) {
+        int found = 0;
+        boolean[] seen = new boolean[patterns.size()];
+        if (hasEmptyPattern) {
+            seen[patterns.indexOf("")] = true;
+            found++;
+        }
+        if (found >= enough) {
+            return found;
+        }
+
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != ROOT) {
+                state = fail[state];
+            }
+            state = next >= 0 ? next : ROOT;
+            for (int id : output[state]) {
+                if (!seen[id]) {
+                    seen[id] = true;
+                    if (++found >= enough) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
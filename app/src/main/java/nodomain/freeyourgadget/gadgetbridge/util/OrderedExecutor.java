@@ -0,0 +1,184 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a small pool of background threads. Tasks submitted for the same lane
+ * (e.g. a device address) run one after the other in submission order, different lanes run
+ * in parallel.
+ *
+ * Tasks submitted with execute() always run. Tasks submitted with executeDroppable() replace
+ * a waiting task of the same key, e.g. an older version of the same notification, and each
+ * lane holds at most maxQueued of them. When a lane falls further behind, its oldest waiting
+ * droppable task is dropped, so that a flood of events cannot pile up without bounds and
+ * execute() never blocks the caller, which usually is the main thread.
+ */
+public class OrderedExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedExecutor.class);
+
+    private final String name;
+    private final int maxQueued;
+    private final ThreadPoolExecutor pool;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private int dropped;
+
+    private static class Task {
+        // null for tasks that must not be dropped
+        final Object key;
+        final Runnable runnable;
+
+        Task(Object key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+
+    private class Lane implements Runnable {
+        final String key;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        int droppableTasks;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                synchronized (lanes) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        lanes.remove(key);
+                        return;
+                    }
+                    if (task.key != null) {
+                        droppableTasks--;
+                    }
+                }
+                try {
+                    task.runnable.run();
+                } catch (Exception e) {
+                    LOG.error(name + ": error running task for " + key, e);
+                }
+            }
+        }
+
+        /**
+         * Removes the first waiting task with the given key, or the first droppable one if the
+         * key is null.
+         */
+        boolean drop(Object taskKey, String reason) {
+            Iterator<Task> iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.key != null && (taskKey == null || taskKey.equals(task.key))) {
+                    iterator.remove();
+                    droppableTasks--;
+                    dropped++;
+                    LOG.warn(name + ": dropped task " + task.key + " for " + key + ", " + reason + " (" + dropped + " so far)");
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public OrderedExecutor(final String name, int threads, int maxQueued) {
+        this.name = name;
+        this.maxQueued = maxQueued;
+        // at most one runnable per lane is ever queued in the pool
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name + "-" + count.incrementAndGet());
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task after the earlier ones of the lane. It is never dropped.
+     */
+    public void execute(String lane, Runnable task) {
+        add(lane, new Task(null, task));
+    }
+
+    /**
+     * Runs the task after the earlier ones of the lane, unless a newer task with the same key
+     * replaces it, or the lane falls too far behind.
+     */
+    public void executeDroppable(String lane, Object key, Runnable task) {
+        add(lane, new Task(key, task));
+    }
+
+    private void add(String laneKey, Task task) {
+        synchronized (lanes) {
+            if (pool.isShutdown()) {
+                LOG.info(name + ": already shut down, ignoring task for " + laneKey);
+                return;
+            }
+            Lane lane = lanes.get(laneKey);
+            if (lane == null) {
+                lane = new Lane(laneKey);
+                lanes.put(laneKey, lane);
+                pool.execute(lane);
+            } else if (task.key != null) {
+                if (!lane.drop(task.key, "replaced by a newer one") && lane.droppableTasks >= maxQueued) {
+                    lane.drop(null, "falling behind");
+                }
+            }
+            lane.tasks.add(task);
+            if (task.key != null) {
+                lane.droppableTasks++;
+            }
+        }
+    }
+
+    /**
+     * Returns how many tasks were dropped because they were replaced or their lane was full.
+     */
+    public int getDroppedCount() {
+        synchronized (lanes) {
+            return dropped;
+        }
+    }
+
+    public void shutdown() {
+        synchronized (lanes) {
+            for (Lane lane : lanes.values()) {
+                lane.tasks.clear();
+            }
+        }
+        pool.shutdown();
+    }
+}
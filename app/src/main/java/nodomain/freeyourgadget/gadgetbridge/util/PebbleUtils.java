@@ -34,6 +34,10 @@ import java.util.UUID;
 public class PebbleUtils {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleUtils.class);
 
+    private static UUID cachedKeyNamesUUID;
+    private static long cachedKeyNamesModified;
+    private static SparseArray<String> cachedKeyNames;
+
     public static String getPlatformName(String hwRev) {
         String platformName;
         if (hwRev.startsWith("snowy")) {
@@ -115,10 +119,13 @@ public class PebbleUtils {
         return new File(FileUtils.getExternalFilesDir(), "pbw-cache");
     }
 
+    private static File getAppConfigurationFile(UUID uuid) throws IOException {
+        return new File(getPbwCacheDir(), uuid.toString() + ".json");
+    }
+
     public static JSONObject getAppConfigurationKeys(UUID uuid) {
         try {
-            File destDir = getPbwCacheDir();
-            File configurationFile = new File(destDir, uuid.toString() + ".json");
+            File configurationFile = getAppConfigurationFile(uuid);
             if (configurationFile.exists()) {
                 String jsonString = FileUtils.getStringFromFile(configurationFile);
                 JSONObject json = new JSONObject(jsonString);
@@ -130,24 +137,84 @@ public class PebbleUtils {
         return null;
     }
 
+    /**
+     * Returns the reversed app key mapping (index -> name) of the given app, or null if the app
+     * has no configuration file. The mapping of the last app is cached, so that a stream of app
+     * messages does not read and parse the configuration file over and over again.
+     */
+    public static synchronized SparseArray<String> getAppConfigurationKeyNames(UUID uuid) {
+        long lastModified;
+        try {
+            lastModified = getAppConfigurationFile(uuid).lastModified();
+        } catch (IOException e) {
+            LOG.warn("Unable to access configuration file", e);
+            return null;
+        }
+        if (uuid.equals(cachedKeyNamesUUID) && lastModified == cachedKeyNamesModified) {
+            return cachedKeyNames;
+        }
+
+        SparseArray<String> keyNames = null;
+        JSONObject knownKeys = getAppConfigurationKeys(uuid);
+        if (knownKeys != null) {
+            //knownKeys contains "name"->"index", we need to reverse that
+            keyNames = new SparseArray<>();
+            for (Iterator<String> key = knownKeys.keys(); key.hasNext(); ) {
+                String name = key.next();
+                keyNames.put(knownKeys.optInt(name), name);
+            }
+        }
+        cachedKeyNamesUUID = uuid;
+        cachedKeyNamesModified = lastModified;
+        cachedKeyNames = keyNames;
+        return keyNames;
+    }
+
+    /**
+     * Builds the javascript object for an incoming app message from an already decoded
+     * dictionary, see GBDeviceEventAppMessage.keys and values. Produces the same output as
+     * parseIncomingAppMessage() without going through JSON in between.
+     */
+    public static String buildIncomingAppMessage(int[] keys, Object[] values, UUID uuid, int transactionId) {
+        SparseArray<String> appKeysMap = getAppConfigurationKeyNames(uuid);
+
+        StringBuilder out = new StringBuilder(64 + keys.length * 32);
+        out.append("{\"payload\":{");
+        if (appKeysMap != null) {
+            boolean first = true;
+            for (int i = 0; i < keys.length; i++) {
+                String outKey = appKeysMap.get(keys[i]);
+                Object outValue = values[i];
+                if (outKey == null || outValue == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                out.append(JSONObject.quote(outKey)).append(':');
+                if (outValue instanceof String) {
+                    out.append(JSONObject.quote((String) outValue));
+                } else {
+                    out.append(outValue);
+                }
+            }
+        }
+        out.append("},\"data\":{\"transactionId\":").append(transactionId).append("}}");
+        return out.toString();
+    }
+
     public static String parseIncomingAppMessage(String msg, UUID uuid, int transactionId) {
         JSONObject jsAppMessage = new JSONObject();
 
-        JSONObject knownKeys = PebbleUtils.getAppConfigurationKeys(uuid);
-        SparseArray<String> appKeysMap = new SparseArray<>();
+        SparseArray<String> appKeysMap = getAppConfigurationKeyNames(uuid);
         String inKey, outKey;
 
 //      TODO: The fact that knownKeys is null for the passed UUID means that the
 //      watchapp was installed by some other app, hence we cannot communicate with it.
 //      The user could be warned somehow.
-        if (knownKeys == null || msg == null) {
+        if (appKeysMap == null || msg == null) {
             msg = "[]";
-        } else {
-            //knownKeys contains "name"->"index", we need to reverse that
-            for (Iterator<String> key = knownKeys.keys(); key.hasNext(); ) {
-                inKey = key.next();
-                appKeysMap.put(knownKeys.optInt(inKey), inKey);
-            }
         }
 
         try {
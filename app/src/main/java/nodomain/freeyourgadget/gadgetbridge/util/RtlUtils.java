@@ -16,11 +16,7 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import android.text.TextUtils;
-
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -45,9 +41,30 @@ public class RtlUtils {
         space,
     }
 
-    public static characterType getCharacterType(Character c){
+    private static final characterType[] characterTypes = characterType.values();
+    private static final int LTR = characterType.ltr.ordinal();
+    private static final int RTL = characterType.rtl.ordinal();
+    private static final int RTL_ARABIC = characterType.rtl_arabic.ordinal();
+    private static final int PUNCTUATION = characterType.punctuation.ordinal();
+    private static final int LINE_END = characterType.lineEnd.ordinal();
+    private static final int SPACE = characterType.space.ordinal();
+
+    /**
+     * The characterType of every UTF-16 code unit, built on first use.
+     */
+    private static class CharacterTypeTable {
+        static final byte[] types = new byte[Character.MAX_VALUE + 1];
+
+        static {
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                types[c] = (byte) getCharacterType(Character.getDirectionality((char) c)).ordinal();
+            }
+        }
+    }
+
+    private static characterType getCharacterType(byte directionality){
         characterType type;
-        switch (Character.getDirectionality(c)) {
+        switch (directionality) {
             case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
                 type = characterType.rtl;
                 break;
@@ -74,6 +91,14 @@ public class RtlUtils {
         return type;
     }
 
+    private static int typeOf(char c) {
+        return CharacterTypeTable.types[c];
+    }
+
+    public static characterType getCharacterType(Character c){
+        return characterTypes[typeOf(c)];
+    }
+
     /**
      * Checks the status of right-to-left option
      * @return true if right-to-left option is On, and false, if Off or not exist
@@ -83,21 +108,34 @@ public class RtlUtils {
         return GBApplication.getPrefs().getBoolean(GBPrefs.RTL_CONTEXTUAL_ARABIC, false);
     }
 
-    //map with brackets chars to change there direction
-    private static Map<Character, Character> directionSignsMap = new HashMap<Character, Character>(){
-        {
-            put('(', ')'); put(')', '('); put('[', ']'); put(']', '['); put('{','}'); put('}','{');
-
-
+    /**
+     * @return the bracket facing the other direction, or c itself
+     */
+    private static char mirror(char c) {
+        switch (c) {
+            case '(':
+                return ')';
+            case ')':
+                return '(';
+            case '[':
+                return ']';
+            case ']':
+                return '[';
+            case '{':
+                return '}';
+            case '}':
+                return '{';
+            default:
+                return c;
         }
-    };
+    }
 
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
     public static boolean isHebrew(Character c){
 
-        return getCharacterType(c) == characterType.rtl;
+        return typeOf(c) == RTL;
     }
 
     /**
@@ -105,7 +143,7 @@ public class RtlUtils {
      */
     public static boolean isArabic(Character c){
 
-        return getCharacterType(c) == characterType.rtl_arabic;
+        return typeOf(c) == RTL_ARABIC;
     }
 
     /**
@@ -113,15 +151,15 @@ public class RtlUtils {
      */
     public static boolean isLtr(Character c){
 
-        return getCharacterType(c) == characterType.ltr;
+        return typeOf(c) == LTR;
     }
 
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
     public static boolean isRtl(Character c){
-
-        return (getCharacterType(c) == characterType.rtl) || (getCharacterType(c) == characterType.rtl_arabic);
+        int type = typeOf(c);
+        return type == RTL || type == RTL_ARABIC;
     }
 
     /**
@@ -129,7 +167,7 @@ public class RtlUtils {
      */
     public static boolean isPunctuations(Character c){
 
-        return getCharacterType(c) == characterType.punctuation;
+        return typeOf(c) == PUNCTUATION;
     }
 
 
@@ -138,7 +176,7 @@ public class RtlUtils {
      */
     public static boolean isSpaceSign(Character c){
 
-        return getCharacterType(c) == characterType.space;
+        return typeOf(c) == SPACE;
     }
 
     /**
@@ -146,7 +184,7 @@ public class RtlUtils {
      */
     public static boolean isEndLineSign(Character c){
 
-        return getCharacterType(c) == characterType.lineEnd;
+        return typeOf(c) == LINE_END;
     }
 
     //map from Arabian characters to their contextual form in the beginning of the word
@@ -331,7 +369,47 @@ public class RtlUtils {
         end
     }
 
-    public static boolean exceptionAfterLam(Character c){
+    private static final char LAM_ALEF = 'ل' + 'آ';
+    private static final int CONTEXTUAL_TABLE_SIZE = 0x100 + 6;
+
+    // contextual forms per contextualState, indexed by contextualIndex(), 0 if there is none
+    private static final char[][] contextualForms = new char[contextualState.values().length][];
+
+    static {
+        contextualForms[contextualState.isolate.ordinal()] = toContextualTable(contextualArabicIsolated);
+        contextualForms[contextualState.begin.ordinal()] = toContextualTable(contextualArabicBeginning);
+        contextualForms[contextualState.middle.ordinal()] = toContextualTable(contextualArabicMiddle);
+        contextualForms[contextualState.end.ordinal()] = toContextualTable(contextualArabicEnd);
+    }
+
+    private static char[] toContextualTable(Map<Character, Character> forms) {
+        char[] table = new char[CONTEXTUAL_TABLE_SIZE];
+        for (Map.Entry<Character, Character> form : forms.entrySet()) {
+            table[contextualIndex(form.getKey())] = form.getValue();
+        }
+        return table;
+    }
+
+    /**
+     * @return the index into the contextual tables: the Arabic block, followed by the
+     * lam-alef combinations, or -1 if c has no contextual forms at all
+     */
+    private static int contextualIndex(int c) {
+        if (c >= '\u0600' && c <= '\u06FF') {
+            return c - '\u0600';
+        }
+        if (c >= LAM_ALEF && c < LAM_ALEF + 6) {
+            return 0x100 + c - LAM_ALEF;
+        }
+        return -1;
+    }
+
+    private static boolean hasContextualForm(int c, contextualState state) {
+        int index = contextualIndex(c);
+        return index >= 0 && contextualForms[state.ordinal()][index] != 0;
+    }
+
+    public static boolean exceptionAfterLam(char c){
         switch (c){
             case '\u0622':
             case '\u0623':
@@ -351,26 +429,18 @@ public class RtlUtils {
      * @return the contextual character
      */
     public static Character getContextualSymbol(Character c, contextualState state) {
-        Character newChar;
-        switch (state){
-            case begin:
-                newChar = contextualArabicBeginning.get(c);
-                break;
-            case middle:
-                newChar = contextualArabicMiddle.get(c);
-                break;
-            case end:
-                newChar = contextualArabicEnd.get(c);
-                break;
-            case isolate:
-            default:
-                newChar  = contextualArabicIsolated.get(c);;
-        }
-        if (newChar != null){
-            return newChar;
-        } else{
-            return c;
+        return getContextualSymbol((char) c, state);
+    }
+
+    private static char getContextualSymbol(char c, contextualState state) {
+        int index = contextualIndex(c);
+        if (index >= 0) {
+            char newChar = contextualForms[state.ordinal()][index];
+            if (newChar != 0) {
+                return newChar;
+            }
         }
+        return c;
     }
 
     /**
@@ -382,17 +452,24 @@ public class RtlUtils {
      * @return the current character contextual state
      */
     public static contextualState getCharContextualState(contextualState prevState, Character curChar, Character nextChar) {
+        return getCharContextualState(prevState, curChar != null ? curChar : -1, nextChar != null ? nextChar : -1);
+    }
+
+    /**
+     * Same as above, with -1 instead of null for a missing character
+     */
+    private static contextualState getCharContextualState(contextualState prevState, int curChar, int nextChar) {
         contextualState curState;
         if ((prevState == contextualState.isolate || prevState == contextualState.end) &&
-                contextualArabicBeginning.containsKey(curChar) &&
-                contextualArabicEnd.containsKey(nextChar)){
+                hasContextualForm(curChar, contextualState.begin) &&
+                hasContextualForm(nextChar, contextualState.end)){
 
             curState = contextualState.begin;
 
         } else if ((prevState == contextualState.begin || prevState == contextualState.middle) &&
-                contextualArabicEnd.containsKey(curChar)){
+                hasContextualForm(curChar, contextualState.end)){
 
-            if (contextualArabicMiddle.containsKey(curChar) && contextualArabicEnd.containsKey(nextChar)){
+            if (hasContextualForm(curChar, contextualState.middle) && hasContextualForm(nextChar, contextualState.end)){
                 curState = contextualState.middle;
             }else{
                 curState = contextualState.end;
@@ -413,10 +490,19 @@ public class RtlUtils {
             return s;
         }
 
+        StringBuilder newWord = new StringBuilder(s.length());
+        appendContextual(s, newWord);
+        return newWord.toString();
+    }
+
+    private static void appendContextual(CharSequence s, StringBuilder newWord) {
         int length = s.length();
-        StringBuilder newWord = new StringBuilder(length);
+        if (length <= 1) {
+            newWord.append(s);
+            return;
+        }
 
-        Character curChar, nextChar = s.charAt(0);
+        char curChar, nextChar = s.charAt(0);
         contextualState prevState = contextualState.isolate;
         contextualState curState = contextualState.isolate;
 
@@ -440,13 +526,9 @@ public class RtlUtils {
             curState = getCharContextualState(prevState, curChar, nextChar);
             newWord.append(getContextualSymbol(curChar, curState));
             prevState = curState;
-
-
         }
-        curState = getCharContextualState(prevState, nextChar, null);
+        curState = getCharContextualState(prevState, nextChar, -1);
         newWord.append(getContextualSymbol(nextChar, curState));
-
-        return newWord.toString();
     }
 
 
@@ -458,20 +540,11 @@ public class RtlUtils {
      * @return reversed string
      */
     public static String reverse(String s) {
-        int j = s.length();
-        int isEndLine = 0;
-        char[] newWord = new char[j];
-
-        if (j == 0) {
-            return s;
-        }
+        int length = s.length();
+        char[] newWord = new char[length];
 
-        for (int i = 0; i < s.length() - isEndLine; i++) {
-            if (directionSignsMap.containsKey(s.charAt(i))) {
-                newWord[--j] = directionSignsMap.get(s.charAt(i));
-            } else {
-                newWord[--j] = s.charAt(i);
-            }
+        for (int i = 0; i < length; i++) {
+            newWord[length - 1 - i] = mirror(s.charAt(i));
         }
 
         return new String(newWord);
@@ -480,13 +553,56 @@ public class RtlUtils {
     public static String fixWhitespace(String s){
         int length = s.length();
 
-        if (length > 0 && isSpaceSign(s.charAt(length - 1))){
+        if (length > 0 && typeOf(s.charAt(length - 1)) == SPACE){
             return s.charAt(length - 1) + s.substring(0, length - 1);
         } else {
             return s;
         }
     }
 
+    /**
+     * Inserts a phrase at the beginning of the line, with a trailing whitespace moved to its front.
+     * Right-to-left phrases are shaped if enabled and reversed on the way, all in one go:
+     * the equivalent of fixWhitespace(reverse(convertToContextual(phrase))).
+     */
+    private static void insertPhrase(StringBuilder line, StringBuilder phrase, boolean rtl, boolean contextual,
+                                     StringBuilder shaped, char[] buffer) {
+        CharSequence source = phrase;
+        if (rtl && contextual) {
+            shaped.setLength(0);
+            appendContextual(phrase, shaped);
+            source = shaped;
+        }
+        int length = source.length();
+        if (length == 0) {
+            return;
+        }
+
+        int pos = 0;
+        if (rtl) {
+            // the first character ends up last
+            int end = 0;
+            char first = source.charAt(0);
+            if (typeOf(first) == SPACE) {
+                buffer[pos++] = first;
+                end = 1;
+            }
+            for (int i = length - 1; i >= end; i--) {
+                buffer[pos++] = mirror(source.charAt(i));
+            }
+        } else {
+            char last = source.charAt(length - 1);
+            if (typeOf(last) == SPACE) {
+                buffer[pos++] = last;
+                length--;
+            }
+            for (int i = 0; i < length; i++) {
+                buffer[pos++] = source.charAt(i);
+            }
+        }
+        line.insert(0, buffer, 0, pos);
+    }
+
     /**
      * The function get a string and fix the rtl words.
      * since simple reverse puts the beginning of the text at the end, the text should have been from bottom to top.
@@ -498,40 +614,35 @@ public class RtlUtils {
         if (oldString == null || oldString.isEmpty()){
             return oldString;
         }
-        debug("before: |" + org.apache.commons.lang3.StringEscapeUtils.escapeJava(oldString) + "|");
 
         int length = oldString.length();
-        String newString = "";
-        List<String> lines = new ArrayList<>();
-        char[] newWord = new char[length];
         int line_max_size = GBApplication.getPrefs().getInt("rtl_max_line_length", 18);
+        boolean contextual = contextualSupport();
+        StringBuilder newString = new StringBuilder(length + 16);
+        StringBuilder shaped = new StringBuilder();
+        char[] buffer = new char[length];
 
-        int startPos = 0;
-        int endPos = 0;
-        characterType CurRtlType = isRtl(oldString.charAt(0))? characterType.rtl : characterType.ltr;
-        characterType PhraseRtlType = CurRtlType;
+        boolean curRtl = isRtlType(typeOf(oldString.charAt(0)));
+        boolean phraseRtl = curRtl;
 
-        Character c;
-//        String word = "", phrase = "", line = "";
+        char c;
+        int type;
         StringBuilder word = new StringBuilder();
         StringBuilder phrase = new StringBuilder();
         StringBuilder line = new StringBuilder();
-        String phraseString = "";
         boolean addCharToWord = false;
         for (int i = 0; i < length; i++) {
             c = oldString.charAt(i);
+            type = typeOf(c);
             addCharToWord = false;
-            debug("char: " + c + " :" + Character.getDirectionality(c));
-//            debug( "hex : " + (int)c);
 
-            if (isLtr(c)){
-                CurRtlType = characterType.ltr;
-            } else if (isRtl(c)) {
-                CurRtlType = characterType.rtl;
+            if (type == LTR){
+                curRtl = false;
+            } else if (isRtlType(type)) {
+                curRtl = true;
             }
 
-            if ((CurRtlType == PhraseRtlType) && !(isSpaceSign(c) || isEndLineSign(c))){
-                debug("add: " + c + " to: " + word);
+            if ((curRtl == phraseRtl) && !(type == SPACE || type == LINE_END)){
                 word.append(c);
                 addCharToWord = true;
                 if (i < length - 1) {
@@ -539,12 +650,10 @@ public class RtlUtils {
                 }
             }
 
-
-
             do {
                 if ((line.length() + phrase.length() + word.length() < line_max_size) ||
                         (line.length() == 0 && word.length() >= line_max_size)) {
-                    if (isSpaceSign(c)) {
+                    if (type == SPACE) {
                         word.append(c);
                         addCharToWord = true;
                     }
@@ -552,28 +661,17 @@ public class RtlUtils {
                     phrase.append(word);
                     word.setLength(0);
 
-                    if (isSpaceSign(c)) {
+                    if (type == SPACE) {
                         break;
                     }
                 }
 
-
-                phraseString = phrase.toString();
-                debug("phrase:   |" + phraseString + "|");
-                if (PhraseRtlType == characterType.rtl) {
-                    if (contextualSupport()) {
-                        phraseString = convertToContextual(phraseString);
-                    }
-                    phraseString = reverse(phraseString);
-                }
-
-                line.insert(0, fixWhitespace(phraseString));
-                debug("line now: |" + line + "|");
+                insertPhrase(line, phrase, phraseRtl, contextual, shaped, buffer);
                 phrase.setLength(0);
 
                 if (word.length() > 0){
                     line.append('\n');
-                } else if (isEndLineSign(c)) {
+                } else if (type == LINE_END) {
                     line.append(c);
                 } else if (!addCharToWord) {
                     word.append(c);
@@ -581,12 +679,11 @@ public class RtlUtils {
                         addCharToWord = true;
                         continue;
                     }
-                    PhraseRtlType = PhraseRtlType == characterType.rtl ? characterType.ltr : characterType.rtl;
+                    phraseRtl = !phraseRtl;
                     break;
                 }
 
-                lines.add(line.toString());
-                debug("line: |" + line + "|");
+                newString.append(line);
                 line.setLength(0);
 
                 if (word.length() == 0){
@@ -597,16 +694,12 @@ public class RtlUtils {
 
         }
 
-        lines.add(line.toString());
-
-        newString = TextUtils.join("", lines);
-
-        debug("after : |" + org.apache.commons.lang3.StringEscapeUtils.escapeJava(newString) + "|");
+        newString.append(line);
 
-        return newString;
+        return newString.toString();
     }
 
-    private static void debug(String s) {
-//        Log.d("ROIGR", s);
+    private static boolean isRtlType(int type) {
+        return type == RTL || type == RTL_ARABIC;
     }
 }
@@ -0,0 +1,96 @@
+/*  Copyright (C) 2019 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts durations in power-of-two millisecond buckets (below 1ms, below 2ms, below 4ms...)
+ * and logs a summary every LOG_INTERVAL samples.
+ */
+public class TimingHistogram {
+    private static final Logger LOG = LoggerFactory.getLogger(TimingHistogram.class);
+
+    private static final int BUCKETS = 16;
+    private static final int LOG_INTERVAL = 100;
+
+    private final String name;
+    private final int[] counts = new int[BUCKETS];
+    private int total;
+    private long maxNanos;
+
+    public TimingHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        boolean log;
+        synchronized (this) {
+            counts[bucketOf(nanos)]++;
+            total++;
+            maxNanos = Math.max(maxNanos, nanos);
+            log = total % LOG_INTERVAL == 0;
+        }
+        if (log) {
+            LOG.info(toString());
+        }
+    }
+
+    /**
+     * Records the time passed since the given System.nanoTime() value.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public synchronized int getCount() {
+        return total;
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket containing the given percentile.
+     */
+    public synchronized long getPercentileMillis(int percentile) {
+        long threshold = ((long) total * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    private static int bucketOf(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (millis > 0 && bucket < BUCKETS - 1) {
+            millis >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": " + total + " samples, p50 < " + getPercentileMillis(50) + "ms, p95 < "
+                + getPercentileMillis(95) + "ms, p99 < " + getPercentileMillis(99) + "ms, max "
+                + (maxNanos / 1000000) + "ms";
+    }
+}
@@ -32,6 +32,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.webkit.ValueCallback;
 import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
@@ -67,6 +68,8 @@ public class WebViewSingleton {
     private CountDownLatch latch;
     private WebResourceResponse internetResponse;
     private Messenger internetHelperListener;
+    private final StringBuilder pendingAppMessages = new StringBuilder();
+    private int pendingAppMessageCount;
 
     private WebViewSingleton() {
     }
@@ -181,6 +184,7 @@ public class WebViewSingleton {
             final JSInterface jsInterface = new JSInterface(device, uuid);
             LOG.debug("WEBVIEW uuid changed, restarting");
             currentRunningUUID = uuid;
+            discardPendingAppMessages();
             invokeWebview(new WebViewRunnable() {
                 @Override
                 public void invoke(WebView webView) {
@@ -226,6 +230,7 @@ public class WebViewSingleton {
             internetHelperBound = false;
         }
         currentRunningUUID = null;
+        discardPendingAppMessages();
         invokeWebview(new WebViewRunnable() {
             @Override
             public void invoke(WebView webView) {
@@ -245,6 +250,64 @@ public class WebViewSingleton {
         });
     }
 
+    /**
+     * Hands an app message event to the javascript of the running app.
+     *
+     * Messages arriving in quick succession are batched: all messages queued until the main
+     * thread gets to run are delivered with a single evaluateJavascript() call. An exception
+     * thrown by the handler of one message is logged and does not affect the others.
+     *
+     * @param jsEvent    the event name, e.g. "appmessage"
+     * @param appMessage the event object as javascript source
+     */
+    public void evaluateAppMessage(String jsEvent, String appMessage) {
+        if (webView == null || mainLooper == null) {
+            LOG.warn("Webview already disposed, ignoring app message");
+            return;
+        }
+        synchronized (pendingAppMessages) {
+            // every message gets its own try block, so that a throwing handler does not drop the rest of the batch
+            pendingAppMessages.append("try{Pebble.evaluate('").append(jsEvent).append("',[").append(appMessage)
+                    .append("]);}catch(e){GBjs.gbLog('").append(jsEvent).append(" handler failed: '+e);}");
+            if (pendingAppMessageCount++ > 0) {
+                // a flush is already scheduled
+                return;
+            }
+        }
+        invokeWebview(new WebViewRunnable() {
+            @Override
+            public void invoke(WebView webView) {
+                final String script;
+                final int count;
+                synchronized (pendingAppMessages) {
+                    if (pendingAppMessageCount == 0) {
+                        return;
+                    }
+                    script = "if (typeof Pebble == 'object') {" + pendingAppMessages + "}";
+                    count = pendingAppMessageCount;
+                    pendingAppMessages.setLength(0);
+                    pendingAppMessageCount = 0;
+                }
+                webView.evaluateJavascript(script, new ValueCallback<String>() {
+                    @Override
+                    public void onReceiveValue(String s) {
+                        LOG.debug("Callback from " + count + " appmessage(s): " + s);
+                    }
+                });
+            }
+        });
+    }
+
+    private void discardPendingAppMessages() {
+        synchronized (pendingAppMessages) {
+            if (pendingAppMessageCount > 0) {
+                LOG.debug("WEBVIEW discarding " + pendingAppMessageCount + " pending app messages");
+            }
+            pendingAppMessages.setLength(0);
+            pendingAppMessageCount = 0;
+        }
+    }
+
     public void invokeWebview(final WebViewRunnable runnable) {
         if (webView == null || mainLooper == null) {
             LOG.warn("Webview already disposed, ignoring runnable");
@@ -0,0 +1,118 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import nodomain.freeyourgadget.gadgetbridge.database.schema.ChunkedMigrationRunner;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedMigrationTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedMigrationTest.class);
+
+    /**
+     * Fills a new column from an old one, like a typical schema update would.
+     */
+    public static class FillNewValueMigration implements ChunkedMigration {
+        @Override
+        public String getTable() {
+            return "BENCHMARK_SAMPLE";
+        }
+
+        @Override
+        public String getKeyColumn() {
+            return "TIMESTAMP";
+        }
+
+        @Override
+        public void migrateChunk(SQLiteDatabase database, long fromKeyExclusive, long toKeyInclusive) {
+            database.execSQL("UPDATE BENCHMARK_SAMPLE SET NEW_VALUE = VALUE * 2 WHERE TIMESTAMP > ? AND TIMESTAMP <= ?",
+                    new Object[]{fromKeyExclusive, toKeyInclusive});
+        }
+    }
+
+    @Test
+    public void testResumableMigration() throws Exception {
+        migrate(5000, 500, 3);
+    }
+
+    @Test
+    @Ignore("Disabled for travis -- benchmark with 5 million rows, run explicitly")
+    public void testResumableMigrationBenchmark() throws Exception {
+        migrate(5000000, 50000, 10);
+    }
+
+    /**
+     * Runs the migration on a table with the given number of rows, interrupts it after the given
+     * number of chunks and continues it with a new runner.
+     */
+    private void migrate(int rows, int chunkSize, int chunksBeforeCrash) throws Exception {
+        File dbFile = File.createTempFile("gadgetbridge-migration", ".db");
+        dbFile.deleteOnExit();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        try {
+            long start = System.currentTimeMillis();
+            db.execSQL("CREATE TABLE BENCHMARK_SAMPLE (TIMESTAMP INTEGER NOT NULL, DEVICE_ID INTEGER NOT NULL, "
+                    + "VALUE INTEGER NOT NULL, NEW_VALUE INTEGER, PRIMARY KEY (TIMESTAMP, DEVICE_ID))");
+            // two devices with one sample per minute each
+            db.execSQL("INSERT INTO BENCHMARK_SAMPLE (TIMESTAMP, DEVICE_ID, VALUE) "
+                    + "WITH RECURSIVE seq(x) AS (SELECT 0 UNION ALL SELECT x + 1 FROM seq WHERE x < " + (rows - 1) + ") "
+                    + "SELECT 1500000000 + (x / 2) * 60, x % 2, x % 100 FROM seq");
+            LOG.info("Generated " + rows + " rows in " + (System.currentTimeMillis() - start) + "ms");
+
+            ChunkedMigrationRunner.schedule(db, 1, FillNewValueMigration.class);
+            assertTrue(ChunkedMigrationRunner.hasPending(db));
+
+            final long[] progress = new long[2];
+            ChunkedMigrationRunner.ProgressListener listener = new ChunkedMigrationRunner.ProgressListener() {
+                @Override
+                public void onProgress(String migration, long rowsDone, long rowsTotal) {
+                    progress[0] = rowsDone;
+                    progress[1] = rowsTotal;
+                }
+            };
+
+            // crash after a few chunks and continue with a new runner
+            ChunkedMigrationRunner runner = new ChunkedMigrationRunner(chunkSize);
+            runner.setProgressListener(listener);
+            for (int i = 0; i < chunksBeforeCrash; i++) {
+                assertTrue(runner.runChunk(db));
+            }
+            assertEquals(rows, progress[1]);
+            assertTrue(progress[0] >= chunksBeforeCrash * chunkSize);
+            assertTrue(progress[0] < rows);
+
+            runner = new ChunkedMigrationRunner(chunkSize);
+            runner.setProgressListener(listener);
+            long longestChunk = 0;
+            start = System.currentTimeMillis();
+            long chunkStart = start;
+            while (runner.runChunk(db)) {
+                long now = System.currentTimeMillis();
+                longestChunk = Math.max(longestChunk, now - chunkStart);
+                chunkStart = now;
+            }
+            LOG.info("Migrated " + rows + " rows in " + (System.currentTimeMillis() - start) + "ms, longest chunk took "
+                    + longestChunk + "ms");
+
+            assertFalse(ChunkedMigrationRunner.hasPending(db));
+            assertEquals(rows, progress[0]);
+            try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM BENCHMARK_SAMPLE WHERE NEW_VALUE IS NULL OR NEW_VALUE != VALUE * 2", null)) {
+                cursor.moveToFirst();
+                assertEquals(0, cursor.getLong(0));
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IncrementalExporterTest extends TestBase {
+    // three weeks of minute samples
+    private static final int SAMPLES = 3 * 7 * 24 * 60;
+    private static final int START = 1500000000;
+
+    private MiBandActivitySample[] addSamples(MiBandSampleProvider sampleProvider, GBDevice gbDevice, int count) {
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        MiBandActivitySample[] samples = new MiBandActivitySample[count];
+        for (int i = 0; i < count; i++) {
+            MiBandActivitySample sample = sampleProvider.createActivitySample();
+            sample.setTimestamp(START + i * 60);
+            sample.setUserId(user.getId());
+            sample.setDeviceId(device.getId());
+            sample.setRawIntensity(i % 100);
+            sample.setSteps(i % 30);
+            samples[i] = sample;
+        }
+        sampleProvider.addGBActivitySamples(samples);
+        return samples;
+    }
+
+    @Test
+    public void testExportOnlyChangedSegments() throws Exception {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:20");
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(gbDevice, daoSession);
+        MiBandActivitySample[] samples = addSamples(sampleProvider, gbDevice, SAMPLES);
+
+        File exportDir = FileUtils.createTempDir("incremental-export");
+        File journalFile = new File(exportDir, "Gadgetbridge.journal");
+        IncrementalExporter.Destination destination = IncrementalExporter.forFile(journalFile);
+        IncrementalExporter exporter = new IncrementalExporter(new File(exportDir, IncrementalExporter.STATE_FILE_NAME));
+        IncrementalExporter.Result result = exporter.export(destination);
+        assertTrue(result.rewritten);
+        assertEquals(result.segments, result.segmentsWritten);
+        long fullLength = journalFile.length();
+
+        result = exporter.export(destination);
+        assertFalse(result.rewritten);
+        assertEquals(0, result.segmentsWritten);
+        assertEquals(fullLength, journalFile.length());
+
+        // only the week of the sample updated in place is appended
+        MiBandActivitySample changed = samples[SAMPLES / 2];
+        changed.setSteps(1000);
+        daoSession.getDatabase().execSQL("UPDATE " + MiBandActivitySampleDao.TABLENAME + " SET " + MiBandActivitySampleDao.Properties.Steps.columnName
+                + " = 1000 WHERE " + MiBandActivitySampleDao.Properties.Timestamp.columnName + " = " + changed.getTimestamp());
+        result = exporter.export(destination);
+        assertFalse(result.rewritten);
+        assertEquals(1, result.segmentsWritten);
+        assertTrue(journalFile.length() - fullLength < fullLength / 2);
+
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        exporter.importInto(daoSession, destination);
+        List<MiBandActivitySample> imported = sampleProvider.getAllActivitySamples(START, START + SAMPLES * 60);
+        assertEquals(SAMPLES, imported.size());
+        assertEquals(1000, imported.get(SAMPLES / 2).getSteps());
+
+        // the emptied weeks are appended as empty segments, the deleted samples are not imported again
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        sampleProvider.addGBActivitySample(changed);
+        result = exporter.export(destination);
+        assertFalse(result.rewritten);
+        // the samples span four weeks, one with the sample and three empty ones
+        assertEquals(4, result.segmentsWritten);
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        exporter.importInto(daoSession, destination);
+        imported = sampleProvider.getAllActivitySamples(START, START + SAMPLES * 60);
+        assertEquals(1, imported.size());
+        assertEquals(1000, imported.get(0).getSteps());
+
+        // the journal is now much larger than a full export
+        result = exporter.export(destination);
+        assertTrue(result.rewritten);
+        assertTrue(journalFile.length() < fullLength);
+    }
+
+    @Test
+    public void testExportTableWithoutRowId() throws Exception {
+        // like the sample tables on Lollipop and later
+        String table = MiBandActivitySampleDao.TABLENAME;
+        String[] columns = daoSession.getMiBandActivitySampleDao().getAllColumns();
+        SQLiteDatabase db = daoSession.getDatabase();
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("CREATE TABLE " + table + " (" + TextUtils.join(" INTEGER NOT NULL,", columns) + " INTEGER NOT NULL, PRIMARY KEY ("
+                + MiBandActivitySampleDao.Properties.Timestamp.columnName + "," + MiBandActivitySampleDao.Properties.DeviceId.columnName + ")) WITHOUT ROWID");
+
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:23");
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(gbDevice, daoSession);
+        addSamples(sampleProvider, gbDevice, 2 * 24 * 60);
+
+        File exportDir = FileUtils.createTempDir("incremental-export");
+        IncrementalExporter.Destination destination = IncrementalExporter.forFile(new File(exportDir, "Gadgetbridge.journal"));
+        IncrementalExporter exporter = new IncrementalExporter(new File(exportDir, IncrementalExporter.STATE_FILE_NAME));
+        assertTrue(exporter.export(destination).rewritten);
+        assertEquals(0, exporter.export(destination).segmentsWritten);
+
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        exporter.importInto(daoSession, destination);
+        assertEquals(2 * 24 * 60, sampleProvider.getAllActivitySamples(START, START + 2 * 24 * 60 * 60).size());
+    }
+
+    @Test
+    public void testImportRefusesUnknownTables() throws Exception {
+        File journalFile = new File(FileUtils.createTempDir("incremental-export"), "Gadgetbridge.journal");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile))) {
+            out.writeInt(IncrementalExporter.MAGIC);
+            out.writeByte(IncrementalExporter.VERSION);
+            out.writeByte(IncrementalExporter.SEGMENT);
+            out.writeUTF("UNKNOWN_TABLE");
+            out.writeLong(IncrementalExporter.WHOLE_TABLE);
+            out.writeShort(0);
+            out.writeByte(IncrementalExporter.ROW);
+            out.writeByte(IncrementalExporter.END);
+        }
+        IncrementalExporter.Destination destination = IncrementalExporter.forFile(journalFile);
+        IncrementalExporter exporter = new IncrementalExporter(new File(journalFile.getParentFile(), IncrementalExporter.STATE_FILE_NAME));
+        try {
+            exporter.importInto(daoSession, destination);
+            fail("Expected the unknown table to be refused");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("UNKNOWN_TABLE"));
+        }
+    }
+
+    @Test
+    public void testImportMatchesDevicesByAddress() throws Exception {
+        GBDevice otherGBDevice = createDummyGDevice("00:00:00:00:21");
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:22");
+        Device otherDevice = DBHelper.getDevice(otherGBDevice, daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(gbDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        MiBandActivitySample[] samples = new MiBandActivitySample[60];
+        for (int i = 0; i < samples.length; i++) {
+            MiBandActivitySample sample = sampleProvider.createActivitySample();
+            sample.setTimestamp(START + i * 60);
+            sample.setUserId(user.getId());
+            sample.setDeviceId(device.getId());
+            sample.setSteps(i);
+            samples[i] = sample;
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        File exportDir = FileUtils.createTempDir("incremental-export");
+        IncrementalExporter.Destination destination = IncrementalExporter.forFile(new File(exportDir, "Gadgetbridge.journal"));
+        IncrementalExporter exporter = new IncrementalExporter(new File(exportDir, IncrementalExporter.STATE_FILE_NAME));
+        exporter.export(destination);
+
+        // another database, where the devices got different ids
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        daoSession.getDeviceAttributesDao().deleteAll();
+        daoSession.getDeviceDao().deleteAll();
+        Device localDevice = DBHelper.getDevice(gbDevice, daoSession);
+        assertEquals(otherDevice.getId(), localDevice.getId());
+
+        exporter.importInto(daoSession, destination);
+        List<Device> devices = daoSession.getDeviceDao().loadAll();
+        assertEquals(2, devices.size());
+        assertEquals(localDevice.getId(), DBHelper.findDevice(gbDevice, daoSession).getId());
+        Device importedOtherDevice = DBHelper.findDevice(otherGBDevice, daoSession);
+        assertNotNull(importedOtherDevice);
+        assertFalse(localDevice.getId().equals(importedOtherDevice.getId()));
+        assertEquals(1, daoSession.getUserDao().count());
+
+        List<MiBandActivitySample> imported = new MiBandSampleProvider(gbDevice, daoSession).getAllActivitySamples(START, START + samples.length * 60);
+        assertEquals(samples.length, imported.size());
+        assertEquals(localDevice.getId().longValue(), imported.get(0).getDeviceId());
+        assertEquals(0, new MiBandSampleProvider(otherGBDevice, daoSession).getAllActivitySamples(START, START + samples.length * 60).size());
+    }
+}
@@ -108,4 +108,14 @@ public class NotificationListenerTest extends TestBase {
         filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_NONE);
         assertTrue(mNotificationListener.shouldContinueAfterFilter(body, wordList, filter));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldContinueAfterFilter_TestBlacklistFindAllWords_OverlappingWordsFound_MustReturnFalse() {
+        String body = "The ushers said hello";
+        NotificationFilter filter = new NotificationFilter();
+        filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST);
+        filter.setNotificationFilterSubMode(NotificationFilterActivity.NOTIFICATION_FILTER_SUBMODE_ALL);
+        assertFalse(mNotificationListener.shouldContinueAfterFilter(body, Arrays.asList("she", "he", "hers", "hell"), filter));
+        assertTrue(mNotificationListener.shouldContinueAfterFilter(body, Arrays.asList("she", "he", "hers", "his"), filter));
+    }
+}
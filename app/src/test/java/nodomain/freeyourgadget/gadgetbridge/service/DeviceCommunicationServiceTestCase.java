@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -13,18 +14,26 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_FIND_DEVICE;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_FIND_START;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_INTENT_SEQUENCE;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_BODY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 public class DeviceCommunicationServiceTestCase extends TestBase {
     private static final java.lang.String TEST_DEVICE_ADDRESS = TestDeviceSupport.class.getName();
+    private static final java.lang.String TEST_DEVICE_ADDRESS_2 = TEST_DEVICE_ADDRESS + ".2";
+    private static final long TIMEOUT_MILLIS = 1000;
 
     /**
-     * Factory that always returns the mockSupport instance
+     * Factory that returns mockSupport2 for the second test device and mockSupport for all others
      */
     private class TestDeviceSupportFactory extends DeviceSupportFactory {
         TestDeviceSupportFactory(Context context) {
@@ -33,7 +42,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
 
         @Override
         public synchronized DeviceSupport createDeviceSupport(GBDevice device) throws GBException {
-            return mockSupport;
+            return TEST_DEVICE_ADDRESS_2.equals(device.getAddress()) ? mockSupport2 : mockSupport;
         }
     }
 
@@ -41,6 +50,8 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Mock
     private TestDeviceSupport realSupport;
     private TestDeviceSupport mockSupport;
+    private TestDeviceSupport realSupport2;
+    private TestDeviceSupport mockSupport2;
 
     public DeviceCommunicationServiceTestCase() {
         super();
@@ -53,6 +64,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         realSupport = new TestDeviceSupport();
         realSupport.setContext(new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", DeviceType.TEST), null, getContext());
         mockSupport = Mockito.spy(realSupport);
+        realSupport2 = new TestDeviceSupport();
+        realSupport2.setContext(new GBDevice(TEST_DEVICE_ADDRESS_2, "Test Device 2", DeviceType.TEST), null, getContext());
+        mockSupport2 = Mockito.spy(realSupport2);
         DeviceCommunicationService.setDeviceSupportFactory(new TestDeviceSupportFactory(getContext()));
 
         mDeviceService = new TestDeviceService(getContext());
@@ -102,6 +116,142 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         inOrder.verifyNoMoreInteractions();
     }
 
+    private void connectBoth() {
+        ensureConnected();
+        mDeviceService.connect(realSupport2.getDevice());
+        Mockito.verify(mockSupport2, Mockito.times(1)).connect();
+        assertTrue(realSupport2.getDevice().isInitialized());
+    }
+
+    private NotificationSpec createNotificationSpec() {
+        NotificationSpec notificationSpec = new NotificationSpec();
+        notificationSpec.type = NotificationType.GENERIC_EMAIL;
+        notificationSpec.title = "Title";
+        notificationSpec.body = "Body";
+        return notificationSpec;
+    }
+
+    @Test
+    public void testNotificationGoesToAllDevices() {
+        connectBoth();
+
+        mDeviceService.onNotification(createNotificationSpec());
+
+        ArgumentCaptor<NotificationSpec> first = ArgumentCaptor.forClass(NotificationSpec.class);
+        ArgumentCaptor<NotificationSpec> second = ArgumentCaptor.forClass(NotificationSpec.class);
+        Mockito.verify(mockSupport, Mockito.timeout(TIMEOUT_MILLIS)).onNotification(first.capture());
+        Mockito.verify(mockSupport2, Mockito.timeout(TIMEOUT_MILLIS)).onNotification(second.capture());
+        assertEquals("Body", first.getValue().body);
+        assertEquals("Body", second.getValue().body);
+        assertNotSame(first.getValue(), second.getValue());
+    }
+
+    @Test
+    public void testDirectNotificationCopiedPerDevice() {
+        connectBoth();
+        DeviceCommunicationService.LocalBinder binder = (DeviceCommunicationService.LocalBinder) mDeviceService.getService().onBind(mDeviceService.createIntent());
+
+        NotificationSpec notificationSpec = createNotificationSpec();
+        binder.onNotification(notificationSpec, DeviceCommunicationService.getHandledIntentSequence());
+
+        ArgumentCaptor<NotificationSpec> first = ArgumentCaptor.forClass(NotificationSpec.class);
+        ArgumentCaptor<NotificationSpec> second = ArgumentCaptor.forClass(NotificationSpec.class);
+        Mockito.verify(mockSupport, Mockito.timeout(TIMEOUT_MILLIS)).onNotification(first.capture());
+        Mockito.verify(mockSupport2, Mockito.timeout(TIMEOUT_MILLIS)).onNotification(second.capture());
+        assertNotSame(first.getValue(), second.getValue());
+        assertEquals(notificationSpec.getId(), second.getValue().getId());
+        assertEquals("Title", first.getValue().title);
+        assertEquals("Title", second.getValue().title);
+    }
+
+    @Test
+    public void testForDeviceGoesToThatDeviceOnly() {
+        connectBoth();
+
+        mDeviceService.forDevice(getDevice()).onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.times(1)).onFindDevice(true);
+        Mockito.verify(mockSupport2, Mockito.never()).onFindDevice(true);
+    }
+
+    @Test
+    public void testDeviceActionWithoutTargetIsRejected() {
+        connectBoth();
+
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+        Mockito.verify(mockSupport2, Mockito.never()).onFindDevice(true);
+
+        // fine with only one device
+        mDeviceService.forDevice(getDevice()).disconnect();
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+        Mockito.verify(mockSupport2, Mockito.times(1)).onFindDevice(true);
+    }
+
+    @Test
+    public void testDisconnectedDeviceIsLeftOut() {
+        connectBoth();
+
+        mDeviceService.forDevice(getDevice()).disconnect();
+        Mockito.verify(mockSupport, Mockito.times(1)).dispose();
+        Mockito.verify(mockSupport2, Mockito.never()).dispose();
+
+        mDeviceService.onSetTime();
+        Mockito.verify(mockSupport, Mockito.never()).onSetTime();
+        Mockito.verify(mockSupport2, Mockito.times(1)).onSetTime();
+    }
+
+    @Test
+    public void testDeviceNotReadyIsLeftOut() {
+        connectBoth();
+
+        getDevice().setState(GBDevice.State.NOT_CONNECTED);
+        mDeviceService.onSetTime();
+        Mockito.verify(mockSupport, Mockito.never()).onSetTime();
+        Mockito.verify(mockSupport2, Mockito.times(1)).onSetTime();
+    }
+
+    @Test
+    public void testIntentsAreNumbered() {
+        ensureConnected();
+
+        long before = DeviceCommunicationService.getHandledIntentSequence();
+        mDeviceService.onFindDevice(true);
+        mDeviceService.onFindDevice(false);
+        assertEquals(before + 2, DeviceCommunicationService.getHandledIntentSequence());
+    }
+
+    @Test
+    public void testDirectCommandWaitsForEarlierIntent() {
+        ensureConnected();
+        DeviceCommunicationService.LocalBinder binder = (DeviceCommunicationService.LocalBinder) mDeviceService.getService().onBind(mDeviceService.createIntent());
+
+        // the intent sent before the direct command has not arrived yet
+        long next = DeviceCommunicationService.getHandledIntentSequence() + 1;
+        binder.onSetTime(next);
+        binder.onSetTime(next - 1);
+        Mockito.verify(mockSupport, Mockito.never()).onSetTime();
+
+        Intent intent = mDeviceService.createIntent().setAction(ACTION_FIND_DEVICE)
+                .putExtra(EXTRA_FIND_START, true)
+                .putExtra(EXTRA_INTENT_SEQUENCE, next);
+        mDeviceService.getService().onStartCommand(intent, 0, 1);
+
+        InOrder inOrder = Mockito.inOrder(mockSupport);
+        inOrder.verify(mockSupport, Mockito.times(1)).onFindDevice(true);
+        inOrder.verify(mockSupport, Mockito.times(2)).onSetTime();
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testDirectCommandAfterHandledIntent() {
+        ensureConnected();
+        DeviceCommunicationService.LocalBinder binder = (DeviceCommunicationService.LocalBinder) mDeviceService.getService().onBind(mDeviceService.createIntent());
+
+        binder.onSetTime(DeviceCommunicationService.getHandledIntentSequence());
+        Mockito.verify(mockSupport, Mockito.times(1)).onSetTime();
+    }
+
     @Test
     public void testTransliterationSupport() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
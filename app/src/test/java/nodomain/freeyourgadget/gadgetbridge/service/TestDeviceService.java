@@ -7,7 +7,9 @@ import android.content.Intent;
 import org.robolectric.Robolectric;
 import org.robolectric.android.controller.ServiceController;
 
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 
 /**
  * Extends GBDeviceServer so that communication with the service works
@@ -24,12 +26,23 @@ class TestDeviceService extends GBDeviceService {
         service = serviceController.create().get();
     }
 
+    private TestDeviceService(TestDeviceService parent, GBDevice targetDevice) {
+        super(parent.mContext, targetDevice);
+        serviceController = parent.serviceController;
+        service = parent.service;
+    }
+
     @Override
     protected void invokeService(Intent intent) {
+        // prepares the intent like for the real service, startService() itself does nothing here
+        super.invokeService(intent);
         // calling though to the service natively does not work with robolectric,
         // we have to use the ServiceController to do that
         service.onStartCommand(intent, Service.START_FLAG_REDELIVERY, (int) (Math.random() * 10000));
-        super.invokeService(intent);
+    }
+
+    DeviceCommunicationService getService() {
+        return service;
     }
 
     @Override
@@ -37,6 +50,12 @@ class TestDeviceService extends GBDeviceService {
         super.start();
     }
 
+    @Override
+    public DeviceService forDevice(GBDevice device) {
+        // keep talking to the same service instance
+        return new TestDeviceService(this, device);
+    }
+
     @Override
     protected void stopService(Intent intent) {
         super.stopService(intent);
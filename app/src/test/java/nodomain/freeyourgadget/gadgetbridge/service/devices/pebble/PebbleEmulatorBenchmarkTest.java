@@ -0,0 +1,146 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives PebbleSupport against PebbleEmulatorServer over TCP, checks that everything arrives
+ * intact and logs notification latency, PutBytes throughput and datalog ingestion rates.
+ */
+@Ignore("Manual benchmark -- opens a local TCP socket, run explicitly")
+public class PebbleEmulatorBenchmarkTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleEmulatorBenchmarkTest.class);
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int NOTIFICATION_COUNT = 20;
+    private static final int PUTBYTES_CHUNK_SIZE = 2000;
+    private static final int PUTBYTES_CHUNK_COUNT = 20;
+    private static final int DATALOG_PACKET_COUNT = 20;
+    private static final int DATALOG_ITEMS_PER_PACKET = 32;
+    private static final short DATALOG_ITEM_SIZE = 16;
+
+    private PebbleEmulatorServer server;
+    private PebbleSupport support;
+    private GBDevice device;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        server = new PebbleEmulatorServer();
+        server.start();
+        device = new GBDevice(server.getAddress(), "Pebble Emulator", DeviceType.PEBBLE);
+        support = new PebbleSupport();
+        support.setContext(device, null, getContext());
+        assertTrue(support.connect());
+        awaitInitialized();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        support.dispose();
+        server.close();
+        super.tearDown();
+    }
+
+    private void awaitInitialized() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (device.getState() != GBDevice.State.INITIALIZED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.isFirmwareVersionRequested());
+        assertEquals(GBDevice.State.INITIALIZED, device.getState());
+    }
+
+    @Test
+    public void testNotificationLatency() throws Exception {
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < NOTIFICATION_COUNT; i++) {
+            NotificationSpec notificationSpec = new NotificationSpec();
+            notificationSpec.type = NotificationType.UNKNOWN;
+            notificationSpec.sourceName = "Benchmark";
+            notificationSpec.title = "Title " + i;
+            notificationSpec.body = "Body of notification number " + i;
+
+            long start = System.nanoTime();
+            support.onNotification(notificationSpec);
+            long arrival = server.awaitNotificationInsert(TIMEOUT_MILLIS);
+            assertTrue("notification " + i + " did not arrive", arrival != -1);
+
+            long latency = arrival - start;
+            total += latency;
+            max = Math.max(max, latency);
+        }
+        assertEquals("every notification must be inserted under its own key", NOTIFICATION_COUNT, server.getNotificationKeys().size());
+        assertEquals("no notification must be sent twice", -1, server.awaitNotificationInsert(100));
+        LOG.info("Notification latency: avg " + (total / NOTIFICATION_COUNT / 1000) + "us, max " + (max / 1000) + "us");
+    }
+
+    @Test
+    public void testPutBytesThroughput() throws Exception {
+        PebbleIoThread ioThread = support.getDeviceIOThread();
+        // only used for encoding, the connected protocol instance is not reachable from here
+        PebbleProtocol protocol = new PebbleProtocol(device);
+        int size = PUTBYTES_CHUNK_SIZE * PUTBYTES_CHUNK_COUNT;
+        byte[] chunk = new byte[PUTBYTES_CHUNK_SIZE];
+        Arrays.fill(chunk, (byte) 0x5a);
+
+        long start = System.nanoTime();
+        ioThread.write(protocol.encodeUploadStart(PebbleProtocol.PUTBYTES_TYPE_BINARY, 0, size, null));
+        int token = server.awaitPutBytesToken(TIMEOUT_MILLIS);
+        assertTrue(token != -1);
+        for (int i = 0; i < PUTBYTES_CHUNK_COUNT; i++) {
+            ioThread.write(protocol.encodeUploadChunk(token, chunk, chunk.length));
+        }
+        ioThread.write(protocol.encodeUploadCommit(token, 0));
+        ioThread.write(protocol.encodeUploadComplete(token));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getPutBytesReceived() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(size, server.getPutBytesReceived());
+        CRC32 expectedCrc = new CRC32();
+        for (int i = 0; i < PUTBYTES_CHUNK_COUNT; i++) {
+            expectedCrc.update(chunk);
+        }
+        assertEquals(expectedCrc.getValue(), server.getPutBytesCrc());
+        LOG.info("PutBytes: " + size + " bytes in " + (elapsed / 1000000) + "ms (" + (size * 1000000000L / elapsed) + " bytes/s)");
+    }
+
+    @Test
+    public void testDatalogIngestion() throws Exception {
+        byte sessionId = 1;
+        server.openDatalogSession(sessionId, UUID.randomUUID(), 12345, PebbleProtocol.TYPE_BYTEARRAY, DATALOG_ITEM_SIZE);
+        assertEquals(1, server.awaitDatalogReplies(1, TIMEOUT_MILLIS));
+
+        byte[] items = new byte[DATALOG_ITEMS_PER_PACKET * DATALOG_ITEM_SIZE];
+        long start = System.nanoTime();
+        for (int i = 0; i < DATALOG_PACKET_COUNT; i++) {
+            server.sendDatalogData(sessionId, (DATALOG_PACKET_COUNT - i - 1) * DATALOG_ITEMS_PER_PACKET, items);
+        }
+        int acks = server.awaitDatalogReplies(DATALOG_PACKET_COUNT, TIMEOUT_MILLIS * 4);
+        long elapsed = System.nanoTime() - start;
+        server.closeDatalogSession(sessionId);
+
+        assertEquals(DATALOG_PACKET_COUNT, acks);
+        int itemCount = DATALOG_PACKET_COUNT * DATALOG_ITEMS_PER_PACKET;
+        LOG.info("Datalog: " + itemCount + " items in " + (elapsed / 1000000) + "ms (" + (itemCount * 1000000000L / elapsed) + " items/s)");
+    }
+}
@@ -0,0 +1,320 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A minimal stand-in for the Pebble emulator (QEMU) that PebbleIoThread can connect to via
+ * "host:port". It speaks just enough of the protocol to keep the phone side happy:
+ * firmware version, app message ACKs, PutBytes, BlobDB and datalog ACKs.
+ *
+ * All frames are wrapped the way the emulator does it: 0xfeed, protocol, length, frame, 0xbeef.
+ */
+class PebbleEmulatorServer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleEmulatorServer.class);
+
+    private static final short QEMU_HEADER = (short) 0xfeed;
+    private static final short QEMU_FOOTER = (short) 0xbeef;
+    private static final short QEMU_PROTOCOL_SPP = 1;
+
+    private static final short ENDPOINT_FIRMWAREVERSION = 16;
+    private static final short ENDPOINT_APPLICATIONMESSAGE = 48;
+    private static final short ENDPOINT_DATALOG = 6778;
+    private static final short ENDPOINT_BLOBDB = (short) 0xb1db;
+    private static final short ENDPOINT_PUTBYTES = (short) 0xbeef;
+
+    private static final byte APPLICATIONMESSAGE_PUSH = 1;
+    private static final byte APPLICATIONMESSAGE_ACK = (byte) 0xff;
+
+    private static final byte PUTBYTES_INIT = 1;
+    private static final byte PUTBYTES_SEND = 2;
+    private static final byte PUTBYTES_ABORT = 4;
+    private static final byte PUTBYTES_ACK = 1;
+
+    private static final byte DATALOG_OPENSESSION = 0x01;
+    private static final byte DATALOG_SENDDATA = 0x02;
+    private static final byte DATALOG_CLOSE = 0x03;
+    private static final byte DATALOG_ACK = (byte) 0x85;
+    private static final byte DATALOG_NACK = (byte) 0x86;
+
+    private static final byte BLOBDB_INSERT = 1;
+    private static final byte BLOBDB_NOTIFICATION = 4;
+    private static final byte BLOBDB_SUCCESS = 1;
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    private volatile boolean quit;
+    private volatile Socket socket;
+    private volatile OutputStream outStream;
+
+    private final BlockingQueue<Long> blobDbNotificationInserts = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> putBytesTokens = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Byte> datalogReplies = new LinkedBlockingQueue<>();
+    private volatile boolean firmwareVersionRequested;
+    private volatile long putBytesReceived;
+    private final CRC32 putBytesCrc = new CRC32();
+    private final Set<UUID> notificationKeys = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private int nextPutBytesToken = 1;
+
+    PebbleEmulatorServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(this, "PebbleEmulatorServer");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    String getAddress() {
+        return "127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    boolean isFirmwareVersionRequested() {
+        return firmwareVersionRequested;
+    }
+
+    long getPutBytesReceived() {
+        return putBytesReceived;
+    }
+
+    /**
+     * Returns the CRC32 of all PutBytes payload received so far.
+     */
+    long getPutBytesCrc() {
+        synchronized (putBytesCrc) {
+            return putBytesCrc.getValue();
+        }
+    }
+
+    /**
+     * Returns the distinct BlobDB keys of all notifications inserted so far.
+     */
+    Set<UUID> getNotificationKeys() {
+        return notificationKeys;
+    }
+
+    /**
+     * Waits for the next notification inserted into BlobDB and returns the System.nanoTime()
+     * at which it arrived, or -1 on timeout.
+     */
+    long awaitNotificationInsert(long timeoutMillis) throws InterruptedException {
+        Long arrival = blobDbNotificationInserts.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        return arrival != null ? arrival : -1;
+    }
+
+    /**
+     * Waits for the token handed out for the next PutBytes transfer, or -1 on timeout.
+     */
+    int awaitPutBytesToken(long timeoutMillis) throws InterruptedException {
+        Integer token = putBytesTokens.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        return token != null ? token : -1;
+    }
+
+    /**
+     * Waits for the given amount of datalog replies and returns how many of them were ACKs.
+     */
+    int awaitDatalogReplies(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        int acks = 0;
+        for (int i = 0; i < count; i++) {
+            Byte reply = datalogReplies.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (reply == null) {
+                break;
+            }
+            if (reply == DATALOG_ACK) {
+                acks++;
+            }
+        }
+        return acks;
+    }
+
+    void openDatalogSession(byte id, UUID uuid, int tag, byte itemType, short itemSize) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(29);
+        buf.put(DATALOG_OPENSESSION);
+        buf.put(id);
+        buf.putLong(uuid.getMostSignificantBits());
+        buf.putLong(uuid.getLeastSignificantBits());
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt((int) (System.currentTimeMillis() / 1000));
+        buf.putInt(tag);
+        buf.put(itemType);
+        buf.putShort(itemSize);
+        send(ENDPOINT_DATALOG, buf.array());
+    }
+
+    void sendDatalogData(byte id, int itemsLeft, byte[] items) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(10 + items.length);
+        buf.put(DATALOG_SENDDATA);
+        buf.put(id);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(itemsLeft);
+        buf.putInt(0); // crc, not checked
+        buf.put(items);
+        send(ENDPOINT_DATALOG, buf.array());
+    }
+
+    void closeDatalogSession(byte id) throws IOException {
+        send(ENDPOINT_DATALOG, new byte[]{DATALOG_CLOSE, id});
+    }
+
+    void close() {
+        quit = true;
+        try {
+            serverSocket.close();
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("error closing emulator socket", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = serverSocket.accept();
+            outStream = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (!quit) {
+                short header = in.readShort();
+                in.readShort(); // protocol
+                int length = in.readUnsignedShort();
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                short footer = in.readShort();
+                if (header != QEMU_HEADER || footer != QEMU_FOOTER) {
+                    LOG.warn("invalid emulator framing");
+                    continue;
+                }
+                handleFrame(ByteBuffer.wrap(frame));
+            }
+        } catch (IOException e) {
+            if (!quit) {
+                LOG.warn("emulator connection closed", e);
+            }
+        }
+    }
+
+    private void handleFrame(ByteBuffer buf) throws IOException {
+        buf.getShort(); // length
+        short endpoint = buf.getShort();
+        switch (endpoint) {
+            case ENDPOINT_FIRMWAREVERSION:
+                firmwareVersionRequested = true;
+                send(ENDPOINT_FIRMWAREVERSION, encodeFirmwareVersion("v4.3"));
+                break;
+            case ENDPOINT_APPLICATIONMESSAGE:
+                byte command = buf.get();
+                byte id = buf.get();
+                if (command == APPLICATIONMESSAGE_PUSH) {
+                    ByteBuffer ack = ByteBuffer.allocate(18);
+                    ack.put(APPLICATIONMESSAGE_ACK);
+                    ack.put(id);
+                    ack.putLong(buf.getLong());
+                    ack.putLong(buf.getLong());
+                    send(ENDPOINT_APPLICATIONMESSAGE, ack.array());
+                }
+                break;
+            case ENDPOINT_PUTBYTES:
+                handlePutBytes(buf);
+                break;
+            case ENDPOINT_BLOBDB:
+                handleBlobDb(buf);
+                break;
+            case ENDPOINT_DATALOG:
+                byte reply = buf.get();
+                if (reply == DATALOG_ACK || reply == DATALOG_NACK) {
+                    datalogReplies.add(reply);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handlePutBytes(ByteBuffer buf) throws IOException {
+        byte command = buf.get();
+        int token;
+        if (command == PUTBYTES_INIT) {
+            token = nextPutBytesToken++;
+            putBytesTokens.add(token);
+        } else {
+            token = buf.getInt();
+            if (command == PUTBYTES_SEND) {
+                int length = buf.getInt();
+                synchronized (putBytesCrc) {
+                    putBytesCrc.update(buf.array(), buf.position(), length);
+                }
+                putBytesReceived += length;
+            } else if (command == PUTBYTES_ABORT) {
+                return;
+            }
+        }
+        ByteBuffer reply = ByteBuffer.allocate(5);
+        reply.put(PUTBYTES_ACK);
+        reply.putInt(token);
+        send(ENDPOINT_PUTBYTES, reply.array());
+    }
+
+    private void handleBlobDb(ByteBuffer buf) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        byte command = buf.get();
+        short token = buf.getShort();
+        byte db = buf.get();
+        if (command == BLOBDB_INSERT && db == BLOBDB_NOTIFICATION) {
+            buf.get(); // key length, always 16 for notifications
+            buf.order(ByteOrder.BIG_ENDIAN);
+            notificationKeys.add(new UUID(buf.getLong(), buf.getLong()));
+            blobDbNotificationInserts.add(System.nanoTime());
+        }
+        ByteBuffer reply = ByteBuffer.allocate(3);
+        reply.order(ByteOrder.LITTLE_ENDIAN);
+        reply.putShort(token);
+        reply.put(BLOBDB_SUCCESS);
+        send(ENDPOINT_BLOBDB, reply.array());
+    }
+
+    private byte[] encodeFirmwareVersion(String version) {
+        ByteBuffer buf = ByteBuffer.allocate(47);
+        buf.put((byte) 1);
+        buf.putInt((int) (System.currentTimeMillis() / 1000));
+        byte[] versionBytes = version.getBytes();
+        buf.put(versionBytes, 0, Math.min(32, versionBytes.length));
+        buf.position(46);
+        buf.put((byte) -3); // hardware revision
+        return buf.array();
+    }
+
+    private synchronized void send(short endpoint, byte[] payload) throws IOException {
+        if (outStream == null) {
+            throw new IOException("no client connected");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(6 + 4 + payload.length + 2);
+        buf.putShort(QEMU_HEADER);
+        buf.putShort(QEMU_PROTOCOL_SPP);
+        buf.putShort((short) (4 + payload.length));
+        buf.putShort((short) payload.length);
+        buf.putShort(endpoint);
+        buf.put(payload);
+        buf.putShort(QEMU_FOOTER);
+        outStream.write(buf.array());
+        outStream.flush();
+    }
+}
@@ -6,6 +6,8 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.URL;
 import java.util.Date;
 import java.util.List;
@@ -13,15 +15,20 @@ import java.util.List;
 import nodomain.freeyourgadget.gadgetbridge.devices.amazfitbip.BipActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
 import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.amazfitbip.ActivityDetailsParser;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.readString;
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.withoutMetadata;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class ActivityDetailsParserTest extends TestBase {
@@ -100,6 +107,114 @@ public class ActivityDetailsParserTest extends TestBase {
 
     }
 
+    @Test
+    public void testDecimalDegrees() {
+        for (long value = -540000000L; value <= 540000000L; value += 997) {
+            for (long huamiValue = value; huamiValue < value + 3; huamiValue++) {
+                double expected = new BigDecimal(huamiValue).divide(ActivityDetailsParser.HUAMI_TO_DECIMAL_DEGREES_DIVISOR, GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP).doubleValue();
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(ActivityDetailsParser.convertHuamiValueToDecimalDegrees(huamiValue)));
+            }
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        BipActivitySummary summary = createSummary();
+        ActivityDetailsParser parser = new ActivityDetailsParser(summary);
+        parser.setSkipCounterByte(true);
+        ActivityDetailsParser.ActivityDetails details;
+        try (InputStream in = getContents(DETAILS_1)) {
+            details = parser.decode(FileUtils.readAll(in, MAX_DETAILS));
+        }
+
+        assertEquals(972, details.size());
+
+        // heart rate in the 'new' version format, before the first location
+        assertEquals(7, details.getTimeOffset(0));
+        assertEquals(71, details.getHeartRate(0));
+        assertFalse(details.hasLocation(0));
+
+        // the first location is the base location (scaled to 1e-6 degrees), its time is fixed up
+        assertEquals(0, details.getTimeOffset(15));
+        assertLocation(details, 15, 0, 0, 1);
+        assertEquals(0, details.getHeartRate(15));
+        assertEquals(12, details.getTimeOffset(25));
+        assertLocation(details, 25, -141, 810, 1);
+
+        // the first location with a proper timestamp
+        assertEquals(19, details.getTimeOffset(31));
+        assertLocation(details, 31, -196, 1362, 1);
+
+        assertEquals(554, details.getTimeOffset(500));
+        assertLocation(details, 500, 32413, 21656, 1);
+        assertEquals(84, details.getHeartRate(500));
+
+        assertEquals(1439, details.getTimeOffset(971));
+        assertFalse(details.hasLocation(971));
+        assertEquals(89, details.getHeartRate(971));
+
+        int locations = 0;
+        long timeOffsetSum = 0;
+        long heartRateSum = 0;
+        long locationSum = 0;
+        for (int i = 0; i < details.size(); i++) {
+            timeOffsetSum += details.getTimeOffset(i);
+            heartRateSum += details.getHeartRate(i);
+            if (details.hasLocation(i)) {
+                locations++;
+                locationSum += details.getScaledLongitude(i) + details.getScaledLatitude(i) + details.getAltitude(i);
+            }
+        }
+        assertEquals(535, locations);
+        assertEquals(586542, timeOffsetSum);
+        assertEquals(61500, heartRateSum);
+        assertEquals(16728401, locationSum);
+    }
+
+    private void assertLocation(ActivityDetailsParser.ActivityDetails details, int index, long longitude, long latitude, int altitude) {
+        assertTrue(details.hasLocation(index));
+        assertEquals(longitude, details.getScaledLongitude(index));
+        assertEquals(latitude, details.getScaledLatitude(index));
+        assertEquals(altitude, details.getAltitude(index));
+    }
+
+    @Test
+    public void testStreamingGPXExport() throws Exception {
+        BipActivitySummary summary = createSummary();
+        byte[] bytes;
+        try (InputStream in = getContents(DETAILS_1)) {
+            bytes = FileUtils.readAll(in, MAX_DETAILS);
+        }
+
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(getClass().getName());
+        ActivityDetailsParser parser = new ActivityDetailsParser(summary);
+        parser.setSkipCounterByte(true);
+        File expectedFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        expectedFile.deleteOnExit();
+        exporter.performExport(parser.parse(bytes), expectedFile);
+
+        parser = new ActivityDetailsParser(summary);
+        parser.setSkipCounterByte(true);
+        File targetFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        targetFile.deleteOnExit();
+        final ActivityTrackExporter.TrackWriter writer = exporter.startExport(parser.createActivityTrack(), targetFile);
+        parser.setTrackPointListener(new ActivityDetailsParser.TrackPointListener() {
+            @Override
+            public void onTrackPoint(ActivityPoint point) throws IOException {
+                writer.addTrackPoint(point);
+            }
+        });
+        // like the notifications of the band, without the counter
+        for (int offset = 0; offset < bytes.length; offset += 19) {
+            parser.feed(bytes, offset, Math.min(19, bytes.length - offset));
+        }
+        parser.finish();
+        writer.finish();
+
+        assertEquals(withoutMetadata(readString(expectedFile)), withoutMetadata(readString(targetFile)));
+    }
+
     private InputStream getContents(URL hexFile) throws IOException {
         return new HexToBinaryInputStream(hexFile.openStream());
     }
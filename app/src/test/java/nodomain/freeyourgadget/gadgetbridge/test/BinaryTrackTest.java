@@ -0,0 +1,122 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import android.util.Xml;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.BinaryTrackReader;
+import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.createTrack;
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.readString;
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.withoutMetadata;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryTrackTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryTrackTest.class);
+
+    private static final int SECONDS = 6 * 60 * 60;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ActivityTrack track = createTrack(SECONDS);
+        File binaryFile = File.createTempFile("gadgetbridge-track", BinaryTrackExporter.FILE_EXTENSION);
+        binaryFile.deleteOnExit();
+        new BinaryTrackExporter().performExport(track, binaryFile);
+
+        ActivityTrack read = BinaryTrackReader.readTrack(binaryFile);
+        assertEquals(track.getName(), read.getName());
+        assertEquals("Elvis", read.getUser().getName());
+        assertEquals("SuperBand 2000", read.getDevice().getName());
+        assertEquals(track.getBaseTime(), read.getBaseTime());
+        List<ActivityPoint> points = read.getTrackPoints();
+        assertEquals(SECONDS, points.size());
+        for (int i = 0; i < SECONDS; i++) {
+            ActivityPoint expected = track.getTrackPoints().get(i);
+            ActivityPoint actual = points.get(i);
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getHeartRate(), actual.getHeartRate());
+            assertEquals(expected.getDescription(), actual.getDescription());
+            assertEquals(expected.getLocation().getLongitude(), actual.getLocation().getLongitude(), 0.0000005);
+            assertEquals(expected.getLocation().getLatitude(), actual.getLocation().getLatitude(), 0.0000005);
+            assertEquals(expected.getLocation().getAltitude(), actual.getLocation().getAltitude(), 0.0000005);
+        }
+    }
+
+    @Test
+    public void testGPXFromBinary() throws Exception {
+        ActivityTrack track = createTrack(SECONDS);
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(getClass().getName());
+        File gpxFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        gpxFile.deleteOnExit();
+        exporter.performExport(track, gpxFile);
+        File binaryFile = File.createTempFile("gadgetbridge-track", BinaryTrackExporter.FILE_EXTENSION);
+        binaryFile.deleteOnExit();
+        new BinaryTrackExporter().performExport(track, binaryFile);
+
+        File generatedFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        generatedFile.deleteOnExit();
+        BinaryTrackReader.export(binaryFile, exporter, generatedFile);
+        assertEquals(withoutMetadata(readString(gpxFile)), withoutMetadata(readString(generatedFile)));
+
+        assertEquals(SECONDS, countGPXTrackPoints(gpxFile));
+        assertEquals(SECONDS, BinaryTrackReader.readTrack(binaryFile).getTrackPoints().size());
+        assertTrue(binaryFile.length() * 10 < gpxFile.length());
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the read times of a 6 hour track as GPX and binary, run explicitly")
+    public void testReadBenchmark() throws Exception {
+        ActivityTrack track = createTrack(SECONDS);
+        File gpxFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        gpxFile.deleteOnExit();
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(getClass().getName());
+        exporter.performExport(track, gpxFile);
+        File binaryFile = File.createTempFile("gadgetbridge-track", BinaryTrackExporter.FILE_EXTENSION);
+        binaryFile.deleteOnExit();
+        new BinaryTrackExporter().performExport(track, binaryFile);
+
+        long start = System.nanoTime();
+        int gpxPoints = countGPXTrackPoints(gpxFile);
+        long gpxNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        int binaryPoints = BinaryTrackReader.readTrack(binaryFile).getTrackPoints().size();
+        long binaryNanos = System.nanoTime() - start;
+
+        assertEquals(SECONDS, gpxPoints);
+        assertEquals(SECONDS, binaryPoints);
+        LOG.info("Track with " + SECONDS + " points: GPX " + gpxFile.length() + " bytes, read in " + (gpxNanos / 1000000)
+                + "ms, binary " + binaryFile.length() + " bytes, read in " + (binaryNanos / 1000000) + "ms");
+    }
+
+    private int countGPXTrackPoints(File gpxFile) throws Exception {
+        int count = 0;
+        try (InputStream in = new FileInputStream(gpxFile)) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(in, "UTF-8");
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG && "trkpt".equals(parser.getName())) {
+                    Double.parseDouble(parser.getAttributeValue(null, "lon"));
+                    Double.parseDouble(parser.getAttributeValue(null, "lat"));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -1,17 +1,25 @@
 package nodomain.freeyourgadget.gadgetbridge.test;
 
+import android.content.Intent;
+
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncState;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.CalendarReceiver;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEvents;
 
 import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class CalendarEventTest extends TestBase {
     private static final long BEGIN = 1;
@@ -51,4 +59,99 @@ public class CalendarEventTest extends TestBase {
         assertEquals(2, calendarSyncStateDao.count());
     }
 
+    @Test
+    public void testSyncChangesAndDeletes() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:01:00:04");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+        CalendarReceiver testCR = new CalendarReceiver(dummyGBDevice);
+
+        List<CalendarEvents.CalendarEvent> eventList = new ArrayList<>();
+        eventList.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, null, "something", null, CALNAME_1, false));
+        eventList.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_2, null, "something", null, CALNAME_1, false));
+        testCR.syncCalendar(eventList);
+
+        CalendarEvents.CalendarEvent changed = new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, null, "something else", null, CALNAME_1, false);
+        eventList.clear();
+        eventList.add(changed);
+        testCR.syncCalendar(eventList);
+
+        List<CalendarSyncState> states = daoSession.getCalendarSyncStateDao().queryBuilder()
+                .where(CalendarSyncStateDao.Properties.DeviceId.eq(DBHelper.getDevice(dummyGBDevice, daoSession).getId())).list();
+        assertEquals(1, states.size());
+        assertEquals(ID_1, (long) states.get(0).getCalendarEntryId());
+        assertEquals(changed.hashCode(), states.get(0).getHash());
+    }
+
+    @Test
+    public void testUpdateComparesWithSyncedEvents() {
+        CalendarEvents calendarEvents = new CalendarEvents();
+        CalendarEvents.CalendarEvent e1 = new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, "something", null, null, CALNAME_1, false);
+        CalendarEvents.CalendarEvent e2 = new CalendarEvents.CalendarEvent(BEGIN, END, ID_2, "something", null, null, CALNAME_1, false);
+        List<CalendarEvents.CalendarEvent> eventList = new ArrayList<>();
+        eventList.add(e1);
+        eventList.add(e2);
+
+        calendarEvents.update(eventList);
+        assertTrue(calendarEvents.hasChanged());
+        assertEquals(2, calendarEvents.getChangedEventCount());
+
+        // not synced yet, so still changed
+        List<CalendarEvents.CalendarEvent> copies = new ArrayList<>();
+        copies.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, "something", null, null, CALNAME_1, false));
+        copies.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_2, "something", null, null, CALNAME_1, false));
+        List<CalendarEvents.CalendarEvent> result = calendarEvents.update(copies);
+        assertTrue(calendarEvents.hasChanged());
+        assertNotSame(e1, result.get(0));
+
+        calendarEvents.markSynced();
+        result = calendarEvents.update(eventList);
+        assertFalse(calendarEvents.hasChanged());
+        assertEquals(0, calendarEvents.getChangedEventCount());
+        assertSame(copies.get(0), result.get(0));
+        assertSame(copies.get(1), result.get(1));
+
+        eventList.set(0, new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, "something else", null, null, CALNAME_1, false));
+        result = calendarEvents.update(eventList);
+        assertTrue(calendarEvents.hasChanged());
+        assertEquals(1, calendarEvents.getChangedEventCount());
+        assertSame(eventList.get(0), result.get(0));
+        assertSame(copies.get(1), result.get(1));
+
+        // a removed instance is a change, too
+        result = calendarEvents.update(copies.subList(0, 1));
+        assertTrue(calendarEvents.hasChanged());
+        assertEquals(0, calendarEvents.getChangedEventCount());
+    }
+
+    @Test
+    public void testFailedSyncIsRetried() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:01:00:05");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+        // the constructor syncs the (empty) calendar for the first time, which fails
+        CountingCalendarReceiver testCR = new CountingCalendarReceiver(dummyGBDevice);
+        assertEquals(1, testCR.syncCount);
+
+        testCR.syncSucceeds = true;
+        testCR.onReceive(getContext(), new Intent());
+        assertEquals(2, testCR.syncCount);
+
+        testCR.onReceive(getContext(), new Intent());
+        assertEquals(2, testCR.syncCount);
+    }
+
+    private static class CountingCalendarReceiver extends CalendarReceiver {
+        // no initializers, the super constructor already syncs
+        private int syncCount;
+        private boolean syncSucceeds;
+
+        CountingCalendarReceiver(GBDevice gbDevice) {
+            super(gbDevice);
+        }
+
+        @Override
+        public boolean syncCalendar(List<CalendarEvents.CalendarEvent> eventList) {
+            syncCount++;
+            return syncSucceeds;
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.robolectric.util.ReflectionHelpers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
+import nodomain.freeyourgadget.gadgetbridge.devices.id115.ID115Constants;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandService;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceCandidate;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DeviceHelperTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceHelperTest.class);
+
+    @Test
+    public void testCoordinatorByType() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        GBDevice miBand = new GBDevice("00:11:22:33:44:55", "MI", DeviceType.MIBAND);
+        assertEquals(DeviceType.MIBAND, helper.getCoordinator(miBand).getDeviceType());
+        GBDevice unknown = new GBDevice("00:11:22:33:44:56", "Test", DeviceType.TEST);
+        assertEquals(DeviceType.UNKNOWN, helper.getCoordinator(unknown).getDeviceType());
+    }
+
+    @Test
+    public void testScanReplayMatchesAllCoordinators() {
+        List<GBDeviceCandidate> scan = createScan();
+        DeviceHelper helper = DeviceHelper.getInstance();
+        List<DeviceCoordinator> expected = findByAskingAll(helper, scan);
+
+        for (int i = 0; i < scan.size(); i++) {
+            DeviceCoordinator coordinator = helper.getCoordinator(scan.get(i));
+            if (expected.get(i) == null) {
+                assertEquals(DeviceType.UNKNOWN, coordinator.getDeviceType());
+            } else {
+                assertSame(expected.get(i), coordinator);
+            }
+        }
+        assertEquals(DeviceType.MIBAND, helper.getSupportedType(scan.get(1)));
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the time of the coordinator lookups, run explicitly")
+    public void testCoordinatorLookupBenchmark() {
+        List<GBDeviceCandidate> scan = createScan();
+        DeviceHelper helper = DeviceHelper.getInstance();
+
+        long start = System.nanoTime();
+        findByAskingAll(helper, scan);
+        long linear = System.nanoTime() - start;
+
+        // the first round fills the candidate memo, the later ones hit it
+        start = System.nanoTime();
+        for (GBDeviceCandidate candidate : scan) {
+            helper.getCoordinator(candidate);
+        }
+        long memo = System.nanoTime() - start;
+
+        GBDevice[] devices = new GBDevice[]{
+                new GBDevice("00:11:22:33:44:55", "MI", DeviceType.MIBAND),
+                new GBDevice("00:11:22:33:44:56", "Pebble", DeviceType.PEBBLE),
+                new GBDevice("00:11:22:33:44:57", "Bip", DeviceType.AMAZFITBIP),
+        };
+        int rounds = 10000;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            helper.getCoordinator(devices[i % devices.length]);
+        }
+        long byType = System.nanoTime() - start;
+
+        LOG.info("Resolving " + scan.size() + " advertisements: " + (linear / 1000) + "us by asking all coordinators, "
+                + (memo / 1000) + "us with DeviceHelper; " + (byType / rounds) + "ns per lookup by device type");
+    }
+
+    /**
+     * 60 devices around, each advertising 10 times.
+     */
+    private List<GBDeviceCandidate> createScan() {
+        ParcelUuid[][] services = new ParcelUuid[][]{
+                new ParcelUuid[0],
+                new ParcelUuid[]{new ParcelUuid(MiBandService.UUID_SERVICE_MIBAND_SERVICE)},
+                new ParcelUuid[]{new ParcelUuid(HuamiService.UUID_SERVICE_MIBAND2_SERVICE)},
+                new ParcelUuid[]{new ParcelUuid(ID115Constants.UUID_SERVICE_ID115)},
+        };
+        List<GBDeviceCandidate> scan = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 60; i++) {
+                BluetoothDevice device = ReflectionHelpers.callConstructor(BluetoothDevice.class,
+                        ReflectionHelpers.ClassParameter.from(String.class, String.format("00:11:22:33:44:%02X", i)));
+                scan.add(new GBDeviceCandidate(device, (short) -60, services[i % services.length]));
+            }
+        }
+        return scan;
+    }
+
+    private List<DeviceCoordinator> findByAskingAll(DeviceHelper helper, List<GBDeviceCandidate> scan) {
+        List<DeviceCoordinator> expected = new ArrayList<>(scan.size());
+        for (GBDeviceCandidate candidate : scan) {
+            DeviceCoordinator found = null;
+            for (DeviceCoordinator coordinator : helper.getAllCoordinators()) {
+                if (coordinator.supports(candidate)) {
+                    found = coordinator;
+                    break;
+                }
+            }
+            expected.add(found);
+        }
+        return expected;
+    }
+}
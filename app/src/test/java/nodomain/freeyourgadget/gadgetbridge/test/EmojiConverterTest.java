@@ -0,0 +1,66 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.util.EmojiConverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the conversion of the emoji that have a simple ASCII replacement, which wins over
+ * the aliases of the android-emojify data.
+ */
+public class EmojiConverterTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(EmojiConverterTest.class);
+
+    private static final String[][] CONVERSIONS = {
+            {"", ""},
+            {"\uD83D\uDE00", ":-D"},
+            {"See you tomorrow \uD83D\uDE09\uD83D\uDE18 \u2764", "See you tomorrow ;-);-* <3"},
+            {"\u2639\u2639 no \uD83D\uDE2D\uD83D\uDE32!", ":-(:-( no :'(X-o!"},
+            {"\uD83D\uDE42\uD83D\uDE43", ":)(-:"},
+            {"\uD83D\uDE07 first and last \uD83D\uDE1B", "O:-) first and last :-P"},
+            {"\u00C4rger \u00FCber \u00F6ffentliche \u00DCberweisung \uD83D\uDE20", "\u00C4rger \u00FCber \u00F6ffentliche \u00DCberweisung :-@"},
+    };
+
+    @Test
+    public void testSimpleConversion() {
+        for (String[] conversion : CONVERSIONS) {
+            assertEquals(conversion[1], EmojiConverter.convertUnicodeEmojiToAscii(conversion[0], getContext()));
+        }
+    }
+
+    @Test
+    public void testTextWithoutEmojiIsReturnedAsIs() {
+        String text = "Plain ASCII text without any emoji at all";
+        assertSame(text, EmojiConverter.convertUnicodeEmojiToAscii(text, getContext()));
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the time of the emoji conversion, run explicitly")
+    public void testConversionBenchmark() {
+        String[] samples = {
+                "Plain ASCII text without any emoji at all",
+                "See you tomorrow \uD83D\uDE09\uD83D\uDE18 \u2764\uFE0F",
+                "Pizza \uD83C\uDF55 is not in the simple mapping \uD83D\uDE42",
+                "\u00C4rger \u00FCber \u00F6ffentliche \u00DCberweisung \uD83D\uDE20",
+        };
+        // warm up, also loads the emoji data
+        for (String sample : samples) {
+            EmojiConverter.convertUnicodeEmojiToAscii(sample, getContext());
+        }
+        int rounds = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String sample : samples) {
+                EmojiConverter.convertUnicodeEmojiToAscii(sample, getContext());
+            }
+        }
+        long duration = System.nanoTime() - start;
+        LOG.info("Converted " + rounds * samples.length + " texts in " + duration / 1000000 + "ms");
+    }
+}
@@ -0,0 +1,81 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionInputStream;
+import nodomain.freeyourgadget.gadgetbridge.util.FramedCompressionOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramedCompressionTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(FramedCompressionTest.class);
+
+    private byte[] createData() {
+        // like database pages: repetitive records with some noise, plus a random tail
+        Random random = new Random(42);
+        byte[] data = new byte[3 * 1024 * 1024 + 123];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i > data.length - 100000 ? random.nextInt() : (i % 16 == 0 ? random.nextInt(4) : i % 7));
+        }
+        return data;
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FramedCompressionOutputStream out = new FramedCompressionOutputStream(bytes)) {
+            out.write(data, 0, 1000);
+            out.write(data[1000]);
+            out.write(data, 1001, data.length - 1001);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = createData();
+        long start = System.nanoTime();
+        byte[] compressed = compress(data);
+        long compressTime = System.nanoTime() - start;
+        assertTrue(FramedCompressionInputStream.isFramed(compressed));
+
+        start = System.nanoTime();
+        byte[] decompressed;
+        try (InputStream in = new FramedCompressionInputStream(new ByteArrayInputStream(compressed))) {
+            decompressed = FileUtils.readAll(in, Long.MAX_VALUE);
+        }
+        long decompressTime = System.nanoTime() - start;
+        assertArrayEquals(data, decompressed);
+        LOG.info("Compressed " + data.length + " bytes to " + compressed.length + " in " + (compressTime / 1000000)
+                + "ms, decompressed in " + (decompressTime / 1000000) + "ms");
+    }
+
+    @Test
+    public void testCorruptionDetected() throws Exception {
+        byte[] compressed = compress(createData());
+        byte[] truncated = new byte[compressed.length - 4];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        // a flipped bit in the first compressed frame
+        byte[] corrupted = compressed.clone();
+        corrupted[100] ^= 0x10;
+
+        for (byte[] broken : new byte[][]{truncated, corrupted}) {
+            try (InputStream in = new FramedCompressionInputStream(new ByteArrayInputStream(broken))) {
+                FileUtils.readAll(in, Long.MAX_VALUE);
+                fail("corruption not detected");
+            } catch (IOException expected) {
+                LOG.info("Detected: " + expected.getMessage());
+            }
+        }
+    }
+}
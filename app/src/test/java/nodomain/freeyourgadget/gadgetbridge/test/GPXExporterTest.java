@@ -0,0 +1,77 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.createTrack;
+import static nodomain.freeyourgadget.gadgetbridge.test.TrackTestUtils.readString;
+import static org.junit.Assert.assertEquals;
+
+public class GPXExporterTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(GPXExporterTest.class);
+
+    private static final int SECONDS = 6 * 60 * 60;
+    // no heart rate for 10 minutes after the first hour
+    private static final int GAP_START = 60 * 60;
+    private static final int GAP_END = GAP_START + 10 * 60;
+
+    @Test
+    public void testHeartRateMerge() throws Exception {
+        ActivityTrack track = createTrack(SECONDS, GAP_START, GAP_END);
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(getClass().getName());
+        File targetFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        targetFile.deleteOnExit();
+
+        exporter.performExport(track, targetFile);
+
+        String[] trackPoints = readString(targetFile).split("<trkpt");
+        assertEquals(SECONDS + 1, trackPoints.length);
+        for (int i = 0; i < SECONDS; i++) {
+            int expected;
+            if (i < GAP_START || i >= GAP_END) {
+                expected = 100 + (i - i % 5) % 50;
+            } else {
+                // samples at most 2min old are used
+                int lastSample = GAP_START - 5;
+                expected = i - lastSample < 120 ? 100 + lastSample % 50 : -1;
+            }
+            assertEquals("point " + i, expected, parseHeartRate(trackPoints[i + 1]));
+        }
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the export time of a 6 hour track, run explicitly")
+    public void testHeartRateMergeBenchmark() throws Exception {
+        ActivityTrack track = createTrack(SECONDS, GAP_START, GAP_END);
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(getClass().getName());
+        File targetFile = File.createTempFile("gadgetbridge-track", ".gpx");
+        targetFile.deleteOnExit();
+        // warm up
+        exporter.performExport(track, targetFile);
+
+        int rounds = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            exporter.performExport(track, targetFile);
+        }
+        LOG.info("Exported " + SECONDS + " track points in " + ((System.nanoTime() - start) / rounds / 1000000) + "ms");
+    }
+
+    private int parseHeartRate(String trackPoint) {
+        int start = trackPoint.indexOf(":hr>");
+        if (start < 0) {
+            return -1;
+        }
+        int end = trackPoint.indexOf('<', start);
+        return Integer.parseInt(trackPoint.substring(start + 4, end));
+    }
+}
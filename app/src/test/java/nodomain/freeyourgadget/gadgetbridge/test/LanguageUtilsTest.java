@@ -2,19 +2,25 @@ package nodomain.freeyourgadget.gadgetbridge.test;
 
 import android.content.SharedPreferences;
 
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.util.LanguageUtils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
  * Tests LanguageUtils
  */
 public class LanguageUtilsTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(LanguageUtilsTest.class);
+
     @Test
     public void testStringTransliterateCyrillic() throws Exception {
         // input with cyrillic and diacritic letters
@@ -97,6 +103,41 @@ public class LanguageUtilsTest extends TestBase {
         assertTrue("Transliteration option fail! Expected 'On', but result is 'Off'", LanguageUtils.transliterate());
     }
 
+    @Test
+    public void testTransliterateUntouched() {
+        String ascii = "Meeting moved to 3pm, see you there!";
+        assertSame("ASCII text must be returned as is", ascii, LanguageUtils.transliterate(ascii));
+        assertEquals("Gruesse aus Koeln, bis Uebermorgen", LanguageUtils.transliterate("Grüße aus Köln, bis Übermorgen"));
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the transliteration time per message, run explicitly")
+    public void testTransliterateBenchmark() {
+        String[] messages = new String[]{
+                "Meeting moved to 3pm, see you there!",
+                "Прõсто текčт, встретимся завтра у метро",
+                "בדיקה עברית, נתראה מחר",
+                "نص حكيم له سر قاطع وذو شأن عظيم",
+                "অনিরুদ্ধ আমার সোনার বাংলা।",
+                "Καλημέρα, τα λέμε αύριο",
+                "Grüße aus Köln, bis Übermorgen",
+        };
+        // warm up
+        for (String message : messages) {
+            LanguageUtils.transliterate(message);
+        }
+
+        int rounds = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String message : messages) {
+                LanguageUtils.transliterate(message);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        LOG.info("Transliteration: " + (elapsed / (rounds * messages.length)) + "ns per message");
+    }
+
     private void setDefaultTransliteration() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
         SharedPreferences.Editor editor = settings.edit();
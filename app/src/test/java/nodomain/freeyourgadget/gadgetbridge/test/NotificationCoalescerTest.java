@@ -0,0 +1,80 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationCoalescer;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NotificationCoalescerTest extends TestBase {
+    private static final long WINDOW = 3000;
+
+    private final List<NotificationSpec> sent = new ArrayList<>();
+
+    private NotificationCoalescer createCoalescer() {
+        return new NotificationCoalescer(getContext(), new NotificationCoalescer.Target() {
+            @Override
+            public void onNotification(NotificationSpec notificationSpec) {
+                sent.add(notificationSpec);
+            }
+        });
+    }
+
+    private NotificationSpec createSpec(String app, String title, String body) {
+        NotificationSpec notificationSpec = new NotificationSpec();
+        notificationSpec.sourceAppId = app;
+        notificationSpec.title = title;
+        notificationSpec.body = body;
+        return notificationSpec;
+    }
+
+    @Test
+    public void testBurstIsMerged() {
+        NotificationCoalescer coalescer = createCoalescer();
+        NotificationSpec first = createSpec("chat", "Group", "one");
+        coalescer.post(first, WINDOW);
+        coalescer.post(createSpec("chat", "Group", "two"), WINDOW);
+        NotificationSpec last = createSpec("chat", "Group", "three");
+        coalescer.post(last, WINDOW);
+
+        // the first one goes out right away
+        assertEquals(1, sent.size());
+        assertSame(first, sent.get(0));
+
+        ShadowLooper.idleMainLooper(WINDOW);
+        assertEquals(2, sent.size());
+        assertSame(last, sent.get(1));
+        assertEquals("2 new messages\nthree", last.body);
+        assertEquals(1, coalescer.getSavedWrites());
+
+        // quiet window, nothing more to send
+        ShadowLooper.idleMainLooper(WINDOW);
+        assertEquals(2, sent.size());
+
+        // the conversation is closed now, so the next message goes out directly
+        coalescer.post(createSpec("chat", "Group", "four"), WINDOW);
+        assertEquals(3, sent.size());
+        assertEquals("four", sent.get(2).body);
+    }
+
+    @Test
+    public void testConversationsAreSeparate() {
+        NotificationCoalescer coalescer = createCoalescer();
+        coalescer.post(createSpec("chat", "Alice", "hi"), WINDOW);
+        coalescer.post(createSpec("chat", "Bob", "hi"), WINDOW);
+        coalescer.post(createSpec("mail", "Alice", "hi"), WINDOW);
+        assertEquals(3, sent.size());
+
+        coalescer.post(createSpec("chat", "Alice", "there"), WINDOW);
+        coalescer.flush();
+        assertEquals(4, sent.size());
+        assertEquals("there", sent.get(3).body);
+        assertEquals(0, coalescer.getSavedWrites());
+    }
+}
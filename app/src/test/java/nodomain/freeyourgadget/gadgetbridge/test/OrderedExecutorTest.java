@@ -0,0 +1,133 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.util.OrderedExecutor;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedExecutorTest extends TestBase {
+
+    @Test
+    public void testOrderPerLane() throws Exception {
+        OrderedExecutor executor = new OrderedExecutor("test", 2, 1000);
+        final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            executor.execute("first", new Runnable() {
+                @Override
+                public void run() {
+                    first.add(value);
+                    done.countDown();
+                }
+            });
+            executor.execute("second", new Runnable() {
+                @Override
+                public void run() {
+                    second.add(value);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) first.get(i));
+            assertEquals(i, (int) second.get(i));
+        }
+        assertEquals(0, executor.getDroppedCount());
+        executor.shutdown();
+    }
+
+    /**
+     * Blocks the lane until the returned latch is counted down.
+     */
+    private CountDownLatch blockLane(OrderedExecutor executor, String lane) throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(lane, new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private Runnable addTo(final List<String> ran, final String value, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(value);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testOldestDroppableIsDroppedWhenFull() throws Exception {
+        OrderedExecutor executor = new OrderedExecutor("test", 1, 2);
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(4);
+
+        CountDownLatch release = blockLane(executor, "lane");
+        executor.executeDroppable("lane", 1, addTo(ran, "post 1", done));
+        executor.execute("lane", addTo(ran, "delete 1", done));
+        executor.executeDroppable("lane", 2, addTo(ran, "post 2", done));
+        executor.executeDroppable("lane", 3, addTo(ran, "post 3", done));
+        executor.execute("lane", addTo(ran, "delete 3", done));
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.getDroppedCount());
+        assertEquals(Arrays.asList("delete 1", "post 2", "post 3", "delete 3"), ran);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testNewerTaskReplacesWaitingOne() throws Exception {
+        OrderedExecutor executor = new OrderedExecutor("test", 1, 64);
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+
+        CountDownLatch release = blockLane(executor, "lane");
+        executor.executeDroppable("lane", 1, addTo(ran, "post 1", done));
+        executor.executeDroppable("lane", 2, addTo(ran, "post 2", done));
+        executor.executeDroppable("lane", 1, addTo(ran, "update 1", done));
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.getDroppedCount());
+        assertEquals(Arrays.asList("post 2", "update 1"), ran);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testTimingHistogram() {
+        TimingHistogram histogram = new TimingHistogram("test");
+        for (int i = 0; i < 90; i++) {
+            histogram.record(500000); // 0.5ms
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000000); // 50ms
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMillis(50));
+        assertEquals(64, histogram.getPercentileMillis(95));
+    }
+}
@@ -0,0 +1,186 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventAppManagement;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventAppMessage;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventCallControl;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicControl;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSendBytes;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
+import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.PebbleProtocol;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes a corpus of hand-written Pebble frames, one for each kind of endpoint the dispatch
+ * table has to handle. The benchmark logs the throughput, so that protocol changes can be
+ * checked for regressions.
+ */
+public class PebbleProtocolTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleProtocolTest.class);
+
+    private static final URL FRAMES_1 = PebbleProtocolTest.class.getClassLoader().getResource("PebbleFramesDump1.txt");
+    private static final long MAX_FRAMES = 1024 * 1024;
+    private static final int BENCHMARK_ROUNDS = 2000;
+
+    @Test
+    public void testDecodeFrames() throws Exception {
+        List<byte[]> frames = readFrames(FRAMES_1);
+        assertEquals(14, frames.size());
+
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:01"));
+
+        GBDeviceEvent[] events = protocol.decodeResponse(frames.get(0));
+        assertTrue(events[0] instanceof GBDeviceEventVersionInfo);
+        assertEquals("v4.3", ((GBDeviceEventVersionInfo) events[0]).fwVersion);
+
+        events = protocol.decodeResponse(frames.get(1));
+        assertEquals(GBDeviceEventMusicControl.Event.NEXT, ((GBDeviceEventMusicControl) events[0]).event);
+
+        events = protocol.decodeResponse(frames.get(2));
+        assertEquals(GBDeviceEventMusicControl.Event.PLAYPAUSE, ((GBDeviceEventMusicControl) events[0]).event);
+
+        events = protocol.decodeResponse(frames.get(3));
+        assertEquals(GBDeviceEventCallControl.Event.END, ((GBDeviceEventCallControl) events[0]).event);
+
+        // ping, answered with a pong carrying the same cookie
+        events = protocol.decodeResponse(frames.get(4));
+        assertArrayEquals(new byte[]{0, 5, 0x07, (byte) 0xd1, 1, (byte) 0xde, (byte) 0xad, (byte) 0xbe, (byte) 0xef},
+                ((GBDeviceEventSendBytes) events[0]).encodedBytes);
+
+        // BlobDB status
+        assertNoEvent(protocol.decodeResponse(frames.get(5)));
+
+        events = protocol.decodeResponse(frames.get(6));
+        assertEquals(0x1234, ((GBDeviceEventAppManagement) events[0]).token);
+
+        events = protocol.decodeResponse(frames.get(7));
+        assertEquals(GBDeviceEventAppManagement.EventType.START, ((GBDeviceEventAppManagement) events[0]).type);
+
+        events = protocol.decodeResponse(frames.get(8));
+        GBDeviceEventAppMessage appMessage = (GBDeviceEventAppMessage) events[0];
+        assertEquals("[{\"key\":1,\"length\":4,\"type\":\"uint\",\"value\":21},"
+                + "{\"key\":2,\"length\":2,\"type\":\"int\",\"value\":-5},"
+                + "{\"key\":3,\"length\":5,\"type\":\"string\",\"value\":\"Sunny\"},"
+                + "{\"key\":4,\"length\":4,\"type\":\"bytes\",\"value\":\"AQIDBA==\"}]", appMessage.message);
+        assertArrayEquals(new int[]{1, 2, 3, 4}, appMessage.keys);
+        assertArrayEquals(new Object[]{21L, -5, "Sunny", "AQIDBA=="}, appMessage.values);
+
+        // ACK of a message we did not send, system message, app reorder status
+        assertNoEvent(protocol.decodeResponse(frames.get(9)));
+        assertNoEvent(protocol.decodeResponse(frames.get(10)));
+        assertNoEvent(protocol.decodeResponse(frames.get(11)));
+
+        // datalog session 5 is opened (ACK) and closed (NACK, as it is no PebbleKit session)
+        events = protocol.decodeResponse(frames.get(12));
+        assertEquals(1, events.length);
+        assertArrayEquals(new byte[]{0, 2, 0x1a, 0x7a, (byte) 0x85, 5}, ((GBDeviceEventSendBytes) events[0]).encodedBytes);
+        events = protocol.decodeResponse(frames.get(13));
+        assertEquals(1, events.length);
+        assertArrayEquals(new byte[]{0, 2, 0x1a, 0x7a, (byte) 0x86, 5}, ((GBDeviceEventSendBytes) events[0]).encodedBytes);
+
+        // unknown endpoint
+        assertNull(protocol.decodeResponse(new byte[]{0, 1, 0x13, 0x37, 0}));
+    }
+
+    private void assertNoEvent(GBDeviceEvent[] events) {
+        assertEquals(1, events.length);
+        assertNull(events[0]);
+    }
+
+    @Test
+    public void testBlobDBMirror() throws Exception {
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:02"));
+        CalendarEventSpec event = new CalendarEventSpec();
+        event.type = CalendarEventSpec.TYPE_UNKNOWN;
+        event.id = 42;
+        event.timestamp = 1546300800;
+        event.durationInSeconds = 3600;
+        event.title = "Meeting";
+        event.description = "Weekly";
+        event.location = "Office";
+
+        byte[] insert = protocol.encodeAddCalendarEvent(event);
+        assertNotNull(insert);
+        // in flight: not sent again
+        assertNull(protocol.encodeAddCalendarEvent(event));
+
+        // rejected by the watch: sent again
+        protocol.decodeResponse(encodeBlobDBStatus(insert, (byte) 2));
+        insert = protocol.encodeAddCalendarEvent(event);
+        assertNotNull(insert);
+        protocol.decodeResponse(encodeBlobDBStatus(insert, (byte) 1));
+        assertNull(protocol.encodeAddCalendarEvent(event));
+
+        // confirmed items survive a reconnect, changed ones are sent
+        protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:02"));
+        assertNull(protocol.encodeAddCalendarEvent(event));
+        event.title = "Moved meeting";
+        assertNotNull(protocol.encodeAddCalendarEvent(event));
+
+        // after a delete, the same item is inserted again
+        event.title = "Meeting";
+        byte[] delete = protocol.encodeDeleteCalendarEvent(event.type, event.id);
+        protocol.decodeResponse(encodeBlobDBStatus(delete, (byte) 1));
+        assertNotNull(protocol.encodeAddCalendarEvent(event));
+    }
+
+    private byte[] encodeBlobDBStatus(byte[] command, byte status) {
+        // frame header (4), command (1), token (2, little endian)
+        return new byte[]{0, 3, (byte) 0xb1, (byte) 0xdb, command[5], command[6], status};
+    }
+
+    @Test
+    @Ignore("Manual benchmark -- logs the decoding throughput, run explicitly")
+    public void testDecodeThroughput() throws Exception {
+        List<byte[]> frames = readFrames(FRAMES_1);
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:01"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            for (byte[] frame : frames) {
+                protocol.decodeResponse(frame);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        int decoded = BENCHMARK_ROUNDS * frames.size();
+        LOG.info("Decoded " + decoded + " frames in " + (elapsed / 1000000) + "ms (" + (elapsed / decoded) + "ns per frame)");
+    }
+
+    private List<byte[]> readFrames(URL hexFile) throws IOException {
+        assertNotNull(hexFile);
+        byte[] data;
+        try (InputStream in = new HexToBinaryInputStream(hexFile.openStream())) {
+            data = FileUtils.readAll(in, MAX_FRAMES);
+        }
+        List<byte[]> frames = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.remaining() >= 4) {
+            int start = buf.position();
+            int length = buf.getShort(start) & 0xffff;
+            int end = start + 4 + length;
+            frames.add(Arrays.copyOfRange(data, start, end));
+            buf.position(end);
+        }
+        return frames;
+    }
+}
@@ -2,7 +2,10 @@ package nodomain.freeyourgadget.gadgetbridge.test;
 
 import android.content.SharedPreferences;
 
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
@@ -16,6 +19,7 @@ import static org.junit.Assert.assertTrue;
  * Tests RtlUtils
  */
 public class RtlUtilsTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(RtlUtilsTest.class);
 
 //    @Test
     private Character hebrew1 = 'א';
@@ -321,6 +325,38 @@ public class RtlUtilsTest extends TestBase {
         assertEquals("fix rtl failed", expected, actual);
     }
 
+    @Test
+    @Ignore("Manual benchmark -- logs the time of fixRtl() on long Arabic and Hebrew text, run explicitly")
+    public void testFixRtlBenchmark() throws Exception {
+        enableContextual(true);
+        StringBuilder arabic = new StringBuilder();
+        StringBuilder hebrew = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            arabic.append("نص حكيم له سر قاطع وذو شأن عظيم مكتوب على ثوب أخضر ");
+            hebrew.append("משפט ארוך עם עברית and English וגם קצת סימנים כמו ?!$ (וגם ^.) ");
+        }
+        String arabicMessage = arabic.toString();
+        String hebrewMessage = hebrew.toString();
+        // warm up
+        RtlUtils.fixRtl(arabicMessage);
+        RtlUtils.fixRtl(hebrewMessage);
+
+        int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            RtlUtils.fixRtl(arabicMessage);
+        }
+        long arabicTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            RtlUtils.fixRtl(hebrewMessage);
+        }
+        long hebrewTime = System.nanoTime() - start;
+        LOG.info("fixRtl: " + arabicMessage.length() + " Arabic chars in " + (arabicTime / rounds / 1000) + "us, "
+                + hebrewMessage.length() + " Hebrew chars in " + (hebrewTime / rounds / 1000) + "us");
+        setDefaultContextual();
+    }
+
     @Test
     public void testRtlSupport() throws Exception {
         setDefaultRtl();
@@ -0,0 +1,74 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Creates and reads activity tracks for the exporter and parser tests.
+ */
+class TrackTestUtils {
+    static final long START_MILLIS = 1500000000000L;
+
+    private TrackTestUtils() {
+    }
+
+    /**
+     * Creates a track with a location every second and a heart rate every 5 seconds, like the
+     * Bip does. The point in the middle has a description.
+     */
+    static ActivityTrack createTrack(int seconds) {
+        return createTrack(seconds, 0, 0);
+    }
+
+    /**
+     * Same as createTrack(int), but without heart rate from heartRateGapStart (inclusive) to
+     * heartRateGapEnd (exclusive), both in seconds.
+     */
+    static ActivityTrack createTrack(int seconds, int heartRateGapStart, int heartRateGapEnd) {
+        ActivityTrack track = new ActivityTrack();
+        track.setName("6h run");
+        User user = new User(0L);
+        user.setName("Elvis");
+        track.setUser(user);
+        Device device = new Device(0L);
+        device.setName("SuperBand 2000");
+        track.setDevice(device);
+
+        track.setBaseTime(new Date(START_MILLIS));
+        for (int i = 0; i < seconds; i++) {
+            ActivityPoint point = new ActivityPoint(new Date(START_MILLIS + i * 1000L));
+            point.setLocation(new GPSCoordinate(13.4 + i * 0.0000123, 52.5 - i * 0.0000071, 34 + (i / 60) % 20));
+            if (i % 5 == 0 && (i < heartRateGapStart || i >= heartRateGapEnd)) {
+                point.setHeartRate(100 + i % 50);
+            }
+            if (i == seconds / 2) {
+                point.setDescription("pause");
+            }
+            track.addTrackPoint(point);
+        }
+        return track;
+    }
+
+    static String readString(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return new String(FileUtils.readAll(in, Long.MAX_VALUE), "UTF-8");
+        }
+    }
+
+    /**
+     * Returns the GPX without its metadata, which contains the time of the export.
+     */
+    static String withoutMetadata(String gpx) {
+        return gpx.substring(gpx.indexOf("</metadata>"));
+    }
+}